@@ -55,6 +55,10 @@ public abstract class Constants {
     // threading
     public static final int DEFAULT_SCHEDULED_THREAD_POOL_EXECUTOR_SIZE = 2;
 
+    // timer
+    public static final long DEFAULT_TIMER_TICK_DURATION = 100; // ms
+    public static final int DEFAULT_TIMER_TICKS_PER_WHEEL = 512;
+
     // admin parameters
     public static final String JSON_COMMAND_RESPONSE_ENTITY_PRETTY_PRINTING_QUERY_PARAMETER = "pretty";
     public static final int DEFAULT_COMMAND_RESPONSE_ENTITY_LENGTH = 1024;
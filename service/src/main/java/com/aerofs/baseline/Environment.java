@@ -23,7 +23,10 @@ import com.aerofs.baseline.admin.RegisteredHealthChecks;
 import com.aerofs.baseline.auth.Authenticator;
 import com.aerofs.baseline.auth.Authenticators;
 import com.aerofs.baseline.config.Configuration;
+import com.aerofs.baseline.http.WebSocketEndpoint;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
 import io.netty.util.Timer;
 import org.glassfish.hk2.api.ServiceHandle;
 import org.glassfish.hk2.api.ServiceLocator;
@@ -33,6 +36,7 @@ import org.glassfish.jersey.server.ResourceConfig;
 
 import javax.annotation.concurrent.NotThreadSafe;
 import javax.validation.Validator;
+import java.util.Map;
 import java.util.concurrent.ScheduledExecutorService;
 
 /**
@@ -46,6 +50,7 @@ import java.util.concurrent.ScheduledExecutorService;
  *     <li>Add authenticators for creating SecurityContext instances.</li>
  *     <li>Add JAX-RS providers.</li>
  *     <li>Add JAX-RS root resources.</li>
+ *     <li>Add WebSocket endpoints.</li>
  * </ul>
  * {@code Service} implementations should only call methods on
  * this object during {@link Service#init(Configuration, Environment)}
@@ -56,6 +61,7 @@ public final class Environment {
 
     private final ResourceConfig adminResourceConfig = new ResourceConfig();
     private final ResourceConfig serviceResourceConfig = new ResourceConfig();
+    private final Map<String, WebSocketEndpoint> webSocketEndpoints = Maps.newLinkedHashMap();
     private final ServiceLocator rootLocator;
     private final LifecycleManager lifecycleManager;
     private final Validator validator;
@@ -82,6 +88,10 @@ public final class Environment {
         return serviceResourceConfig;
     }
 
+    final Map<String, WebSocketEndpoint> getWebSocketEndpoints() {
+        return webSocketEndpoints;
+    }
+
     /**
      * Get the system-wide JSR-303 validator.
      *
@@ -257,4 +267,30 @@ public final class Environment {
     public void addResource(Class <?> resource) {
         serviceResourceConfig.register(resource);
     }
+
+    /**
+     * Add a WebSocket endpoint to the service server.
+     * <br>
+     * Requests to {@code path} that ask to be upgraded to a WebSocket
+     * are handed to {@code endpoint}. All other requests to
+     * {@code path} are routed to the JAX-RS root resources as usual.
+     * <br>
+     * Upgrade requests aren't processed by JAX-RS filters. Instead,
+     * the authenticators added with {@link #addAuthenticator(Authenticator)}
+     * are run against the handshake request before
+     * {@link WebSocketEndpoint#onOpen(com.aerofs.baseline.http.WebSocket)} is called, and the
+     * handshake's headers, query parameters and resulting security context
+     * are available from the {@link com.aerofs.baseline.http.WebSocket}. Endpoints that require
+     * an authenticated (or otherwise acceptable) client should check them
+     * in {@code onOpen} and return {@code false} to reject the socket.
+     *
+     * @param path absolute path (for example, "/events") to which clients connect
+     * @param endpoint handles the messages received by each connected socket
+     * @throws IllegalArgumentException if {@code path} isn't absolute or already has an endpoint
+     */
+    public void addWebSocketEndpoint(String path, WebSocketEndpoint endpoint) {
+        Preconditions.checkArgument(path.startsWith("/"), "websocket path %s not absolute", path);
+        Preconditions.checkArgument(!webSocketEndpoints.containsKey(path), "websocket endpoint already added for %s", path);
+        webSocketEndpoints.put(path, endpoint);
+    }
 }
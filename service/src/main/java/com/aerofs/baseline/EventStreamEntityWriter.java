@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline;
+
+import com.aerofs.baseline.http.EventStream;
+import com.aerofs.baseline.http.EventStreamWriter;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.spi.ContainerResponseWriter;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Implementation of a JAX-RS {@code MessageBodyWriter} that
+ * hands an {@link EventStream} over to the response writer,
+ * which then sends its events as they're published.
+ */
+@Singleton
+@ThreadSafe
+final class EventStreamEntityWriter implements MessageBodyWriter<EventStream> {
+
+    @Inject
+    private Provider<ContainerRequest> requestProvider;
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return EventStream.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(EventStream entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1; // ignored by jersey
+    }
+
+    @Override
+    public void writeTo(EventStream entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        ContainerResponseWriter responseWriter = requestProvider.get().getResponseWriter();
+
+        // there's no way to send an
+        // unbounded stream through jersey
+        if (!(responseWriter instanceof EventStreamWriter)) {
+            entity.close();
+            throw new IOException("event streams unsupported by " + responseWriter);
+        }
+
+        httpHeaders.putSingle(HttpHeaders.CONTENT_TYPE, EventStream.MEDIA_TYPE);
+        httpHeaders.putSingle(HttpHeaders.CACHE_CONTROL, "no-cache");
+
+        ((EventStreamWriter) responseWriter).writeEventStream(entity);
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline;
+
+import com.aerofs.baseline.http.EventStream;
+import com.aerofs.baseline.http.EventStreamWriter;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.spi.ContainerResponseWriter;
+
+import javax.annotation.Priority;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Singleton;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import java.io.IOException;
+
+/**
+ * Implementation of a Jersey {@code ContainerResponseFilter}
+ * that tells the response writer about an {@link EventStream}
+ * returned by a resource.
+ * <br>
+ * Response filters run in descending priority order, so
+ * this one sees the entity before any other filter can
+ * replace it. The response writer can then detach a stream
+ * that never reaches {@link EventStreamEntityWriter}.
+ */
+@ThreadSafe
+@Singleton
+@Priority(Integer.MAX_VALUE)
+final class EventStreamResponseFilter implements ContainerResponseFilter {
+
+    @Override
+    public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+        Object entity = responseContext.getEntity();
+        if (!(entity instanceof EventStream) || !(requestContext instanceof ContainerRequest)) {
+            return;
+        }
+
+        ContainerResponseWriter responseWriter = ((ContainerRequest) requestContext).getResponseWriter();
+        if (responseWriter instanceof EventStreamWriter) {
+            ((EventStreamWriter) responseWriter).returnEventStream((EventStream) entity);
+        }
+    }
+}
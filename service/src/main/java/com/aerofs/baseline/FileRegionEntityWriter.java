@@ -0,0 +1,152 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline;
+
+import com.aerofs.baseline.http.FileRegionEntity;
+import com.aerofs.baseline.http.FileRegionWriter;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.glassfish.jersey.server.spi.ContainerResponseWriter;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+
+/**
+ * Implementations of a JAX-RS {@code MessageBodyWriter} that
+ * send {@link File}, {@link Path} and {@link FileRegionEntity}
+ * response entities. There is one writer per entity type
+ * so that they're picked over jersey's own {@code File} writer.
+ * <br>
+ * If the response is written by baseline, the file region
+ * is handed to it and sent without being copied through
+ * the response entity stream. Otherwise (for example, if
+ * an interceptor encodes the entity) the file is copied
+ * into the entity stream.
+ */
+@ThreadSafe
+abstract class FileRegionEntityWriter<T> implements MessageBodyWriter<T> {
+
+    // media types match jersey's writer so that this one is preferred
+    @Singleton
+    @Produces({MediaType.APPLICATION_OCTET_STREAM, MediaType.WILDCARD})
+    static final class FileWriter extends FileRegionEntityWriter<File> {
+
+        FileWriter() {
+            super(File.class);
+        }
+
+        @Override
+        protected FileRegionEntity getFileRegion(File entity) throws IOException {
+            return FileRegionEntity.of(entity.toPath());
+        }
+    }
+
+    @Singleton
+    static final class PathWriter extends FileRegionEntityWriter<Path> {
+
+        PathWriter() {
+            super(Path.class);
+        }
+
+        @Override
+        protected FileRegionEntity getFileRegion(Path entity) throws IOException {
+            return FileRegionEntity.of(entity);
+        }
+    }
+
+    @Singleton
+    static final class RegionWriter extends FileRegionEntityWriter<FileRegionEntity> {
+
+        RegionWriter() {
+            super(FileRegionEntity.class);
+        }
+
+        @Override
+        protected FileRegionEntity getFileRegion(FileRegionEntity entity) {
+            return entity;
+        }
+    }
+
+    private final Class<T> entityType;
+
+    @Inject
+    private Provider<ContainerRequest> requestProvider;
+
+    private FileRegionEntityWriter(Class<T> entityType) {
+        this.entityType = entityType;
+    }
+
+    protected abstract FileRegionEntity getFileRegion(T entity) throws IOException;
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return entityType.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(T entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1; // ignored by jersey
+    }
+
+    @Override
+    public void writeTo(T entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        FileRegionEntity fileRegion = getFileRegion(entity);
+        ContainerResponseWriter responseWriter = requestProvider.get().getResponseWriter();
+
+        // an encoded entity has to go through the entity stream
+        if (responseWriter instanceof FileRegionWriter && !httpHeaders.containsKey(HttpHeaders.CONTENT_ENCODING)) {
+            ((FileRegionWriter) responseWriter).writeFileRegion(fileRegion);
+        } else {
+            try {
+                copy(fileRegion, entityStream);
+            } finally {
+                fileRegion.close();
+            }
+        }
+    }
+
+    private static void copy(FileRegionEntity fileRegion, OutputStream entityStream) throws IOException {
+        WritableByteChannel target = Channels.newChannel(entityStream);
+
+        long position = fileRegion.getPosition();
+        long remaining = fileRegion.getCount();
+        while (remaining > 0) {
+            long transferred = fileRegion.getChannel().transferTo(position, remaining, target);
+            if (transferred <= 0) {
+                throw new IOException("file truncated at " + position);
+            }
+
+            position += transferred;
+            remaining -= transferred;
+        }
+    }
+}
@@ -29,6 +29,7 @@ import javax.annotation.concurrent.ThreadSafe;
 import java.util.List;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 @ThreadSafe
 final class LifecycleManager {
@@ -99,11 +100,16 @@ final class LifecycleManager {
 
     private final List<ManagedWrapper> services = Lists.newArrayListWithCapacity(32);
     private final ScheduledThreadPoolExecutor scheduledExecutorService = new ScheduledThreadPoolExecutor(Constants.DEFAULT_SCHEDULED_THREAD_POOL_EXECUTOR_SIZE, Threads.newNamedThreadFactory("sched-thd-%d"));
-    private final Timer timer = new HashedWheelTimer();
+    private final Timer timer;
     private final ServiceLocator rootLocator;
 
     LifecycleManager(ServiceLocator rootLocator) {
+        this(rootLocator, new TimerConfiguration());
+    }
+
+    LifecycleManager(ServiceLocator rootLocator, TimerConfiguration timerConfiguration) {
         this.rootLocator = rootLocator;
+        this.timer = new HashedWheelTimer(Threads.newNamedThreadFactory("timer-thd-%d"), timerConfiguration.getTickDuration(), TimeUnit.MILLISECONDS, timerConfiguration.getTicksPerWheel());
 
         add(wrap(new Managed() {
             @Override
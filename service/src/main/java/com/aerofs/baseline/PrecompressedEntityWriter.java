@@ -0,0 +1,77 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline;
+
+import com.aerofs.baseline.http.AcceptEncoding;
+import com.aerofs.baseline.http.PrecompressedEntity;
+import org.glassfish.jersey.server.ContainerRequest;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Implementation of a JAX-RS {@code MessageBodyWriter} that
+ * sends the {@link PrecompressedEntity} variant the client
+ * prefers and sets {@code Content-Encoding} to match.
+ */
+@Singleton
+@ThreadSafe
+final class PrecompressedEntityWriter implements MessageBodyWriter<PrecompressedEntity> {
+
+    @Inject
+    private Provider<ContainerRequest> requestProvider;
+
+    @Override
+    public boolean isWriteable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return PrecompressedEntity.class.isAssignableFrom(type);
+    }
+
+    @Override
+    public long getSize(PrecompressedEntity entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return -1; // ignored by jersey
+    }
+
+    @Override
+    public void writeTo(PrecompressedEntity entity, Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, Object> httpHeaders, OutputStream entityStream) throws IOException {
+        if (!entity.getCodings().isEmpty()) {
+            httpHeaders.add(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        }
+
+        String coding = AcceptEncoding.select(requestProvider.get().getHeaderString(HttpHeaders.ACCEPT_ENCODING), entity.getCodings());
+
+        byte[] bytes;
+        if (coding == null) {
+            bytes = entity.getIdentity();
+        } else {
+            httpHeaders.putSingle(HttpHeaders.CONTENT_ENCODING, coding);
+            bytes = entity.getVariant(coding);
+        }
+
+        entityStream.write(bytes);
+    }
+}
@@ -28,6 +28,7 @@ import com.aerofs.baseline.config.Configuration;
 import com.aerofs.baseline.config.ConfigurationBinder;
 import com.aerofs.baseline.http.HttpConfiguration;
 import com.aerofs.baseline.http.HttpServer;
+import com.aerofs.baseline.http.LongPollTopics;
 import com.aerofs.baseline.json.JsonProcessingExceptionMapper;
 import com.aerofs.baseline.json.ValidatingJacksonJaxbJsonProvider;
 import com.aerofs.baseline.logging.Logging;
@@ -158,7 +159,7 @@ public abstract class Service<T extends Configuration> {
         ClassLoader classLoader = rootLocator.getClass().getClassLoader();
 
         // create the lifecycle manager
-        LifecycleManager lifecycleManager = new LifecycleManager(rootLocator);
+        LifecycleManager lifecycleManager = new LifecycleManager(rootLocator, configuration.getTimer());
         lifecycleManagerReference.set(lifecycleManager);
 
         // after this point any services
@@ -174,6 +175,7 @@ public abstract class Service<T extends Configuration> {
         Authenticators authenticators = new Authenticators();
         RegisteredCommands registeredCommands = new RegisteredCommands();
         RegisteredHealthChecks registeredHealthChecks = new RegisteredHealthChecks();
+        LongPollTopics longPollTopics = new LongPollTopics();
 
         // create the root environment
         Environment environment = new Environment(rootLocator, lifecycleManager, validator, mapper, authenticators, registeredCommands, registeredHealthChecks);
@@ -195,6 +197,7 @@ public abstract class Service<T extends Configuration> {
                 bind(authenticators).to(Authenticators.class);
                 bind(registeredCommands).to(RegisteredCommands.class);
                 bind(registeredHealthChecks).to(RegisteredHealthChecks.class);
+                bind(longPollTopics).to(LongPollTopics.class);
             }
         });
 
@@ -244,7 +247,7 @@ public abstract class Service<T extends Configuration> {
         if (configuration.getService().isEnabled()) {
             ApplicationHandler serviceHandler = new ApplicationHandler(environment.getServiceResourceConfig(), null, rootLocator);
             listInjected(serviceHandler.getServiceLocator());
-            HttpServer serviceHttpServer = new HttpServer(Constants.SERVICE_IDENTIFIER, configuration.getService(), lifecycleManager.getTimer(), serviceHandler);
+            HttpServer serviceHttpServer = new HttpServer(Constants.SERVICE_IDENTIFIER, configuration.getService(), lifecycleManager.getTimer(), serviceHandler, environment.getWebSocketEndpoints());
             lifecycleManager.add(serviceHttpServer);
         }
 
@@ -278,6 +281,13 @@ public abstract class Service<T extends Configuration> {
         // add other providers
         resourceConfig.register(new ChannelIdBinder());
         resourceConfig.register(new RequestIdBinder());
+        resourceConfig.register(StreamingEntityReader.class);
+        resourceConfig.register(FileRegionEntityWriter.FileWriter.class);
+        resourceConfig.register(FileRegionEntityWriter.PathWriter.class);
+        resourceConfig.register(FileRegionEntityWriter.RegionWriter.class);
+        resourceConfig.register(PrecompressedEntityWriter.class);
+        resourceConfig.register(EventStreamEntityWriter.class);
+        resourceConfig.register(EventStreamResponseFilter.class);
         resourceConfig.register(AuthenticationFilter.class);
         resourceConfig.register(RolesAllowedDynamicFeature.class);
         resourceConfig.register(new ValidatingJacksonJaxbJsonProvider(validator, mapper, JacksonJaxbJsonProvider.DEFAULT_ANNOTATIONS));
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline;
+
+import com.aerofs.baseline.http.StreamingEntity;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.glassfish.jersey.server.ContainerRequest;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.inject.Inject;
+import javax.inject.Provider;
+import javax.inject.Singleton;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.ext.MessageBodyReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+
+/**
+ * Implementation of a JAX-RS {@code MessageBodyReader} that
+ * supplies {@link StreamingEntity} entity parameters.
+ * <br>
+ * If the request entity stream is the one created by
+ * baseline, resources are handed the network buffers
+ * directly. Otherwise (for example, if a filter replaced the
+ * entity stream) the stream is read into heap buffers.
+ */
+@ThreadSafe
+@Singleton
+final class StreamingEntityReader implements MessageBodyReader<StreamingEntity> {
+
+    private static final int COPIED_CHUNK_SIZE = 8192;
+
+    @Inject
+    private Provider<ContainerRequest> requestProvider;
+
+    @Override
+    public boolean isReadable(Class<?> type, Type genericType, Annotation[] annotations, MediaType mediaType) {
+        return type == StreamingEntity.class;
+    }
+
+    @Override
+    public StreamingEntity readFrom(Class<StreamingEntity> type, Type genericType, Annotation[] annotations, MediaType mediaType, MultivaluedMap<String, String> httpHeaders, InputStream entityStream) throws IOException {
+        InputStream requestStream = requestProvider.get().getEntityStream();
+
+        if (requestStream instanceof StreamingEntity) {
+            return (StreamingEntity) requestStream;
+        } else {
+            return new CopyingStreamingEntity(entityStream);
+        }
+    }
+
+    private static final class CopyingStreamingEntity implements StreamingEntity {
+
+        private final InputStream entityStream;
+
+        private CopyingStreamingEntity(InputStream entityStream) {
+            this.entityStream = entityStream;
+        }
+
+        @Override
+        public @Nullable ByteBuf readChunk() throws IOException {
+            byte[] chunk = new byte[COPIED_CHUNK_SIZE];
+
+            int read = entityStream.read(chunk);
+            if (read == -1) {
+                return null;
+            }
+
+            return Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(chunk, 0, read));
+        }
+    }
+}
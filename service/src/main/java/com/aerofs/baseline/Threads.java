@@ -19,8 +19,14 @@ package com.aerofs.baseline;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
 
 import javax.annotation.concurrent.ThreadSafe;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
 import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Utility methods for creating and interacting with threads.
@@ -46,6 +52,108 @@ public abstract class Threads {
         return builder.setNameFormat(nameFormat).setUncaughtExceptionHandler(new DefaultUncaughtExceptionHandler()).setThreadFactory(Executors.defaultThreadFactory()).build();
     }
 
+    /**
+     * Create a new work-stealing {@link ForkJoinPool} with
+     * worker threads named according to {@code nameFormat}.
+     * <br>
+     * The pool runs submitted tasks in FIFO order.
+     *
+     * @param parallelism target number of concurrently-running worker threads
+     * @param nameFormat a {@link String#format(String, Object...)}-compatible
+     *                   format String, to which a unique, sequential integer (0, 1, etc.)
+     *                   will be supplied as the single parameter
+     * @return a valid {@code ForkJoinPool} whose worker threads are named as specified by {@code nameFormat}
+     */
+    public static ForkJoinPool newNamedForkJoinPool(int parallelism, String nameFormat) {
+        AtomicLong count = new AtomicLong(0);
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+            thread.setName(String.format(nameFormat, count.getAndIncrement()));
+            return thread;
+        };
+        return new ForkJoinPool(parallelism, factory, new DefaultUncaughtExceptionHandler(), true);
+    }
+
+    /**
+     * Return {@code true} if the running JVM supports virtual threads
+     * and {@link #newVirtualThreadPerTaskExecutor(String)} can be called.
+     */
+    public static boolean isVirtualThreadSupported() {
+        return VirtualThreads.OF_VIRTUAL != null;
+    }
+
+    /**
+     * Create a new {@link ExecutorService} that starts a
+     * new virtual thread for each submitted task.
+     * <br>
+     * Virtual threads are only available on JDK 21 and above,
+     * so this method is implemented reflectively to allow
+     * baseline to be built and run on earlier JDKs.
+     *
+     * @param namePrefix prefix to which a unique, sequential integer (0, 1, etc.)
+     *                   is appended to form the name of each virtual thread
+     * @return a valid {@code ExecutorService} that runs each task in its own virtual thread
+     * @throws UnsupportedOperationException if the running JVM does not support virtual threads
+     *
+     * @see #isVirtualThreadSupported()
+     */
+    public static ExecutorService newVirtualThreadPerTaskExecutor(String namePrefix) {
+        if (!isVirtualThreadSupported()) {
+            throw new UnsupportedOperationException("virtual threads not supported by jvm " + System.getProperty("java.version"));
+        }
+
+        try {
+            Object builder = VirtualThreads.OF_VIRTUAL.invoke(null);
+            builder = VirtualThreads.NAME.invoke(builder, namePrefix, 0L);
+            builder = VirtualThreads.UNCAUGHT_EXCEPTION_HANDLER.invoke(builder, new DefaultUncaughtExceptionHandler());
+            ThreadFactory factory = (ThreadFactory) VirtualThreads.FACTORY.invoke(builder);
+            return (ExecutorService) VirtualThreads.NEW_THREAD_PER_TASK_EXECUTOR.invoke(null, factory);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+            throw new UnsupportedOperationException("fail create virtual thread executor", e);
+        }
+    }
+
+    // reflective handles to the JDK 21+ virtual thread API
+    // all fields are null if the api is unavailable
+    private static final class VirtualThreads {
+
+        private static final Method OF_VIRTUAL;
+        private static final Method NAME;
+        private static final Method UNCAUGHT_EXCEPTION_HANDLER;
+        private static final Method FACTORY;
+        private static final Method NEW_THREAD_PER_TASK_EXECUTOR;
+
+        static {
+            Method ofVirtual = null;
+            Method name = null;
+            Method uncaughtExceptionHandler = null;
+            Method factory = null;
+            Method newThreadPerTaskExecutor = null;
+
+            try {
+                Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+
+                ofVirtual = Thread.class.getMethod("ofVirtual");
+                name = builderClass.getMethod("name", String.class, long.class);
+                uncaughtExceptionHandler = builderClass.getMethod("uncaughtExceptionHandler", Thread.UncaughtExceptionHandler.class);
+                factory = builderClass.getMethod("factory");
+                newThreadPerTaskExecutor = Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class);
+            } catch (ClassNotFoundException | NoSuchMethodException e) {
+                ofVirtual = null; // api unavailable on this jvm
+            }
+
+            OF_VIRTUAL = ofVirtual;
+            NAME = name;
+            UNCAUGHT_EXCEPTION_HANDLER = uncaughtExceptionHandler;
+            FACTORY = factory;
+            NEW_THREAD_PER_TASK_EXECUTOR = newThreadPerTaskExecutor;
+        }
+
+        private VirtualThreads() {
+            // to prevent instantiation by subclasses
+        }
+    }
+
     private Threads() {
         // to prevent instantiation by subclasses
     }
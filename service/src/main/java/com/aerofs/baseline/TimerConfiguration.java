@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline;
+
+import com.google.common.base.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.validation.constraints.Max;
+import javax.validation.constraints.Min;
+
+/**
+ * Configuration for the service-wide timer
+ * used for suspended-request timeouts.
+ * <br>
+ * A timeout fires at most one tick late, and each
+ * tick visits one slot of the wheel. Services holding
+ * many long timeouts at once may want a larger wheel,
+ * so that fewer timeouts share a slot.
+ */
+@SuppressWarnings("unused")
+@NotThreadSafe
+public final class TimerConfiguration {
+
+    @Min(1)
+    private long tickDuration = Constants.DEFAULT_TIMER_TICK_DURATION;
+
+    @Min(1)
+    @Max(1 << 30)
+    private int ticksPerWheel = Constants.DEFAULT_TIMER_TICKS_PER_WHEEL;
+
+    /**
+     * @return duration of a single tick in milliseconds
+     */
+    public long getTickDuration() {
+        return tickDuration;
+    }
+
+    public void setTickDuration(long tickDuration) {
+        this.tickDuration = tickDuration;
+    }
+
+    public int getTicksPerWheel() {
+        return ticksPerWheel;
+    }
+
+    public void setTicksPerWheel(int ticksPerWheel) {
+        this.ticksPerWheel = ticksPerWheel;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        TimerConfiguration other = (TimerConfiguration) o;
+        return tickDuration == other.tickDuration && ticksPerWheel == other.ticksPerWheel;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(tickDuration, ticksPerWheel);
+    }
+
+    @Override
+    public String toString() {
+        return Objects
+                .toStringHelper(this)
+                .add("tickDuration", tickDuration)
+                .add("ticksPerWheel", ticksPerWheel)
+                .toString();
+    }
+}
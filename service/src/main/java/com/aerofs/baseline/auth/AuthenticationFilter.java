@@ -72,19 +72,10 @@ public final class AuthenticationFilter implements ContainerRequestFilter {
 
         if (needsAuth(securityContext)) {
             try {
-                authenticators.visit(locator, authenticator -> {
-                    AuthenticationResult result = authenticator.authenticate(requestContext.getHeaders());
-
-                    if (result.getStatus() == AuthenticationResult.Status.UNSUPPORTED) {
-                        return true;
-                    } else {
-                        if (result.getStatus() == AuthenticationResult.Status.SUCCEEDED) {
-                            requestContext.setSecurityContext(result.getSecurityContext()); // override default unauthenticated context
-                        }
-
-                        return false;
-                    }
-                });
+                SecurityContext authenticated = authenticators.authenticate(locator, requestContext.getHeaders());
+                if (authenticated != null) {
+                    requestContext.setSecurityContext(authenticated); // override default unauthenticated context
+                }
             } catch (AuthenticationException e) {
                 logError(requestContext, e);
                 throw e;
@@ -95,7 +86,11 @@ public final class AuthenticationFilter implements ContainerRequestFilter {
         }
     }
 
-    private static boolean needsAuth(@Nullable SecurityContext securityContext) {
+    /**
+     * @return {@code true} if the registered {@link com.aerofs.baseline.auth.Authenticator}
+     * instances should be consulted for a request with {@code securityContext}
+     */
+    public static boolean needsAuth(@Nullable SecurityContext securityContext) {
         return securityContext instanceof UnauthenticatedSecurityContext || securityContext == null || securityContext.getUserPrincipal() == null;
     }
 
@@ -21,8 +21,11 @@ import com.google.common.collect.Lists;
 import org.glassfish.hk2.api.ServiceHandle;
 import org.glassfish.hk2.api.ServiceLocator;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import javax.inject.Singleton;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.SecurityContext;
 import java.util.List;
 
 /**
@@ -147,6 +150,42 @@ public final class Authenticators {
         authenticators.add(new AuthenticatorInjected(authenticator));
     }
 
+    /**
+     * @return {@code true} if no {@code Authenticator} was added
+     */
+    public boolean isEmpty() {
+        return authenticators.isEmpty();
+    }
+
+    /**
+     * Authenticate a request with the first registered
+     * {@code Authenticator} that supports its credentials.
+     *
+     * @param locator {@code ServiceLocator} instance used to create/locate any {@link Authenticator} implementation classes
+     * @param headers HTTP request headers
+     * @return {@code SecurityContext} of the authenticated request, or {@code null} if no {@code Authenticator} could authenticate it
+     * @throws Exception if an {@code Authenticator} fails (for example, with an {@link AuthenticationException})
+     */
+    public @Nullable SecurityContext authenticate(ServiceLocator locator, MultivaluedMap<String, String> headers) throws Exception {
+        SecurityContext[] authenticated = new SecurityContext[1];
+
+        visit(locator, authenticator -> {
+            AuthenticationResult result = authenticator.authenticate(headers);
+
+            if (result.getStatus() == AuthenticationResult.Status.UNSUPPORTED) {
+                return true;
+            } else {
+                if (result.getStatus() == AuthenticationResult.Status.SUCCEEDED) {
+                    authenticated[0] = result.getSecurityContext();
+                }
+
+                return false;
+            }
+        });
+
+        return authenticated[0];
+    }
+
     /**
      * Iterate over the {@code Authenticator} instances
      * registered with this container.
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.auth;
+
+import com.google.common.collect.ImmutableList;
+
+import javax.annotation.concurrent.Immutable;
+import javax.ws.rs.core.SecurityContext;
+import java.security.Principal;
+import java.security.cert.X509Certificate;
+import java.util.List;
+
+/**
+ * Specialization of {@link SecurityContext} that
+ * represents a connection secured with TLS.
+ * <br>
+ * If the client presented a certificate that the server
+ * verified, the request is authenticated as the certificate's
+ * subject and {@link com.aerofs.baseline.auth.AuthenticationFilter}
+ * does not consult the {@link com.aerofs.baseline.auth.Authenticator} instances.
+ * Otherwise the request is unauthenticated, and may still be
+ * authenticated using the request headers.
+ */
+@Immutable
+public final class TlsSecurityContext implements SecurityContext {
+
+    private final ImmutableList<X509Certificate> peerCertificates;
+
+    /**
+     * Constructor.
+     *
+     * @param peerCertificates verified client certificate chain, starting with the client's own certificate, or an empty list if the client did not present one
+     */
+    public TlsSecurityContext(List<X509Certificate> peerCertificates) {
+        this.peerCertificates = ImmutableList.copyOf(peerCertificates);
+    }
+
+    /**
+     * Get the verified client certificate chain.
+     *
+     * @return client certificate chain, starting with the client's own certificate, or an empty list if the client did not present one
+     */
+    public List<X509Certificate> getPeerCertificates() {
+        return peerCertificates;
+    }
+
+    @Override
+    public Principal getUserPrincipal() {
+        return peerCertificates.isEmpty() ? null : peerCertificates.get(0).getSubjectX500Principal();
+    }
+
+    @Override
+    public boolean isUserInRole(String role) {
+        return false; // certificates carry no roles
+    }
+
+    @Override
+    public boolean isSecure() {
+        return true;
+    }
+
+    @Override
+    public String getAuthenticationScheme() {
+        return peerCertificates.isEmpty() ? null : SecurityContext.CLIENT_CERT_AUTH;
+    }
+}
@@ -16,6 +16,7 @@
 
 package com.aerofs.baseline.config;
 
+import com.aerofs.baseline.TimerConfiguration;
 import com.aerofs.baseline.http.HttpConfiguration;
 import com.aerofs.baseline.logging.LoggingConfiguration;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -45,6 +46,7 @@ import java.util.Set;
  *     <li>app</li>
  *     <li>admin</li>
  *     <li>logging</li>
+ *     <li>timer</li>
  * </ul>
  */
 @SuppressWarnings("unused")
@@ -113,6 +115,10 @@ public abstract class Configuration {
     @Valid
     private LoggingConfiguration logging = new LoggingConfiguration();
 
+    @NotNull
+    @Valid
+    private TimerConfiguration timer = new TimerConfiguration();
+
     public HttpConfiguration getAdmin() {
         return admin;
     }
@@ -137,18 +143,26 @@ public abstract class Configuration {
         this.logging = logging;
     }
 
+    public TimerConfiguration getTimer() {
+        return timer;
+    }
+
+    public void setTimer(TimerConfiguration timer) {
+        this.timer = timer;
+    }
+
     @Override
     public boolean equals(@Nullable Object o) {
         if (this == o) return true;
         if (o == null || !Configuration.class.isAssignableFrom(o.getClass())) return false;
 
         Configuration other = (Configuration) o;
-        return Objects.equal(admin, other.admin) && Objects.equal(service, other.service) && Objects.equal(logging, other.logging);
+        return Objects.equal(admin, other.admin) && Objects.equal(service, other.service) && Objects.equal(logging, other.logging) && Objects.equal(timer, other.timer);
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(admin, service, logging);
+        return Objects.hashCode(admin, service, logging, timer);
     }
 
     @Override
@@ -158,6 +172,7 @@ public abstract class Configuration {
                 .add("admin", admin)
                 .add("service", service)
                 .add("logging", logging)
+                .add("timer", timer)
                 .toString();
     }
 }
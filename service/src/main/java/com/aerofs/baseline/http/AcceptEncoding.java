@@ -0,0 +1,108 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.base.Splitter;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Locale;
+
+/**
+ * Picks the content coding for a response entity
+ * from a request's {@code Accept-Encoding} header (RFC 7231).
+ */
+@ThreadSafe
+public abstract class AcceptEncoding {
+
+    private static final Splitter COMMA_SPLITTER = Splitter.on(',').trimResults().omitEmptyStrings();
+    private static final Splitter SEMICOLON_SPLITTER = Splitter.on(';').trimResults().omitEmptyStrings();
+
+    /**
+     * Select one of {@code codings} using the client's preferences.
+     * <br>
+     * The coding with the highest non-zero quality value wins.
+     * Ties are broken by the order of {@code codings}. A wildcard
+     * ({@code *}) applies to codings that are not listed explicitly.
+     *
+     * @param acceptEncoding value of the request's {@code Accept-Encoding} header, or null if absent
+     * @param codings content codings available for the response, in order of preference
+     * @return the selected coding, or null if none of the codings are acceptable
+     */
+    public static @Nullable String select(@Nullable String acceptEncoding, Iterable<String> codings) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        String selected = null;
+        float selectedQuality = 0;
+
+        for (String coding : codings) {
+            float quality = getQuality(acceptEncoding, coding);
+            if (quality > selectedQuality) {
+                selected = coding;
+                selectedQuality = quality;
+            }
+        }
+
+        return selected;
+    }
+
+    // 0 if the coding is not acceptable
+    private static float getQuality(String acceptEncoding, String coding) {
+        float wildcardQuality = 0;
+
+        for (String element : COMMA_SPLITTER.split(acceptEncoding)) {
+            String name = element;
+            float quality = 1;
+
+            int parametersStart = element.indexOf(';');
+            if (parametersStart != -1) {
+                name = element.substring(0, parametersStart).trim();
+                quality = parseQuality(element.substring(parametersStart + 1));
+            }
+
+            if (name.equalsIgnoreCase(coding)) {
+                return quality;
+            } else if (name.equals("*")) {
+                wildcardQuality = quality;
+            }
+        }
+
+        return wildcardQuality;
+    }
+
+    private static float parseQuality(String parameters) {
+        for (String parameter : SEMICOLON_SPLITTER.split(parameters)) {
+            if (parameter.toLowerCase(Locale.ENGLISH).startsWith("q=")) {
+                try {
+                    float quality = Float.parseFloat(parameter.substring(2).trim());
+                    return quality >= 0 && quality <= 1 ? quality : 0;
+                } catch (NumberFormatException e) {
+                    return 0;
+                }
+            }
+        }
+
+        return 1;
+    }
+
+    private AcceptEncoding() {
+        // to prevent instantiation by subclasses
+    }
+}
@@ -17,18 +17,22 @@
 package com.aerofs.baseline.http;
 
 import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Counter;
 import com.codahale.metrics.Timer;
 import io.netty.channel.ChannelInitializer;
 import io.netty.channel.socket.SocketChannel;
 import io.netty.handler.codec.http.HttpServerCodec;
+import io.netty.handler.stream.ChunkedWriteHandler;
 import io.netty.util.concurrent.Future;
 import io.netty.util.concurrent.GenericFutureListener;
 import org.glassfish.jersey.server.ApplicationHandler;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.net.URI;
+import java.util.Map;
 import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
@@ -44,19 +48,40 @@ final class AcceptedChannelInitializer extends ChannelInitializer<SocketChannel>
     private static final Timer CHANNEL_LIFETIME_TIMER = MetricRegistries.getRegistry().timer(MetricRegistries.name("http", "connection"));
 
     private final FinalInboundHandler finalInboundHandler = new FinalInboundHandler();
-    private final RequestHeaderAssigner requestHeaderAssigner = new RequestHeaderAssigner();
+    private final RequestHeaderAssigner requestHeaderAssigner;
     private final HttpConfiguration http;
     private final ApplicationHandler applicationHandler;
     private final URI baseUri;
-    private final Executor applicationExecutor;
-    private final io.netty.util.Timer timer;
+    private final RequestUriCache requestUriCache;
+    private final InlineExecutor inlineExecutor;
+    private final ResponseBufferSizer responseBufferSizer;
+    private final ResponseCompressor responseCompressor;
+    private final RequestDecompressor requestDecompressor;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final RequestQueue requestQueue;
+    private final @Nullable TlsContext tlsContext;
+    private final SuspendTimer suspendTimer;
+    private final WebSocketUpgradeHandler webSocketUpgradeHandler;
+    private final Counter queuedReadsCounter;
+    private final Counter queuedReadBytesCounter;
 
-    public AcceptedChannelInitializer(HttpConfiguration http, ApplicationHandler applicationHandler, URI baseUri, Executor applicationExecutor, io.netty.util.Timer timer) {
+    public AcceptedChannelInitializer(String serverIdentifier, HttpConfiguration http, ApplicationHandler applicationHandler, URI baseUri, ConcurrencyLimiter concurrencyLimiter, RequestQueue requestQueue, @Nullable TlsContext tlsContext, io.netty.util.Timer timer, Map<String, WebSocketEndpoint> webSocketEndpoints, Executor webSocketExecutor) {
+        this.queuedReadsCounter = MetricRegistries.getRegistry().counter(MetricRegistries.name("http", serverIdentifier, "queued-reads"));
+        this.queuedReadBytesCounter = MetricRegistries.getRegistry().counter(MetricRegistries.name("http", serverIdentifier, "queued-read-bytes"));
+        this.requestHeaderAssigner = new RequestHeaderAssigner(http.getRequestIdFormat());
         this.http = http;
         this.applicationHandler = applicationHandler;
         this.baseUri = baseUri;
-        this.applicationExecutor = applicationExecutor;
-        this.timer = timer;
+        this.requestUriCache = new RequestUriCache(serverIdentifier, new RoutePriorities(http.getRoutePriorities()), EntityReadWindow.newRouteMap(http), http.isInlineExecution() ? NonBlockingRoutes.newNonBlockingRoutes(serverIdentifier, applicationHandler, http.getUriCacheSize()) : NonBlockingRoutes.NONE, http.getUriCacheSize());
+        this.inlineExecutor = new InlineExecutor(serverIdentifier, http.getInlineExecutionWarnThreshold());
+        this.responseBufferSizer = new ResponseBufferSizer(http.getResponseBufferSize(), http.getMaxBufferedResponseBytes(), http.isAdaptiveResponseBufferSize());
+        this.responseCompressor = new ResponseCompressor(http.isResponseCompression(), http.getCompressionLevel(), http.getMinCompressibleSize(), http.getCompressibleContentTypes(), http.getMaxPooledDeflaters());
+        this.requestDecompressor = new RequestDecompressor(http.isRequestDecompression(), http.getMaxDecompressedEntitySize(), http.getMaxDecompressionRatio(), http.getMaxPooledInflaters());
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.requestQueue = requestQueue;
+        this.tlsContext = tlsContext;
+        this.suspendTimer = new SuspendTimer(serverIdentifier, timer);
+        this.webSocketUpgradeHandler = new WebSocketUpgradeHandler(serverIdentifier, http, applicationHandler, webSocketEndpoints, webSocketExecutor, tlsContext != null);
     }
 
     @Override
@@ -74,13 +99,34 @@ final class AcceptedChannelInitializer extends ChannelInitializer<SocketChannel>
             }
         });
 
+        // terminate tls before anything else sees the bytes
+        if (tlsContext != null) {
+            channel.pipeline().addLast(tlsContext.newHandler(channel.alloc()), tlsContext.newHandshakeHandler());
+        }
+
         // create the channel pipeline
         channel.pipeline().addLast(
                 new IdleTimeoutHandler(0, 0, (int) http.getIdleTimeout(), TimeUnit.MILLISECONDS),
-                new HttpServerCodec(HTTP_MAX_INITIAL_LINE_LENGTH, HTTP_MAX_HEADER_SIZE, HTTP_MAX_CHUNK_SIZE, false),
+                new HttpServerCodec(HTTP_MAX_INITIAL_LINE_LENGTH, HTTP_MAX_HEADER_SIZE, HTTP_MAX_CHUNK_SIZE, false));
+
+        // file regions can't be sent as-is over tls, so
+        // they're read in chunks that pass through the codec
+        if (tlsContext != null) {
+            channel.pipeline().addLast(new ChunkedWriteHandler());
+        }
+
+        channel.pipeline().addLast(
                 requestHeaderAssigner,
-                new BufferingHttpObjectHandler(),
-                new HttpRequestHandler(applicationHandler, baseUri, applicationExecutor, timer),
+                new BufferingHttpObjectHandler(http.isReadAhead(), http.getMaxQueuedReads(), http.getMaxQueuedReadBytes(), queuedReadsCounter, queuedReadBytesCounter));
+
+        // replaces the http handlers with
+        // websocket ones on a successful upgrade
+        if (webSocketUpgradeHandler.hasEndpoints()) {
+            channel.pipeline().addLast(webSocketUpgradeHandler);
+        }
+
+        channel.pipeline().addLast(
+                new HttpRequestHandler(applicationHandler, baseUri, requestUriCache, responseBufferSizer, responseCompressor, requestDecompressor, concurrencyLimiter, requestQueue, suspendTimer, http.getMaxConcurrentPipelinedRequests(), inlineExecutor),
                 finalInboundHandler
                 );
     }
@@ -16,50 +16,119 @@
 
 package com.aerofs.baseline.http;
 
-import com.google.common.collect.Lists;
+import com.codahale.metrics.Counter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
 import io.netty.channel.ChannelDuplexHandler;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.util.ReferenceCountUtil;
 
 import javax.annotation.concurrent.NotThreadSafe;
-import java.util.ArrayList;
+import java.util.ArrayDeque;
 
+/**
+ * Queues decoded http objects and passes them on one
+ * at a time, whenever a later handler calls {@code read()}.
+ * <br>
+ * By default the socket is only read when a later handler
+ * is waiting for an object and none are queued, so the queue
+ * only ever holds the objects decoded from a single socket read.
+ * This leaves later handlers in charge of backpressure: once
+ * they stop calling {@code read()}, the socket isn't read either.
+ * <br>
+ * If read-ahead is enabled socket reads also continue in the
+ * background until either {@code maxQueuedReads} objects or
+ * {@code maxQueuedReadBytes} content bytes are queued. At that
+ * point reads are paused until later handlers consume some of
+ * the queued objects. Since a single socket read can decode into
+ * multiple objects these limits may be exceeded by, at most,
+ * one read's worth of data.
+ */
 @NotThreadSafe
 final class BufferingHttpObjectHandler extends ChannelDuplexHandler {
 
-    private final ArrayList<Object> queuedReads = Lists.newArrayListWithCapacity(10); // FIXME (AG): UNBOUNDED!
+    private final ArrayDeque<Object> queuedReads = new ArrayDeque<>();
+    private final boolean readAhead;
+    private final int maxQueuedReads;
+    private final long maxQueuedReadBytes;
+    private final Counter queuedReadsCounter;
+    private final Counter queuedReadBytesCounter;
 
+    private long queuedReadBytes;
     private boolean currentReadComplete = true;
     private boolean waiting;
 
+    BufferingHttpObjectHandler(boolean readAhead, int maxQueuedReads, long maxQueuedReadBytes, Counter queuedReadsCounter, Counter queuedReadBytesCounter) {
+        this.readAhead = readAhead;
+        this.maxQueuedReads = maxQueuedReads;
+        this.maxQueuedReadBytes = maxQueuedReadBytes;
+        this.queuedReadsCounter = queuedReadsCounter;
+        this.queuedReadBytesCounter = queuedReadBytesCounter;
+    }
+
     @Override
     public void read(ChannelHandlerContext ctx) throws Exception {
         if (hasQueued()) {
-            super.channelRead(ctx, queuedReads.remove(0));
+            forwardQueued(ctx);
         } else {
             waiting = true;
-
-            if (currentReadComplete) {
-                readAgain(ctx);
-            }
         }
+
+        readIfRequired(ctx);
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        long bytes = getReadableBytes(msg);
+
         queuedReads.add(msg);
+        queuedReadBytes += bytes;
+
+        queuedReadsCounter.inc();
+        queuedReadBytesCounter.inc(bytes);
     }
 
     @Override
     public void channelReadComplete(ChannelHandlerContext ctx) throws Exception {
         currentReadComplete = true;
 
-        if (waiting) {
-            if (hasQueued()) {
-                waiting = false;
-                super.channelRead(ctx, queuedReads.remove(0));
-            } else {
-                readAgain(ctx);
-            }
+        if (waiting && hasQueued()) {
+            waiting = false;
+            forwardQueued(ctx);
+        }
+
+        readIfRequired(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        releaseQueued();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception {
+        releaseQueued();
+        super.handlerRemoved(ctx);
+    }
+
+    // called from within the event loop
+    // reads the socket even though no later handler is
+    // waiting for an object (within the queueing limits)
+    // so that a connection whose request is parked notices
+    // when the client goes away
+    static void watchForClose(ChannelPipeline pipeline) {
+        ChannelHandlerContext ctx = pipeline.context(BufferingHttpObjectHandler.class);
+        if (ctx != null) {
+            ((BufferingHttpObjectHandler) ctx.handler()).readIfCapacity(ctx);
+        }
+    }
+
+    private void readIfCapacity(ChannelHandlerContext ctx) {
+        if (currentReadComplete && hasCapacity()) {
+            currentReadComplete = false;
+            ctx.read();
         }
     }
 
@@ -67,8 +136,50 @@ final class BufferingHttpObjectHandler extends ChannelDuplexHandler {
         return !queuedReads.isEmpty();
     }
 
-    private void readAgain(ChannelHandlerContext ctx) throws Exception {
-        currentReadComplete = false;
-        super.read(ctx);
+    private boolean hasCapacity() {
+        return queuedReads.size() < maxQueuedReads && queuedReadBytes < maxQueuedReadBytes;
+    }
+
+    private void forwardQueued(ChannelHandlerContext ctx) throws Exception {
+        Object msg = queuedReads.poll();
+        long bytes = getReadableBytes(msg);
+
+        queuedReadBytes -= bytes;
+
+        queuedReadsCounter.dec();
+        queuedReadBytesCounter.dec(bytes);
+
+        super.channelRead(ctx, msg);
+    }
+
+    // we have to read if a later handler is waiting
+    // for an object, and we may read ahead if that's
+    // enabled and we haven't hit our queueing limits
+    private void readIfRequired(ChannelHandlerContext ctx) throws Exception {
+        if (currentReadComplete && (waiting || (readAhead && hasCapacity()))) {
+            currentReadComplete = false;
+            super.read(ctx);
+        }
+    }
+
+    private void releaseQueued() {
+        Object msg;
+        while ((msg = queuedReads.poll()) != null) {
+            queuedReadsCounter.dec();
+            queuedReadBytesCounter.dec(getReadableBytes(msg));
+            ReferenceCountUtil.release(msg);
+        }
+
+        queuedReadBytes = 0;
+    }
+
+    private static long getReadableBytes(Object msg) {
+        if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        } else if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        } else {
+            return 0;
+        }
     }
 }
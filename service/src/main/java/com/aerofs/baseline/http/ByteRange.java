@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Single byte range requested via an HTTP {@code Range} header (RFC 7233).
+ * <br>
+ * Only single ranges are supported. A request for multiple
+ * ranges is treated as a request for the entire entity,
+ * which RFC 7233 explicitly allows.
+ */
+@Immutable
+final class ByteRange {
+
+    static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1);
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private final long first;
+    private final long last;
+
+    private ByteRange(long first, long last) {
+        this.first = first;
+        this.last = last;
+    }
+
+    /**
+     * Parse a {@code Range} header for an entity of {@code length} bytes.
+     *
+     * @return the requested range, {@link #UNSATISFIABLE} if the range
+     * does not overlap the entity, or null if the entire entity should
+     * be sent (i.e. there is no range, or it's invalid or unsupported)
+     */
+    static @Nullable ByteRange parse(@Nullable String header, long length) {
+        if (header == null || !header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        if (spec.indexOf(',') != -1) {
+            return null;
+        }
+
+        int dash = spec.indexOf('-');
+        if (dash == -1) {
+            return null;
+        }
+
+        try {
+            String firstPos = spec.substring(0, dash).trim();
+            String lastPos = spec.substring(dash + 1).trim();
+
+            // suffix range: the last n bytes
+            if (firstPos.isEmpty()) {
+                long suffixLength = parsePosition(lastPos);
+                if (suffixLength == 0 || length == 0) {
+                    return UNSATISFIABLE;
+                }
+
+                return new ByteRange(Math.max(0, length - suffixLength), length - 1);
+            }
+
+            long first = parsePosition(firstPos);
+            long last = lastPos.isEmpty() ? Long.MAX_VALUE : parsePosition(lastPos);
+            if (last < first) {
+                return null;
+            }
+
+            if (first >= length) {
+                return UNSATISFIABLE;
+            }
+
+            return new ByteRange(first, Math.min(last, length - 1));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private static long parsePosition(String position) {
+        long parsed = Long.parseLong(position);
+        if (parsed < 0 || position.charAt(0) == '+') {
+            throw new NumberFormatException("invalid position " + position);
+        }
+        return parsed;
+    }
+
+    boolean isSatisfiable() {
+        return this != UNSATISFIABLE;
+    }
+
+    long getFirst() {
+        return first;
+    }
+
+    long getLast() {
+        return last;
+    }
+
+    long getLength() {
+        return last - first + 1;
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Whether TLS clients are asked for a certificate.
+ */
+@Immutable
+public enum ClientAuthentication {
+
+    /** Clients are not asked for a certificate. */
+    NONE,
+
+    /** Clients are asked for a certificate, but may connect without one. */
+    OPTIONAL,
+
+    /** Clients must present a trusted certificate to connect. */
+    REQUIRE,
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Response entity stream that compresses bytes
+ * before passing them on to an {@link EntityOutputStream}.
+ * <br>
+ * The {@link Deflater} is borrowed from a {@link DeflaterPool}
+ * and returned when the stream is closed. Flushing this stream
+ * performs a zlib sync flush, so that everything written so far
+ * can be decompressed by the client as soon as it arrives.
+ */
+@ThreadSafe
+final class CompressedEntityOutputStream extends ContentOutputStream {
+
+    // RFC 1952: magic, CM (deflate), FLG, MTIME (4), XFL, OS (unknown)
+    private static final byte[] GZIP_HEADER = {0x1f, (byte) 0x8b, Deflater.DEFLATED, 0, 0, 0, 0, 0, 0, (byte) 0xff};
+    private static final int GZIP_TRAILER_SIZE = 8;
+
+    private final ContentOutputStream delegate;
+    private final ContentEncoding encoding;
+    private final DeflaterPool deflaterPool;
+    private final byte[] compressed = new byte[com.aerofs.baseline.http.Constants.DEFLATE_BUFFER_SIZE];
+    private final byte[] single = new byte[1];
+    private final CRC32 crc = new CRC32();
+
+    @Nullable
+    private Deflater deflater;
+
+    private boolean failed = false;
+    private boolean closed = false;
+    private boolean headerWritten = false;
+    private boolean unflushed = false;
+
+    CompressedEntityOutputStream(ContentOutputStream delegate, ContentEncoding encoding, DeflaterPool deflaterPool) {
+        this.delegate = delegate;
+        this.encoding = encoding;
+        this.deflaterPool = deflaterPool;
+        this.deflater = deflaterPool.acquire();
+    }
+
+    @Override
+    synchronized void markError() {
+        failed = true;
+        delegate.markError();
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        single[0] = (byte) b;
+        write(single, 0, 1);
+    }
+
+    @Override
+    public synchronized void write(@Nullable byte b[], int off, int len) throws IOException {
+        if (b == null) {
+            throw new NullPointerException();
+        } else if ((off < 0) || (off > b.length) || (len < 0) || ((off + len) > b.length) || ((off + len) < 0)) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return;
+        }
+
+        throwIfClosed();
+        writeHeaderIfRequired();
+
+        if (encoding.isGzip()) {
+            crc.update(b, off, len);
+        }
+
+        deflater.setInput(b, off, len); // deflater is guaranteed not to be null here
+        while (!deflater.needsInput()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+
+        unflushed = true;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        throwIfClosed();
+
+        if (unflushed) {
+            unflushed = false;
+
+            // keep going until the deflater has
+            // room to spare, which means that
+            // it has no more pending output
+            int numCompressed;
+            do {
+                numCompressed = deflate(Deflater.SYNC_FLUSH);
+            } while (numCompressed == compressed.length);
+        }
+
+        delegate.flush();
+    }
+
+    // assume that close is *always* called,
+    // regardless of whether this stream is in
+    // a good state
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+
+        try {
+            if (!failed) {
+                finish();
+            }
+        } finally {
+            Deflater finished = deflater;
+            deflater = null;
+
+            if (finished != null) {
+                deflaterPool.release(finished);
+            }
+
+            delegate.close();
+        }
+    }
+
+    private void finish() throws IOException {
+        // nothing was written, so there's no entity
+        // to terminate (for example, the response to
+        // a HEAD request)
+        if (!headerWritten) {
+            return;
+        }
+
+        deflater.finish(); // deflater is guaranteed not to be null here
+        while (!deflater.finished()) {
+            deflate(Deflater.NO_FLUSH);
+        }
+
+        if (encoding.isGzip()) {
+            byte[] trailer = new byte[GZIP_TRAILER_SIZE];
+            writeIntLE(trailer, 0, crc.getValue());
+            writeIntLE(trailer, 4, deflater.getBytesRead()); // ISIZE is the input size modulo 2^32
+            delegate.write(trailer, 0, trailer.length);
+        }
+    }
+
+    private int deflate(int flush) throws IOException {
+        int numCompressed = deflater.deflate(compressed, 0, compressed.length, flush); // deflater is guaranteed not to be null here
+        if (numCompressed > 0) {
+            delegate.write(compressed, 0, numCompressed);
+        }
+        return numCompressed;
+    }
+
+    private void writeHeaderIfRequired() throws IOException {
+        if (!headerWritten) {
+            headerWritten = true;
+
+            if (encoding.isGzip()) {
+                delegate.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+            }
+        }
+    }
+
+    private static void writeIntLE(byte[] buffer, int offset, long value) {
+        buffer[offset] = (byte) value;
+        buffer[offset + 1] = (byte) (value >> 8);
+        buffer[offset + 2] = (byte) (value >> 16);
+        buffer[offset + 3] = (byte) (value >> 24);
+    }
+
+    private void throwIfClosed() throws IOException {
+        if (closed) {
+            throw new IOException("channel closed");
+        }
+    }
+}
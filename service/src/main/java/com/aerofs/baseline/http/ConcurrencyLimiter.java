@@ -0,0 +1,62 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * Limits the number of requests that an
+ * {@link HttpServer} processes simultaneously.
+ */
+@ThreadSafe
+interface ConcurrencyLimiter {
+
+    /**
+     * Limiter that admits every request.
+     */
+    ConcurrencyLimiter UNLIMITED = new ConcurrencyLimiter() {
+
+        @Override
+        public boolean tryAcquire() {
+            return true;
+        }
+
+        @Override
+        public void release(long serviceTime, boolean dropped) {
+            // noop
+        }
+    };
+
+    /**
+     * Attempt to admit a request.
+     *
+     * @return {@code true} if the request can be processed,
+     * {@code false} if it should be rejected
+     */
+    boolean tryAcquire();
+
+    /**
+     * Indicate that an admitted request is done.
+     * Must be called exactly once for every
+     * successful call to {@link #tryAcquire()}.
+     *
+     * @param serviceTime time in nanoseconds the request took
+     * @param dropped {@code true} if the request was dropped
+     *                without being processed
+     */
+    void release(long serviceTime, boolean dropped);
+}
@@ -16,6 +16,8 @@
 
 package com.aerofs.baseline.http;
 
+import com.google.common.collect.ImmutableList;
+
 import javax.annotation.concurrent.Immutable;
 import java.util.concurrent.TimeUnit;
 
@@ -33,11 +35,47 @@ abstract class Constants {
     public static final int HTTP_MAX_INITIAL_LINE_LENGTH = 256;
     public static final int HTTP_MAX_HEADER_SIZE = 1024; // 1K
     public static final int HTTP_MAX_CHUNK_SIZE = 4 * 1024 * 1024; // 4K
-    public static final int ENTITY_UNREAD_BYTES_LOW_WATERMARK = 128;
-    public static final int ENTITY_UNREAD_BYTES_HIGH_WATERMARK = 1024; // 1K
+    public static final int DEFAULT_MAX_QUEUED_READS = 64;
+    public static final long DEFAULT_MAX_QUEUED_READ_BYTES = 64 * 1024; // 64K
+    public static final int DEFAULT_MAX_CONCURRENT_PIPELINED_REQUESTS = 1; // process pipelined requests one at a time
+    public static final int DEFAULT_MAX_QUEUED_REQUESTS = 1024;
+    public static final long DEFAULT_MAX_REQUEST_QUEUE_TIME = 0; // no queue-time deadline
+    public static final int SHED_RETRY_AFTER_SECONDS = 1;
+    public static final int DEFAULT_INITIAL_CONCURRENCY_LIMIT = 20;
+    public static final int DEFAULT_MAX_CONCURRENCY_LIMIT = 1000;
+    public static final int DEFAULT_ENTITY_LOW_WATERMARK = 16 * 1024; // 16K
+    public static final int DEFAULT_ENTITY_HIGH_WATERMARK = 64 * 1024; // 64K
+    public static final int DEFAULT_MAX_ENTITY_HIGH_WATERMARK = 1024 * 1024; // 1M
+    public static final int DEFAULT_RESPONSE_BUFFER_SIZE = 8 * 1024; // 8K
+    public static final int DEFAULT_MAX_BUFFERED_RESPONSE_BYTES = 64 * 1024; // 64K
+    public static final int FILE_REGION_CHUNK_SIZE = 8 * 1024; // 8K
+    public static final int DEFAULT_COMPRESSION_LEVEL = 6; // zlib default
+    public static final int DEFAULT_MIN_COMPRESSIBLE_SIZE = 1024; // 1K
+    public static final ImmutableList<String> DEFAULT_COMPRESSIBLE_CONTENT_TYPES = ImmutableList.of("text/", "application/json", "application/javascript", "application/xml", "image/svg+xml");
+    public static final int DEFAULT_MAX_POOLED_DEFLATERS = Runtime.getRuntime().availableProcessors();
+    public static final int DEFLATE_BUFFER_SIZE = 8 * 1024; // 8K
+    public static final long DEFAULT_MAX_DECOMPRESSED_ENTITY_SIZE = 64 * 1024 * 1024; // 64M
+    public static final int DEFAULT_MAX_DECOMPRESSION_RATIO = 100;
+    public static final long DECOMPRESSION_RATIO_CHECK_THRESHOLD = 1024 * 1024; // 1M
+    public static final int DEFAULT_MAX_POOLED_INFLATERS = Runtime.getRuntime().availableProcessors();
+    public static final int INFLATE_BUFFER_SIZE = 8 * 1024; // 8K
+    public static final int DEFAULT_URI_CACHE_SIZE = 256;
+    public static final long DEFAULT_INLINE_EXECUTION_WARN_THRESHOLD = 0; // don't check
+    public static final int DEFAULT_LONG_POLL_RESUME_BATCH_SIZE = 64;
+    public static final long DEFAULT_EVENT_STREAM_HEARTBEAT_INTERVAL = TimeUnit.MILLISECONDS.convert(15, TimeUnit.SECONDS);
+    public static final int DEFAULT_MAX_QUEUED_EVENTS = 256;
+    public static final int DEFAULT_MAX_WEBSOCKET_MESSAGE_SIZE = 64 * 1024; // 64K
+    public static final int DEFAULT_MAX_QUEUED_WEBSOCKET_MESSAGES = 256;
+
+    // tls
+    public static final int DEFAULT_TLS_SESSION_CACHE_SIZE = 20 * 1024;
+    public static final int DEFAULT_TLS_SESSION_TIMEOUT = (int) TimeUnit.SECONDS.convert(1, TimeUnit.DAYS);
+    public static final long DEFAULT_TLS_HANDSHAKE_TIMEOUT = TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+    public static final int TLS_SESSION_TICKET_KEY_SIZE = 48;
 
     // netty threading
     public static final int DEFAULT_NUM_BOSS_THREADS = 2;
+    public static final int DEFAULT_NUM_ACCEPTORS = 1;
     public static final int DEFAULT_NUM_NETWORK_IO_THREADS = Runtime.getRuntime().availableProcessors() * 2;
     public static final int DEFAULT_NUM_REQUEST_PROCESSING_THREADS = Runtime.getRuntime().availableProcessors();
 
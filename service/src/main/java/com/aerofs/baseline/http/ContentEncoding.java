@@ -0,0 +1,69 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Content codings that baseline can apply
+ * to response entities and remove from
+ * request entities.
+ */
+enum ContentEncoding {
+
+    /**
+     * RFC 1952 gzip format: raw deflate data
+     * wrapped in a gzip header and trailer.
+     */
+    GZIP("gzip", true),
+
+    /**
+     * RFC 1950 zlib format (which HTTP calls {@code deflate}).
+     */
+    DEFLATE("deflate", false);
+
+    private final String coding;
+    private final boolean gzip;
+
+    ContentEncoding(String coding, boolean gzip) {
+        this.coding = coding;
+        this.gzip = gzip;
+    }
+
+    /**
+     * @return name of the coding in {@code Accept-Encoding} and {@code Content-Encoding} headers
+     */
+    String getCoding() {
+        return coding;
+    }
+
+    boolean isGzip() {
+        return gzip;
+    }
+
+    Deflater newDeflater(int level) {
+        // gzip wraps raw deflate data in its own header
+        // and trailer, while the zlib ones are built in
+        return new Deflater(level, gzip);
+    }
+
+    Inflater newInflater() {
+        return new Inflater(gzip);
+    }
+}
@@ -21,7 +21,7 @@ import io.netty.buffer.ByteBuf;
 import java.io.IOException;
 import java.io.InputStream;
 
-abstract class ContentInputStream extends InputStream {
+abstract class ContentInputStream extends InputStream implements StreamingEntity {
 
     abstract void addBuffer(ByteBuf content, boolean last) throws IOException;
 }
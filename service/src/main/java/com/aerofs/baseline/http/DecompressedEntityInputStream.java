@@ -0,0 +1,389 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+/**
+ * Request entity stream that decompresses the bytes
+ * read from an {@link EntityInputStream} as they're consumed.
+ * <br>
+ * Nothing is decompressed ahead of the reader, so memory use
+ * is bounded by the input and output buffers regardless of
+ * the entity's size. To protect against decompression bombs
+ * reading fails with {@code 413 Request Entity Too Large} once
+ * more than {@code maxDecompressedSize} bytes were produced,
+ * or once the entity expands by more than {@code maxRatio}
+ * (checked only after the first megabyte, since
+ * small entities can legitimately be very compressible).
+ * <br>
+ * The {@link Inflater} is borrowed from an {@link InflaterPool}.
+ * {@link #close()} may be called from any thread; the inflater is
+ * returned by whichever thread holds the consumer role once the
+ * stream is closed, so that it's never returned while still in use.
+ */
+@ThreadSafe
+final class DecompressedEntityInputStream extends ContentInputStream {
+
+    private static final int GZIP_MAGIC_1 = 0x1f;
+    private static final int GZIP_MAGIC_2 = 0x8b;
+    private static final int GZIP_FLAG_HEADER_CRC = 0x02;
+    private static final int GZIP_FLAG_EXTRA = 0x04;
+    private static final int GZIP_FLAG_NAME = 0x08;
+    private static final int GZIP_FLAG_COMMENT = 0x10;
+
+    private enum State {
+        HEADER,
+        DATA,
+        DONE,
+    }
+
+    private final ContentInputStream delegate;
+    private final ContentEncoding encoding;
+    private final InflaterPool inflaterPool;
+    private final long maxDecompressedSize;
+    private final int maxRatio;
+    private final AtomicBoolean consuming = new AtomicBoolean(false);
+
+    private volatile boolean closed;
+
+    // only accessed by the thread that holds the consumer role
+    private final byte[] input = new byte[com.aerofs.baseline.http.Constants.INFLATE_BUFFER_SIZE];
+    private final byte[] single = new byte[1];
+    private final CRC32 crc = new CRC32();
+    private @Nullable Inflater inflater;
+    private State state;
+    private boolean firstMember = true;
+    private int inputPosition;
+    private int inputLimit;
+    private long compressed;
+    private long decompressed;
+
+    DecompressedEntityInputStream(ContentInputStream delegate, ContentEncoding encoding, InflaterPool inflaterPool, long maxDecompressedSize, int maxRatio) {
+        this.delegate = delegate;
+        this.encoding = encoding;
+        this.inflaterPool = inflaterPool;
+        this.maxDecompressedSize = maxDecompressedSize;
+        this.maxRatio = maxRatio;
+        this.inflater = inflaterPool.acquire();
+        this.state = encoding.isGzip() ? State.HEADER : State.DATA;
+    }
+
+    @Override
+    void addBuffer(ByteBuf content, boolean last) throws IOException {
+        delegate.addBuffer(content, last);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public int read() throws IOException {
+        int read = read(single, 0, 1);
+        return read == -1 ? -1 : (single[0] & 0xFF);
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    @Override
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
+        // basic argument checks
+        // pulled straight from InputStream
+        if (off < 0 || len < 0 || len > b.length - off) {
+            throw new IndexOutOfBoundsException();
+        } else if (len == 0) {
+            return 0;
+        }
+
+        startConsuming();
+        try {
+            return inflate(b, off, len);
+        } finally {
+            stopConsuming();
+        }
+    }
+
+    // decompressed bytes are copied out of
+    // the inflater, so there are no network
+    // buffers that can be handed over
+    @Override
+    public @Nullable ByteBuf readChunk() throws IOException {
+        byte[] chunk = new byte[com.aerofs.baseline.http.Constants.INFLATE_BUFFER_SIZE];
+
+        int read = read(chunk, 0, chunk.length);
+        if (read == -1) {
+            return null;
+        }
+
+        return Unpooled.unmodifiableBuffer(Unpooled.wrappedBuffer(chunk, 0, read));
+    }
+
+    private int inflate(byte[] b, int off, int len) throws IOException {
+        while (true) {
+            throwIfClosed();
+
+            if (state == State.DONE) {
+                return -1;
+            }
+
+            if (state == State.HEADER) {
+                if (readGzipHeader()) {
+                    state = State.DATA;
+                } else {
+                    state = State.DONE;
+                }
+                continue;
+            }
+
+            Inflater current = inflater; // guaranteed not to be null while the stream is open
+
+            int inflated;
+            try {
+                inflated = current.inflate(b, off, len);
+            } catch (DataFormatException e) {
+                throw new ZipException("invalid " + encoding.getCoding() + " entity: " + e.getMessage());
+            }
+
+            if (inflated > 0) {
+                if (encoding.isGzip()) {
+                    crc.update(b, off, inflated);
+                }
+
+                decompressed += inflated;
+                checkLimits();
+
+                return inflated;
+            }
+
+            if (current.finished()) {
+                // hand back whatever the inflater didn't
+                // use, since it belongs to the trailer
+                // or to whatever follows the entity
+                inputPosition = inputLimit - current.getRemaining();
+
+                if (encoding.isGzip()) {
+                    readGzipTrailer(current);
+                    current.reset();
+                    crc.reset();
+                    state = State.HEADER;
+                } else {
+                    state = State.DONE;
+                }
+            } else if (current.needsDictionary()) {
+                throw new ZipException("invalid " + encoding.getCoding() + " entity: preset dictionary required");
+            } else if (current.needsInput()) {
+                if (inputPosition == inputLimit && fill() == -1) {
+                    throw new EOFException("truncated " + encoding.getCoding() + " entity");
+                }
+
+                current.setInput(input, inputPosition, inputLimit - inputPosition);
+                inputPosition = inputLimit;
+            }
+        }
+    }
+
+    private void checkLimits() {
+        if (decompressed > maxDecompressedSize) {
+            throw new WebApplicationException("decompressed entity larger than " + maxDecompressedSize + " bytes", Response.Status.REQUEST_ENTITY_TOO_LARGE);
+        }
+
+        if (decompressed > com.aerofs.baseline.http.Constants.DECOMPRESSION_RATIO_CHECK_THRESHOLD && decompressed > compressed * maxRatio) {
+            throw new WebApplicationException("entity compression ratio exceeds " + maxRatio, Response.Status.REQUEST_ENTITY_TOO_LARGE);
+        }
+    }
+
+    // returns false if there are no more members
+    private boolean readGzipHeader() throws IOException {
+        // a gzip entity may consist of multiple
+        // members, each of which has its own header
+        int magic1 = readInputByte();
+        if (magic1 == -1) {
+            if (firstMember) {
+                throw new EOFException("truncated gzip entity");
+            }
+            return false;
+        }
+
+        firstMember = false;
+
+        if (magic1 != GZIP_MAGIC_1 || readRequiredByte() != GZIP_MAGIC_2) {
+            throw new ZipException("invalid gzip entity: bad magic");
+        }
+
+        if (readRequiredByte() != Deflater.DEFLATED) {
+            throw new ZipException("invalid gzip entity: unsupported compression method");
+        }
+
+        int flags = readRequiredByte();
+        skipBytes(6); // MTIME, XFL, OS
+
+        if ((flags & GZIP_FLAG_EXTRA) != 0) {
+            int extraLength = readRequiredByte() | (readRequiredByte() << 8);
+            skipBytes(extraLength);
+        }
+
+        if ((flags & GZIP_FLAG_NAME) != 0) {
+            skipZeroTerminated();
+        }
+
+        if ((flags & GZIP_FLAG_COMMENT) != 0) {
+            skipZeroTerminated();
+        }
+
+        if ((flags & GZIP_FLAG_HEADER_CRC) != 0) {
+            skipBytes(2);
+        }
+
+        return true;
+    }
+
+    private void readGzipTrailer(Inflater current) throws IOException {
+        long expectedCrc = readIntLE();
+        long expectedSize = readIntLE();
+
+        if (expectedCrc != crc.getValue()) {
+            throw new ZipException("invalid gzip entity: crc mismatch");
+        }
+
+        if (expectedSize != (current.getBytesWritten() & 0xFFFFFFFFL)) {
+            throw new ZipException("invalid gzip entity: size mismatch");
+        }
+    }
+
+    private long readIntLE() throws IOException {
+        long value = 0;
+        for (int i = 0; i < 4; i++) {
+            value |= ((long) readRequiredByte()) << (8 * i);
+        }
+        return value;
+    }
+
+    private void skipZeroTerminated() throws IOException {
+        while (readRequiredByte() != 0) {
+            // keep going
+        }
+    }
+
+    private void skipBytes(int count) throws IOException {
+        for (int i = 0; i < count; i++) {
+            readRequiredByte();
+        }
+    }
+
+    private int readRequiredByte() throws IOException {
+        int read = readInputByte();
+        if (read == -1) {
+            throw new EOFException("truncated gzip entity");
+        }
+        return read;
+    }
+
+    private int readInputByte() throws IOException {
+        if (inputPosition == inputLimit && fill() == -1) {
+            return -1;
+        }
+
+        return input[inputPosition++] & 0xFF;
+    }
+
+    private int fill() throws IOException {
+        int read = delegate.read(input, 0, input.length);
+        if (read != -1) {
+            inputPosition = 0;
+            inputLimit = read;
+            compressed += read;
+        }
+        return read;
+    }
+
+    @Override
+    public void close() throws IOException {
+        closed = true;
+
+        // wakes up a reader waiting for network
+        // bytes, after which it gives up its role
+        try {
+            delegate.close();
+        } finally {
+            releaseInflaterIfClosed();
+        }
+    }
+
+    //
+    // consumer role
+    //
+    // the inflater can only be used by one thread at a time.
+    // the reader holds the role while it reads,
+    // and close() takes it to return the inflater.
+    // whoever gives up the role last after close()
+    // returns the inflater to the pool
+    //
+
+    private void startConsuming() throws IOException {
+        if (!consuming.compareAndSet(false, true)) {
+            throwIfClosed();
+            throw new IllegalStateException("concurrent reads from http entity input stream");
+        }
+    }
+
+    private void stopConsuming() {
+        consuming.set(false);
+        releaseInflaterIfClosed();
+    }
+
+    private void releaseInflaterIfClosed() {
+        if (!closed || !consuming.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            if (inflater != null) {
+                inflaterPool.release(inflater);
+                inflater = null;
+            }
+        } finally {
+            consuming.set(false);
+        }
+    }
+
+    private void throwIfClosed() throws IOException {
+        if (closed) {
+            throw new IOException("stream closed");
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Deflater;
+
+/**
+ * Pool of {@link Deflater} instances for one {@link ContentEncoding}.
+ * <br>
+ * Each deflater holds a large native zlib stream, which
+ * is expensive to create and is only freed when {@link Deflater#end()}
+ * is called or the deflater is finalized. Reusing them avoids
+ * both the allocation and the finalizer backlog under load.
+ * Up to {@code maxPooled} idle deflaters are kept; any
+ * returned beyond that are ended immediately.
+ */
+@ThreadSafe
+final class DeflaterPool {
+
+    private final Queue<Deflater> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numIdle = new AtomicInteger(0);
+    private final ContentEncoding encoding;
+    private final int level;
+    private final int maxPooled;
+
+    DeflaterPool(ContentEncoding encoding, int level, int maxPooled) {
+        this.encoding = encoding;
+        this.level = level;
+        this.maxPooled = maxPooled;
+    }
+
+    Deflater acquire() {
+        Deflater deflater = idle.poll();
+
+        if (deflater == null) {
+            return encoding.newDeflater(level);
+        }
+
+        numIdle.decrementAndGet();
+        return deflater;
+    }
+
+    void release(Deflater deflater) {
+        if (numIdle.incrementAndGet() > maxPooled) {
+            numIdle.decrementAndGet();
+            deflater.end();
+            return;
+        }
+
+        deflater.reset();
+        idle.offer(deflater);
+    }
+}
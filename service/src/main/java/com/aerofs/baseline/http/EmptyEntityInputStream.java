@@ -19,6 +19,7 @@ package com.aerofs.baseline.http;
 import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
 
@@ -32,6 +33,11 @@ final class EmptyEntityInputStream extends ContentInputStream {
         return -1;
     }
 
+    @Override
+    public @Nullable ByteBuf readChunk() throws IOException {
+        return null;
+    }
+
     @Override
     public boolean markSupported() {
         return false;
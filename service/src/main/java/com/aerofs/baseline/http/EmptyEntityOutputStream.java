@@ -16,7 +16,6 @@
 
 package com.aerofs.baseline.http;
 
-import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.LastHttpContent;
 
 import javax.annotation.concurrent.ThreadSafe;
@@ -25,12 +24,12 @@ import java.io.IOException;
 @ThreadSafe
 final class EmptyEntityOutputStream extends ContentOutputStream {
 
-    private final ChannelHandlerContext ctx;
+    private final ResponseChannel channel;
 
     private boolean flushed = false;
 
-    EmptyEntityOutputStream(ChannelHandlerContext ctx) {
-        this.ctx = ctx;
+    EmptyEntityOutputStream(ResponseChannel channel) {
+        this.channel = channel;
     }
 
     @Override
@@ -55,7 +54,7 @@ final class EmptyEntityOutputStream extends ContentOutputStream {
 
     private void flushOnce() {
         if (!flushed) {
-            ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
             flushed = true;
         }
     }
@@ -18,43 +18,80 @@ package com.aerofs.baseline.http;
 
 import com.aerofs.baseline.metrics.MetricRegistries;
 import com.codahale.metrics.Histogram;
-import com.google.common.base.Preconditions;
-import com.google.common.collect.Lists;
 import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
-import java.util.Iterator;
-import java.util.List;
-
-// FIXME (AG): this entire class is such a shitty, shitty piece of code; I'm ashamed of myself
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Request entity stream filled by the channel's
+ * event loop and read by a request-processing thread.
+ * <br>
+ * Network buffers are handed from the event loop (the
+ * producer) to the reader (the consumer) through a
+ * lock-free {@link SpscSegmentedQueue}. The reader parks
+ * when it runs out of bytes and is only unparked by the
+ * event loop if it's actually waiting.
+ * <br>
+ * Reading from the connection is stopped once more than
+ * the {@link EntityReadWindow} high watermark of bytes are
+ * buffered, and only resumed once the reader has drained
+ * them to the low watermark. The gap between the two
+ * keeps the reader busy while the client refills the
+ * window, instead of resuming reads after every buffer.
+ * <br>
+ * {@link #close()} may be called from any thread. Buffers
+ * are released by whichever thread holds the consumer role
+ * once the stream is closed, so that a buffer is never
+ * released while the reader is still using it.
+ */
 @ThreadSafe
 final class EntityInputStream extends ContentInputStream {
 
     private static final Histogram INPUT_SIZE_HISTOGRAM = MetricRegistries.getRegistry().histogram(MetricRegistries.name("http", "request", "entity-size"));
 
-    private final List<ByteBuf> buffers = Lists.newLinkedList();
+    private final SpscSegmentedQueue<ByteBuf> buffers = new SpscSegmentedQueue<>();
+    private final AtomicBoolean consuming = new AtomicBoolean(false);
+    private final AtomicBoolean readChoked = new AtomicBoolean(false);
+    private final AtomicLong readable = new AtomicLong(0);
     private final HttpVersion httpVersion;
     private final ChannelHandlerContext ctx;
+    private final ResponseChannel responseChannel;
     private final boolean continueRequested;
+    private final EntityReadWindow window;
+    private final NetworkBytesBlocker networkBytesBlocker = new NetworkBytesBlocker();
+
+    // shared between the producer and consumer
+    private volatile boolean closed;
+    private volatile boolean inputCompleted;
+    private volatile @Nullable Thread waiter;
+    private volatile boolean awaitingRefill;
+    private volatile int resumedHighWatermark;
 
-    // all variables protected by this
+    // only accessed by the producer (event loop)
     private long total = 0;
-    private long readable = 0;
-    private boolean closed;
+
+    // only accessed by the thread that holds the consumer role
+    private @Nullable ByteBuf current;
     private boolean firstRead;
-    private boolean readChoked;
-    private boolean inputCompleted;
 
-    public EntityInputStream(HttpVersion httpVersion, boolean continueRequested, ChannelHandlerContext ctx) {
+    public EntityInputStream(HttpVersion httpVersion, boolean continueRequested, EntityReadWindow window, ChannelHandlerContext ctx, ResponseChannel responseChannel) {
         this.httpVersion = httpVersion;
         this.ctx = ctx;
+        this.responseChannel = responseChannel;
         this.continueRequested = continueRequested;
+        this.window = window;
     }
 
     @Override
@@ -77,13 +114,23 @@ final class EntityInputStream extends ContentInputStream {
         throw new UnsupportedOperationException("cannot skip bytes in http entity input stream");
     }
 
-    // FIXME (AG): write a customized read()
-    // for now, just punt to the generalized read(b, off, len)
     @Override
-    public synchronized int read() throws IOException {
-        byte[] one = new byte[1];
-        int read = read(one, 0, 1);
-        return read == -1 ? -1 : one[0];
+    public int read() throws IOException {
+        startConsuming();
+        try {
+            ByteBuf head = getNetworkBytes();
+
+            // nothing left
+            if (head == null) {
+                return -1;
+            }
+
+            int read = head.readUnsignedByte();
+            consumed(1);
+            return read;
+        } finally {
+            stopConsuming();
+        }
     }
 
     @Override
@@ -92,7 +139,7 @@ final class EntityInputStream extends ContentInputStream {
     }
 
     @Override
-    public synchronized int read(@Nonnull byte[] b, int off, int len) throws IOException {
+    public int read(@Nonnull byte[] b, int off, int len) throws IOException {
         // basic argument checks
         // pulled straight from InputStream
         if (off < 0 || len < 0 || len > b.length - off) {
@@ -101,13 +148,64 @@ final class EntityInputStream extends ContentInputStream {
             return 0;
         }
 
-        // if the sender already closed
-        // the stream then we're going to
-        // abort, *even if* the sender
-        // has already sent the bytes we
-        // care about
-        throwIfClosed();
+        startConsuming();
+        try {
+            int initialOffset = off;
+            int bufferRemaining = len;
+
+            while (bufferRemaining > 0) {
+                // get bytes from the network
+                ByteBuf head = getNetworkBytes();
+
+                // nothing left
+                if (head == null) {
+                    break;
+                }
+
+                // read as much as required
+                // from the top buffer
+                int chunkReadable = Math.min(head.readableBytes(), bufferRemaining);
+                head.readBytes(b, off, chunkReadable);
+                consumed(chunkReadable);
+
+                // bookkeeping
+                off += chunkReadable;
+                bufferRemaining -= chunkReadable;
+            }
 
+            return off == initialOffset ? -1 : off - initialOffset;
+        } finally {
+            stopConsuming();
+        }
+    }
+
+    // hands the caller the network buffer
+    // itself instead of copying out of it
+    @Override
+    public @Nullable ByteBuf readChunk() throws IOException {
+        startConsuming();
+        try {
+            ByteBuf head = getNetworkBytes();
+
+            // nothing left
+            if (head == null) {
+                return null;
+            }
+
+            current = null;
+            consumed(head.readableBytes());
+
+            // ownership transferred to the caller
+            return Unpooled.unmodifiableBuffer(head);
+        } finally {
+            stopConsuming();
+        }
+    }
+
+    // returns the buffer from which to read,
+    // waiting for one to arrive from the network if
+    // necessary, or null if the entire entity was read
+    private @Nullable ByteBuf getNetworkBytes() throws IOException {
         // we may have to send a 100 CONTINUE
         // if the client specifically requests
         // it. to prevent the server from buffering
@@ -116,77 +214,92 @@ final class EntityInputStream extends ContentInputStream {
         // stream. this can be changed easily
         sendContinueIfRequested();
 
-        int initialOffset = off;
-        int bufferRemaining = len;
-
         while (true) {
-            // get bytes from the network
-            getNetworkBytes();
-
-            // how many bytes can we read?
-            int remaining = inputCompleted ? (int) Math.min(readable, bufferRemaining) : bufferRemaining;
-            if (remaining == 0) {
-                break;
-            }
-
-            Preconditions.checkState(!buffers.isEmpty(), "readable bytes, but no buffers");
-
-            // read as much as required
-            // from the top buffer
-            ByteBuf head = buffers.get(0);
-            int chunkReadable = Math.min(head.readableBytes(), remaining);
-            head.readBytes(b, off, chunkReadable);
+            // if the sender already closed
+            // the stream then we're going to
+            // abort, *even if* the sender
+            // has already sent the bytes we
+            // care about
+            throwIfClosed();
 
-            // bookkeeping
-            readable -= chunkReadable;
-            off += chunkReadable;
-            bufferRemaining -= chunkReadable;
+            // the top buffer still has bytes
+            if (current != null) {
+                if (current.isReadable()) {
+                    return current;
+                }
 
-            // remove the top buffer if it's exhausted
-            if (head.readableBytes() == 0) {
-                buffers.remove(0);
-                head.release();
+                current.release();
+                current = null;
             }
-        }
 
-        return off == initialOffset ? -1 : off - initialOffset;
-    }
-
-    private void getNetworkBytes() throws IOException {
-        while (buffers.isEmpty()) {
-            // before starting the wait, check
-            // if the channel was closed under us
-            throwIfClosed();
+            current = buffers.poll();
+            if (current != null) {
+                continue;
+            }
 
             // nothing more is coming
             // there's no need to wait
+            // check the queue again because
+            // the last buffer may have been added
+            // just before input was marked complete
             if (inputCompleted) {
-                break;
+                current = buffers.poll();
+                if (current == null) {
+                    return null;
+                }
+
+                continue;
+            }
+
+            // we ran out of bytes before the
+            // client refilled the window after
+            // reading was resumed, so it's too small
+            if (awaitingRefill) {
+                awaitingRefill = false;
+                window.grow(resumedHighWatermark);
             }
 
             // if we'd turned *off* reading
             // because we'd buffered too many bytes
             // turn it back on again
-            if (readChoked) {
-                readChoked = false;
-                ctx.channel().read();
-            }
+            resumeReadingIfChoked();
 
             // wait until the buffers
             // are filled with bytes
             // from the wire
+            // if this is a fork-join worker
+            // the pool can compensate for
+            // the blocked thread
+            waiter = Thread.currentThread();
             try {
-                wait();
+                ForkJoinPool.managedBlock(networkBytesBlocker);
             } catch (InterruptedException e) {
                 throw new IOException("interrupted during wait for read");
+            } finally {
+                waiter = null;
+            }
+        }
+    }
+
+    private void consumed(long numBytes) {
+        long remaining = readable.addAndGet(-numBytes);
+
+        // start reading again once we've
+        // drained down to the low watermark
+        if (readChoked.get() && remaining <= window.getLowWatermark()) {
+            resumeReadingIfChoked();
+        }
+    }
+
+    // may be called by both the producer and the consumer
+    private void resumeReadingIfChoked() {
+        if (readChoked.compareAndSet(true, false)) {
+            if (window.isAdaptive()) {
+                resumedHighWatermark = window.getHighWatermark();
+                awaitingRefill = true;
             }
 
-            // we don't have to check closed
-            // here. this is because when close()
-            // is called, we clean out all the
-            // buffers. this ensures that we'll
-            // get to the top of the loop again,
-            // and cause throwIfClosed() to run
+            ctx.channel().read();
         }
     }
 
@@ -198,51 +311,56 @@ final class EntityInputStream extends ContentInputStream {
             firstRead = false;
 
             if (continueRequested) {
-                ctx.channel().writeAndFlush(new DefaultHttpResponse(httpVersion, HttpResponseStatus.CONTINUE, false));
+                responseChannel.writeAndFlush(new DefaultHttpResponse(httpVersion, HttpResponseStatus.CONTINUE, false));
             }
         }
     }
 
     @Override
-    public synchronized int available() throws IOException {
+    public int available() throws IOException {
         throwIfClosed();
-        return (int) readable;
+        return (int) Math.min(Integer.MAX_VALUE, readable.get());
     }
 
     @Override
-    public synchronized void close() throws IOException {
-        if (!closed) {
-            closed = true;
-
-            // free the buffers we're holding on to
-            Iterator<ByteBuf> iterator = buffers.iterator();
-            while (iterator.hasNext()) {
-                iterator.next().release();
-                iterator.remove();
-            }
-        }
-
-        // there should be *no network buffers*
-        // sitting around after close() is called
-        Preconditions.checkState(buffers.isEmpty(), "network buffers exist after close");
-
-        // regardless of whether we've closed
-        // previously or not, let any waiters
-        // know that there's nothing available
-        // any more
-        notifyAll();
+    public void close() throws IOException {
+        closed = true;
+
+        // let the reader know that
+        // there's nothing available
+        // any more, and then free
+        // the buffers we're holding on to
+        unparkWaiter();
+        releaseBuffersIfClosed();
     }
 
-    synchronized void addBuffer(ByteBuf content, boolean last) throws IOException {
-        throwIfClosed();
+    void addBuffer(ByteBuf content, boolean last) throws IOException {
+        // we own the buffer, so it has to be
+        // released even if we can't use it
+        if (closed) {
+            content.release();
+            throw new IOException("stream closed");
+        }
 
-        if (content.readableBytes() > 0) {
+        if (content.readableBytes() == 0) {
+            content.release();
+        } else {
             // crucial for reading
-            buffers.add(content);
-            readable += content.readableBytes();
+            readable.addAndGet(content.readableBytes());
+            buffers.offer(content);
 
             // for metrics use only
             total += content.readableBytes();
+
+            // the window was refilled in time
+            if (awaitingRefill) {
+                awaitingRefill = false;
+            }
+
+            // the stream may have been closed
+            // after the check above, in which case
+            // this buffer has to be released too
+            releaseBuffersIfClosed();
         }
 
         if (last) {
@@ -256,15 +374,90 @@ final class EntityInputStream extends ContentInputStream {
         } else {
             // continue reading unless we hit
             // the limit of max cached bytes
-            if (readable <= com.aerofs.baseline.http.Constants.ENTITY_UNREAD_BYTES_HIGH_WATERMARK) {
+            if (readable.get() <= window.getHighWatermark()) {
                 ctx.channel().read();
             } else {
-                readChoked = true;
+                readChoked.set(true);
+
+                // the reader may have drained the
+                // buffers before seeing the choke
+                if (readable.get() <= window.getLowWatermark()) {
+                    resumeReadingIfChoked();
+                }
             }
         }
 
-        // let any waiters know that there's more to consume
-        notifyAll();
+        // let the reader know that there's more to consume
+        unparkWaiter();
+    }
+
+    private void unparkWaiter() {
+        Thread thread = waiter;
+        if (thread != null) {
+            LockSupport.unpark(thread);
+        }
+    }
+
+    //
+    // consumer role
+    //
+    // the queue only supports one consumer at a time.
+    // the reader holds the role while it reads,
+    // and close() takes it to release the buffers.
+    // whoever gives up the role last after close()
+    // releases any buffers that remain
+    //
+
+    private void startConsuming() throws IOException {
+        if (!consuming.compareAndSet(false, true)) {
+            throwIfClosed();
+            throw new IllegalStateException("concurrent reads from http entity input stream");
+        }
+    }
+
+    private void stopConsuming() {
+        consuming.set(false);
+        releaseBuffersIfClosed();
+    }
+
+    private void releaseBuffersIfClosed() {
+        if (!closed || !consuming.compareAndSet(false, true)) {
+            return;
+        }
+
+        try {
+            if (current != null) {
+                current.release();
+                current = null;
+            }
+
+            ByteBuf buffer;
+            while ((buffer = buffers.poll()) != null) {
+                buffer.release();
+            }
+        } finally {
+            consuming.set(false);
+        }
+    }
+
+    // called by the waiting reader
+    private final class NetworkBytesBlocker implements ForkJoinPool.ManagedBlocker {
+
+        @Override
+        public boolean block() throws InterruptedException {
+            LockSupport.park(EntityInputStream.this);
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+
+            return isReleasable();
+        }
+
+        @Override
+        public boolean isReleasable() {
+            return closed || inputCompleted || !buffers.isEmpty();
+        }
     }
 
     private void throwIfClosed() throws IOException {
@@ -14,35 +14,67 @@
  * limitations under the License.
  */
 
+
 package com.aerofs.baseline.http;
 
 import com.codahale.metrics.Histogram;
-import com.google.common.base.Preconditions;
 import io.netty.buffer.ByteBuf;
-import io.netty.channel.ChannelHandlerContext;
+import io.netty.buffer.CompositeByteBuf;
 import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.DefaultLastHttpContent;
 import io.netty.handler.codec.http.LastHttpContent;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
 
+/**
+ * Response entity stream written by a request-processing
+ * thread and sent out by the channel's event loop.
+ * <br>
+ * Bytes are written into buffers sized by a {@link ResponseBufferSizer}.
+ * Filled buffers are accumulated in a {@link CompositeByteBuf} and are
+ * only passed to netty as a single {@link io.netty.handler.codec.http.HttpContent}
+ * when the stream is flushed or closed, or when the maximum number
+ * of buffered bytes is reached. This allows the transport to send them
+ * with one gathering write instead of one write per buffer.
+ */
 @ThreadSafe
 final class EntityOutputStream extends ContentOutputStream {
 
-    private final ChannelHandlerContext ctx;
+    private final ResponseChannel channel;
     private final Histogram contentLengthHistogram;
+    private final ResponseBufferSizer bufferSizer;
+    private final @Nullable Object route;
+    private final long contentLength;
+    private final int bufferSize;
+    private final int maxBufferedBytes;
 
     private boolean failed = false;
     private boolean closed = false;
+    private boolean unflushed = false;
     private long written;
 
+    // buffer into which bytes are currently written
     @Nullable
     private ByteBuf chunk;
 
-    public EntityOutputStream(ChannelHandlerContext ctx, Histogram contentLengthHistogram) {
-        this.ctx = ctx;
+    // filled buffers that have not been written out yet
+    @Nullable
+    private CompositeByteBuf pending;
+
+    /**
+     * @param contentLength length of the response entity, or -1 if unknown
+     * @param route route that generated the response, or null if unknown
+     */
+    public EntityOutputStream(ResponseChannel channel, Histogram contentLengthHistogram, ResponseBufferSizer bufferSizer, long contentLength, @Nullable Object route) {
+        this.channel = channel;
         this.contentLengthHistogram = contentLengthHistogram;
+        this.bufferSizer = bufferSizer;
+        this.route = route;
+        this.contentLength = contentLength;
+        this.bufferSize = bufferSizer.getBufferSize(route);
+        this.maxBufferedBytes = bufferSizer.getMaxBufferedBytes();
     }
 
     @Override
@@ -57,8 +89,8 @@ final class EntityOutputStream extends ContentOutputStream {
         while(true) {
             allocateChunk();
 
-            if (chunk.writableBytes() == 0) { // chunk is guaranteed not to be null here
-                writeChunk();
+            if (!chunk.isWritable()) { // chunk is guaranteed not to be null here
+                retireChunk();
                 continue;
             }
 
@@ -78,11 +110,13 @@ final class EntityOutputStream extends ContentOutputStream {
             return;
         }
 
+        throwIfClosed();
+
         while (len > 0) {
             allocateChunk();
 
-            if (chunk.writableBytes() == 0) { // chunk is guaranteed not to be null here
-                writeChunk();
+            if (!chunk.isWritable()) { // chunk is guaranteed not to be null here
+                retireChunk();
                 continue;
             }
 
@@ -100,8 +134,15 @@ final class EntityOutputStream extends ContentOutputStream {
         throwIfClosed();
 
         if (chunk != null) {
-            writeChunk();
-            flushChunk();
+            addToPending(chunk);
+            chunk = null;
+        }
+
+        writePending();
+
+        if (unflushed) {
+            unflushed = false;
+            channel.flush();
         }
 
         // don't allocate a chunk here because the
@@ -122,33 +163,81 @@ final class EntityOutputStream extends ContentOutputStream {
         if (failed) {
             if (chunk != null) {
                 chunk.release();
+                chunk = null;
+            }
+
+            if (pending != null) {
+                pending.release();
+                pending = null;
             }
         } else {
             if (chunk != null) {
-                writeChunk();
+                addToPending(chunk);
+                chunk = null;
             }
 
-            ctx.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT); // netty requires this to indicate output completed
+            // send whatever is left along with the end-of-content
+            // marker that netty requires to indicate output completed
+            if (pending != null) {
+                channel.writeAndFlush(new DefaultLastHttpContent(pending)); // pass ownership to next handler
+                pending = null;
+            } else {
+                channel.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
+            }
 
             contentLengthHistogram.update(written);
+            bufferSizer.record(route, written);
         }
     }
 
     private void allocateChunk() {
         if (chunk == null) {
-            chunk = ctx.alloc().buffer();
+            // if we know how many bytes are coming
+            // we only have to allocate that many
+            long remaining = contentLength - written;
+            int size = remaining > 0 ? (int) Math.min(maxBufferedBytes, remaining) : bufferSize;
+            chunk = channel.alloc().buffer(size);
         }
     }
 
-    private void writeChunk() {
-        Preconditions.checkNotNull(chunk, "null chunk prior to write");
-        ByteBuf forwarded = chunk;
+    // move the filled chunk to the pending buffers,
+    // and write them out if we're holding too many bytes
+    private void retireChunk() {
+        ByteBuf filled = chunk;
         chunk = null;
-        ctx.write(new DefaultHttpContent(forwarded)); // pass ownership to next handler
+
+        if (filled != null) {
+            addToPending(filled);
+        }
+
+        if (pending != null && pending.readableBytes() >= maxBufferedBytes) {
+            writePending();
+        }
     }
 
-    private void flushChunk() {
-        ctx.flush();
+    private void addToPending(ByteBuf filled) {
+        if (!filled.isReadable()) {
+            filled.release();
+            return;
+        }
+
+        if (pending == null) {
+            // size the composite so that it never
+            // has to consolidate (i.e. copy) its components
+            pending = channel.alloc().compositeBuffer(maxBufferedBytes / bufferSize + 1);
+        }
+
+        pending.addComponent(filled);
+        pending.writerIndex(pending.writerIndex() + filled.readableBytes());
+    }
+
+    private void writePending() {
+        if (pending != null) {
+            CompositeByteBuf forwarded = pending;
+            pending = null;
+            channel.write(new DefaultHttpContent(forwarded)); // pass ownership to next handler
+            unflushed = true;
+        }
     }
 
     private void throwIfClosed() throws IOException {
@@ -156,4 +245,4 @@ final class EntityOutputStream extends ContentOutputStream {
             throw new IOException("channel closed");
         }
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Watermarks that control how many unread request-entity
+ * bytes are buffered for requests to a route.
+ * <br>
+ * If adaptive, the window grows whenever a request processor
+ * drains its buffered bytes faster than the client can refill
+ * them after reads were resumed: i.e. the processor starved because
+ * the server had stopped reading from the connection. Each time this
+ * happens both watermarks are doubled, up to a maximum high watermark.
+ * The window is shared by all requests to the route and never shrinks.
+ */
+@ThreadSafe
+final class EntityReadWindow {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EntityReadWindow.class);
+
+    private final boolean adaptive;
+    private final int maxHighWatermark;
+
+    // written under the lock, read without it
+    private volatile int lowWatermark;
+    private volatile int highWatermark;
+
+    EntityReadWindow(int lowWatermark, int highWatermark, boolean adaptive, int maxHighWatermark) {
+        checkArgument(lowWatermark >= 0, "low watermark %s must be >= 0", lowWatermark);
+        checkArgument(highWatermark > 0, "high watermark %s must be > 0", highWatermark);
+        checkArgument(lowWatermark <= highWatermark, "low watermark %s exceeds high watermark %s", lowWatermark, highWatermark);
+
+        this.lowWatermark = lowWatermark;
+        this.highWatermark = highWatermark;
+        this.adaptive = adaptive;
+        this.maxHighWatermark = Math.max(highWatermark, maxHighWatermark);
+    }
+
+    /**
+     * Create the read windows for the routes of a server.
+     * <br>
+     * Routes without their own watermarks share a
+     * single window built from the server-wide watermarks.
+     */
+    static RouteMap<EntityReadWindow> newRouteMap(HttpConfiguration http) {
+        Map<String, EntityReadWindow> windows = Maps.newHashMap();
+
+        for (Map.Entry<String, EntityWatermarks> entry : http.getRouteEntityWatermarks().entrySet()) {
+            EntityWatermarks watermarks = entry.getValue();
+            windows.put(entry.getKey(), new EntityReadWindow(watermarks.getLow(), watermarks.getHigh(), http.isAdaptiveEntityWatermarks(), http.getMaxEntityHighWatermark()));
+        }
+
+        EntityReadWindow defaultWindow = new EntityReadWindow(http.getEntityLowWatermark(), http.getEntityHighWatermark(), http.isAdaptiveEntityWatermarks(), http.getMaxEntityHighWatermark());
+        return new RouteMap<>(windows, defaultWindow);
+    }
+
+    boolean isAdaptive() {
+        return adaptive;
+    }
+
+    /**
+     * @return maximum number of unread bytes to buffer before
+     * the server stops reading from the connection
+     */
+    int getHighWatermark() {
+        return highWatermark;
+    }
+
+    /**
+     * @return number of unread bytes at or below which the
+     * server resumes reading from the connection
+     */
+    int getLowWatermark() {
+        return lowWatermark;
+    }
+
+    /**
+     * Grow the window because a request processor starved
+     * while the server waited for the client to refill it.
+     *
+     * @param observedHighWatermark high watermark in effect when
+     *                              reads were resumed. the window is
+     *                              not grown again if another request
+     *                              already grew it past this value
+     */
+    void grow(int observedHighWatermark) {
+        if (!adaptive) {
+            return;
+        }
+
+        synchronized (this) {
+            int high = highWatermark;
+
+            if (high != observedHighWatermark || high >= maxHighWatermark) {
+                return;
+            }
+
+            int grownHigh = (int) Math.min(maxHighWatermark, 2L * high);
+
+            lowWatermark = (int) ((long) lowWatermark * grownHigh / high);
+            highWatermark = grownHigh;
+
+            LOGGER.debug("grow entity read window to low:{} high:{}", lowWatermark, grownHigh);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.base.Objects;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.validation.constraints.Min;
+
+/**
+ * Bounds on the number of unread request-entity
+ * bytes buffered for a request.
+ * <br>
+ * The server stops reading from the connection once more
+ * than {@code high} bytes are buffered, and starts again
+ * only once the request processor has drained them
+ * to {@code low} bytes or fewer.
+ *
+ * @see HttpConfiguration#getRouteEntityWatermarks()
+ */
+@SuppressWarnings("unused")
+@NotThreadSafe
+public final class EntityWatermarks {
+
+    @Min(0)
+    private int low = com.aerofs.baseline.http.Constants.DEFAULT_ENTITY_LOW_WATERMARK;
+
+    @Min(1)
+    private int high = com.aerofs.baseline.http.Constants.DEFAULT_ENTITY_HIGH_WATERMARK;
+
+    public EntityWatermarks() {
+        // default constructor used by jackson
+    }
+
+    public EntityWatermarks(int low, int high) {
+        this.low = low;
+        this.high = high;
+    }
+
+    public int getLow() {
+        return low;
+    }
+
+    public void setLow(int low) {
+        this.low = low;
+    }
+
+    public int getHigh() {
+        return high;
+    }
+
+    public void setHigh(int high) {
+        this.high = high;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        EntityWatermarks other = (EntityWatermarks) o;
+        return low == other.low && high == other.high;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(low, high);
+    }
+
+    @Override
+    public String toString() {
+        return Objects
+                .toStringHelper(this)
+                .add("low", low)
+                .add("high", high)
+                .toString();
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Sets;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends server-sent events to every open {@link EventStream}
+ * it created.
+ * <br>
+ * Idle streams are kept alive with heartbeat comments, scheduled
+ * on the service {@link Timer} (which is injectable into resources).
+ * The heartbeat interval should be shorter than the server's idle
+ * timeout, or idle streams are closed by the server.
+ * <pre>
+ *     &#64;Inject
+ *     public StatusResource(Timer timer) {
+ *         this.broadcaster = new EventBroadcaster(timer);
+ *     }
+ * </pre>
+ */
+@ThreadSafe
+public final class EventBroadcaster {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(EventBroadcaster.class);
+
+    private final Set<EventStream> streams = Sets.newConcurrentHashSet();
+    private final Timer timer;
+    private final long heartbeatInterval;
+    private final int maxQueuedEvents;
+    private final Counter subscribersCounter;
+    private final Meter evictionsMeter;
+
+    private volatile boolean closed;
+    private volatile @Nullable Timeout heartbeat;
+
+    public EventBroadcaster(Timer timer) {
+        this(timer, Constants.DEFAULT_EVENT_STREAM_HEARTBEAT_INTERVAL, Constants.DEFAULT_MAX_QUEUED_EVENTS);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param heartbeatInterval time in milliseconds between heartbeats, or 0 for none
+     * @param maxQueuedEvents maximum number of events waiting to be
+     *                        sent to a client before it's evicted
+     */
+    public EventBroadcaster(Timer timer, long heartbeatInterval, int maxQueuedEvents) {
+        Preconditions.checkArgument(heartbeatInterval >= 0, "invalid heartbeat interval %s", heartbeatInterval);
+        Preconditions.checkArgument(maxQueuedEvents > 0, "invalid max queued events %s", maxQueuedEvents);
+
+        this.timer = timer;
+        this.heartbeatInterval = heartbeatInterval;
+        this.maxQueuedEvents = maxQueuedEvents;
+        this.subscribersCounter = MetricRegistries.getRegistry().counter(MetricRegistries.name("http", "event-stream", "subscribers"));
+        this.evictionsMeter = MetricRegistries.getRegistry().meter(MetricRegistries.name("http", "event-stream", "evictions"));
+
+        scheduleHeartbeat();
+    }
+
+    /**
+     * Create a stream that receives every subsequent broadcast.
+     * <br>
+     * The stream <strong>must</strong> be returned from a resource
+     * method; it's only removed from the broadcaster once its
+     * response is completed. A stream that's returned but not
+     * sent (for example, because a response filter replaced it,
+     * or because the request was a {@code HEAD}) is removed once
+     * the response is completed as well.
+     *
+     * @return new stream to return as a response entity
+     */
+    public EventStream newStream() {
+        Preconditions.checkState(!closed, "broadcaster closed");
+
+        EventStream stream = new EventStream(this, maxQueuedEvents);
+        streams.add(stream);
+        subscribersCounter.inc();
+
+        return stream;
+    }
+
+    /**
+     * Send {@code event} to every open stream.
+     *
+     * @param event event to send
+     * @return number of streams on which the event was queued
+     */
+    public int broadcast(ServerSentEvent event) {
+        int sent = 0;
+
+        for (EventStream stream : streams) {
+            if (stream.send(event)) {
+                sent++;
+            }
+        }
+
+        return sent;
+    }
+
+    /**
+     * @return number of open streams
+     */
+    public int getSubscribers() {
+        return streams.size();
+    }
+
+    /**
+     * Stop heartbeats and close every open stream
+     * once the events queued on it have been sent.
+     */
+    public void close() {
+        closed = true;
+
+        Timeout current = heartbeat;
+        if (current != null) {
+            current.cancel();
+        }
+
+        for (EventStream stream : streams) {
+            stream.close();
+        }
+    }
+
+    void remove(EventStream stream, boolean evicted) {
+        if (streams.remove(stream)) {
+            subscribersCounter.dec();
+
+            if (evicted) {
+                evictionsMeter.mark();
+                LOGGER.warn("evict slow event stream consumer");
+            }
+        }
+    }
+
+    private void scheduleHeartbeat() {
+        if (closed || heartbeatInterval == 0) {
+            return;
+        }
+
+        heartbeat = timer.newTimeout(timeout -> {
+            for (EventStream stream : streams) {
+                stream.heartbeat();
+            }
+
+            scheduleHeartbeat();
+        }, heartbeatInterval, TimeUnit.MILLISECONDS);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import io.netty.buffer.Unpooled;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Server-sent event stream to a single client.
+ * <br>
+ * Streams are created by an {@link EventBroadcaster} and
+ * returned from a resource method as the response entity:
+ * <pre>
+ *     &#64;GET
+ *     &#64;Produces(EventStream.MEDIA_TYPE)
+ *     public EventStream subscribe() {
+ *         return broadcaster.newStream();
+ *     }
+ * </pre>
+ * The response stays open until the stream is closed, but
+ * no application thread is held while it's open. Events are
+ * written by the connection's event loop, and only while the
+ * connection is writable. Events that can't be written yet
+ * wait in a bounded queue. A client that falls so far behind
+ * that the queue overflows is evicted: its connection is closed
+ * and it's expected to reconnect.
+ * <br>
+ * Events may be sent from any thread.
+ */
+@ThreadSafe
+public final class EventStream {
+
+    public static final String MEDIA_TYPE = "text/event-stream";
+
+    private final Queue<ServerSentEvent> events = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numQueuedEvents = new AtomicInteger(0);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean ended = new AtomicBoolean(false);
+    private final EventBroadcaster broadcaster;
+    private final int maxQueuedEvents;
+
+    private volatile @Nullable EventStreamChannel channel;
+    private volatile boolean closed;
+    private volatile boolean evicted;
+
+    EventStream(EventBroadcaster broadcaster, int maxQueuedEvents) {
+        this.broadcaster = broadcaster;
+        this.maxQueuedEvents = maxQueuedEvents;
+    }
+
+    /**
+     * Queue an event to be sent to the client.
+     *
+     * @param event event to send
+     * @return {@code true} if the event was queued, {@code false}
+     * if the stream is closed or the client was evicted
+     */
+    public boolean send(ServerSentEvent event) {
+        if (closed) {
+            return false;
+        }
+
+        // the client isn't keeping up
+        if (numQueuedEvents.incrementAndGet() > maxQueuedEvents) {
+            numQueuedEvents.decrementAndGet();
+            evict();
+            return false;
+        }
+
+        events.offer(event);
+        scheduleDrain();
+        return true;
+    }
+
+    /**
+     * Close the stream once all the events
+     * queued so far have been sent.
+     */
+    public void close() {
+        closed = true;
+        scheduleDrain();
+    }
+
+    /**
+     * @return {@code true} if events can still be sent
+     */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    // only sent if nothing else is
+    // waiting to be sent, so that heartbeats
+    // don't pile up for a slow client
+    void heartbeat() {
+        if (channel != null && numQueuedEvents.get() == 0) {
+            send(ServerSentEvent.HEARTBEAT);
+        }
+    }
+
+    // called once the response headers are written
+    void attach(EventStreamChannel channel) {
+        this.channel = channel;
+        scheduleDrain();
+    }
+
+    // called from within the event loop
+    // once the connection is writable again
+    void resume() {
+        if (!events.isEmpty() || closed) {
+            scheduleDrain();
+        }
+    }
+
+    // called when the response is abandoned for any
+    // reason (for example, the connection was closed)
+    // may be called multiple times, from any thread
+    void detach() {
+        closed = true;
+
+        if (ended.compareAndSet(false, true)) {
+            broadcaster.remove(this, false);
+        }
+
+        events.clear();
+    }
+
+    private void evict() {
+        evicted = true;
+        closed = true;
+        scheduleDrain();
+    }
+
+    private void scheduleDrain() {
+        EventStreamChannel current = channel;
+        if (current != null && drainScheduled.compareAndSet(false, true)) {
+            current.executor().execute(this::drain);
+        }
+    }
+
+    // called from within the event loop
+    private void drain() {
+        drainScheduled.set(false);
+
+        EventStreamChannel current = channel;
+        if (current == null || ended.get()) {
+            return;
+        }
+
+        // queued events are dropped because
+        // the connection is closed anyway
+        if (evicted) {
+            events.clear();
+            end(current, true);
+            return;
+        }
+
+        boolean written = false;
+
+        // the remaining events are written once
+        // the connection becomes writable again
+        while (current.isWritable()) {
+            ServerSentEvent event = events.poll();
+            if (event == null) {
+                break;
+            }
+
+            numQueuedEvents.decrementAndGet();
+            current.writeEvent(Unpooled.wrappedBuffer(event.getEncoded()));
+            written = true;
+        }
+
+        if (written) {
+            current.flush();
+        }
+
+        if (closed && events.isEmpty()) {
+            end(current, false);
+        }
+    }
+
+    private void end(EventStreamChannel current, boolean evicted) {
+        if (ended.compareAndSet(false, true)) {
+            broadcaster.remove(this, evicted);
+            current.end(evicted);
+        }
+    }
+}
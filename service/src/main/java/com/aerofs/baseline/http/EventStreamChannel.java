@@ -0,0 +1,63 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * Connection on which the events of an
+ * {@link EventStream} are written.
+ * <br>
+ * Apart from {@link #executor()}, methods are only
+ * called from within the connection's event loop.
+ */
+interface EventStreamChannel {
+
+    /**
+     * @return event loop of the connection
+     */
+    EventExecutor executor();
+
+    /**
+     * @return {@code true} if events can be written
+     * without growing the connection's outbound buffer
+     */
+    boolean isWritable();
+
+    /**
+     * Write an encoded event without flushing it.
+     * Ownership of {@code event} is transferred to the callee.
+     *
+     * @param event encoded event
+     */
+    void writeEvent(ByteBuf event);
+
+    /**
+     * Flush all previously-written events to the network.
+     */
+    void flush();
+
+    /**
+     * Finish the response. Called exactly once.
+     *
+     * @param evicted {@code true} if the client couldn't keep up
+     *                with the stream, in which case the connection is closed
+     */
+    void end(boolean evicted);
+}
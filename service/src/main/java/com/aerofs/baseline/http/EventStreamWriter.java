@@ -0,0 +1,49 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+/**
+ * Implemented by the baseline component that writes
+ * responses to the network if it can push the events of
+ * an {@link EventStream} without holding an application thread.
+ * <br>
+ * The JAX-RS {@code MessageBodyWriter} for {@link EventStream}
+ * uses this interface to hand the stream over. Resources should
+ * simply return an {@link EventStream} instead.
+ */
+public interface EventStreamWriter {
+
+    /**
+     * Send the events of {@code stream} as the response
+     * entity once the response status and headers are written.
+     * The response is only completed when {@code stream} is closed.
+     *
+     * @param stream stream whose events form the response entity
+     */
+    void writeEventStream(EventStream stream);
+
+    /**
+     * Called when a resource method returns {@code stream}, before
+     * any response filter runs. If the response completes without
+     * {@code stream} being written (for example, because a filter
+     * replaced the entity) it's detached from its broadcaster.
+     *
+     * @param stream stream returned as the response entity
+     */
+    void returnEventStream(EventStream stream);
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Type of executor used by an {@link HttpServer}
+ * to run Jersey request processing.
+ */
+@Immutable
+public enum ExecutorType {
+
+    /** Fixed pool of {@code numRequestProcessingThreads} platform threads. */
+    FIXED,
+
+    /**
+     * One virtual thread per request (JDK 21+).
+     * Falls back to {@link #FIXED} if the JVM does not support virtual threads.
+     */
+    VIRTUAL,
+
+    /**
+     * Work-stealing pool with a parallelism of {@code numRequestProcessingThreads}.
+     * Threads blocked waiting for entity bytes are compensated for by the pool.
+     */
+    FORKJOIN,
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Response entity that is a region of a file.
+ * <br>
+ * Resource methods that return a {@code FileRegionEntity}
+ * (or a {@link java.io.File} or {@link java.nio.file.Path})
+ * have the file sent directly from the file system
+ * to the network (i.e. using {@code sendfile}) without
+ * copying it through the response entity stream.
+ * Single-range {@code Range} requests are answered with
+ * {@code 206 Partial Content} responses.
+ * <pre>
+ *     &#64;GET
+ *     &#64;Produces(MediaType.APPLICATION_OCTET_STREAM)
+ *     public FileRegionEntity download() throws IOException {
+ *         FileChannel channel = FileChannel.open(blob, StandardOpenOption.READ);
+ *         return new FileRegionEntity(channel, header.length, channel.size() - header.length);
+ *     }
+ * </pre>
+ * Ownership of the {@link FileChannel} is transferred
+ * to the server, which closes it once the region is sent.
+ */
+@ThreadSafe
+public final class FileRegionEntity implements Closeable {
+
+    private final FileChannel channel;
+    private final long position;
+    private final long count;
+
+    /**
+     * Create an entity for the entire file at {@code path}.
+     */
+    public static FileRegionEntity of(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+
+        try {
+            return new FileRegionEntity(channel, 0, channel.size());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param channel channel from which the region is read
+     * @param position offset of the first byte of the region
+     * @param count number of bytes in the region
+     */
+    public FileRegionEntity(FileChannel channel, long position, long count) {
+        checkArgument(position >= 0, "position %s must be >= 0", position);
+        checkArgument(count >= 0, "count %s must be >= 0", count);
+
+        this.channel = channel;
+        this.position = position;
+        this.count = count;
+    }
+
+    public FileChannel getChannel() {
+        return channel;
+    }
+
+    public long getPosition() {
+        return position;
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
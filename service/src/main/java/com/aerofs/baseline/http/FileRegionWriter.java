@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+/**
+ * Implemented by the baseline component that writes
+ * responses to the network if it can send file regions
+ * without copying them through the response entity stream.
+ * <br>
+ * The JAX-RS {@code MessageBodyWriter} for {@link FileRegionEntity}
+ * uses this interface to hand the region over. Resources should
+ * simply return a {@link FileRegionEntity} instead.
+ */
+public interface FileRegionWriter {
+
+    /**
+     * Send {@code entity} as the response entity once
+     * the response status and headers are written.
+     * Ownership of {@code entity} is transferred to the callee.
+     *
+     * @param entity region of a file to be sent as the response entity
+     */
+    void writeFileRegion(FileRegionEntity entity);
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * {@link ConcurrencyLimiter} whose limit adapts to
+ * changes in request service time.
+ * <br>
+ * The limiter tracks a long-term average of the service time
+ * and compares each new sample against it. When service times
+ * are stable the limit grows by roughly the square root of the
+ * current limit. When they rise (i.e. requests are queueing
+ * somewhere downstream) the limit shrinks in proportion to the
+ * increase. Dropped requests cause a multiplicative decrease.
+ * <br>
+ * The limit is only grown while at least half of it
+ * is in use, so that an idle server does not end up
+ * with an arbitrarily large limit.
+ */
+@ThreadSafe
+final class GradientConcurrencyLimiter implements ConcurrencyLimiter {
+
+    private static final int MIN_LIMIT = 1;
+    private static final double SMOOTHING = 0.2;
+    private static final double MIN_GRADIENT = 0.5;
+    private static final double DROP_BACKOFF_RATIO = 0.9;
+    private static final double LONG_SERVICE_TIME_WINDOW = 600; // samples
+    private static final double LONG_SERVICE_TIME_RECOVERY_RATIO = 0.95;
+
+    private final AtomicInteger numInFlight = new AtomicInteger(0);
+    private final int maxLimit;
+    private final Meter rejectedMeter;
+
+    private volatile int limit;
+
+    // protected by this
+    private double estimatedLimit;
+    private double longServiceTime;
+
+    GradientConcurrencyLimiter(String serverIdentifier, int initialLimit, int maxLimit) {
+        this.maxLimit = maxLimit;
+        this.estimatedLimit = Math.min(initialLimit, maxLimit);
+        this.limit = (int) estimatedLimit;
+
+        MetricRegistry registry = MetricRegistries.getRegistry();
+        this.rejectedMeter = registry.meter(MetricRegistries.name("http", serverIdentifier, "shed", "concurrency-limit"));
+        registerGauge(registry, MetricRegistries.name("http", serverIdentifier, "concurrency-limit"), () -> limit);
+        registerGauge(registry, MetricRegistries.name("http", serverIdentifier, "in-flight-requests"), numInFlight::get);
+    }
+
+    // replaces the gauge registered by an earlier server with the same identifier
+    private static void registerGauge(MetricRegistry registry, String name, Gauge<Integer> gauge) {
+        registry.remove(name);
+        registry.register(name, gauge);
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    @Override
+    public boolean tryAcquire() {
+        while (true) {
+            int current = numInFlight.get();
+
+            if (current >= limit) {
+                rejectedMeter.mark();
+                return false;
+            }
+
+            if (numInFlight.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    @Override
+    public void release(long serviceTime, boolean dropped) {
+        int inFlightAtCompletion = numInFlight.getAndDecrement();
+        update(serviceTime, dropped, inFlightAtCompletion);
+    }
+
+    private synchronized void update(long serviceTime, boolean dropped, int inFlightAtCompletion) {
+        if (dropped) {
+            estimatedLimit = estimatedLimit * DROP_BACKOFF_RATIO;
+        } else if (serviceTime > 0) {
+            if (longServiceTime == 0) {
+                longServiceTime = serviceTime;
+            } else {
+                longServiceTime += (serviceTime - longServiceTime) / LONG_SERVICE_TIME_WINDOW;
+            }
+
+            // the long-term average trails the service time
+            // when load drops. pull it down faster so that
+            // the limit can recover
+            if (longServiceTime / serviceTime > 2) {
+                longServiceTime *= LONG_SERVICE_TIME_RECOVERY_RATIO;
+            }
+
+            // not enough requests to say anything
+            // about how the limit affects service time
+            if (inFlightAtCompletion < estimatedLimit / 2) {
+                return;
+            }
+
+            double gradient = Math.max(MIN_GRADIENT, Math.min(1.0, longServiceTime / serviceTime));
+            double newLimit = estimatedLimit * gradient + Math.sqrt(estimatedLimit);
+            estimatedLimit = estimatedLimit * (1 - SMOOTHING) + newLimit * SMOOTHING;
+        }
+
+        estimatedLimit = Math.max(MIN_LIMIT, Math.min(maxLimit, estimatedLimit));
+        limit = (int) estimatedLimit;
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.ImmutableMap;
+import io.netty.handler.codec.AsciiString;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders.Names;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Copies headers between netty and jersey messages.
+ * <br>
+ * Response header names that applications commonly
+ * set are mapped to cached {@link AsciiString} instances,
+ * whose hash codes are precomputed and whose bytes
+ * netty's encoder can copy without converting characters.
+ */
+@ThreadSafe
+abstract class HeaderCopier {
+
+    private static final Map<String, AsciiString> COMMON_RESPONSE_HEADER_NAMES = newAsciiNames(
+            Names.ACCEPT_RANGES,
+            Names.ACCESS_CONTROL_ALLOW_CREDENTIALS,
+            Names.ACCESS_CONTROL_ALLOW_HEADERS,
+            Names.ACCESS_CONTROL_ALLOW_METHODS,
+            Names.ACCESS_CONTROL_ALLOW_ORIGIN,
+            Names.ACCESS_CONTROL_EXPOSE_HEADERS,
+            Names.ACCESS_CONTROL_MAX_AGE,
+            Names.ALLOW,
+            Names.CACHE_CONTROL,
+            Names.CONNECTION,
+            "Content-Disposition",
+            Names.CONTENT_ENCODING,
+            Names.CONTENT_LANGUAGE,
+            Names.CONTENT_LENGTH,
+            Names.CONTENT_LOCATION,
+            Names.CONTENT_RANGE,
+            Names.CONTENT_TYPE,
+            Names.DATE,
+            Names.ETAG,
+            Names.EXPIRES,
+            Names.LAST_MODIFIED,
+            Names.LOCATION,
+            Names.RETRY_AFTER,
+            Names.SET_COOKIE,
+            Names.TRANSFER_ENCODING,
+            Names.VARY,
+            Names.WWW_AUTHENTICATE,
+            Headers.REQUEST_TRACING_HEADER,
+            Headers.REQUEST_FAILURE_ID_HEADER);
+
+    private static Map<String, AsciiString> newAsciiNames(String... names) {
+        ImmutableMap.Builder<String, AsciiString> builder = ImmutableMap.builder();
+        for (String name : names) {
+            builder.put(name, new AsciiString(name));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Add every header in a netty request to a jersey request's headers.
+     * <br>
+     * Values are added to the map directly instead of through
+     * {@code ContainerRequest.header()}, which looks up the
+     * JAX-RS runtime to convert each value to a string.
+     */
+    static void copyRequestHeaders(HttpHeaders source, MultivaluedMap<String, String> destination) {
+        for (Map.Entry<String, String> header : source) {
+            destination.add(header.getKey(), header.getValue());
+        }
+    }
+
+    /**
+     * Add every header in a jersey response to a netty response's headers.
+     */
+    static void copyResponseHeaders(MultivaluedMap<String, Object> source, HttpHeaders destination) {
+        for (Map.Entry<String, List<Object>> header : source.entrySet()) {
+            CharSequence name = getResponseHeaderName(header.getKey());
+            List<Object> values = header.getValue();
+
+            // avoid creating an iterator for the common case
+            if (values.size() == 1) {
+                destination.add(name, values.get(0).toString());
+            } else {
+                for (Object value : values) {
+                    destination.add(name, value.toString());
+                }
+            }
+        }
+    }
+
+    private static CharSequence getResponseHeaderName(String name) {
+        AsciiString asciiName = COMMON_RESPONSE_HEADER_NAMES.get(name);
+        return asciiName != null ? asciiName : name;
+    }
+
+    private HeaderCopier() {
+        // to prevent instantiation by subclasses
+    }
+}
@@ -17,11 +17,18 @@
 package com.aerofs.baseline.http;
 
 import com.google.common.base.Objects;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import org.hibernate.validator.constraints.NotBlank;
 
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import javax.validation.Valid;
+import javax.validation.constraints.Max;
 import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+import java.util.Map;
 
 @SuppressWarnings("unused")
 @NotThreadSafe
@@ -35,6 +42,17 @@ public final class HttpConfiguration {
 
     private boolean directMemoryBacked = true;
 
+    @NotNull
+    private Transport transport = Transport.NIO;
+
+    @Valid
+    private @Nullable TlsConfiguration tls;
+
+    @NotNull
+    private RequestIdFormat requestIdFormat = RequestIdFormat.HEX_64;
+
+    private boolean reusePort = true;
+
     private boolean useDefaultExceptionMappers = true;
 
     @Min(1)
@@ -43,12 +61,109 @@ public final class HttpConfiguration {
     @Min(1)
     private int maxAcceptQueueSize = com.aerofs.baseline.http.Constants.DEFAULT_MAX_ACCEPT_QUEUE_SIZE;
 
+    @Min(1)
+    private int numAcceptors = com.aerofs.baseline.http.Constants.DEFAULT_NUM_ACCEPTORS;
+
     @Min(1)
     private int numNetworkThreads = com.aerofs.baseline.http.Constants.DEFAULT_NUM_NETWORK_IO_THREADS;
 
     @Min(1)
     private int numRequestProcessingThreads = com.aerofs.baseline.http.Constants.DEFAULT_NUM_REQUEST_PROCESSING_THREADS;
 
+    @NotNull
+    private ExecutorType executorType = ExecutorType.FIXED;
+
+    @Min(1)
+    private int maxQueuedRequests = com.aerofs.baseline.http.Constants.DEFAULT_MAX_QUEUED_REQUESTS;
+
+    @Min(0)
+    private long maxRequestQueueTime = com.aerofs.baseline.http.Constants.DEFAULT_MAX_REQUEST_QUEUE_TIME;
+
+    @NotNull
+    private Map<String, RequestPriority> routePriorities = Maps.newHashMap();
+
+    private boolean adaptiveConcurrencyLimit = false;
+
+    @Min(1)
+    private int initialConcurrencyLimit = com.aerofs.baseline.http.Constants.DEFAULT_INITIAL_CONCURRENCY_LIMIT;
+
+    @Min(1)
+    private int maxConcurrencyLimit = com.aerofs.baseline.http.Constants.DEFAULT_MAX_CONCURRENCY_LIMIT;
+
+    private boolean readAhead = false;
+
+    @Min(0)
+    private int maxQueuedReads = com.aerofs.baseline.http.Constants.DEFAULT_MAX_QUEUED_READS;
+
+    @Min(0)
+    private long maxQueuedReadBytes = com.aerofs.baseline.http.Constants.DEFAULT_MAX_QUEUED_READ_BYTES;
+
+    @Min(0)
+    private int entityLowWatermark = com.aerofs.baseline.http.Constants.DEFAULT_ENTITY_LOW_WATERMARK;
+
+    @Min(1)
+    private int entityHighWatermark = com.aerofs.baseline.http.Constants.DEFAULT_ENTITY_HIGH_WATERMARK;
+
+    @Valid
+    @NotNull
+    private Map<String, EntityWatermarks> routeEntityWatermarks = Maps.newHashMap();
+
+    private boolean adaptiveEntityWatermarks = false;
+
+    @Min(1)
+    private int maxEntityHighWatermark = com.aerofs.baseline.http.Constants.DEFAULT_MAX_ENTITY_HIGH_WATERMARK;
+
+    @Min(1)
+    private int responseBufferSize = com.aerofs.baseline.http.Constants.DEFAULT_RESPONSE_BUFFER_SIZE;
+
+    @Min(1)
+    private int maxBufferedResponseBytes = com.aerofs.baseline.http.Constants.DEFAULT_MAX_BUFFERED_RESPONSE_BYTES;
+
+    private boolean adaptiveResponseBufferSize = false;
+
+    private boolean responseCompression = false;
+
+    @Min(1)
+    @Max(9)
+    private int compressionLevel = com.aerofs.baseline.http.Constants.DEFAULT_COMPRESSION_LEVEL;
+
+    @Min(0)
+    private int minCompressibleSize = com.aerofs.baseline.http.Constants.DEFAULT_MIN_COMPRESSIBLE_SIZE;
+
+    @NotNull
+    private List<String> compressibleContentTypes = Lists.newArrayList(com.aerofs.baseline.http.Constants.DEFAULT_COMPRESSIBLE_CONTENT_TYPES);
+
+    @Min(0)
+    private int maxPooledDeflaters = com.aerofs.baseline.http.Constants.DEFAULT_MAX_POOLED_DEFLATERS;
+
+    private boolean requestDecompression = false;
+
+    @Min(1)
+    private long maxDecompressedEntitySize = com.aerofs.baseline.http.Constants.DEFAULT_MAX_DECOMPRESSED_ENTITY_SIZE;
+
+    @Min(1)
+    private int maxDecompressionRatio = com.aerofs.baseline.http.Constants.DEFAULT_MAX_DECOMPRESSION_RATIO;
+
+    @Min(0)
+    private int maxPooledInflaters = com.aerofs.baseline.http.Constants.DEFAULT_MAX_POOLED_INFLATERS;
+
+    @Min(1)
+    private int maxConcurrentPipelinedRequests = com.aerofs.baseline.http.Constants.DEFAULT_MAX_CONCURRENT_PIPELINED_REQUESTS;
+
+    @Min(0)
+    private int uriCacheSize = com.aerofs.baseline.http.Constants.DEFAULT_URI_CACHE_SIZE;
+
+    private boolean inlineExecution = true;
+
+    @Min(0)
+    private long inlineExecutionWarnThreshold = com.aerofs.baseline.http.Constants.DEFAULT_INLINE_EXECUTION_WARN_THRESHOLD;
+
+    @Min(1)
+    private int maxWebSocketMessageSize = com.aerofs.baseline.http.Constants.DEFAULT_MAX_WEBSOCKET_MESSAGE_SIZE;
+
+    @Min(1)
+    private int maxQueuedWebSocketMessages = com.aerofs.baseline.http.Constants.DEFAULT_MAX_QUEUED_WEBSOCKET_MESSAGES;
+
     private boolean enabled = true;
 
     public String getHost() {
@@ -77,6 +192,41 @@ public final class HttpConfiguration {
         this.directMemoryBacked = directMemoryBacked;
     }
 
+    public Transport getTransport() {
+        return transport;
+    }
+
+    public void setTransport(Transport transport) {
+        this.transport = transport;
+    }
+
+    /**
+     * TLS settings, or null if the server accepts plaintext connections.
+     */
+    public @Nullable TlsConfiguration getTls() {
+        return tls;
+    }
+
+    public void setTls(@Nullable TlsConfiguration tls) {
+        this.tls = tls;
+    }
+
+    public RequestIdFormat getRequestIdFormat() {
+        return requestIdFormat;
+    }
+
+    public void setRequestIdFormat(RequestIdFormat requestIdFormat) {
+        this.requestIdFormat = requestIdFormat;
+    }
+
+    public boolean isReusePort() {
+        return reusePort;
+    }
+
+    public void setReusePort(boolean reusePort) {
+        this.reusePort = reusePort;
+    }
+
     public boolean getUseDefaultExceptionMappers()
     {
         return useDefaultExceptionMappers;
@@ -103,6 +253,14 @@ public final class HttpConfiguration {
         this.maxAcceptQueueSize = maxAcceptQueueSize;
     }
 
+    public int getNumAcceptors() {
+        return numAcceptors;
+    }
+
+    public void setNumAcceptors(int numAcceptors) {
+        this.numAcceptors = numAcceptors;
+    }
+
     public int getNumNetworkThreads() {
         return numNetworkThreads;
     }
@@ -119,6 +277,341 @@ public final class HttpConfiguration {
         this.numRequestProcessingThreads = numRequestProcessingThreads;
     }
 
+    public ExecutorType getExecutorType() {
+        return executorType;
+    }
+
+    public void setExecutorType(ExecutorType executorType) {
+        this.executorType = executorType;
+    }
+
+    public int getMaxQueuedRequests() {
+        return maxQueuedRequests;
+    }
+
+    public void setMaxQueuedRequests(int maxQueuedRequests) {
+        this.maxQueuedRequests = maxQueuedRequests;
+    }
+
+    public long getMaxRequestQueueTime() {
+        return maxRequestQueueTime;
+    }
+
+    public void setMaxRequestQueueTime(long maxRequestQueueTime) {
+        this.maxRequestQueueTime = maxRequestQueueTime;
+    }
+
+    /**
+     * Path prefixes and the {@link RequestPriority} of requests
+     * under them. Requests that match no prefix are {@link RequestPriority#NORMAL}.
+     */
+    public Map<String, RequestPriority> getRoutePriorities() {
+        return routePriorities;
+    }
+
+    public void setRoutePriorities(Map<String, RequestPriority> routePriorities) {
+        this.routePriorities = routePriorities;
+    }
+
+    public boolean isAdaptiveConcurrencyLimit() {
+        return adaptiveConcurrencyLimit;
+    }
+
+    public void setAdaptiveConcurrencyLimit(boolean adaptiveConcurrencyLimit) {
+        this.adaptiveConcurrencyLimit = adaptiveConcurrencyLimit;
+    }
+
+    public int getInitialConcurrencyLimit() {
+        return initialConcurrencyLimit;
+    }
+
+    public void setInitialConcurrencyLimit(int initialConcurrencyLimit) {
+        this.initialConcurrencyLimit = initialConcurrencyLimit;
+    }
+
+    public int getMaxConcurrencyLimit() {
+        return maxConcurrencyLimit;
+    }
+
+    public void setMaxConcurrencyLimit(int maxConcurrencyLimit) {
+        this.maxConcurrencyLimit = maxConcurrencyLimit;
+    }
+
+    /**
+     * If true, the network thread keeps reading from a
+     * connection while its current request is processed,
+     * until {@code maxQueuedReads} objects or
+     * {@code maxQueuedReadBytes} content bytes are queued.
+     * Otherwise the connection is only read on demand.
+     */
+    public boolean isReadAhead() {
+        return readAhead;
+    }
+
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    public int getMaxQueuedReads() {
+        return maxQueuedReads;
+    }
+
+    public void setMaxQueuedReads(int maxQueuedReads) {
+        this.maxQueuedReads = maxQueuedReads;
+    }
+
+    public long getMaxQueuedReadBytes() {
+        return maxQueuedReadBytes;
+    }
+
+    public void setMaxQueuedReadBytes(long maxQueuedReadBytes) {
+        this.maxQueuedReadBytes = maxQueuedReadBytes;
+    }
+
+    public int getEntityLowWatermark() {
+        return entityLowWatermark;
+    }
+
+    public void setEntityLowWatermark(int entityLowWatermark) {
+        this.entityLowWatermark = entityLowWatermark;
+    }
+
+    public int getEntityHighWatermark() {
+        return entityHighWatermark;
+    }
+
+    public void setEntityHighWatermark(int entityHighWatermark) {
+        this.entityHighWatermark = entityHighWatermark;
+    }
+
+    /**
+     * Path prefixes and the {@link EntityWatermarks} used for
+     * requests under them. Requests that match no prefix use
+     * {@link #getEntityLowWatermark()} and {@link #getEntityHighWatermark()}.
+     */
+    public Map<String, EntityWatermarks> getRouteEntityWatermarks() {
+        return routeEntityWatermarks;
+    }
+
+    public void setRouteEntityWatermarks(Map<String, EntityWatermarks> routeEntityWatermarks) {
+        this.routeEntityWatermarks = routeEntityWatermarks;
+    }
+
+    public boolean isAdaptiveEntityWatermarks() {
+        return adaptiveEntityWatermarks;
+    }
+
+    public void setAdaptiveEntityWatermarks(boolean adaptiveEntityWatermarks) {
+        this.adaptiveEntityWatermarks = adaptiveEntityWatermarks;
+    }
+
+    public int getMaxEntityHighWatermark() {
+        return maxEntityHighWatermark;
+    }
+
+    public void setMaxEntityHighWatermark(int maxEntityHighWatermark) {
+        this.maxEntityHighWatermark = maxEntityHighWatermark;
+    }
+
+    public int getResponseBufferSize() {
+        return responseBufferSize;
+    }
+
+    public void setResponseBufferSize(int responseBufferSize) {
+        this.responseBufferSize = responseBufferSize;
+    }
+
+    /**
+     * Maximum number of response-entity bytes held in memory
+     * before they're written out, even if the response
+     * entity stream was not flushed.
+     */
+    public int getMaxBufferedResponseBytes() {
+        return maxBufferedResponseBytes;
+    }
+
+    public void setMaxBufferedResponseBytes(int maxBufferedResponseBytes) {
+        this.maxBufferedResponseBytes = maxBufferedResponseBytes;
+    }
+
+    public boolean isAdaptiveResponseBufferSize() {
+        return adaptiveResponseBufferSize;
+    }
+
+    public void setAdaptiveResponseBufferSize(boolean adaptiveResponseBufferSize) {
+        this.adaptiveResponseBufferSize = adaptiveResponseBufferSize;
+    }
+
+    /**
+     * Whether response entities are compressed
+     * for clients that accept gzip or deflate.
+     */
+    public boolean isResponseCompression() {
+        return responseCompression;
+    }
+
+    public void setResponseCompression(boolean responseCompression) {
+        this.responseCompression = responseCompression;
+    }
+
+    public int getCompressionLevel() {
+        return compressionLevel;
+    }
+
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Minimum response-entity size, in bytes, for the entity to be
+     * compressed. Entities whose length isn't known in advance
+     * are always compressed.
+     */
+    public int getMinCompressibleSize() {
+        return minCompressibleSize;
+    }
+
+    public void setMinCompressibleSize(int minCompressibleSize) {
+        this.minCompressibleSize = minCompressibleSize;
+    }
+
+    /**
+     * Media-type prefixes (for example, {@code text/} or
+     * {@code application/json}) of compressible response entities.
+     */
+    public List<String> getCompressibleContentTypes() {
+        return compressibleContentTypes;
+    }
+
+    public void setCompressibleContentTypes(List<String> compressibleContentTypes) {
+        this.compressibleContentTypes = compressibleContentTypes;
+    }
+
+    public int getMaxPooledDeflaters() {
+        return maxPooledDeflaters;
+    }
+
+    public void setMaxPooledDeflaters(int maxPooledDeflaters) {
+        this.maxPooledDeflaters = maxPooledDeflaters;
+    }
+
+    /**
+     * Whether gzip and deflate request entities are decompressed
+     * before they're passed to resources. If enabled, resources
+     * see neither the {@code Content-Encoding} nor the
+     * {@code Content-Length} of the compressed entity.
+     */
+    public boolean isRequestDecompression() {
+        return requestDecompression;
+    }
+
+    public void setRequestDecompression(boolean requestDecompression) {
+        this.requestDecompression = requestDecompression;
+    }
+
+    public long getMaxDecompressedEntitySize() {
+        return maxDecompressedEntitySize;
+    }
+
+    public void setMaxDecompressedEntitySize(long maxDecompressedEntitySize) {
+        this.maxDecompressedEntitySize = maxDecompressedEntitySize;
+    }
+
+    /**
+     * Maximum ratio of decompressed to compressed
+     * bytes in a request entity, after the first megabyte.
+     */
+    public int getMaxDecompressionRatio() {
+        return maxDecompressionRatio;
+    }
+
+    public void setMaxDecompressionRatio(int maxDecompressionRatio) {
+        this.maxDecompressionRatio = maxDecompressionRatio;
+    }
+
+    public int getMaxPooledInflaters() {
+        return maxPooledInflaters;
+    }
+
+    public void setMaxPooledInflaters(int maxPooledInflaters) {
+        this.maxPooledInflaters = maxPooledInflaters;
+    }
+
+    public int getMaxConcurrentPipelinedRequests() {
+        return maxConcurrentPipelinedRequests;
+    }
+
+    public void setMaxConcurrentPipelinedRequests(int maxConcurrentPipelinedRequests) {
+        this.maxConcurrentPipelinedRequests = maxConcurrentPipelinedRequests;
+    }
+
+    /**
+     * Maximum number of request paths whose route settings
+     * are cached (and of request URIs without a query string
+     * that are kept parsed), or 0 to parse and look up every
+     * request URI.
+     */
+    public int getUriCacheSize() {
+        return uriCacheSize;
+    }
+
+    public void setUriCacheSize(int uriCacheSize) {
+        this.uriCacheSize = uriCacheSize;
+    }
+
+    /**
+     * Whether requests without an entity that are routed to
+     * {@link NonBlocking} resource methods are processed
+     * on the network thread that received them.
+     * Has no effect on HTTP requests if any
+     * {@link com.aerofs.baseline.auth.Authenticator} is registered.
+     */
+    public boolean isInlineExecution() {
+        return inlineExecution;
+    }
+
+    public void setInlineExecution(boolean inlineExecution) {
+        this.inlineExecution = inlineExecution;
+    }
+
+    /**
+     * Time in milliseconds after which a request processed on a
+     * network thread is logged as possibly blocking, or 0 to never
+     * check. Meant for development, to catch misuse of {@link NonBlocking}.
+     */
+    public long getInlineExecutionWarnThreshold() {
+        return inlineExecutionWarnThreshold;
+    }
+
+    public void setInlineExecutionWarnThreshold(long inlineExecutionWarnThreshold) {
+        this.inlineExecutionWarnThreshold = inlineExecutionWarnThreshold;
+    }
+
+    /**
+     * Maximum size in bytes of a single inbound WebSocket
+     * message, after its fragments are aggregated. Sockets
+     * that send larger messages are closed.
+     */
+    public int getMaxWebSocketMessageSize() {
+        return maxWebSocketMessageSize;
+    }
+
+    public void setMaxWebSocketMessageSize(int maxWebSocketMessageSize) {
+        this.maxWebSocketMessageSize = maxWebSocketMessageSize;
+    }
+
+    /**
+     * Maximum number of outbound messages queued for
+     * a WebSocket whose connection isn't writable.
+     */
+    public int getMaxQueuedWebSocketMessages() {
+        return maxQueuedWebSocketMessages;
+    }
+
+    public void setMaxQueuedWebSocketMessages(int maxQueuedWebSocketMessages) {
+        this.maxQueuedWebSocketMessages = maxQueuedWebSocketMessages;
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -136,16 +629,54 @@ public final class HttpConfiguration {
         return Objects.equal(host, other.host)
                 && port == other.port
                 && directMemoryBacked == other.directMemoryBacked
+                && transport == other.transport
+                && Objects.equal(tls, other.tls)
+                && requestIdFormat == other.requestIdFormat
+                && reusePort == other.reusePort
                 && idleTimeout == other.idleTimeout
                 && maxAcceptQueueSize == other.maxAcceptQueueSize
+                && numAcceptors == other.numAcceptors
                 && numNetworkThreads == other.numNetworkThreads
                 && numRequestProcessingThreads == other.numRequestProcessingThreads
+                && executorType == other.executorType
+                && maxQueuedRequests == other.maxQueuedRequests
+                && maxRequestQueueTime == other.maxRequestQueueTime
+                && Objects.equal(routePriorities, other.routePriorities)
+                && adaptiveConcurrencyLimit == other.adaptiveConcurrencyLimit
+                && initialConcurrencyLimit == other.initialConcurrencyLimit
+                && maxConcurrencyLimit == other.maxConcurrencyLimit
+                && readAhead == other.readAhead
+                && maxQueuedReads == other.maxQueuedReads
+                && maxQueuedReadBytes == other.maxQueuedReadBytes
+                && entityLowWatermark == other.entityLowWatermark
+                && entityHighWatermark == other.entityHighWatermark
+                && Objects.equal(routeEntityWatermarks, other.routeEntityWatermarks)
+                && adaptiveEntityWatermarks == other.adaptiveEntityWatermarks
+                && maxEntityHighWatermark == other.maxEntityHighWatermark
+                && responseBufferSize == other.responseBufferSize
+                && maxBufferedResponseBytes == other.maxBufferedResponseBytes
+                && adaptiveResponseBufferSize == other.adaptiveResponseBufferSize
+                && responseCompression == other.responseCompression
+                && compressionLevel == other.compressionLevel
+                && minCompressibleSize == other.minCompressibleSize
+                && Objects.equal(compressibleContentTypes, other.compressibleContentTypes)
+                && maxPooledDeflaters == other.maxPooledDeflaters
+                && requestDecompression == other.requestDecompression
+                && maxDecompressedEntitySize == other.maxDecompressedEntitySize
+                && maxDecompressionRatio == other.maxDecompressionRatio
+                && maxPooledInflaters == other.maxPooledInflaters
+                && maxConcurrentPipelinedRequests == other.maxConcurrentPipelinedRequests
+                && uriCacheSize == other.uriCacheSize
+                && inlineExecution == other.inlineExecution
+                && inlineExecutionWarnThreshold == other.inlineExecutionWarnThreshold
+                && maxWebSocketMessageSize == other.maxWebSocketMessageSize
+                && maxQueuedWebSocketMessages == other.maxQueuedWebSocketMessages
                 && enabled == other.enabled;
     }
 
     @Override
     public int hashCode() {
-        return Objects.hashCode(host, port, directMemoryBacked, idleTimeout, maxAcceptQueueSize, numNetworkThreads, numRequestProcessingThreads, enabled);
+        return Objects.hashCode(host, port, directMemoryBacked, transport, tls, requestIdFormat, reusePort, idleTimeout, maxAcceptQueueSize, numAcceptors, numNetworkThreads, numRequestProcessingThreads, executorType, maxQueuedRequests, maxRequestQueueTime, routePriorities, adaptiveConcurrencyLimit, initialConcurrencyLimit, maxConcurrencyLimit, readAhead, maxQueuedReads, maxQueuedReadBytes, entityLowWatermark, entityHighWatermark, routeEntityWatermarks, adaptiveEntityWatermarks, maxEntityHighWatermark, responseBufferSize, maxBufferedResponseBytes, adaptiveResponseBufferSize, responseCompression, compressionLevel, minCompressibleSize, compressibleContentTypes, maxPooledDeflaters, requestDecompression, maxDecompressedEntitySize, maxDecompressionRatio, maxPooledInflaters, maxConcurrentPipelinedRequests, uriCacheSize, inlineExecution, inlineExecutionWarnThreshold, maxWebSocketMessageSize, maxQueuedWebSocketMessages, enabled);
     }
 
     @Override
@@ -155,10 +686,48 @@ public final class HttpConfiguration {
                 .add("host", host)
                 .add("port", port)
                 .add("directMemoryBacked", directMemoryBacked)
+                .add("transport", transport)
+                .add("tls", tls)
+                .add("requestIdFormat", requestIdFormat)
+                .add("reusePort", reusePort)
                 .add("idleTimeout", idleTimeout)
                 .add("maxAcceptQueueSize", maxAcceptQueueSize)
+                .add("numAcceptors", numAcceptors)
                 .add("numNetworkThreads", numNetworkThreads)
                 .add("numRequestProcessingThreads", numRequestProcessingThreads)
+                .add("executorType", executorType)
+                .add("maxQueuedRequests", maxQueuedRequests)
+                .add("maxRequestQueueTime", maxRequestQueueTime)
+                .add("routePriorities", routePriorities)
+                .add("adaptiveConcurrencyLimit", adaptiveConcurrencyLimit)
+                .add("initialConcurrencyLimit", initialConcurrencyLimit)
+                .add("maxConcurrencyLimit", maxConcurrencyLimit)
+                .add("readAhead", readAhead)
+                .add("maxQueuedReads", maxQueuedReads)
+                .add("maxQueuedReadBytes", maxQueuedReadBytes)
+                .add("entityLowWatermark", entityLowWatermark)
+                .add("entityHighWatermark", entityHighWatermark)
+                .add("routeEntityWatermarks", routeEntityWatermarks)
+                .add("adaptiveEntityWatermarks", adaptiveEntityWatermarks)
+                .add("maxEntityHighWatermark", maxEntityHighWatermark)
+                .add("responseBufferSize", responseBufferSize)
+                .add("maxBufferedResponseBytes", maxBufferedResponseBytes)
+                .add("adaptiveResponseBufferSize", adaptiveResponseBufferSize)
+                .add("responseCompression", responseCompression)
+                .add("compressionLevel", compressionLevel)
+                .add("minCompressibleSize", minCompressibleSize)
+                .add("compressibleContentTypes", compressibleContentTypes)
+                .add("maxPooledDeflaters", maxPooledDeflaters)
+                .add("requestDecompression", requestDecompression)
+                .add("maxDecompressedEntitySize", maxDecompressedEntitySize)
+                .add("maxDecompressionRatio", maxDecompressionRatio)
+                .add("maxPooledInflaters", maxPooledInflaters)
+                .add("maxConcurrentPipelinedRequests", maxConcurrentPipelinedRequests)
+                .add("uriCacheSize", uriCacheSize)
+                .add("inlineExecution", inlineExecution)
+                .add("inlineExecutionWarnThreshold", inlineExecutionWarnThreshold)
+                .add("maxWebSocketMessageSize", maxWebSocketMessageSize)
+                .add("maxQueuedWebSocketMessages", maxQueuedWebSocketMessages)
                 .add("enabled", enabled)
                 .toString();
     }
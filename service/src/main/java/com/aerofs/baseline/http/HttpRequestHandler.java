@@ -16,6 +16,7 @@
 
 package com.aerofs.baseline.http;
 
+import com.aerofs.baseline.auth.TlsSecurityContext;
 import com.aerofs.baseline.metrics.MetricRegistries;
 import com.codahale.metrics.Histogram;
 import com.codahale.metrics.Meter;
@@ -23,9 +24,18 @@ import com.codahale.metrics.Timer;
 import com.google.common.base.Objects;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Closeables;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.DefaultFileRegion;
+import io.netty.handler.codec.AsciiString;
+import io.netty.handler.codec.http.DefaultFullHttpResponse;
+import io.netty.handler.codec.http.DefaultHttpContent;
 import io.netty.handler.codec.http.DefaultHttpResponse;
 import io.netty.handler.codec.http.HttpContent;
 import io.netty.handler.codec.http.HttpHeaders;
@@ -37,36 +47,49 @@ import io.netty.handler.codec.http.HttpResponse;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.HttpVersion;
 import io.netty.handler.codec.http.LastHttpContent;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.stream.ChunkedNioFile;
+import io.netty.util.ReferenceCountUtil;
 import io.netty.util.Timeout;
+import io.netty.util.concurrent.EventExecutor;
 import org.glassfish.jersey.internal.MapPropertiesDelegate;
 import org.glassfish.jersey.server.ApplicationHandler;
 import org.glassfish.jersey.server.ContainerException;
 import org.glassfish.jersey.server.ContainerRequest;
 import org.glassfish.jersey.server.ContainerResponse;
 import org.glassfish.jersey.server.ResourceConfig;
+import org.glassfish.jersey.server.model.ResourceMethod;
 import org.glassfish.jersey.server.spi.Container;
 import org.glassfish.jersey.server.spi.ContainerResponseWriter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.NotThreadSafe;
+import javax.net.ssl.SSLPeerUnverifiedException;
+import javax.net.ssl.SSLSession;
+import javax.ws.rs.HttpMethod;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.core.SecurityContext;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.net.URI;
 import java.security.Principal;
+import java.security.cert.Certificate;
+import java.security.cert.X509Certificate;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Executor;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 @NotThreadSafe
 final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements Container {
 
     private static final String NETTY_HTTP_DECODING_FAILED_URI = "/bad-request";
     private static final long ZERO_CONTENT_LENGTH = 0;
+    private static final AsciiString REQUEST_TRACING_HEADER = new AsciiString(Headers.REQUEST_TRACING_HEADER);
 
     private static final SecurityContext DEFAULT_SECURITY_CONTEXT = new SecurityContext() {
         @Override
@@ -109,18 +132,52 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
     private static final MapPropertiesDelegate PROPERTIES_DELEGATE = new MapPropertiesDelegate();
 
     private final URI baseUri;
-    private final io.netty.util.Timer timer;
-    private final Executor applicationExecutor;
+    private final SuspendTimer suspendTimer;
+    private final RequestQueue requestQueue;
+    private final ConcurrencyLimiter concurrencyLimiter;
+    private final RequestUriCache requestUriCache;
+    private final ResponseBufferSizer responseBufferSizer;
+    private final ResponseCompressor responseCompressor;
+    private final RequestDecompressor requestDecompressor;
     private final ApplicationHandler applicationHandler;
+    private final int maxConcurrentPipelinedRequests;
+    private final InlineExecutor inlineExecutor;
+    private final Set<PendingRequest> pendingRequests = Sets.newConcurrentHashSet(); // may be accessed from within a request-processing thread
 
+    // all the following are only accessed from within the event loop
     private Runnable savedRequestRunnable;
-    private volatile PendingRequest pendingRequest; // may be accessed from within a request-processing thread
-
-    HttpRequestHandler(ApplicationHandler applicationHandler, URI baseUri, Executor applicationExecutor, io.netty.util.Timer timer) {
+    private PendingRequest receivingRequest;
+    private ResponseSequencer responseSequencer;
+    private long nextRequestSequence;
+    private int numInFlightRequests;
+    private boolean readSuspended;
+    private ChannelId channelId;
+    private SecurityContext securityContext;
+
+    HttpRequestHandler(ApplicationHandler applicationHandler, URI baseUri, RequestUriCache requestUriCache, ResponseBufferSizer responseBufferSizer, ResponseCompressor responseCompressor, RequestDecompressor requestDecompressor, ConcurrencyLimiter concurrencyLimiter, RequestQueue requestQueue, SuspendTimer suspendTimer, int maxConcurrentPipelinedRequests, InlineExecutor inlineExecutor) {
         this.applicationHandler = applicationHandler;
         this.baseUri = baseUri;
-        this.applicationExecutor = applicationExecutor;
-        this.timer = timer;
+        this.requestUriCache = requestUriCache;
+        this.responseBufferSizer = responseBufferSizer;
+        this.responseCompressor = responseCompressor;
+        this.requestDecompressor = requestDecompressor;
+        this.concurrencyLimiter = concurrencyLimiter;
+        this.requestQueue = requestQueue;
+        this.suspendTimer = suspendTimer;
+        this.maxConcurrentPipelinedRequests = maxConcurrentPipelinedRequests;
+        this.inlineExecutor = inlineExecutor;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        // responses only have to be reordered if
+        // multiple pipelined requests can be processed
+        // simultaneously. if not, they're written directly
+        if (maxConcurrentPipelinedRequests > 1) {
+            responseSequencer = new ResponseSequencer(ctx);
+        }
+
+        super.handlerAdded(ctx);
     }
 
     @Override
@@ -131,6 +188,19 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
         ctx.read();
     }
 
+    // event streams stop writing once the
+    // channel's outbound buffer is full
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            for (PendingRequest pendingRequest : pendingRequests) {
+                pendingRequest.resumeEventStream();
+            }
+        }
+
+        super.channelWritabilityChanged(ctx);
+    }
+
     @Override
     public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
         cleanup(ctx, cause);
@@ -140,18 +210,24 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
     private void cleanup(ChannelHandlerContext ctx, Throwable cause) {
         LOGGER.trace("{}: run http cleanup handler", Channels.getHexText(ctx), cause);
 
-        // we're still waiting for the request to be processed
+        // we're still waiting for requests to be processed
         // so, destroy the input and output streams associated
-        // with the current request
-        if (pendingRequest != null) {
+        // with each of them
+        for (PendingRequest pendingRequest : pendingRequests) {
             pendingRequest.closeStreams();
         }
+
+        // drop any responses waiting to be written
+        if (responseSequencer != null) {
+            responseSequencer.release();
+        }
     }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (ctx.channel().closeFuture().isDone()) {
             LOGGER.warn("{}: drop http message - channel closed", Channels.getHexText(ctx));
+            ReferenceCountUtil.release(msg);
             return;
         }
 
@@ -171,15 +247,20 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
             // this is the first object netty generates:
             // an HttpRequest containing a number of headers
 
-            // we should not have another request pending
-            Preconditions.checkState(pendingRequest == null, "previous request pending:%s", pendingRequest);
+            // we should not be receiving another request
+            // and we shouldn't be over the pipelining limit
+            Preconditions.checkState(receivingRequest == null, "previous request receiving:%s", receivingRequest);
+            Preconditions.checkState(numInFlightRequests < maxConcurrentPipelinedRequests, "too many requests in flight:%s", numInFlightRequests);
 
             // cast it
             HttpRequest nettyRequest = (HttpRequest) msg;
 
             // get the request id
-            String requestId = nettyRequest.headers().get(Headers.REQUEST_TRACING_HEADER);
-            Preconditions.checkState(requestId != null, "http request on %s has no request id", Channels.getHexText(ctx));
+            // RequestHeaderAssigner guarantees that there's one
+            String requestId = nettyRequest.headers().get(REQUEST_TRACING_HEADER);
+            if (requestId == null) {
+                throw new IllegalStateException("http request on " + Channels.getHexText(ctx) + " has no request id");
+            }
 
             // check if http decoding failed and if so, abort early
             if (nettyRequest.uri().equals(NETTY_HTTP_DECODING_FAILED_URI)) {
@@ -195,30 +276,37 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
             boolean continueExpected = HttpHeaders.is100ContinueExpected(nettyRequest);
             long contentLength = HttpHeaders.getContentLength(nettyRequest, ZERO_CONTENT_LENGTH);
             boolean hasContent = transferEncodingChunked || contentLength > ZERO_CONTENT_LENGTH;
-            LOGGER.trace("{}: [{}] rq:{} ka:{} ck:{} ce:{} cl:{}", Channels.getHexText(ctx), requestId, nettyRequest, keepAlive, transferEncodingChunked, continueExpected, contentLength);
-
-            // create the input stream used to read content
-            ContentInputStream entityInputStream;
-            if (hasContent) {
-                entityInputStream = new EntityInputStream(httpVersion, continueExpected, ctx);
-            } else {
-                entityInputStream = EmptyEntityInputStream.EMPTY_ENTITY_INPUT_STREAM;
+            if (LOGGER.isTraceEnabled()) {
+                LOGGER.trace("{}: [{}] rq:{} ka:{} ck:{} ce:{} cl:{}", Channels.getHexText(ctx), requestId, nettyRequest, keepAlive, transferEncodingChunked, continueExpected, contentLength);
             }
 
-            // create the object with which to write the response body
-            PendingRequest pendingRequest = new PendingRequest(requestId, httpVersion, keepAlive, entityInputStream, ctx);
+            // create the object with which to read the request body and write the response body
+            RequestUriCache.ResolvedUri resolvedUri = requestUriCache.resolve(nettyRequest.uri());
+            RequestPriority priority = resolvedUri.getPriority();
+            EntityReadWindow entityReadWindow = resolvedUri.getEntityReadWindow();
+            ContentEncoding contentEncoding = hasContent ? requestDecompressor.selectEncoding(nettyRequest.headers()) : null;
+            boolean inline = !hasContent && resolvedUri.isNonBlocking(nettyRequest.method().name()); // reading an entity could block
+            PendingRequest pendingRequest = new PendingRequest(nextRequestSequence++, requestId, priority, httpVersion, keepAlive, hasContent, continueExpected, contentEncoding, entityReadWindow, inline, ctx);
+            ContentInputStream entityInputStream = pendingRequest.entityInputStream;
 
             // create the jersey request object
-            final ContainerRequest jerseyRequest = new ContainerRequest(baseUri, URI.create(nettyRequest.uri()), nettyRequest.method().name(), DEFAULT_SECURITY_CONTEXT, PROPERTIES_DELEGATE);
-            jerseyRequest.setProperty(RequestProperties.REQUEST_CONTEXT_CHANNEL_ID_PROPERTY, new ChannelId(Channels.getHexText(ctx)));
+            final ContainerRequest jerseyRequest = new ContainerRequest(baseUri, resolvedUri.getUri(), nettyRequest.method().name(), getSecurityContext(ctx), PROPERTIES_DELEGATE);
+            jerseyRequest.setProperty(RequestProperties.REQUEST_CONTEXT_CHANNEL_ID_PROPERTY, getChannelId(ctx));
             jerseyRequest.setProperty(RequestProperties.REQUEST_CONTEXT_REQUEST_ID_PROPERTY, new RequestId(requestId));
-            jerseyRequest.header(Headers.REQUEST_TRACING_HEADER, requestId); // add request id to headers
-            copyHeaders(nettyRequest.headers(), jerseyRequest); // copy headers from message
+            HeaderCopier.copyRequestHeaders(nettyRequest.headers(), jerseyRequest.getHeaders()); // copy headers from message (includes the request id)
+
+            // the entity is decompressed before jersey sees it
+            if (contentEncoding != null) {
+                jerseyRequest.getHeaders().remove(Names.CONTENT_ENCODING);
+                jerseyRequest.getHeaders().remove(Names.CONTENT_LENGTH);
+            }
             jerseyRequest.setEntityStream(entityInputStream);
             jerseyRequest.setWriter(pendingRequest);
 
             // now we've got all the initial headers and are waiting for the entity
-            this.pendingRequest = pendingRequest;
+            receivingRequest = pendingRequest;
+            pendingRequests.add(pendingRequest);
+            numInFlightRequests++;
 
             // store the runnable that we want jersey to execute
             saveRequestRunnable(() -> {
@@ -227,6 +315,7 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
                 // if, for some reason there's some weird error it'll be handled
                 // by the default exception handler, which kills the process
                 applicationHandler.handle(jerseyRequest);
+                pendingRequest.releaseSuspendedConcurrency();
             });
 
             // IMPORTANT:
@@ -241,7 +330,7 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
             // IO thread from blocking we have to execute all
             // request processing in an application threadpool
             if (hasContent) {
-                submitPendingRunnable();
+                submitPendingRunnable(ctx, pendingRequest);
             }
 
             // indicate that we want to keep reading
@@ -255,6 +344,7 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
             // the entity or a set of chunks
 
             // we should have received the headers already
+            PendingRequest pendingRequest = receivingRequest;
             Preconditions.checkState(pendingRequest != null, "no pending request");
             // we're not expecting anything other than content objects right now
             Preconditions.checkArgument(msg instanceof HttpContent, "HttpContent expected, not %s", msg.getClass().getSimpleName());
@@ -268,36 +358,149 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
             // FIXME (AG): support trailing headers
             // if it's the last piece of content, then we're done
             if (last) {
+                receivingRequest = null;
+
                 // submit the request to jersey if we haven't yet
                 if (savedRequestRunnable != null) {
-                    submitPendingRunnable();
+                    submitPendingRunnable(ctx, pendingRequest);
+                }
+
+                // start reading the next pipelined request
+                // if we haven't hit the limit for concurrently
+                // processed requests. nothing can follow a request
+                // that's not keep-alive, so don't bother reading
+                if (pendingRequest.keepAlive) {
+                    if (numInFlightRequests < maxConcurrentPipelinedRequests) {
+                        ctx.read();
+                    } else {
+                        readSuspended = true;
+                    }
                 }
             }
         }
     }
 
-    private void submitPendingRunnable() {
+    // called from within the event loop
+    // true if no request is being received or processed
+    boolean isIdle() {
+        return receivingRequest == null && numInFlightRequests == 0;
+    }
+
+    // called from within the event loop
+    // only *after* all the objects that make up
+    // the response have been passed to the response channel
+    private void completeRequest(ChannelHandlerContext ctx, PendingRequest pendingRequest, boolean closeAfter) {
+        numInFlightRequests--;
+
+        if (responseSequencer != null) {
+            responseSequencer.complete(pendingRequest.sequence, closeAfter);
+        } else if (closeAfter) {
+            Channels.expectedClose(ctx, "not keep-alive connection");
+        }
+
+        // we have space to process another request
+        if (readSuspended) {
+            readSuspended = false;
+            ctx.read();
+        }
+    }
+
+    private void submitPendingRunnable(ChannelHandlerContext ctx, PendingRequest pendingRequest) {
         Preconditions.checkState(this.savedRequestRunnable != null, "no pending request runnable");
 
         // get the saved request runnable
         Runnable requestRunnable = savedRequestRunnable;
         savedRequestRunnable = null;
 
+        // non-blocking requests are processed right
+        // here, without waiting for an application thread
+        if (pendingRequest.inline) {
+            inlineExecutor.execute(ctx, pendingRequest.requestId, requestRunnable);
+            return;
+        }
+
+        // reject the request before queueing it
+        // if the server is at its concurrency limit
+        if (!concurrencyLimiter.tryAcquire()) {
+            shedRequest(ctx, pendingRequest, "concurrency limit");
+            return;
+        }
+
+        pendingRequest.concurrencyAcquired.set(true);
+
+        // shed the request immediately if too many
+        // requests are already waiting for an application
+        // thread, or when it's dequeued if it waited too long.
         // this may throw if the execution is rejected,
         // in which case the channel should be automatically closed
         // by a later handler in the chain
-        applicationExecutor.execute(requestRunnable);
+        boolean queued = requestQueue.submit(pendingRequest.priority, requestRunnable, () -> ctx.executor().execute(() -> shedRequest(ctx, pendingRequest, "queue timeout")));
+        if (!queued) {
+            shedRequest(ctx, pendingRequest, "queue full");
+        }
     }
 
-    private void saveRequestRunnable(Runnable requestRunnable) {
-        Preconditions.checkState(this.savedRequestRunnable == null, "pending request runnable exists");
-        savedRequestRunnable = requestRunnable;
+    // called from within the event loop
+    // responds to the request without involving jersey
+    private void shedRequest(ChannelHandlerContext ctx, PendingRequest pendingRequest, String reason) {
+        // if we're still receiving the entity we
+        // can't find the start of the next request,
+        // so close the connection after responding
+        boolean receiving = pendingRequest == receivingRequest;
+        pendingRequest.shed(reason, receiving);
     }
 
-    private void copyHeaders(HttpHeaders headers, ContainerRequest destination) {
-        for (Map.Entry<String, String> header : headers) {
-            destination.header(header.getKey(), header.getValue());
+    // the channel id never changes, so all
+    // requests on the channel share an instance
+    private ChannelId getChannelId(ChannelHandlerContext ctx) {
+        if (channelId == null) {
+            channelId = new ChannelId(Channels.getHexText(ctx));
+        }
+
+        return channelId;
+    }
+
+    // the tls handshake completes before the first
+    // request is received, so the session's peer
+    // certificates are known by the time this is called
+    private SecurityContext getSecurityContext(ChannelHandlerContext ctx) {
+        if (securityContext == null) {
+            securityContext = newSecurityContext(ctx.pipeline());
+        }
+
+        return securityContext;
+    }
+
+    // also used by websocket upgrades,
+    // which never reach this handler
+    static SecurityContext newSecurityContext(ChannelPipeline pipeline) {
+        SslHandler sslHandler = pipeline.get(SslHandler.class);
+        if (sslHandler == null) {
+            return DEFAULT_SECURITY_CONTEXT;
+        } else {
+            return new TlsSecurityContext(getPeerCertificates(sslHandler.engine().getSession()));
+        }
+    }
+
+    private static List<X509Certificate> getPeerCertificates(SSLSession session) {
+        List<X509Certificate> peerCertificates = Lists.newArrayList();
+
+        try {
+            for (Certificate certificate : session.getPeerCertificates()) {
+                if (certificate instanceof X509Certificate) {
+                    peerCertificates.add((X509Certificate) certificate);
+                }
+            }
+        } catch (SSLPeerUnverifiedException e) {
+            // the client did not present a certificate
         }
+
+        return peerCertificates;
+    }
+
+    private void saveRequestRunnable(Runnable requestRunnable) {
+        Preconditions.checkState(this.savedRequestRunnable == null, "pending request runnable exists");
+        savedRequestRunnable = requestRunnable;
     }
 
     @Override
@@ -320,29 +523,216 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
         throw new UnsupportedOperationException("reloading unsupported");
     }
 
-    private final class PendingRequest implements ContainerResponseWriter {
+    private final class PendingRequest implements ContainerResponseWriter, ResponseChannel, FileRegionWriter, LongPollResponseWriter, EventStreamWriter, EventStreamChannel {
 
         private final Timer.Context timerContext = REQUEST_TIMER.time();
+        private final long startTime = System.nanoTime();
+        private final long sequence;
         private final String requestId;
+        private final RequestPriority priority;
         private final HttpVersion httpVersion;
         private final boolean keepAlive;
+        private final boolean inline;
         private final ContentInputStream entityInputStream;
         private final ChannelHandlerContext ctx;
+        private final AtomicBoolean concurrencyAcquired = new AtomicBoolean(false);
+        private final AtomicReference<FileRegionEntity> pendingFileRegion = new AtomicReference<>(); // may be released from within the event loop
+        private final AtomicReference<Runnable> completionListener = new AtomicReference<>();
+
+        private final AtomicReference<Timeout> timeoutReference = new AtomicReference<>();
+        private final AtomicLong timeoutGeneration = new AtomicLong(0);
 
         private volatile TimeoutHandler timeoutHandler;
-        private volatile Timeout timeoutReference;
+        private volatile boolean completed;
+        private volatile @Nullable EventStream eventStream;
+        private volatile @Nullable EventStream returnedEventStream;
 
         // FIXME (AG): does this have to be volatile? I think so, so deal with exceptions thrown in the netty pipeline
         private volatile ContentOutputStream entityOutputStream;
 
-        public PendingRequest(String requestId, HttpVersion httpVersion, boolean keepAlive, ContentInputStream entityInputStream, ChannelHandlerContext ctx) {
+        public PendingRequest(long sequence, String requestId, RequestPriority priority, HttpVersion httpVersion, boolean keepAlive, boolean hasContent, boolean continueExpected, @Nullable ContentEncoding contentEncoding, EntityReadWindow entityReadWindow, boolean inline, ChannelHandlerContext ctx) {
+            this.sequence = sequence;
             this.requestId = requestId;
+            this.priority = priority;
             this.httpVersion = httpVersion;
             this.keepAlive = keepAlive;
-            this.entityInputStream = entityInputStream;
+            this.inline = inline;
             this.ctx = ctx;
+
+            // create the input stream used to read content
+            if (hasContent) {
+                ContentInputStream networkInputStream = new EntityInputStream(httpVersion, continueExpected, entityReadWindow, ctx, this);
+                this.entityInputStream = contentEncoding == null ? networkInputStream : requestDecompressor.newDecompressedStream(contentEncoding, networkInputStream);
+            } else {
+                this.entityInputStream = EmptyEntityInputStream.EMPTY_ENTITY_INPUT_STREAM;
+            }
+        }
+
+        //
+        // ResponseChannel methods
+        //
+        // if there is only one request in flight
+        // then objects are passed directly to netty,
+        // otherwise they're reordered within the event loop
+        //
+
+        @Override
+        public ByteBufAllocator alloc() {
+            return ctx.alloc();
+        }
+
+        @Override
+        public void write(HttpObject object) {
+            if (responseSequencer == null) {
+                ctx.write(object);
+            } else {
+                ctx.executor().execute(() -> responseSequencer.write(sequence, object, false));
+            }
+        }
+
+        @Override
+        public void flush() {
+            if (responseSequencer == null) {
+                ctx.flush();
+            } else {
+                ctx.executor().execute(() -> responseSequencer.flush(sequence));
+            }
+        }
+
+        @Override
+        public void writeAndFlush(HttpObject object) {
+            if (responseSequencer == null) {
+                ctx.writeAndFlush(object);
+            } else {
+                ctx.executor().execute(() -> responseSequencer.write(sequence, object, true));
+            }
+        }
+
+        @Override
+        public void writeEntity(Object entity) {
+            if (responseSequencer == null) {
+                ctx.write(entity);
+            } else {
+                ctx.executor().execute(() -> responseSequencer.write(sequence, entity, false));
+            }
+        }
+
+        //
+        // LongPollResponseWriter methods
+        //
+
+        @Override
+        public EventExecutor executor() {
+            return ctx.executor();
+        }
+
+        // the request no longer occupies an application
+        // thread, so it shouldn't hold back other requests
+        @Override
+        public void park(Runnable completionListener) {
+            releaseConcurrency(0, false);
+
+            this.completionListener.set(completionListener);
+
+            // nothing is read from the connection while
+            // the request is parked, so read it anyway to
+            // find out if the client goes away in the meantime
+            ctx.executor().execute(() -> BufferingHttpObjectHandler.watchForClose(ctx.pipeline()));
+
+            // the request may have
+            // completed in the meantime
+            if (completed) {
+                runCompletionListener();
+            }
+        }
+
+        // may be called multiple times, from any thread
+        private void runCompletionListener() {
+            Runnable listener = completionListener.getAndSet(null);
+            if (listener != null) {
+                listener.run();
+            }
+        }
+
+        //
+        // FileRegionWriter methods
+        //
+        // called by the message body writer *before*
+        // jersey commits the response. the region is
+        // only sent once the headers are written
+        //
+
+        @Override
+        public void writeFileRegion(FileRegionEntity entity) {
+            FileRegionEntity previous = pendingFileRegion.getAndSet(entity);
+            if (previous != null) {
+                closeFileRegion(previous);
+            }
+        }
+
+        //
+        // EventStreamWriter methods
+        //
+        // called by the message body writer *before*
+        // jersey commits the response. the stream is
+        // only attached once the response is committed
+        //
+
+        @Override
+        public void writeEventStream(EventStream stream) {
+            eventStream = stream;
+        }
+
+        @Override
+        public void returnEventStream(EventStream stream) {
+            returnedEventStream = stream;
+        }
+
+        //
+        // EventStreamChannel methods
+        //
+        // called from within the event loop
+        // after the response is committed
+        //
+
+        @Override
+        public boolean isWritable() {
+            return ctx.channel().isWritable();
         }
 
+        @Override
+        public void writeEvent(ByteBuf event) {
+            write(new DefaultHttpContent(event));
+        }
+
+        @Override
+        public void end(boolean evicted) {
+            LOGGER.debug("{}: [{}] end event stream ev:{}", Channels.getHexText(ctx), requestId, evicted);
+
+            // a client that can't keep up may not
+            // even read the last chunk, so don't wait for it
+            if (evicted) {
+                Channels.close(ctx, "evict event stream consumer");
+                return;
+            }
+
+            closeStreams();
+            SUCCESS_METER.mark();
+            completeRequest(ctx, PendingRequest.this, !keepAlive);
+        }
+
+        // called from within the event loop
+        private void resumeEventStream() {
+            EventStream stream = eventStream;
+            if (stream != null) {
+                stream.resume();
+            }
+        }
+
+        //
+        // ContainerResponseWriter methods
+        //
+
         // if this returns false then jersey never buffers
         // this means that contentLength in writeResponseStatusAndHeaders is always -1
         @Override
@@ -354,42 +744,166 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
         public OutputStream writeResponseStatusAndHeaders(long contentLength, ContainerResponse jerseyResponse) throws ContainerException {
             int status = jerseyResponse.getStatus();
 
+            // the response to a HEAD request describes
+            // the entity, but mustn't include it
+            boolean head = HttpMethod.HEAD.equals(jerseyResponse.getRequestContext().getMethod());
+
+            // the entity is a file region, which may
+            // have to be trimmed to the requested range
+            FileRegionEntity fileRegion = pendingFileRegion.getAndSet(null);
+            ByteRange range = null;
+            if (fileRegion != null && status == HttpResponseStatus.OK.code() && jerseyResponse.getRequestContext().getHeaderString(Names.IF_RANGE) == null) {
+                range = ByteRange.parse(jerseyResponse.getRequestContext().getHeaderString(Names.RANGE), fileRegion.getCount());
+                if (range != null) {
+                    status = range.isSatisfiable() ? HttpResponseStatus.PARTIAL_CONTENT.code() : HttpResponseStatus.REQUESTED_RANGE_NOT_SATISFIABLE.code();
+                }
+            }
+
             LOGGER.debug("{}: [{}] write status and headers st:{} cl:{}", Channels.getHexText(ctx), requestId, status, contentLength);
             meterStatus(status);
 
             // create the netty response
             HttpResponse nettyResponse = new DefaultHttpResponse(httpVersion, HttpResponseStatus.valueOf(status));
-            copyHeaders(jerseyResponse, nettyResponse);
+            HeaderCopier.copyResponseHeaders(jerseyResponse.getHeaders(), nettyResponse.headers());
 
             // add the request id to the header
-            nettyResponse.headers().add(Headers.REQUEST_TRACING_HEADER, requestId);
+            nettyResponse.headers().add(REQUEST_TRACING_HEADER, requestId);
 
             // add a Connection: Close header if required
             if (!keepAlive) {
                 nettyResponse.headers().add(Names.CONNECTION, Values.CLOSE);
             }
 
+            // there are no events to send, so
+            // the request completes normally
+            EventStream stream = eventStream;
+            if (stream != null && head) {
+                stream.detach();
+                eventStream = null;
+                stream = null;
+            }
+
+            // file regions are sent as-is, straight from the file system
+            // and events have to reach the client as soon as they're sent
+            ContentEncoding encoding = null;
+            if (fileRegion == null && stream == null) {
+                encoding = responseCompressor.selectEncoding(httpVersion, jerseyResponse.getRequestContext().getMethod(), status, contentLength, jerseyResponse.getRequestContext().getHeaderString(Names.ACCEPT_ENCODING), nettyResponse.headers());
+            }
+
             // create the content buffer if necessary
-            if (contentLength < 0) {
+            if (fileRegion != null) {
+                try {
+                    writeFileRegion(nettyResponse, fileRegion, range, head);
+                } catch (IOException e) {
+                    closeFileRegion(fileRegion);
+                    throw new ContainerException("fail send file region", e);
+                }
+                entityOutputStream = new EmptyEntityOutputStream(this);
+            } else if (head) {
+                // jersey doesn't write the entity, and netty's encoder
+                // doesn't know about HEAD, so it'd terminate a chunked
+                // entity that isn't there. leave out transfer-encoding
+                LOGGER.trace("{}: [{}] head", Channels.getHexText(ctx), requestId);
+                if (contentLength >= 0) {
+                    nettyResponse.headers().set(Names.CONTENT_LENGTH, contentLength);
+                }
+                writeAndFlush(nettyResponse);
+                entityOutputStream = new EmptyEntityOutputStream(this);
+                return ByteStreams.nullOutputStream();
+            } else if (stream != null) {
+                LOGGER.trace("{}: [{}] event stream", Channels.getHexText(ctx), requestId);
+                nettyResponse.headers().remove(Names.CONTENT_LENGTH);
+                nettyResponse.headers().add(Names.TRANSFER_ENCODING, Values.CHUNKED);
+                writeAndFlush(nettyResponse);
+
+                // the response is only finished when the
+                // stream is, so jersey mustn't close it
+                entityOutputStream = new EmptyEntityOutputStream(this);
+                return ByteStreams.nullOutputStream();
+            } else if (encoding != null) {
+                LOGGER.trace("{}: [{}] compressed ce:{}", Channels.getHexText(ctx), requestId, encoding.getCoding());
+                nettyResponse.headers().remove(Names.CONTENT_LENGTH);
+                nettyResponse.headers().set(Names.CONTENT_ENCODING, encoding.getCoding());
+                nettyResponse.headers().add(Names.TRANSFER_ENCODING, Values.CHUNKED); // compressed length is unknown until the entity is written
+                writeAndFlush(nettyResponse);
+                entityOutputStream = responseCompressor.newCompressedStream(encoding, new EntityOutputStream(this, CONTENT_LENGTH_HISTOGRAM, responseBufferSizer, -1, getRoute(jerseyResponse)));
+            } else if (contentLength < 0) {
                 LOGGER.trace("{}: [{}] chunked", Channels.getHexText(ctx), requestId);
                 nettyResponse.headers().add(Names.TRANSFER_ENCODING, Values.CHUNKED);
-                ctx.writeAndFlush(nettyResponse);
-                entityOutputStream = new EntityOutputStream(ctx, CONTENT_LENGTH_HISTOGRAM);
+                writeAndFlush(nettyResponse);
+                entityOutputStream = new EntityOutputStream(this, CONTENT_LENGTH_HISTOGRAM, responseBufferSizer, contentLength, getRoute(jerseyResponse));
             } else if (contentLength == 0) {
                 LOGGER.trace("{}: [{}] no content", Channels.getHexText(ctx), requestId);
                 nettyResponse.headers().add(Names.CONTENT_LENGTH, 0);
-                ctx.write(nettyResponse);
-                entityOutputStream = new EmptyEntityOutputStream(ctx);
+                write(nettyResponse);
+                entityOutputStream = new EmptyEntityOutputStream(this);
             } else {
                 LOGGER.trace("{}: [{}] non-empty body", Channels.getHexText(ctx), requestId);
                 nettyResponse.headers().add(Names.CONTENT_LENGTH, contentLength);
-                ctx.write(nettyResponse); // don't flush now - only do so when all the content is written
-                entityOutputStream = new EntityOutputStream(ctx, CONTENT_LENGTH_HISTOGRAM);
+                write(nettyResponse); // don't flush now - only do so when all the content is written
+                entityOutputStream = new EntityOutputStream(this, CONTENT_LENGTH_HISTOGRAM, responseBufferSizer, contentLength, getRoute(jerseyResponse));
             }
 
             return entityOutputStream;
         }
 
+        private void writeFileRegion(HttpResponse nettyResponse, FileRegionEntity fileRegion, @Nullable ByteRange range, boolean head) throws IOException {
+            long position = fileRegion.getPosition();
+            long count = fileRegion.getCount();
+
+            nettyResponse.headers().set(Names.ACCEPT_RANGES, Values.BYTES);
+
+            if (range != null) {
+                if (range.isSatisfiable()) {
+                    nettyResponse.headers().set(Names.CONTENT_RANGE, "bytes " + range.getFirst() + "-" + range.getLast() + "/" + count);
+                    position += range.getFirst();
+                    count = range.getLength();
+                } else {
+                    nettyResponse.headers().set(Names.CONTENT_RANGE, "bytes */" + count);
+                    count = 0;
+                }
+            }
+
+            @Nullable Object entity;
+            if (count == 0 || head) {
+                entity = null;
+            } else if (ctx.pipeline().get(SslHandler.class) == null) {
+                // straight from the file system
+                // to the socket (i.e. sendfile)
+                entity = new DefaultFileRegion(fileRegion.getChannel(), position, count);
+            } else {
+                // encrypted bytes have to pass through
+                // user space, so read the file in chunks
+                // NOTE: requires a ChunkedWriteHandler
+                entity = new ChunkedNioFile(fileRegion.getChannel(), position, count, com.aerofs.baseline.http.Constants.FILE_REGION_CHUNK_SIZE);
+            }
+
+            LOGGER.trace("{}: [{}] file region p:{} c:{}", Channels.getHexText(ctx), requestId, position, count);
+            nettyResponse.headers().set(Names.CONTENT_LENGTH, count);
+            write(nettyResponse);
+
+            // the entity owns the file from now on
+            if (entity != null) {
+                writeEntity(entity);
+            } else {
+                closeFileRegion(fileRegion);
+            }
+        }
+
+        private void closeFileRegion(FileRegionEntity fileRegion) {
+            try {
+                fileRegion.close();
+            } catch (IOException e) {
+                LOGGER.warn("{}: [{}] fail close file region", Channels.getHexText(ctx), requestId, e);
+            }
+        }
+
+        // the resource method that generated the response
+        private @Nullable Object getRoute(ContainerResponse jerseyResponse) {
+            ResourceMethod resourceMethod = jerseyResponse.getRequestContext().getUriInfo().getMatchedResourceMethod();
+            return resourceMethod == null ? null : resourceMethod.getInvocable().getHandlingMethod();
+        }
+
         private void meterStatus(int status) {
             if (status <= 100) {
                 STATUS_1XX_METER.mark();
@@ -404,14 +918,6 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
             }
         }
 
-        private void copyHeaders(ContainerResponse sourceResponse, HttpResponse destinationResponse) {
-            for (Map.Entry<String, List<Object>> header : sourceResponse.getHeaders().entrySet()) {
-                List<String> values = Lists.newArrayList();
-                values.addAll(header.getValue().stream().map(Object::toString).collect(Collectors.toList()));
-                destinationResponse.headers().add(header.getKey(), values);
-            }
-        }
-
         // IMPORTANT: jersey will guarantee that suspend is called
         // *before* the method is called (see ResourceMethodInvoker)
         // this guarantees that if the user calls setSuspendTimeout from
@@ -422,12 +928,16 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
         @Override
         public boolean suspend(long timeout, TimeUnit timeUnit, final TimeoutHandler timeoutHandler) {
             Preconditions.checkState(this.timeoutHandler == null, "timeout handler %s exists", this.timeoutHandler);
-            Preconditions.checkArgument(timeout == AsyncResponse.NO_TIMEOUT, "non-zero timeout %s specified in suspend", timeout);
 
-            LOGGER.trace("{}: [{}] suspend indefinitely", Channels.getHexText(ctx), requestId);
+            LOGGER.trace("{}: [{}] suspend timeout:{} tu:{}", Channels.getHexText(ctx), requestId, timeout, timeUnit);
             SUSPEND_METER.mark();
 
             this.timeoutHandler = timeoutHandler;
+
+            if (timeout > AsyncResponse.NO_TIMEOUT) {
+                scheduleTimeout(timeout, timeUnit);
+            }
+
             return true;
         }
 
@@ -441,33 +951,98 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
             // jersey appears to swallow ISEs. Amazing.
             Preconditions.checkState(this.timeoutHandler != null, "no timeout handler");
 
-            // always allow the timeout object to be set
-            // this means that the caller can keep pushing the timeout forward
-            // everything but the last timeout is ignored
-            timeoutReference = timer.newTimeout(timeoutHandle -> {
-                if (timeoutHandle == timeoutReference) {
+            // a non-positive timeout suspends indefinitely
+            if (timeout <= AsyncResponse.NO_TIMEOUT) {
+                cancelTimeout();
+            } else {
+                scheduleTimeout(timeout, timeUnit);
+            }
+        }
+
+        // always allow the timeout object to be set
+        // this means that the caller can keep pushing the timeout forward
+        // the previous timeout is cancelled so that it doesn't sit in the
+        // timer's wheel until it expires, and is ignored if it fires anyway
+        private void scheduleTimeout(long timeout, TimeUnit timeUnit) {
+            long generation = timeoutGeneration.incrementAndGet();
+
+            Timeout scheduled = suspendTimer.schedule(timeoutHandle -> {
+                if (!completed && generation == timeoutGeneration.get()) {
                     PendingRequest.this.timeoutHandler.onTimeout(PendingRequest.this);
                 } else {
                     LOGGER.debug("{}: [{}] ignore timeout", Channels.getHexText(ctx), requestId);
                 }
             }, timeout, timeUnit);
+
+            suspendTimer.cancel(timeoutReference.getAndSet(scheduled));
+
+            // the request may have completed
+            // while the timeout was being scheduled
+            if (completed) {
+                cancelTimeout();
+            }
+        }
+
+        // may be called multiple times, from any thread
+        private void cancelTimeout() {
+            timeoutGeneration.incrementAndGet();
+            suspendTimer.cancel(timeoutReference.getAndSet(null));
         }
 
         @Override
         public void commit() {
             LOGGER.trace("{}: [{}] done process request", Channels.getHexText(ctx), requestId);
 
-            closeStreams();
-
-            if (!keepAlive) {
-                Channels.expectedClose(ctx, "not keep-alive connection");
+            // the request is done with its application
+            // thread, but the response continues until
+            // the stream is closed (see end())
+            EventStream stream = eventStream;
+            if (stream != null) {
+                releaseConcurrency(0, false);
+                stream.attach(this);
+                return;
             }
 
+            closeStreams();
+
             // only after we've done the cleanup do we want to update the metrics
             SUCCESS_METER.mark();
 
-            // finally, indicate that we're ready to read again
-            ctx.read();
+            // finally, close the connection or indicate
+            // that we're ready to read again. this has
+            // to happen in the event loop, *after* all
+            // the writes queued by closeStreams() above
+            ctx.executor().execute(() -> completeRequest(ctx, PendingRequest.this, !keepAlive));
+        }
+
+        // called from within the event loop
+        private void shed(String reason, boolean receiving) {
+            LOGGER.warn("{}: [{}] shed request - {}", Channels.getHexText(ctx), requestId, reason);
+            meterStatus(HttpResponseStatus.SERVICE_UNAVAILABLE.code());
+
+            boolean closeAfter = !keepAlive || receiving;
+
+            releaseConcurrency(0, true);
+
+            HttpResponse nettyResponse = new DefaultFullHttpResponse(httpVersion, HttpResponseStatus.SERVICE_UNAVAILABLE);
+            nettyResponse.headers().add(REQUEST_TRACING_HEADER, requestId);
+            nettyResponse.headers().add(Names.RETRY_AFTER, com.aerofs.baseline.http.Constants.SHED_RETRY_AFTER_SECONDS);
+            nettyResponse.headers().add(Names.CONTENT_LENGTH, 0);
+
+            if (closeAfter) {
+                nettyResponse.headers().add(Names.CONNECTION, Values.CLOSE);
+            }
+
+            writeAndFlush(nettyResponse);
+
+            // the entity is still arriving, so leave
+            // the input stream open to absorb it until
+            // the channel is closed and cleaned up
+            if (!receiving) {
+                closeStreams();
+            }
+
+            ctx.executor().execute(() -> completeRequest(ctx, PendingRequest.this, closeAfter));
         }
 
         @Override
@@ -497,7 +1072,14 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
 
             // since I'm guaranteed that this method is called
             // no matter what, I'll turn off the timers here
-            timerContext.stop();
+            // the limiter uses the same service time
+            long serviceTime = timerContext.stop();
+            releaseConcurrency(serviceTime, false);
+
+            // don't leave the suspend
+            // timeout behind in the timer
+            completed = true;
+            cancelTimeout();
 
             try {
                 Closeables.close(entityInputStream, true);
@@ -511,17 +1093,56 @@ final class HttpRequestHandler extends ChannelInboundHandlerAdapter implements C
                 LOGGER.warn("{}: [{}] fail close entity ostream", Channels.getHexText(ctx), requestId, e);
             }
 
+            // the response was abandoned
+            // before the file region was sent
+            FileRegionEntity fileRegion = pendingFileRegion.getAndSet(null);
+            if (fileRegion != null) {
+                closeFileRegion(fileRegion);
+            }
+
+            // the stream can't be written any more
+            EventStream stream = eventStream;
+            if (stream != null) {
+                stream.detach();
+            }
+
+            // the stream was returned, but never written
+            EventStream returned = returnedEventStream;
+            if (returned != null && returned != stream) {
+                returned.detach();
+            }
+
             // we've finished processing this request
-            // reset and prepare for the next request
-            pendingRequest = null;
+            pendingRequests.remove(this);
+            runCompletionListener();
+        }
+
+        // called once jersey returns the application thread.
+        // a suspended request no longer occupies it, so it shouldn't
+        // hold back other requests while it waits to be resumed, and
+        // the limiter only sees the time the thread was actually used
+        private void releaseSuspendedConcurrency() {
+            if (timeoutHandler != null) {
+                releaseConcurrency(System.nanoTime() - startTime, false);
+            }
+        }
+
+        // may be called multiple times, from any thread
+        private void releaseConcurrency(long serviceTime, boolean dropped) {
+            if (concurrencyAcquired.compareAndSet(true, false)) {
+                concurrencyLimiter.release(serviceTime, dropped);
+            }
         }
 
         @Override
         public String toString() {
             return Objects.toStringHelper(this)
                     .add("channelId", Channels.getHexText(ctx))
+                    .add("sequence", sequence)
                     .add("requestId", requestId)
+                    .add("priority", priority)
                     .add("keepAlive", keepAlive)
+                    .add("inline", inline)
                     .toString();
         }
     }
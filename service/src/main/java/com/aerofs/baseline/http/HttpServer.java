@@ -18,10 +18,18 @@ package com.aerofs.baseline.http;
 
 import com.aerofs.baseline.Managed;
 import com.aerofs.baseline.Threads;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
 import io.netty.bootstrap.ServerBootstrap;
 import io.netty.buffer.PooledByteBufAllocator;
 import io.netty.channel.Channel;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.epoll.Epoll;
+import io.netty.channel.epoll.EpollChannelOption;
+import io.netty.channel.epoll.EpollEventLoopGroup;
+import io.netty.channel.epoll.EpollServerSocketChannel;
 import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
 import io.netty.channel.socket.nio.NioServerSocketChannel;
 import io.netty.util.Timer;
 import org.glassfish.jersey.server.ApplicationHandler;
@@ -29,9 +37,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.NotThreadSafe;
+import java.io.IOException;
 import java.net.URI;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import static io.netty.channel.ChannelOption.ALLOCATOR;
 import static io.netty.channel.ChannelOption.AUTO_READ;
@@ -45,37 +58,141 @@ public final class HttpServer implements Managed {
     private final String serverIdentifier;
     private final String host;
     private final short port;
+    private final int numListenChannels;
     private final ExecutorService requestProcessingExecutor;
-    private final NioEventLoopGroup bossEventLoopGroup;
-    private final NioEventLoopGroup workEventLoopGroup;
+    private final EventLoopGroup bossEventLoopGroup;
+    private final EventLoopGroup workEventLoopGroup;
     private final ServerBootstrap bootstrap;
 
-    private Channel listenChannel;
+    private final List<Channel> listenChannels;
 
-    public HttpServer(String serverIdentifier, HttpConfiguration http, Timer timer, ApplicationHandler applicationHandler) {
+    public HttpServer(String serverIdentifier, HttpConfiguration http, Timer timer, ApplicationHandler applicationHandler) throws IOException, GeneralSecurityException {
+        this(serverIdentifier, http, timer, applicationHandler, ImmutableMap.of());
+    }
+
+    public HttpServer(String serverIdentifier, HttpConfiguration http, Timer timer, ApplicationHandler applicationHandler, Map<String, WebSocketEndpoint> webSocketEndpoints) throws IOException, GeneralSecurityException {
         PooledByteBufAllocator allocator = new PooledByteBufAllocator(http.isDirectMemoryBacked());
 
         this.serverIdentifier = serverIdentifier;
         this.host = http.getHost();
         this.port = http.getPort();
-        this.requestProcessingExecutor = Executors.newFixedThreadPool(http.getNumRequestProcessingThreads(), Threads.newNamedThreadFactory(serverIdentifier + "-requests-%d"));
-        this.bossEventLoopGroup = new NioEventLoopGroup(com.aerofs.baseline.http.Constants.DEFAULT_NUM_BOSS_THREADS, Threads.newNamedThreadFactory(serverIdentifier + "-nio-boss-%d"));
-        this.workEventLoopGroup = new NioEventLoopGroup(http.getNumNetworkThreads(), Threads.newNamedThreadFactory(serverIdentifier + "-nio-work-%d"));
+        this.requestProcessingExecutor = newRequestProcessingExecutor(serverIdentifier, http);
+
+        Transport transport = getAvailableTransport(serverIdentifier, http.getTransport());
+        Class<? extends ServerSocketChannel> listenChannelClass;
+
+        this.numListenChannels = getNumListenChannels(serverIdentifier, transport, http);
+
+        // each listen channel is registered with the next
+        // boss event loop, so ensure there are enough of them
+        // for every listen channel to get its own accept loop
+        int numBossThreads = Math.max(com.aerofs.baseline.http.Constants.DEFAULT_NUM_BOSS_THREADS, numListenChannels);
+        this.listenChannels = Lists.newArrayListWithCapacity(numListenChannels);
+
+        if (transport == Transport.EPOLL) {
+            this.bossEventLoopGroup = new EpollEventLoopGroup(numBossThreads, Threads.newNamedThreadFactory(serverIdentifier + "-epoll-boss-%d"));
+            this.workEventLoopGroup = new EpollEventLoopGroup(http.getNumNetworkThreads(), Threads.newNamedThreadFactory(serverIdentifier + "-epoll-work-%d"));
+            listenChannelClass = EpollServerSocketChannel.class;
+        } else {
+            this.bossEventLoopGroup = new NioEventLoopGroup(numBossThreads, Threads.newNamedThreadFactory(serverIdentifier + "-nio-boss-%d"));
+            this.workEventLoopGroup = new NioEventLoopGroup(http.getNumNetworkThreads(), Threads.newNamedThreadFactory(serverIdentifier + "-nio-work-%d"));
+            listenChannelClass = NioServerSocketChannel.class;
+        }
+
+        TlsContext tlsContext = null;
+        String scheme = "http";
+        if (http.getTls() != null) {
+            tlsContext = TlsContext.newTlsContext(serverIdentifier, http.getTls());
+            scheme = "https";
+        }
+
         this.bootstrap = new ServerBootstrap();
         this.bootstrap
                 .group(bossEventLoopGroup, workEventLoopGroup)
-                .channel(NioServerSocketChannel.class)
-                .childHandler(new AcceptedChannelInitializer(http, applicationHandler, URI.create(String.format("http://%s:%s/", host, port)), requestProcessingExecutor, timer))
+                .channel(listenChannelClass)
+                .childHandler(new AcceptedChannelInitializer(serverIdentifier, http, applicationHandler, URI.create(String.format("%s://%s:%s/", scheme, host, port)), newConcurrencyLimiter(serverIdentifier, http), new RequestQueue(serverIdentifier, requestProcessingExecutor, http.getMaxQueuedRequests(), getMaxRunningRequests(requestProcessingExecutor), http.getMaxRequestQueueTime()), tlsContext, timer, webSocketEndpoints, requestProcessingExecutor))
                 .option(ALLOCATOR, allocator)
                 .option(SO_BACKLOG, http.getMaxAcceptQueueSize())
                 .childOption(AUTO_READ, false)
                 .childOption(ALLOCATOR, allocator);
+
+        // the native transport edge-triggers by default
+        // so the only extra thing to do is to allow
+        // other sockets to bind to the same host:port
+        if (transport == Transport.EPOLL) {
+            this.bootstrap.option(EpollChannelOption.SO_REUSEPORT, http.isReusePort());
+        }
+    }
+
+    private static ExecutorService newRequestProcessingExecutor(String serverIdentifier, HttpConfiguration http) {
+        switch (http.getExecutorType()) {
+            case VIRTUAL:
+                if (Threads.isVirtualThreadSupported()) {
+                    return Threads.newVirtualThreadPerTaskExecutor(serverIdentifier + "-requests-");
+                }
+
+                LOGGER.warn("{}-http virtual threads unsupported by jvm {} - fall back to fixed executor", serverIdentifier, System.getProperty("java.version"));
+                break;
+            case FORKJOIN:
+                return Threads.newNamedForkJoinPool(http.getNumRequestProcessingThreads(), serverIdentifier + "-requests-%d");
+            default:
+                break;
+        }
+
+        return Executors.newFixedThreadPool(http.getNumRequestProcessingThreads(), Threads.newNamedThreadFactory(serverIdentifier + "-requests-%d"));
+    }
+
+    // requests are only scheduled by priority if the executor
+    // has a fixed number of threads. virtual-thread and fork-join
+    // executors get every request immediately, so that they can
+    // start or compensate for threads as they see fit
+    private static int getMaxRunningRequests(ExecutorService requestProcessingExecutor) {
+        if (requestProcessingExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) requestProcessingExecutor).getMaximumPoolSize();
+        } else {
+            return Integer.MAX_VALUE;
+        }
+    }
+
+    private static ConcurrencyLimiter newConcurrencyLimiter(String serverIdentifier, HttpConfiguration http) {
+        if (http.isAdaptiveConcurrencyLimit()) {
+            return new GradientConcurrencyLimiter(serverIdentifier, http.getInitialConcurrencyLimit(), http.getMaxConcurrencyLimit());
+        } else {
+            return ConcurrencyLimiter.UNLIMITED;
+        }
+    }
+
+    private static Transport getAvailableTransport(String serverIdentifier, Transport requested) {
+        if (requested == Transport.EPOLL && !Epoll.isAvailable()) {
+            LOGGER.warn("{}-http epoll transport unavailable - fall back to nio", serverIdentifier, Epoll.unavailabilityCause());
+            return Transport.NIO;
+        }
+
+        return requested;
+    }
+
+    // multiple sockets can only bind to the same
+    // host:port if SO_REUSEPORT is set on all of them
+    private static int getNumListenChannels(String serverIdentifier, Transport transport, HttpConfiguration http) {
+        int numAcceptors = http.getNumAcceptors();
+
+        if (numAcceptors > 1 && (transport != Transport.EPOLL || !http.isReusePort())) {
+            LOGGER.warn("{}-http multiple acceptors require epoll transport with reusePort - use 1 acceptor instead of {}", serverIdentifier, numAcceptors);
+            return 1;
+        }
+
+        return numAcceptors;
     }
 
     @Override
     public void start() throws Exception {
-        LOGGER.info("bind {}-http to {}:{}", serverIdentifier, host, port);
-        listenChannel = bootstrap.bind(host, port).sync().channel();
+        LOGGER.info("bind {}-http to {}:{} with {} acceptors", serverIdentifier, host, port, numListenChannels);
+
+        // the kernel load-balances incoming
+        // connections across all bound sockets
+        for (int i = 0; i < numListenChannels; i++) {
+            listenChannels.add(bootstrap.bind(host, port).sync().channel());
+        }
     }
 
     @Override
@@ -83,7 +200,7 @@ public final class HttpServer implements Managed {
         LOGGER.info("stop {}-http", serverIdentifier);
 
         try {
-            if (listenChannel != null) {
+            for (Channel listenChannel : listenChannels) {
                 listenChannel.close().sync();
             }
         } catch (InterruptedException e) {
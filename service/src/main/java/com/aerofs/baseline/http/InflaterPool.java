@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.Inflater;
+
+/**
+ * Pool of {@link Inflater} instances for one {@link ContentEncoding}.
+ * <br>
+ * Like {@link DeflaterPool}, this avoids allocating
+ * (and finalizing) a native zlib stream per request.
+ * Up to {@code maxPooled} idle inflaters are kept; any
+ * returned beyond that are ended immediately.
+ */
+@ThreadSafe
+final class InflaterPool {
+
+    private final Queue<Inflater> idle = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numIdle = new AtomicInteger(0);
+    private final ContentEncoding encoding;
+    private final int maxPooled;
+
+    InflaterPool(ContentEncoding encoding, int maxPooled) {
+        this.encoding = encoding;
+        this.maxPooled = maxPooled;
+    }
+
+    Inflater acquire() {
+        Inflater inflater = idle.poll();
+
+        if (inflater == null) {
+            return encoding.newInflater();
+        }
+
+        numIdle.decrementAndGet();
+        return inflater;
+    }
+
+    void release(Inflater inflater) {
+        if (numIdle.incrementAndGet() > maxPooled) {
+            numIdle.decrementAndGet();
+            inflater.end();
+            return;
+        }
+
+        inflater.reset();
+        idle.offer(inflater);
+    }
+}
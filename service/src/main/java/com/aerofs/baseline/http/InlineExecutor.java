@@ -0,0 +1,80 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Meter;
+import io.netty.channel.ChannelHandlerContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs requests routed to {@link NonBlocking}
+ * resource methods on the calling network thread.
+ * <br>
+ * This covers the whole of jersey's processing of the
+ * request, not just the resource method: filters,
+ * interceptors and the entity writer all run inline.
+ * <br>
+ * If a warning threshold is set, requests that hold the
+ * network thread for longer are logged and metered, so that
+ * methods that block despite the annotation can be found.
+ */
+@ThreadSafe
+final class InlineExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InlineExecutor.class);
+
+    private final long warnThreshold;
+    private final Meter inlineMeter;
+    private final Meter slowInlineMeter;
+
+    /**
+     * Constructor.
+     *
+     * @param warnThreshold time in milliseconds after which a request
+     *                      is considered to have blocked, or 0 to never check
+     */
+    InlineExecutor(String serverIdentifier, long warnThreshold) {
+        this.warnThreshold = TimeUnit.NANOSECONDS.convert(warnThreshold, TimeUnit.MILLISECONDS);
+        this.inlineMeter = MetricRegistries.getRegistry().meter(MetricRegistries.name("http", serverIdentifier, "inline-requests"));
+        this.slowInlineMeter = MetricRegistries.getRegistry().meter(MetricRegistries.name("http", serverIdentifier, "slow-inline-requests"));
+    }
+
+    // called from within the event loop
+    void execute(ChannelHandlerContext ctx, String requestId, Runnable requestRunnable) {
+        inlineMeter.mark();
+
+        if (warnThreshold == 0) {
+            requestRunnable.run();
+            return;
+        }
+
+        long start = System.nanoTime();
+        requestRunnable.run();
+        long elapsed = System.nanoTime() - start;
+
+        if (elapsed > warnThreshold) {
+            slowInlineMeter.mark();
+            LOGGER.warn("{}: [{}] non-blocking request held network thread for {}ms", Channels.getHexText(ctx), requestId, TimeUnit.MILLISECONDS.convert(elapsed, TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import io.netty.util.concurrent.EventExecutor;
+
+/**
+ * Implemented by the baseline component that writes
+ * responses to the network if requests waiting in
+ * {@link LongPollTopics} can give up their processing
+ * resources and be resumed on their channel's event loop.
+ */
+interface LongPollResponseWriter {
+
+    /**
+     * @return event loop of the channel on which the response is written
+     */
+    EventExecutor executor();
+
+    /**
+     * Indicate that the request is waiting for a
+     * notification and is no longer being processed.
+     *
+     * @param completionListener run once when the request
+     *                           completes, however it completes
+     */
+    void park(Runnable completionListener);
+}
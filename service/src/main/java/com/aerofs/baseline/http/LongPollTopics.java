@@ -0,0 +1,278 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Timer;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import io.netty.util.concurrent.EventExecutor;
+import org.glassfish.jersey.server.ContainerRequest;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.CompletionCallback;
+import javax.ws.rs.container.ContainerRequestContext;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Registry of suspended long-poll requests waiting
+ * for a notification on a named topic.
+ * <br>
+ * Resources suspend a request and hand its
+ * {@link AsyncResponse} to {@link #await}. Waiting requests
+ * don't count against the server's concurrency limit.
+ * {@link #publish} resumes every request waiting on a topic
+ * with the same entity. Requests are resumed on their channels'
+ * event loops rather than on the publishing thread or the
+ * request-processing executor. Each event loop resumes its
+ * requests in batches, and handles network I/O between
+ * batches, so that a notification with thousands of waiters
+ * doesn't stall any connection for long.
+ * <br>
+ * A request is removed from its topic when it completes,
+ * whether it's resumed, it times out or its channel closes.
+ * <br>
+ * An instance is injectable into resources.
+ */
+@ThreadSafe
+public final class LongPollTopics {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LongPollTopics.class);
+
+    // waiters are only added to or removed from a topic's
+    // set within compute, so that a set is never modified
+    // once publish has removed it from the map
+    private final ConcurrentMap<String, Set<Waiter>> topics = Maps.newConcurrentMap();
+    private final int resumeBatchSize;
+    private final Counter suspendedCounter;
+    private final Timer resumeLatencyTimer;
+
+    public LongPollTopics() {
+        this(Constants.DEFAULT_LONG_POLL_RESUME_BATCH_SIZE);
+    }
+
+    LongPollTopics(int resumeBatchSize) {
+        Preconditions.checkArgument(resumeBatchSize > 0, "invalid resume batch size %s", resumeBatchSize);
+
+        this.resumeBatchSize = resumeBatchSize;
+        this.suspendedCounter = MetricRegistries.getRegistry().counter(MetricRegistries.name("http", "long-poll", "suspended"));
+        this.resumeLatencyTimer = MetricRegistries.getRegistry().timer(MetricRegistries.name("http", "long-poll", "resume-latency"));
+    }
+
+    /**
+     * Wait for the next notification published on {@code topic}.
+     * <br>
+     * {@code response} should already be suspended, and is
+     * resumed with the entity passed to {@link #publish}. Any
+     * suspend timeout set on {@code response} continues to apply.
+     *
+     * @param topic name of the topic on which to wait
+     * @param response suspended response of the waiting request
+     * @param requestContext context of the waiting request
+     */
+    public void await(String topic, AsyncResponse response, ContainerRequestContext requestContext) {
+        Waiter waiter = new Waiter(topic, response, requestContext);
+
+        topics.compute(topic, (name, waiters) -> {
+            if (waiters == null) {
+                waiters = Sets.newConcurrentHashSet();
+            }
+
+            waiters.add(waiter);
+            return waiters;
+        });
+
+        suspendedCounter.inc();
+        LOGGER.trace("await t:{}", topic);
+
+        // the request may complete (for example,
+        // if its channel is closed) the moment
+        // it's added, so the listener is only
+        // registered once it can be removed
+        waiter.park();
+    }
+
+    /**
+     * Resume all requests waiting on {@code topic}.
+     * <br>
+     * Requests that start waiting while this method
+     * runs wait for the next notification.
+     *
+     * @param topic name of the topic on which to notify
+     * @param entity entity with which the waiting requests are resumed
+     * @return number of requests that were resumed
+     */
+    public int publish(String topic, Object entity) {
+        Set<Waiter> waiters = topics.remove(topic);
+        if (waiters == null) {
+            return 0;
+        }
+
+        long publishTime = System.nanoTime();
+
+        // group the waiters by the event
+        // loop on which they should be resumed
+        Map<EventExecutor, List<Waiter>> executorWaiters = Maps.newHashMap();
+        List<Waiter> unboundWaiters = Lists.newArrayList();
+        int claimed = 0;
+
+        for (Waiter waiter : waiters) {
+            if (!waiter.claim()) {
+                continue;
+            }
+
+            claimed++;
+
+            if (waiter.executor == null) {
+                unboundWaiters.add(waiter);
+            } else {
+                executorWaiters.computeIfAbsent(waiter.executor, executor -> Lists.newArrayList()).add(waiter);
+            }
+        }
+
+        suspendedCounter.dec(claimed);
+        LOGGER.trace("publish t:{} waiters:{}", topic, claimed);
+
+        for (Map.Entry<EventExecutor, List<Waiter>> entry : executorWaiters.entrySet()) {
+            entry.getKey().execute(new ResumeBatch(entry.getKey(), entry.getValue(), entity, publishTime));
+        }
+
+        // requests that weren't received by
+        // baseline are resumed right here
+        for (Waiter waiter : unboundWaiters) {
+            resume(waiter, entity, publishTime);
+        }
+
+        return claimed;
+    }
+
+    /**
+     * @param topic name of the topic
+     * @return number of requests waiting on {@code topic}
+     */
+    public int getWaiting(String topic) {
+        Set<Waiter> waiters = topics.get(topic);
+        return waiters == null ? 0 : waiters.size();
+    }
+
+    private void resume(Waiter waiter, Object entity, long publishTime) {
+        try {
+            waiter.response.resume(entity);
+        } catch (Throwable t) {
+            LOGGER.warn("fail resume long-poll request t:{}", waiter.topic, t);
+        } finally {
+            resumeLatencyTimer.update(System.nanoTime() - publishTime, TimeUnit.NANOSECONDS);
+        }
+    }
+
+    // may be called from any thread
+    private void remove(Waiter waiter) {
+        // waiters claimed by publish
+        // have already been removed
+        if (!waiter.claim()) {
+            return;
+        }
+
+        topics.computeIfPresent(waiter.topic, (name, waiters) -> {
+            waiters.remove(waiter);
+            return waiters.isEmpty() ? null : waiters;
+        });
+
+        suspendedCounter.dec();
+        LOGGER.trace("abandon t:{}", waiter.topic);
+    }
+
+    // resumes one batch of requests and
+    // then yields the event loop to handle
+    // network I/O before resuming the next
+    private final class ResumeBatch implements Runnable {
+
+        private final EventExecutor executor;
+        private final List<Waiter> waiters;
+        private final Object entity;
+        private final long publishTime;
+
+        private int next = 0;
+
+        private ResumeBatch(EventExecutor executor, List<Waiter> waiters, Object entity, long publishTime) {
+            this.executor = executor;
+            this.waiters = waiters;
+            this.entity = entity;
+            this.publishTime = publishTime;
+        }
+
+        @Override
+        public void run() {
+            int end = Math.min(next + resumeBatchSize, waiters.size());
+
+            for (; next < end; next++) {
+                resume(waiters.get(next), entity, publishTime);
+            }
+
+            if (next < waiters.size()) {
+                executor.execute(this);
+            }
+        }
+    }
+
+    private final class Waiter {
+
+        private final AtomicBoolean claimed = new AtomicBoolean(false);
+        private final String topic;
+        private final AsyncResponse response;
+        private final @Nullable LongPollResponseWriter responseWriter;
+        private final @Nullable EventExecutor executor;
+
+        private Waiter(String topic, AsyncResponse response, ContainerRequestContext requestContext) {
+            this.topic = topic;
+            this.response = response;
+
+            Object writer = requestContext instanceof ContainerRequest ? ((ContainerRequest) requestContext).getResponseWriter() : null;
+            this.responseWriter = writer instanceof LongPollResponseWriter ? (LongPollResponseWriter) writer : null;
+            this.executor = responseWriter == null ? null : responseWriter.executor();
+        }
+
+        private void park() {
+            Runnable completionListener = () -> remove(this);
+
+            if (responseWriter == null) {
+                response.register((CompletionCallback) throwable -> completionListener.run());
+            } else {
+                responseWriter.park(completionListener);
+            }
+        }
+
+        // only one of publish or remove may
+        // take responsibility for the waiter
+        private boolean claim() {
+            return claimed.compareAndSet(false, true);
+        }
+    }
+}
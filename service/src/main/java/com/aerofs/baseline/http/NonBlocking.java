@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a resource method (or all the resource methods
+ * of a resource class) as one that never blocks.
+ * <br>
+ * Requests without an entity that are routed to a
+ * {@code NonBlocking} method are processed directly
+ * on the network thread that received them, instead
+ * of being handed to an application thread and back.
+ * This suits methods that answer from memory, such as
+ * lookups in a cache, or that suspend the request and
+ * complete it from another thread.
+ * <pre>
+ *     &#64;GET
+ *     &#64;NonBlocking
+ *     &#64;Path("/{key}")
+ *     public String get(&#64;PathParam("key") String key) {
+ *         return cache.get(key);
+ *     }
+ * </pre>
+ * A {@code NonBlocking} method must not perform IO, wait for
+ * locks or other threads, or do anything slow: while it runs
+ * no other connection served by the network thread makes
+ * progress. Set {@link HttpConfiguration#setInlineExecutionWarnThreshold(long)}
+ * during development to log methods that take too long.
+ * <br>
+ * The same applies to everything else jersey runs for the
+ * request on that thread: request and response filters,
+ * interceptors, exception mappers and the
+ * {@code MessageBodyWriter} that serializes the response.
+ * These must be non-blocking too.
+ * <br>
+ * Requests whose path could also be routed to a method
+ * without this annotation are always processed on an
+ * application thread. So are all requests if any
+ * {@link com.aerofs.baseline.auth.Authenticator} is registered,
+ * since authenticators usually consult a credential store.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target({ElementType.METHOD, ElementType.TYPE})
+public @interface NonBlocking {
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.auth.Authenticators;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.glassfish.jersey.server.ExtendedResourceContext;
+import org.glassfish.jersey.server.model.Invocable;
+import org.glassfish.jersey.server.model.Resource;
+import org.glassfish.jersey.server.model.ResourceMethod;
+import org.glassfish.jersey.uri.UriTemplate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.HttpMethod;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Registry of the routes whose resource
+ * methods are annotated with {@link NonBlocking}.
+ * <br>
+ * Built from jersey's resource model once the application
+ * is initialized, since routes never change afterwards.
+ * A path and method are only considered non-blocking if
+ * jersey can't route them to any method (or sub-resource
+ * locator) without the annotation.
+ * <br>
+ * Nothing is considered non-blocking if any
+ * {@link com.aerofs.baseline.auth.Authenticator} is registered:
+ * authenticators run for every request, and typically look up
+ * credentials somewhere that can block the network thread.
+ * <br>
+ * Every route template is matched against a path at most
+ * once, and the result is memoized for up to {@code maxSize}
+ * paths since clients tend to hit the same ones repeatedly.
+ */
+@ThreadSafe
+final class NonBlockingRoutes {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(NonBlockingRoutes.class);
+
+    static final NonBlockingRoutes NONE = new NonBlockingRoutes(ImmutableList.of(), 0);
+
+    @Immutable
+    private static final class Route {
+
+        private final @Nullable String httpMethod; // null matches all methods
+        private final UriTemplate template;
+        private final boolean nonBlocking;
+
+        private Route(@Nullable String httpMethod, UriTemplate template, boolean nonBlocking) {
+            this.httpMethod = httpMethod;
+            this.template = template;
+            this.nonBlocking = nonBlocking;
+        }
+
+        private boolean matches(String path) {
+            return template.getPattern().match(path) != null;
+        }
+    }
+
+    private final ImmutableList<Route> routes;
+    private final @Nullable Cache<String, ImmutableSet<String>> nonBlockingMethods;
+
+    private NonBlockingRoutes(ImmutableList<Route> routes, int maxSize) {
+        this.routes = routes;
+        this.nonBlockingMethods = maxSize > 0 ? CacheBuilder.newBuilder().maximumSize(maxSize).<String, ImmutableSet<String>>build() : null;
+    }
+
+    static NonBlockingRoutes newNonBlockingRoutes(String serverIdentifier, ApplicationHandler applicationHandler, int maxSize) {
+        Authenticators authenticators = applicationHandler.getServiceLocator().getService(Authenticators.class);
+        if (authenticators != null && !authenticators.isEmpty()) {
+            LOGGER.info("{}-http authenticators registered: run non-blocking resource methods on application threads", serverIdentifier);
+            return NONE;
+        }
+
+        ExtendedResourceContext resourceContext = applicationHandler.getServiceLocator().getService(ExtendedResourceContext.class);
+
+        ImmutableList.Builder<Route> builder = ImmutableList.builder();
+        for (Resource resource : resourceContext.getResourceModel().getResources()) {
+            addRoutes(builder, resource, "");
+        }
+
+        ImmutableList<Route> routes = builder.build();
+
+        // nothing to look up if no method is non-blocking
+        if (routes.stream().noneMatch(route -> route.nonBlocking)) {
+            return NONE;
+        }
+
+        LOGGER.info("{}-http run non-blocking resource methods on network threads", serverIdentifier);
+        return new NonBlockingRoutes(routes, maxSize);
+    }
+
+    private static void addRoutes(ImmutableList.Builder<Route> builder, Resource resource, String parentPath) {
+        String path = join(parentPath, resource.getPath());
+
+        for (ResourceMethod method : resource.getResourceMethods()) {
+            builder.add(new Route(method.getHttpMethod(), new UriTemplate(path), isNonBlocking(method)));
+        }
+
+        // a locator's sub-resources aren't known
+        // in advance, so assume that they all block
+        if (resource.getResourceLocator() != null) {
+            builder.add(new Route(null, new UriTemplate(path + "{locatorSubPath: (/.*)?}"), false));
+        }
+
+        for (Resource child : resource.getChildResources()) {
+            addRoutes(builder, child, path);
+        }
+    }
+
+    // "" + "basic" -> "/basic"
+    // "/basic" + "/{component}/" -> "/basic/{component}"
+    private static String join(String parentPath, @Nullable String path) {
+        StringBuilder joined = new StringBuilder(parentPath);
+
+        if (path != null) {
+            for (String segment : path.split("/")) {
+                if (!segment.isEmpty()) {
+                    joined.append('/').append(segment);
+                }
+            }
+        }
+
+        return joined.length() == 0 ? "/" : joined.toString();
+    }
+
+    private static boolean isNonBlocking(ResourceMethod method) {
+        Invocable invocable = method.getInvocable();
+        return invocable.getHandlingMethod().isAnnotationPresent(NonBlocking.class)
+                || invocable.getDefinitionMethod().isAnnotationPresent(NonBlocking.class)
+                || invocable.getHandler().getHandlerClass().isAnnotationPresent(NonBlocking.class);
+    }
+
+    /**
+     * @return the http methods with which requests
+     * to {@code path} can be processed without blocking
+     */
+    ImmutableSet<String> getNonBlockingMethods(String path) {
+        if (routes.isEmpty()) {
+            return ImmutableSet.of();
+        }
+
+        // trailing slashes are ignored when matching
+        String normalized = path.length() > 1 && path.endsWith("/") ? path.substring(0, path.length() - 1) : path;
+
+        if (nonBlockingMethods == null) {
+            return findNonBlockingMethods(normalized);
+        }
+
+        ImmutableSet<String> methods = nonBlockingMethods.getIfPresent(normalized);
+        if (methods == null) {
+            // two channels may look up the same path
+            // concurrently; both results are equivalent
+            methods = findNonBlockingMethods(normalized);
+            nonBlockingMethods.put(normalized, methods);
+        }
+
+        return methods;
+    }
+
+    private ImmutableSet<String> findNonBlockingMethods(String path) {
+        Set<String> nonBlocking = new HashSet<>();
+        Set<String> blocking = new HashSet<>();
+
+        for (Route route : routes) {
+            if (!route.matches(path)) {
+                continue;
+            }
+
+            // a matching locator may block for any method
+            if (route.httpMethod == null) {
+                return ImmutableSet.of();
+            }
+
+            if (route.nonBlocking) {
+                nonBlocking.add(route.httpMethod);
+            } else {
+                blocking.add(route.httpMethod);
+            }
+        }
+
+        ImmutableSet.Builder<String> builder = ImmutableSet.builder();
+        for (String httpMethod : nonBlocking) {
+            if (!blocking.contains(httpMethod)) {
+                builder.add(httpMethod);
+
+                // jersey answers HEAD requests with GET methods
+                if (HttpMethod.GET.equals(httpMethod) && !blocking.contains(HttpMethod.HEAD)) {
+                    builder.add(HttpMethod.HEAD);
+                }
+            }
+        }
+
+        return builder.build();
+    }
+}
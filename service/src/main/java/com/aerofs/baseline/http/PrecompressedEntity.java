@@ -0,0 +1,74 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Response entity whose compressed variants were
+ * prepared ahead of time (for example, static assets
+ * compressed during the build, or cached responses).
+ * <br>
+ * The variant sent is picked using the request's
+ * {@code Accept-Encoding} header; if the client accepts
+ * none of them the identity (uncompressed) bytes are sent.
+ * Precompressed entities are never compressed again.
+ * <pre>
+ *     &#64;GET
+ *     &#64;Produces("application/javascript")
+ *     public PrecompressedEntity script() {
+ *         return new PrecompressedEntity(scriptBytes, ImmutableMap.of("gzip", gzippedScriptBytes));
+ *     }
+ * </pre>
+ */
+@Immutable
+public final class PrecompressedEntity {
+
+    private final byte[] identity;
+    private final ImmutableMap<String, byte[]> variants;
+
+    /**
+     * @param identity uncompressed entity bytes
+     * @param variants encoded entity bytes keyed by content coding
+     *                 (for example, {@code gzip}), in order of preference
+     */
+    public PrecompressedEntity(byte[] identity, Map<String, byte[]> variants) {
+        this.identity = identity;
+        this.variants = ImmutableMap.copyOf(variants);
+    }
+
+    public byte[] getIdentity() {
+        return identity;
+    }
+
+    public Set<String> getCodings() {
+        return variants.keySet();
+    }
+
+    /**
+     * @return entity bytes encoded with {@code coding}, or null if there is no such variant
+     */
+    public @Nullable byte[] getVariant(String coding) {
+        return variants.get(coding);
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders.Names;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides whether request entities should be decompressed,
+ * and creates the streams that decompress them.
+ * <br>
+ * Only entities with a single gzip (or x-gzip) or deflate
+ * content coding are decompressed; any others are passed
+ * to resources as-is. Each content coding has its own
+ * {@link InflaterPool}, shared by all the server's channels.
+ */
+@ThreadSafe
+final class RequestDecompressor {
+
+    private final Map<ContentEncoding, InflaterPool> inflaterPools = new EnumMap<>(ContentEncoding.class);
+    private final boolean enabled;
+    private final long maxDecompressedEntitySize;
+    private final int maxDecompressionRatio;
+
+    RequestDecompressor(boolean enabled, long maxDecompressedEntitySize, int maxDecompressionRatio, int maxPooledInflaters) {
+        this.enabled = enabled;
+        this.maxDecompressedEntitySize = maxDecompressedEntitySize;
+        this.maxDecompressionRatio = maxDecompressionRatio;
+
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            inflaterPools.put(encoding, new InflaterPool(encoding, maxPooledInflaters));
+        }
+    }
+
+    /**
+     * @return the content coding to remove from the request entity, or null if it should be passed on as-is
+     */
+    @Nullable ContentEncoding selectEncoding(HttpHeaders requestHeaders) {
+        if (!enabled) {
+            return null;
+        }
+
+        String contentEncoding = requestHeaders.get(Names.CONTENT_ENCODING);
+        if (contentEncoding == null) {
+            return null;
+        }
+
+        switch (contentEncoding.trim().toLowerCase(Locale.ENGLISH)) {
+            case "gzip":
+            case "x-gzip":
+                return ContentEncoding.GZIP;
+            case "deflate":
+                return ContentEncoding.DEFLATE;
+            default:
+                return null;
+        }
+    }
+
+    ContentInputStream newDecompressedStream(ContentEncoding encoding, ContentInputStream delegate) {
+        return new DecompressedEntityInputStream(delegate, encoding, inflaterPools.get(encoding), maxDecompressedEntitySize, maxDecompressionRatio);
+    }
+}
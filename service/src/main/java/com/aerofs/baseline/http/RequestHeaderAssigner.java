@@ -19,29 +19,55 @@ package com.aerofs.baseline.http;
 import io.netty.channel.ChannelHandler;
 import io.netty.channel.ChannelHandlerContext;
 import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.AsciiString;
 import io.netty.handler.codec.http.HttpRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.ThreadSafe;
-import java.util.Random;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ThreadLocalRandom;
 
+/**
+ * Assigns a request id to every request that doesn't carry one.
+ * <br>
+ * Ids are drawn from the calling event loop's {@link ThreadLocalRandom},
+ * so event loops never contend for a shared generator. Each id is hex-encoded
+ * straight into the byte array backing the {@link AsciiString} that's added
+ * to the request headers; it's only converted to a string once, when the
+ * request is handed to jersey.
+ */
 @ThreadSafe
 @ChannelHandler.Sharable
 final class RequestHeaderAssigner extends ChannelInboundHandlerAdapter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(RequestHeaderAssigner.class);
-    private static final Random RANDOM = new Random();
+
+    private static final AsciiString REQUEST_TRACING_HEADER = new AsciiString(Headers.REQUEST_TRACING_HEADER);
+    private static final String TRACEPARENT_HEADER = "traceparent";
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+
+    // traceparent: version "-" trace-id "-" parent-id "-" flags
+    private static final int TRACEPARENT_LENGTH = 55;
+    private static final int TRACE_ID_OFFSET = 3;
+    private static final int TRACE_ID_LENGTH = 32;
+
+    private final RequestIdFormat requestIdFormat;
+
+    RequestHeaderAssigner(RequestIdFormat requestIdFormat) {
+        this.requestIdFormat = requestIdFormat;
+    }
 
     @Override
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
         if (msg instanceof HttpRequest) {
             HttpRequest request = (HttpRequest) msg;
-            String requestId = request.headers().get(Headers.REQUEST_TRACING_HEADER);
+            CharSequence requestId = request.headers().get(REQUEST_TRACING_HEADER);
 
             if (requestId == null) {
-                requestId = Integer.toHexString(RANDOM.nextInt(Integer.MAX_VALUE));
-                request.headers().add(Headers.REQUEST_TRACING_HEADER, requestId);
+                requestId = newRequestId(request);
+                request.headers().add(REQUEST_TRACING_HEADER, requestId);
             }
 
             LOGGER.debug("{}: [{}] new http request", Channels.getHexText(ctx), requestId);
@@ -49,4 +75,57 @@ final class RequestHeaderAssigner extends ChannelInboundHandlerAdapter {
 
         super.channelRead(ctx, msg);
     }
+
+    private AsciiString newRequestId(HttpRequest request) {
+        if (requestIdFormat == RequestIdFormat.HEX_64) {
+            byte[] id = new byte[16];
+            putHex(ThreadLocalRandom.current().nextLong(), id, 0);
+            return new AsciiString(id, false);
+        }
+
+        String traceId = getTraceId(request.headers().get(TRACEPARENT_HEADER));
+        if (traceId != null) {
+            return new AsciiString(traceId);
+        }
+
+        // an all-zero trace-id is invalid
+        long high;
+        long low;
+        do {
+            high = ThreadLocalRandom.current().nextLong();
+            low = ThreadLocalRandom.current().nextLong();
+        } while (high == 0 && low == 0);
+
+        byte[] id = new byte[32];
+        putHex(high, id, 0);
+        putHex(low, id, 16);
+        return new AsciiString(id, false);
+    }
+
+    private static void putHex(long value, byte[] destination, int offset) {
+        for (int i = 15; i >= 0; i--) {
+            destination[offset + i] = HEX_DIGITS[(int) (value & 0xF)];
+            value >>>= 4;
+        }
+    }
+
+    // returns the trace-id of a well-formed
+    // version 00 traceparent header, or null
+    private static @Nullable String getTraceId(@Nullable String traceparent) {
+        if (traceparent == null || traceparent.length() != TRACEPARENT_LENGTH || !traceparent.startsWith("00-") || traceparent.charAt(TRACE_ID_OFFSET + TRACE_ID_LENGTH) != '-') {
+            return null;
+        }
+
+        boolean zero = true;
+        for (int i = TRACE_ID_OFFSET; i < TRACE_ID_OFFSET + TRACE_ID_LENGTH; i++) {
+            char c = traceparent.charAt(i);
+            if (!((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+                return null;
+            }
+
+            zero &= c == '0';
+        }
+
+        return zero ? null : traceparent.substring(TRACE_ID_OFFSET, TRACE_ID_OFFSET + TRACE_ID_LENGTH);
+    }
 }
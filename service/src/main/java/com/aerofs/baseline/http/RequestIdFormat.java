@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Format of the request ids an {@link HttpServer}
+ * generates for requests that don't carry one.
+ */
+@Immutable
+public enum RequestIdFormat {
+
+    /** 64-bit random id, as 16 lower-case hex characters. */
+    HEX_64,
+
+    /**
+     * 128-bit random id, as 32 lower-case hex characters.
+     * Ids are valid W3C trace context trace-ids, and the
+     * trace-id of an incoming {@code traceparent} header
+     * is used as the request id if one is present.
+     */
+    TRACE_ID,
+}
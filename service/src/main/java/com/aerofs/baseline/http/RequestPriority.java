@@ -0,0 +1,52 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Scheduling class of a request.
+ * <br>
+ * When requests are waiting for a request-processing thread
+ * each class is served in proportion to its weight, so that
+ * cheap, latency-sensitive requests are not stuck behind
+ * long-running ones.
+ *
+ * @see HttpConfiguration#getRoutePriorities()
+ */
+@Immutable
+public enum RequestPriority {
+
+    /** Latency-sensitive requests (weight 8). */
+    INTERACTIVE(8),
+
+    /** Default class for requests on unmapped routes (weight 4). */
+    NORMAL(4),
+
+    /** Throughput-oriented requests like uploads and report generation (weight 1). */
+    BULK(1);
+
+    private final int weight;
+
+    RequestPriority(int weight) {
+        this.weight = weight;
+    }
+
+    int getWeight() {
+        return weight;
+    }
+}
@@ -0,0 +1,228 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.Timer;
+import com.google.common.collect.Maps;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.ArrayDeque;
+import java.util.EnumMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Admission control and scheduling for requests
+ * submitted to the application executor of an {@link HttpServer}.
+ * <br>
+ * At most {@code maxQueuedRequests} requests can be
+ * waiting for an application thread at any time. Requests
+ * that waited longer than {@code maxQueueTime} milliseconds
+ * (if non-zero) are shed instead of being run.
+ * <br>
+ * At most {@code maxRunningRequests} requests are handed
+ * to the executor at once. Requests beyond that wait in one
+ * queue per {@link RequestPriority} and are dispatched using
+ * smooth weighted round-robin across the non-empty queues.
+ */
+@ThreadSafe
+final class RequestQueue {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestQueue.class);
+
+    private static final class QueuedRequest {
+
+        private final RequestPriority priority;
+        private final Runnable request;
+        private final Runnable onQueueTimeout;
+        private final long queuedAt = System.nanoTime();
+
+        private QueuedRequest(RequestPriority priority, Runnable request, Runnable onQueueTimeout) {
+            this.priority = priority;
+            this.request = request;
+            this.onQueueTimeout = onQueueTimeout;
+        }
+    }
+
+    private final AtomicInteger numQueuedRequests = new AtomicInteger(0);
+    private final EnumMap<RequestPriority, Timer> queueTimeTimers = Maps.newEnumMap(RequestPriority.class);
+    private final Executor applicationExecutor;
+    private final int maxQueuedRequests;
+    private final int maxRunningRequests;
+    private final long maxQueueTimeNanos;
+    private final Counter queuedRequestsCounter;
+    private final Timer queueTimeTimer;
+    private final Meter shedQueueFullMeter;
+    private final Meter shedQueueTimeoutMeter;
+
+    // protected by this
+    private final EnumMap<RequestPriority, ArrayDeque<QueuedRequest>> waitingRequests = Maps.newEnumMap(RequestPriority.class);
+    private final EnumMap<RequestPriority, Integer> currentWeights = Maps.newEnumMap(RequestPriority.class);
+    private int numRunningRequests;
+
+    RequestQueue(String serverIdentifier, Executor applicationExecutor, int maxQueuedRequests, int maxRunningRequests, long maxQueueTime) {
+        this.applicationExecutor = applicationExecutor;
+        this.maxQueuedRequests = maxQueuedRequests;
+        this.maxRunningRequests = maxRunningRequests;
+        this.maxQueueTimeNanos = TimeUnit.NANOSECONDS.convert(maxQueueTime, TimeUnit.MILLISECONDS);
+        this.queuedRequestsCounter = MetricRegistries.getRegistry().counter(MetricRegistries.name("http", serverIdentifier, "queued-requests"));
+        this.queueTimeTimer = MetricRegistries.getRegistry().timer(MetricRegistries.name("http", serverIdentifier, "request-queue-time"));
+        this.shedQueueFullMeter = MetricRegistries.getRegistry().meter(MetricRegistries.name("http", serverIdentifier, "shed", "queue-full"));
+        this.shedQueueTimeoutMeter = MetricRegistries.getRegistry().meter(MetricRegistries.name("http", serverIdentifier, "shed", "queue-timeout"));
+
+        for (RequestPriority priority : RequestPriority.values()) {
+            queueTimeTimers.put(priority, MetricRegistries.getRegistry().timer(MetricRegistries.name("http", serverIdentifier, "request-queue-time", priority.name().toLowerCase())));
+            waitingRequests.put(priority, new ArrayDeque<>());
+            currentWeights.put(priority, 0);
+        }
+    }
+
+    /**
+     * Queue {@code request} for execution by an application thread.
+     *
+     * @param priority scheduling class of the request
+     * @param request runnable to execute if it's dequeued before the queue-time deadline
+     * @param onQueueTimeout runnable to execute (in the application thread) instead of {@code request} if the deadline was exceeded
+     * @return {@code true} if the request was queued, {@code false} if the queue is full and the request should be shed
+     */
+    boolean submit(RequestPriority priority, Runnable request, Runnable onQueueTimeout) {
+        if (numQueuedRequests.incrementAndGet() > maxQueuedRequests) {
+            numQueuedRequests.decrementAndGet();
+            shedQueueFullMeter.mark();
+            return false;
+        }
+
+        queuedRequestsCounter.inc();
+
+        QueuedRequest queued = new QueuedRequest(priority, request, onQueueTimeout);
+
+        synchronized (this) {
+            if (numRunningRequests >= maxRunningRequests) {
+                waitingRequests.get(priority).add(queued);
+                return true;
+            }
+
+            numRunningRequests++;
+        }
+
+        try {
+            dispatch(queued);
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                numRunningRequests--;
+            }
+
+            dequeued();
+            throw e;
+        }
+
+        return true;
+    }
+
+    private void dispatch(QueuedRequest queued) {
+        applicationExecutor.execute(() -> {
+            try {
+                run(queued);
+            } finally {
+                dispatchNext();
+            }
+        });
+    }
+
+    private void run(QueuedRequest queued) {
+        dequeued();
+
+        long queueTime = System.nanoTime() - queued.queuedAt;
+        queueTimeTimer.update(queueTime, TimeUnit.NANOSECONDS);
+        queueTimeTimers.get(queued.priority).update(queueTime, TimeUnit.NANOSECONDS);
+
+        if (maxQueueTimeNanos > 0 && queueTime > maxQueueTimeNanos) {
+            shedQueueTimeoutMeter.mark();
+            queued.onQueueTimeout.run();
+        } else {
+            queued.request.run();
+        }
+    }
+
+    // called by an application thread when it's done with a request
+    private void dispatchNext() {
+        QueuedRequest next;
+
+        synchronized (this) {
+            next = selectNext();
+            if (next == null) {
+                numRunningRequests--;
+                return;
+            }
+        }
+
+        try {
+            dispatch(next);
+        } catch (RejectedExecutionException e) {
+            LOGGER.warn("drop queued request - executor rejected it", e);
+
+            synchronized (this) {
+                numRunningRequests--;
+            }
+
+            dequeued();
+        }
+    }
+
+    // smooth weighted round-robin
+    // every non-empty queue accumulates its weight
+    // and the one with the highest total is picked and
+    // pays back the sum of the weights that were added
+    private @Nullable QueuedRequest selectNext() {
+        RequestPriority selected = null;
+        int totalWeight = 0;
+
+        for (RequestPriority priority : RequestPriority.values()) {
+            if (waitingRequests.get(priority).isEmpty()) {
+                continue;
+            }
+
+            int currentWeight = currentWeights.get(priority) + priority.getWeight();
+            currentWeights.put(priority, currentWeight);
+            totalWeight += priority.getWeight();
+
+            if (selected == null || currentWeight > currentWeights.get(selected)) {
+                selected = priority;
+            }
+        }
+
+        if (selected == null) {
+            return null;
+        }
+
+        currentWeights.put(selected, currentWeights.get(selected) - totalWeight);
+        return waitingRequests.get(selected).poll();
+    }
+
+    private void dequeued() {
+        numQueuedRequests.decrementAndGet();
+        queuedRequestsCounter.dec();
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Meter;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableSet;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.net.URI;
+
+/**
+ * Bounded LRU caches of parsed request URIs and
+ * the per-route settings that apply to them.
+ * <br>
+ * Route settings are keyed by the raw request path, so
+ * requests that differ only in their query string share
+ * an entry. Request URIs with a query string are almost
+ * always unique, so only those without one are kept
+ * parsed instead of evicting hot entries.
+ * Routes are fixed once the server is built, so entries
+ * never have to be invalidated.
+ * <br>
+ * Shared by all the channels accepted by a server.
+ */
+@ThreadSafe
+final class RequestUriCache {
+
+    /**
+     * The settings for the route a request path maps to.
+     */
+    @Immutable
+    private static final class RouteSettings {
+
+        private final RequestPriority priority;
+        private final EntityReadWindow entityReadWindow;
+        private final ImmutableSet<String> nonBlockingMethods;
+
+        private RouteSettings(RequestPriority priority, EntityReadWindow entityReadWindow, ImmutableSet<String> nonBlockingMethods) {
+            this.priority = priority;
+            this.entityReadWindow = entityReadWindow;
+            this.nonBlockingMethods = nonBlockingMethods;
+        }
+    }
+
+    /**
+     * A parsed request URI and the settings for its route.
+     */
+    @Immutable
+    static final class ResolvedUri {
+
+        private final URI uri;
+        private final RouteSettings settings;
+
+        private ResolvedUri(URI uri, RouteSettings settings) {
+            this.uri = uri;
+            this.settings = settings;
+        }
+
+        URI getUri() {
+            return uri;
+        }
+
+        RequestPriority getPriority() {
+            return settings.priority;
+        }
+
+        EntityReadWindow getEntityReadWindow() {
+            return settings.entityReadWindow;
+        }
+
+        /**
+         * @return true if requests with this method are
+         * routed to a {@link NonBlocking} resource method
+         */
+        boolean isNonBlocking(String httpMethod) {
+            return settings.nonBlockingMethods.contains(httpMethod);
+        }
+    }
+
+    private final RoutePriorities routePriorities;
+    private final RouteMap<EntityReadWindow> entityReadWindows;
+    private final NonBlockingRoutes nonBlockingRoutes;
+    private final @Nullable Cache<String, ResolvedUri> uris;
+    private final @Nullable Cache<String, RouteSettings> settings;
+    private final Meter hitMeter;
+    private final Meter missMeter;
+
+    RequestUriCache(String serverIdentifier, RoutePriorities routePriorities, RouteMap<EntityReadWindow> entityReadWindows, NonBlockingRoutes nonBlockingRoutes, int maxSize) {
+        this.routePriorities = routePriorities;
+        this.entityReadWindows = entityReadWindows;
+        this.nonBlockingRoutes = nonBlockingRoutes;
+        this.uris = maxSize > 0 ? CacheBuilder.newBuilder().maximumSize(maxSize).<String, ResolvedUri>build() : null;
+        this.settings = maxSize > 0 ? CacheBuilder.newBuilder().maximumSize(maxSize).<String, RouteSettings>build() : null;
+        this.hitMeter = MetricRegistries.getRegistry().meter(MetricRegistries.name("http", serverIdentifier, "uri-cache", "hits"));
+        this.missMeter = MetricRegistries.getRegistry().meter(MetricRegistries.name("http", serverIdentifier, "uri-cache", "misses"));
+    }
+
+    /**
+     * Parse a raw request URI and find the settings for its route.
+     *
+     * @throws IllegalArgumentException if {@code rawUri} is not a valid URI
+     */
+    ResolvedUri resolve(String rawUri) {
+        if (uris == null || settings == null) {
+            URI uri = URI.create(rawUri);
+            return new ResolvedUri(uri, newRouteSettings(getPath(uri)));
+        }
+
+        boolean cacheable = rawUri.indexOf('?') == -1;
+        if (cacheable) {
+            ResolvedUri resolved = uris.getIfPresent(rawUri);
+            if (resolved != null) {
+                hitMeter.mark();
+                return resolved;
+            }
+        }
+
+        URI uri = URI.create(rawUri);
+        String path = getPath(uri);
+
+        RouteSettings routeSettings = settings.getIfPresent(path);
+        if (routeSettings != null) {
+            hitMeter.mark();
+        } else {
+            missMeter.mark();
+
+            // two channels may resolve the same path
+            // concurrently; both results are equivalent
+            routeSettings = newRouteSettings(path);
+            settings.put(path, routeSettings);
+        }
+
+        ResolvedUri resolved = new ResolvedUri(uri, routeSettings);
+        if (cacheable) {
+            uris.put(rawUri, resolved);
+        }
+        return resolved;
+    }
+
+    // opaque uris have no path
+    private static String getPath(URI uri) {
+        return uri.getRawPath() == null ? "" : uri.getRawPath();
+    }
+
+    private RouteSettings newRouteSettings(String path) {
+        return new RouteSettings(routePriorities.getPriority(path), entityReadWindows.get(path), nonBlockingRoutes.getNonBlockingMethods(path));
+    }
+}
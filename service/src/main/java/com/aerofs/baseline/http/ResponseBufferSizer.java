@@ -0,0 +1,107 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.Maps;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Picks the size of the buffers that hold
+ * response bytes before they're written out.
+ * <br>
+ * If adaptive, a moving average of response sizes is kept
+ * for each route (i.e. each resource method), and buffers for
+ * that route are sized to hold a typical response, bounded by
+ * the maximum number of bytes buffered before a write. Otherwise,
+ * every buffer has the configured size.
+ */
+@ThreadSafe
+final class ResponseBufferSizer {
+
+    private static final int MIN_BUFFER_SIZE = 256;
+    private static final int EWMA_SHIFT = 2; // new sizes have a weight of 1/4
+
+    private final ConcurrentMap<Object, AtomicLong> averageSizes = Maps.newConcurrentMap();
+    private final int bufferSize;
+    private final int maxBufferedBytes;
+    private final boolean adaptive;
+
+    ResponseBufferSizer(int bufferSize, int maxBufferedBytes, boolean adaptive) {
+        checkArgument(bufferSize > 0, "buffer size %s must be > 0", bufferSize);
+        checkArgument(maxBufferedBytes >= bufferSize, "max buffered bytes %s less than buffer size %s", maxBufferedBytes, bufferSize);
+
+        this.bufferSize = bufferSize;
+        this.maxBufferedBytes = maxBufferedBytes;
+        this.adaptive = adaptive;
+    }
+
+    /**
+     * @return maximum number of response bytes to
+     * hold in memory before writing them out
+     */
+    int getMaxBufferedBytes() {
+        return maxBufferedBytes;
+    }
+
+    /**
+     * @param route route that generated the response, or null if unknown
+     * @return size of the buffers in which to hold the response bytes
+     */
+    int getBufferSize(@Nullable Object route) {
+        if (!adaptive || route == null) {
+            return bufferSize;
+        }
+
+        AtomicLong averageSize = averageSizes.get(route);
+        if (averageSize == null) {
+            return bufferSize;
+        }
+
+        // round up to a power of two so that
+        // the buffer comes straight out of the pool
+        long size = Math.max(MIN_BUFFER_SIZE, Math.min(maxBufferedBytes, averageSize.get()));
+        return (int) Math.min(maxBufferedBytes, Long.highestOneBit(size - 1) << 1);
+    }
+
+    /**
+     * Record the total size of a response generated by a route.
+     */
+    void record(@Nullable Object route, long responseSize) {
+        if (!adaptive || route == null) {
+            return;
+        }
+
+        AtomicLong averageSize = averageSizes.get(route);
+        if (averageSize == null) {
+            AtomicLong previous = averageSizes.putIfAbsent(route, averageSize = new AtomicLong(responseSize));
+            if (previous == null) {
+                return;
+            }
+
+            averageSize = previous;
+        }
+
+        averageSize.updateAndGet(average -> average + ((responseSize - average) >> EWMA_SHIFT));
+    }
+}
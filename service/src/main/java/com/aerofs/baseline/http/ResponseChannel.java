@@ -0,0 +1,71 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.handler.codec.http.HttpObject;
+
+/**
+ * Outbound half of a single HTTP request-response exchange.
+ * <br>
+ * All the {@code HttpObject} instances that make up a response
+ * are written via this interface. This allows the implementation
+ * to decide when they are actually written to the network, for
+ * example when responses to pipelined requests have to be reordered.
+ */
+interface ResponseChannel {
+
+    /**
+     * Get the allocator with which response buffers should be created.
+     *
+     * @return allocator with which response buffers should be created
+     */
+    ByteBufAllocator alloc();
+
+    /**
+     * Write {@code object} without flushing it to the network.
+     * Ownership of {@code object} is transferred to the callee.
+     *
+     * @param object part of the response to be written
+     */
+    void write(HttpObject object);
+
+    /**
+     * Write a response entity that is not an {@code HttpObject}
+     * (for example a {@link io.netty.channel.FileRegion}) without
+     * flushing it to the network. The response headers must have
+     * been written, and the entity must be followed by a
+     * {@link io.netty.handler.codec.http.LastHttpContent}.
+     * Ownership of {@code entity} is transferred to the callee.
+     *
+     * @param entity part of the response to be written
+     */
+    void writeEntity(Object entity);
+
+    /**
+     * Flush all previously-written objects to the network.
+     */
+    void flush();
+
+    /**
+     * Write {@code object} and flush it (and all previously-written objects) to the network.
+     * Ownership of {@code object} is transferred to the callee.
+     *
+     * @param object part of the response to be written
+     */
+    void writeAndFlush(HttpObject object);
+}
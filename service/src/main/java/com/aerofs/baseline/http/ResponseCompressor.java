@@ -0,0 +1,172 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders.Names;
+import io.netty.handler.codec.http.HttpResponseStatus;
+import io.netty.handler.codec.http.HttpVersion;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.HttpMethod;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Decides whether response entities should be compressed,
+ * and creates the streams that compress them.
+ * <br>
+ * An entity is compressed only if compression is enabled,
+ * the client accepts gzip or deflate, the entity isn't already
+ * encoded, its media type is compressible, and it's at least
+ * {@code minCompressibleSize} bytes long (or its length
+ * isn't known). Each content coding has its own
+ * {@link DeflaterPool}, shared by all the server's channels.
+ */
+@ThreadSafe
+final class ResponseCompressor {
+
+    // in order of preference
+    private static final ImmutableList<String> CODINGS = ImmutableList.of(ContentEncoding.GZIP.getCoding(), ContentEncoding.DEFLATE.getCoding());
+
+    private final Map<ContentEncoding, DeflaterPool> deflaterPools = new EnumMap<>(ContentEncoding.class);
+    private final boolean enabled;
+    private final int minCompressibleSize;
+    private final ImmutableList<String> compressibleContentTypes;
+
+    ResponseCompressor(boolean enabled, int level, int minCompressibleSize, List<String> compressibleContentTypes, int maxPooledDeflaters) {
+        this.enabled = enabled;
+        this.minCompressibleSize = minCompressibleSize;
+
+        ImmutableList.Builder<String> builder = ImmutableList.builder();
+        for (String contentType : compressibleContentTypes) {
+            builder.add(contentType.toLowerCase(Locale.ENGLISH));
+        }
+        this.compressibleContentTypes = builder.build();
+
+        for (ContentEncoding encoding : ContentEncoding.values()) {
+            deflaterPools.put(encoding, new DeflaterPool(encoding, level, maxPooledDeflaters));
+        }
+    }
+
+    /**
+     * Select the content coding with which to compress a response entity.
+     * <br>
+     * Adds {@code Accept-Encoding} to the {@code Vary} header in
+     * {@code responseHeaders} if the entity is compressible, regardless
+     * of whether this client accepts a compressed entity, so that caches
+     * don't serve the wrong variant. Fields that the resource already
+     * listed in {@code Vary} are kept.
+     *
+     * @param httpMethod method of the request being responded to
+     * @param contentLength length of the uncompressed entity, or -1 if unknown
+     * @param acceptEncoding value of the request's {@code Accept-Encoding} header, or null if absent
+     * @return the content coding to use, or null if the entity should be sent as-is
+     */
+    @Nullable ContentEncoding selectEncoding(HttpVersion httpVersion, String httpMethod, int status, long contentLength, @Nullable String acceptEncoding, HttpHeaders responseHeaders) {
+        if (!isCompressible(httpVersion, status, contentLength, responseHeaders)) {
+            return null;
+        }
+
+        addVaryAcceptEncoding(responseHeaders);
+
+        // describes the same variant as GET would,
+        // but there's no entity to compress
+        if (HttpMethod.HEAD.equals(httpMethod)) {
+            return null;
+        }
+
+        String coding = AcceptEncoding.select(acceptEncoding, CODINGS);
+        if (coding == null) {
+            return null;
+        }
+
+        return coding.equals(ContentEncoding.GZIP.getCoding()) ? ContentEncoding.GZIP : ContentEncoding.DEFLATE;
+    }
+
+    private static void addVaryAcceptEncoding(HttpHeaders responseHeaders) {
+        List<String> vary = responseHeaders.getAll(Names.VARY);
+        if (vary.isEmpty()) {
+            responseHeaders.set(Names.VARY, Names.ACCEPT_ENCODING);
+            return;
+        }
+
+        // "*" already varies on every request header
+        for (String value : vary) {
+            for (String field : value.split(",")) {
+                field = field.trim();
+                if (field.equals("*") || field.equalsIgnoreCase(Names.ACCEPT_ENCODING)) {
+                    return;
+                }
+            }
+        }
+
+        // merge into a single value so that
+        // the response has one Vary header
+        StringBuilder merged = new StringBuilder();
+        for (String value : vary) {
+            merged.append(value).append(", ");
+        }
+
+        responseHeaders.set(Names.VARY, merged.append(Names.ACCEPT_ENCODING).toString());
+    }
+
+    private boolean isCompressible(HttpVersion httpVersion, int status, long contentLength, HttpHeaders responseHeaders) {
+        // compressed entities are sent with chunked
+        // transfer encoding, which 1.0 clients don't support
+        if (!enabled || !httpVersion.equals(HttpVersion.HTTP_1_1)) {
+            return false;
+        }
+
+        if (status < HttpResponseStatus.OK.code() || status == HttpResponseStatus.NO_CONTENT.code() || status == HttpResponseStatus.NOT_MODIFIED.code()) {
+            return false;
+        }
+
+        if (contentLength == 0 || (contentLength > 0 && contentLength < minCompressibleSize)) {
+            return false;
+        }
+
+        // the entity was already encoded, either
+        // by the resource or by a jersey interceptor
+        if (responseHeaders.contains(Names.CONTENT_ENCODING)) {
+            return false;
+        }
+
+        String contentType = responseHeaders.get(Names.CONTENT_TYPE);
+        if (contentType == null) {
+            return false;
+        }
+
+        contentType = contentType.trim().toLowerCase(Locale.ENGLISH);
+        for (String compressibleContentType : compressibleContentTypes) {
+            if (contentType.startsWith(compressibleContentType)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    ContentOutputStream newCompressedStream(ContentEncoding encoding, ContentOutputStream delegate) {
+        return new CompressedEntityOutputStream(delegate, encoding, deflaterPools.get(encoding));
+    }
+}
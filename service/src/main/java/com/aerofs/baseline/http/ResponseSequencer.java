@@ -0,0 +1,169 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.Maps;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.stream.ChunkedInput;
+import io.netty.util.ReferenceCountUtil;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayDeque;
+import java.util.Map;
+
+/**
+ * Writes the responses to concurrently-processed pipelined
+ * requests in the order in which the requests were received.
+ * <br>
+ * Objects belonging to the response at the head of the
+ * sequence are written through immediately. Objects belonging
+ * to later responses are queued until every response before
+ * them has been completely written.
+ * <br>
+ * <strong>IMPORTANT:</strong> this class is <strong>NOT</strong>
+ * thread-safe and must only be used from within the channel's event loop.
+ */
+@NotThreadSafe
+final class ResponseSequencer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ResponseSequencer.class);
+
+    private static final class QueuedResponse {
+
+        private final ArrayDeque<Object> objects = new ArrayDeque<>();
+
+        private boolean completed;
+        private boolean closeAfter;
+    }
+
+    private final Map<Long, QueuedResponse> queuedResponses = Maps.newHashMap();
+    private final ChannelHandlerContext ctx;
+
+    private long head;
+    private boolean released;
+
+    ResponseSequencer(ChannelHandlerContext ctx) {
+        this.ctx = ctx;
+    }
+
+    void write(long sequence, Object object, boolean flush) {
+        if (released) {
+            release(object);
+            return;
+        }
+
+        if (sequence == head) {
+            if (flush) {
+                ctx.writeAndFlush(object);
+            } else {
+                ctx.write(object);
+            }
+        } else {
+            // flushes are deferred until the
+            // queued objects are written out
+            getQueuedResponse(sequence).objects.add(object);
+        }
+    }
+
+    void flush(long sequence) {
+        if (!released && sequence == head) {
+            ctx.flush();
+        }
+    }
+
+    void complete(long sequence, boolean closeAfter) {
+        if (released) {
+            return;
+        }
+
+        if (sequence != head) {
+            QueuedResponse queued = getQueuedResponse(sequence);
+            queued.completed = true;
+            queued.closeAfter = closeAfter;
+            return;
+        }
+
+        // the head response is done
+        // write out all the completed responses
+        // that were queued behind it, as well as
+        // whatever is available for the first
+        // response that's still being generated
+        boolean close = closeAfter;
+        head++;
+
+        QueuedResponse queued;
+        while (!close && (queued = queuedResponses.remove(head)) != null) {
+            Object object;
+            while ((object = queued.objects.poll()) != null) {
+                ctx.write(object);
+            }
+
+            if (!queued.completed) {
+                break;
+            }
+
+            close = queued.closeAfter;
+            head++;
+        }
+
+        ctx.flush();
+
+        if (close) {
+            Channels.expectedClose(ctx, "not keep-alive connection");
+        }
+    }
+
+    void release() {
+        released = true;
+
+        for (QueuedResponse queued : queuedResponses.values()) {
+            Object object;
+            while ((object = queued.objects.poll()) != null) {
+                release(object);
+            }
+        }
+
+        queuedResponses.clear();
+    }
+
+    // chunked inputs hold on to resources
+    // (i.e. files) but are not reference-counted
+    private static void release(Object object) {
+        if (object instanceof ChunkedInput) {
+            try {
+                ((ChunkedInput<?>) object).close();
+            } catch (Exception e) {
+                LOGGER.warn("fail close chunked input", e);
+            }
+        } else {
+            ReferenceCountUtil.release(object);
+        }
+    }
+
+    private QueuedResponse getQueuedResponse(long sequence) {
+        QueuedResponse queued = queuedResponses.get(sequence);
+
+        if (queued == null) {
+            queued = new QueuedResponse();
+            queuedResponses.put(sequence, queued);
+        }
+
+        return queued;
+    }
+}
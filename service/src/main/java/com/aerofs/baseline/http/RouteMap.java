@@ -0,0 +1,91 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.ImmutableMap;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+
+/**
+ * Maps request paths to values using
+ * the longest matching path prefix.
+ * <br>
+ * Prefixes match on path-segment boundaries:
+ * {@code /reports} matches {@code /reports} and
+ * {@code /reports/2015}, but not {@code /reportsarchive}.
+ *
+ * @param <V> type of the value mapped to each path prefix
+ */
+@ThreadSafe
+final class RouteMap<V> {
+
+    private final ImmutableMap<String, V> values;
+    private final V defaultValue;
+
+    RouteMap(Map<String, ? extends V> routes, V defaultValue) {
+        ImmutableMap.Builder<String, V> builder = ImmutableMap.builder();
+
+        for (Map.Entry<String, ? extends V> entry : routes.entrySet()) {
+            builder.put(normalize(entry.getKey()), entry.getValue());
+        }
+
+        this.values = builder.build();
+        this.defaultValue = defaultValue;
+    }
+
+    /**
+     * @return the value mapped to the longest path prefix
+     * of {@code uri}, or the default value if no prefix matches
+     */
+    V get(String uri) {
+        if (values.isEmpty()) {
+            return defaultValue;
+        }
+
+        // strip the query string
+        int queryStart = uri.indexOf('?');
+        String path = normalize(queryStart == -1 ? uri : uri.substring(0, queryStart));
+
+        // walk up the path one segment at a time
+        while (true) {
+            V value = values.get(path);
+            if (value != null) {
+                return value;
+            }
+
+            if (path.isEmpty()) {
+                return defaultValue;
+            }
+
+            path = path.substring(0, path.lastIndexOf('/'));
+        }
+    }
+
+    // "/", "" -> ""
+    // "reports/", "/reports" -> "/reports"
+    private static String normalize(String path) {
+        int end = path.length();
+        while (end > 0 && path.charAt(end - 1) == '/') {
+            end--;
+        }
+
+        String trimmed = path.substring(0, end);
+        return trimmed.isEmpty() || trimmed.charAt(0) == '/' ? trimmed : "/" + trimmed;
+    }
+}
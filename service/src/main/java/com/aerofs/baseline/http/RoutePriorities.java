@@ -0,0 +1,41 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Map;
+
+/**
+ * Maps request paths to a {@link RequestPriority}
+ * using the longest matching path prefix.
+ *
+ * @see RouteMap
+ */
+@ThreadSafe
+final class RoutePriorities {
+
+    private final RouteMap<RequestPriority> priorities;
+
+    RoutePriorities(Map<String, RequestPriority> routePriorities) {
+        this.priorities = new RouteMap<>(routePriorities, RequestPriority.NORMAL);
+    }
+
+    RequestPriority getPriority(String uri) {
+        return priorities.get(uri);
+    }
+}
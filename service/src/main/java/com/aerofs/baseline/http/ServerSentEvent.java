@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A single event sent on an {@link EventStream}.
+ * <br>
+ * The event is encoded once, when it's created, so that
+ * broadcasting it to many streams doesn't encode it again
+ * for each one.
+ */
+@Immutable
+public final class ServerSentEvent {
+
+    /**
+     * Comment-only frame, sent to keep idle streams alive.
+     */
+    static final ServerSentEvent HEARTBEAT = new ServerSentEvent(":\n\n".getBytes(Charsets.UTF_8));
+
+    private final byte[] encoded;
+
+    /**
+     * @param data event payload, which may span multiple lines
+     */
+    public ServerSentEvent(String data) {
+        this(null, null, data);
+    }
+
+    /**
+     * @param event event type, or null for the default ({@code message}) type
+     * @param data event payload, which may span multiple lines
+     */
+    public ServerSentEvent(@Nullable String event, String data) {
+        this(null, event, data);
+    }
+
+    /**
+     * @param id event id, sent back by the client in
+     *           {@code Last-Event-ID} when it reconnects, or null
+     * @param event event type, or null for the default ({@code message}) type
+     * @param data event payload, which may span multiple lines
+     */
+    public ServerSentEvent(@Nullable String id, @Nullable String event, String data) {
+        this(encode(id, event, data));
+    }
+
+    private ServerSentEvent(byte[] encoded) {
+        this.encoded = encoded;
+    }
+
+    private static byte[] encode(@Nullable String id, @Nullable String event, String data) {
+        StringBuilder builder = new StringBuilder(data.length() + 32);
+
+        if (id != null) {
+            Preconditions.checkArgument(isSingleLine(id), "multi-line event id %s", id);
+            builder.append("id: ").append(id).append('\n');
+        }
+
+        if (event != null) {
+            Preconditions.checkArgument(isSingleLine(event), "multi-line event type %s", event);
+            builder.append("event: ").append(event).append('\n');
+        }
+
+        // each line of the payload
+        // is sent as a separate field
+        int start = 0;
+        for (int i = 0; i < data.length(); i++) {
+            char c = data.charAt(i);
+            if (c == '\n' || c == '\r') {
+                builder.append("data: ").append(data, start, i).append('\n');
+
+                if (c == '\r' && i + 1 < data.length() && data.charAt(i + 1) == '\n') {
+                    i++;
+                }
+
+                start = i + 1;
+            }
+        }
+        builder.append("data: ").append(data, start, data.length()).append('\n');
+
+        // a blank line dispatches the event
+        builder.append('\n');
+
+        return builder.toString().getBytes(Charsets.UTF_8);
+    }
+
+    private static boolean isSingleLine(String value) {
+        return value.indexOf('\n') < 0 && value.indexOf('\r') < 0;
+    }
+
+    /**
+     * @return event encoded in the {@code text/event-stream} format
+     */
+    byte[] getEncoded() {
+        return encoded;
+    }
+}
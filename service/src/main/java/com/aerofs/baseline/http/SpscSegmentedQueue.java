@@ -0,0 +1,111 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Unbounded, lock-free single-producer/single-consumer queue.
+ * <br>
+ * Elements are stored in fixed-size ring segments that are
+ * linked together as the producer fills them, so that the
+ * producer never has to wait for the consumer and no
+ * allocation is done for individual elements.
+ * <br>
+ * <strong>IMPORTANT:</strong> at any time there must be at
+ * most one thread calling {@link #offer(Object)} and one
+ * thread calling {@link #poll()} or {@link #isEmpty()}.
+ * The consumer (or producer) role can move between threads
+ * only if there is a happens-before relationship between the
+ * last operation of the previous thread and the first
+ * operation of the next.
+ */
+@ThreadSafe
+final class SpscSegmentedQueue<E> {
+
+    private static final int SEGMENT_SIZE = 32;
+
+    private static final class Segment<E> {
+
+        private final AtomicReferenceArray<E> slots = new AtomicReferenceArray<>(SEGMENT_SIZE);
+
+        private volatile @Nullable Segment<E> next;
+    }
+
+    // only accessed by the producer
+    private Segment<E> producerSegment;
+    private int producerIndex;
+
+    // only accessed by the consumer
+    private Segment<E> consumerSegment;
+    private int consumerIndex;
+
+    SpscSegmentedQueue() {
+        Segment<E> initial = new Segment<>();
+        producerSegment = initial;
+        consumerSegment = initial;
+    }
+
+    void offer(E element) {
+        if (producerIndex == SEGMENT_SIZE) {
+            Segment<E> next = new Segment<>();
+            producerSegment.next = next;
+            producerSegment = next;
+            producerIndex = 0;
+        }
+
+        // volatile write publishes the
+        // element to the consumer
+        producerSegment.slots.set(producerIndex++, element);
+    }
+
+    @Nullable E poll() {
+        if (!advanceIfSegmentConsumed()) {
+            return null;
+        }
+
+        E element = consumerSegment.slots.get(consumerIndex);
+        if (element != null) {
+            consumerSegment.slots.lazySet(consumerIndex++, null);
+        }
+
+        return element;
+    }
+
+    boolean isEmpty() {
+        return !advanceIfSegmentConsumed() || consumerSegment.slots.get(consumerIndex) == null;
+    }
+
+    // returns false if the consumer has read
+    // every slot of the current segment and the
+    // producer hasn't linked the next one yet
+    private boolean advanceIfSegmentConsumed() {
+        if (consumerIndex == SEGMENT_SIZE) {
+            Segment<E> next = consumerSegment.next;
+            if (next == null) {
+                return false;
+            }
+
+            consumerSegment = next;
+            consumerIndex = 0;
+        }
+
+        return true;
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import io.netty.buffer.ByteBuf;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+
+/**
+ * Request entity that is consumed chunk by chunk
+ * in the buffers in which it was received from the network.
+ * <br>
+ * Resource methods receive an instance by declaring
+ * a {@code StreamingEntity} entity parameter:
+ * <pre>
+ *     &#64;POST
+ *     public void upload(StreamingEntity entity) throws IOException {
+ *         ByteBuf chunk;
+ *         while ((chunk = entity.readChunk()) != null) {
+ *             try {
+ *                 channel.write(chunk.nioBuffer());
+ *             } finally {
+ *                 chunk.release();
+ *             }
+ *         }
+ *     }
+ * </pre>
+ * A {@code StreamingEntity} should not be mixed with
+ * reads from the request {@link java.io.InputStream}.
+ */
+public interface StreamingEntity {
+
+    /**
+     * Get the next chunk of the entity,
+     * waiting until it is received if necessary.
+     * <br>
+     * The returned buffer is read-only and owned by
+     * the caller, who <strong>must</strong> call
+     * {@link ByteBuf#release()} on it when done.
+     *
+     * @return next chunk of the entity, or {@code null} if the entire entity was read
+     * @throws IOException if the entity could not be read, for example because the connection was closed
+     */
+    @Nullable ByteBuf readChunk() throws IOException;
+}
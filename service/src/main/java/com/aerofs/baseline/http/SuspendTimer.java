@@ -0,0 +1,66 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Counter;
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Schedules suspended-request timeouts on the
+ * shared service {@link Timer}.
+ * <br>
+ * Timeouts stay in the timer's wheel until they
+ * fire or are cancelled, so every timeout scheduled
+ * for a request must be cancelled once the request
+ * completes. The number of timeouts still waiting in
+ * the wheel is tracked so that leaks are visible.
+ */
+@ThreadSafe
+final class SuspendTimer {
+
+    private final Timer timer;
+    private final Counter pendingTimeoutsCounter;
+
+    SuspendTimer(String serverIdentifier, Timer timer) {
+        this.timer = timer;
+        this.pendingTimeoutsCounter = MetricRegistries.getRegistry().counter(MetricRegistries.name("http", serverIdentifier, "pending-suspend-timeouts"));
+    }
+
+    Timeout schedule(TimerTask task, long timeout, TimeUnit timeUnit) {
+        pendingTimeoutsCounter.inc();
+
+        return timer.newTimeout(handle -> {
+            pendingTimeoutsCounter.dec();
+            task.run(handle);
+        }, timeout, timeUnit);
+    }
+
+    // may be called multiple times, from any thread
+    void cancel(@Nullable Timeout timeout) {
+        if (timeout != null && timeout.cancel()) {
+            pendingTimeoutsCounter.dec();
+        }
+    }
+}
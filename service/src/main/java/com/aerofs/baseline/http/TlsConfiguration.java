@@ -0,0 +1,222 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.base.Objects;
+import org.hibernate.validator.constraints.NotBlank;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.validation.constraints.Min;
+import javax.validation.constraints.NotNull;
+import java.util.List;
+
+/**
+ * TLS settings for an {@link HttpServer}.
+ * <br>
+ * The certificate chain and private key are PEM files. The
+ * private key must be in PKCS#8 format, and may be encrypted
+ * with {@code privateKeyPassword}. Client certificates
+ * are verified against the certificates in the PEM
+ * {@code trustedCertificatesFile}, which must be set if
+ * {@code clientAuthentication} is anything other than
+ * {@link ClientAuthentication#NONE}.
+ *
+ * @see HttpConfiguration#getTls()
+ */
+@SuppressWarnings("unused")
+@NotThreadSafe
+public final class TlsConfiguration {
+
+    @NotNull
+    private TlsProvider provider = TlsProvider.JDK;
+
+    @NotBlank
+    private String certificateChainFile;
+
+    @NotBlank
+    private String privateKeyFile;
+
+    private @Nullable String privateKeyPassword;
+
+    private @Nullable List<String> ciphers;
+
+    @Min(0)
+    private int sessionCacheSize = com.aerofs.baseline.http.Constants.DEFAULT_TLS_SESSION_CACHE_SIZE;
+
+    @Min(0)
+    private int sessionTimeout = com.aerofs.baseline.http.Constants.DEFAULT_TLS_SESSION_TIMEOUT;
+
+    private @Nullable String sessionTicketKeyFile;
+
+    @Min(1)
+    private long handshakeTimeout = com.aerofs.baseline.http.Constants.DEFAULT_TLS_HANDSHAKE_TIMEOUT;
+
+    @NotNull
+    private ClientAuthentication clientAuthentication = ClientAuthentication.NONE;
+
+    private @Nullable String trustedCertificatesFile;
+
+    public TlsProvider getProvider() {
+        return provider;
+    }
+
+    public void setProvider(TlsProvider provider) {
+        this.provider = provider;
+    }
+
+    public String getCertificateChainFile() {
+        return certificateChainFile;
+    }
+
+    public void setCertificateChainFile(String certificateChainFile) {
+        this.certificateChainFile = certificateChainFile;
+    }
+
+    public String getPrivateKeyFile() {
+        return privateKeyFile;
+    }
+
+    public void setPrivateKeyFile(String privateKeyFile) {
+        this.privateKeyFile = privateKeyFile;
+    }
+
+    public @Nullable String getPrivateKeyPassword() {
+        return privateKeyPassword;
+    }
+
+    public void setPrivateKeyPassword(@Nullable String privateKeyPassword) {
+        this.privateKeyPassword = privateKeyPassword;
+    }
+
+    /**
+     * Enabled cipher suites, or null to use the provider's defaults.
+     */
+    public @Nullable List<String> getCiphers() {
+        return ciphers;
+    }
+
+    public void setCiphers(@Nullable List<String> ciphers) {
+        this.ciphers = ciphers;
+    }
+
+    /**
+     * Maximum number of sessions cached for resumption, or 0 for no limit.
+     */
+    public int getSessionCacheSize() {
+        return sessionCacheSize;
+    }
+
+    public void setSessionCacheSize(int sessionCacheSize) {
+        this.sessionCacheSize = sessionCacheSize;
+    }
+
+    /**
+     * Time, in seconds, for which a session can be resumed, or 0 for no limit.
+     */
+    public int getSessionTimeout() {
+        return sessionTimeout;
+    }
+
+    public void setSessionTimeout(int sessionTimeout) {
+        this.sessionTimeout = sessionTimeout;
+    }
+
+    /**
+     * File containing the keys with which session tickets are
+     * encrypted, in 48-byte blocks, or null to disable session
+     * tickets. Sharing this file lets clients resume sessions
+     * on any instance. Only supported by {@link TlsProvider#OPENSSL}.
+     */
+    public @Nullable String getSessionTicketKeyFile() {
+        return sessionTicketKeyFile;
+    }
+
+    public void setSessionTicketKeyFile(@Nullable String sessionTicketKeyFile) {
+        this.sessionTicketKeyFile = sessionTicketKeyFile;
+    }
+
+    /**
+     * Time, in milliseconds, within which a client must complete
+     * the TLS handshake before its connection is closed.
+     */
+    public long getHandshakeTimeout() {
+        return handshakeTimeout;
+    }
+
+    public void setHandshakeTimeout(long handshakeTimeout) {
+        this.handshakeTimeout = handshakeTimeout;
+    }
+
+    public ClientAuthentication getClientAuthentication() {
+        return clientAuthentication;
+    }
+
+    public void setClientAuthentication(ClientAuthentication clientAuthentication) {
+        this.clientAuthentication = clientAuthentication;
+    }
+
+    public @Nullable String getTrustedCertificatesFile() {
+        return trustedCertificatesFile;
+    }
+
+    public void setTrustedCertificatesFile(@Nullable String trustedCertificatesFile) {
+        this.trustedCertificatesFile = trustedCertificatesFile;
+    }
+
+    @Override
+    public boolean equals(@Nullable Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        TlsConfiguration other = (TlsConfiguration) o;
+        return provider == other.provider
+                && Objects.equal(certificateChainFile, other.certificateChainFile)
+                && Objects.equal(privateKeyFile, other.privateKeyFile)
+                && Objects.equal(privateKeyPassword, other.privateKeyPassword)
+                && Objects.equal(ciphers, other.ciphers)
+                && sessionCacheSize == other.sessionCacheSize
+                && sessionTimeout == other.sessionTimeout
+                && Objects.equal(sessionTicketKeyFile, other.sessionTicketKeyFile)
+                && handshakeTimeout == other.handshakeTimeout
+                && clientAuthentication == other.clientAuthentication
+                && Objects.equal(trustedCertificatesFile, other.trustedCertificatesFile);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hashCode(provider, certificateChainFile, privateKeyFile, privateKeyPassword, ciphers, sessionCacheSize, sessionTimeout, sessionTicketKeyFile, handshakeTimeout, clientAuthentication, trustedCertificatesFile);
+    }
+
+    @Override
+    public String toString() {
+        return Objects
+                .toStringHelper(this)
+                .add("provider", provider)
+                .add("certificateChainFile", certificateChainFile)
+                .add("privateKeyFile", privateKeyFile)
+                .add("ciphers", ciphers)
+                .add("sessionCacheSize", sessionCacheSize)
+                .add("sessionTimeout", sessionTimeout)
+                .add("sessionTicketKeyFile", sessionTicketKeyFile)
+                .add("handshakeTimeout", handshakeTimeout)
+                .add("clientAuthentication", clientAuthentication)
+                .add("trustedCertificatesFile", trustedCertificatesFile)
+                .toString();
+    }
+}
@@ -0,0 +1,356 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.RatioGauge;
+import com.codahale.metrics.Timer;
+import com.google.common.base.CharMatcher;
+import com.google.common.io.BaseEncoding;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.ssl.OpenSsl;
+import io.netty.handler.ssl.OpenSslServerContext;
+import io.netty.handler.ssl.SslHandler;
+import io.netty.handler.ssl.SslHandshakeCompletionEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.crypto.Cipher;
+import javax.crypto.EncryptedPrivateKeyInfo;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.net.ssl.KeyManagerFactory;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSessionContext;
+import javax.net.ssl.TrustManager;
+import javax.net.ssl.TrustManagerFactory;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyException;
+import java.security.KeyFactory;
+import java.security.KeyStore;
+import java.security.PrivateKey;
+import java.security.cert.Certificate;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.spec.InvalidKeySpecException;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Creates the {@link SslHandler} that terminates TLS on
+ * each accepted connection, and tracks handshake metrics.
+ * <br>
+ * The JDK provider's {@code SSLContext} is built here (rather
+ * than by netty) so that client certificates can be verified against
+ * the configured trusted certificates. The OpenSSL provider supports
+ * session tickets, but not client authentication; if client
+ * authentication is required the JDK provider is used instead.
+ */
+@ThreadSafe
+final class TlsContext {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TlsContext.class);
+
+    private static final Pattern PRIVATE_KEY_PATTERN = Pattern.compile("-----BEGIN (ENCRYPTED )?PRIVATE KEY-----([A-Za-z0-9+/=\\s]+)-----END (ENCRYPTED )?PRIVATE KEY-----");
+    private static final String[] PRIVATE_KEY_ALGORITHMS = {"RSA", "EC", "DSA"};
+
+    private final Function<ByteBufAllocator, SSLEngine> engineFactory;
+    private final long handshakeTimeout;
+    private final Meter handshakeMeter;
+    private final Meter resumedHandshakeMeter;
+    private final Meter failedHandshakeMeter;
+    private final Timer handshakeTimer;
+
+    private TlsContext(String serverIdentifier, Function<ByteBufAllocator, SSLEngine> engineFactory, long handshakeTimeout) {
+        this.engineFactory = engineFactory;
+        this.handshakeTimeout = handshakeTimeout;
+
+        MetricRegistry registry = MetricRegistries.getRegistry();
+        this.handshakeMeter = registry.meter(MetricRegistries.name("http", serverIdentifier, "tls", "handshakes"));
+        this.resumedHandshakeMeter = registry.meter(MetricRegistries.name("http", serverIdentifier, "tls", "resumed-handshakes"));
+        this.failedHandshakeMeter = registry.meter(MetricRegistries.name("http", serverIdentifier, "tls", "failed-handshakes"));
+        this.handshakeTimer = registry.timer(MetricRegistries.name("http", serverIdentifier, "tls", "handshake-time"));
+
+        // replaces the gauge registered by an earlier server with the same identifier
+        String resumptionRatioName = MetricRegistries.name("http", serverIdentifier, "tls", "resumption-ratio");
+        registry.remove(resumptionRatioName);
+        registry.register(resumptionRatioName, new RatioGauge() {
+            @Override
+            protected Ratio getRatio() {
+                return Ratio.of(resumedHandshakeMeter.getOneMinuteRate(), handshakeMeter.getOneMinuteRate());
+            }
+        });
+    }
+
+    static TlsContext newTlsContext(String serverIdentifier, TlsConfiguration tls) throws IOException, GeneralSecurityException {
+        // otherwise client certificates are verified against the jvm's
+        // default trust store, and anyone with a publicly-issued certificate
+        // is authenticated as the subject of their choice
+        if (tls.getClientAuthentication() != ClientAuthentication.NONE && tls.getTrustedCertificatesFile() == null) {
+            throw new IllegalArgumentException(serverIdentifier + "-http client authentication " + tls.getClientAuthentication() + " requires trustedCertificatesFile");
+        }
+
+        Function<ByteBufAllocator, SSLEngine> engineFactory;
+
+        if (getAvailableProvider(serverIdentifier, tls) == TlsProvider.OPENSSL) {
+            engineFactory = newOpenSslEngineFactory(tls);
+        } else {
+            engineFactory = newJdkEngineFactory(serverIdentifier, tls);
+        }
+
+        return new TlsContext(serverIdentifier, engineFactory, tls.getHandshakeTimeout());
+    }
+
+    private static TlsProvider getAvailableProvider(String serverIdentifier, TlsConfiguration tls) {
+        if (tls.getProvider() == TlsProvider.OPENSSL) {
+            if (!OpenSsl.isAvailable()) {
+                LOGGER.warn("{}-http openssl tls provider unavailable - fall back to jdk", serverIdentifier, OpenSsl.unavailabilityCause());
+                return TlsProvider.JDK;
+            }
+
+            if (tls.getClientAuthentication() != ClientAuthentication.NONE) {
+                LOGGER.warn("{}-http openssl tls provider does not support client authentication - fall back to jdk", serverIdentifier);
+                return TlsProvider.JDK;
+            }
+        }
+
+        return tls.getProvider();
+    }
+
+    private static Function<ByteBufAllocator, SSLEngine> newOpenSslEngineFactory(TlsConfiguration tls) throws IOException, GeneralSecurityException {
+        OpenSslServerContext context = new OpenSslServerContext(new File(tls.getCertificateChainFile()), new File(tls.getPrivateKeyFile()), tls.getPrivateKeyPassword(), tls.getCiphers(), null, tls.getSessionCacheSize(), tls.getSessionTimeout());
+
+        String sessionTicketKeyFile = tls.getSessionTicketKeyFile();
+        if (sessionTicketKeyFile != null) {
+            byte[] keys = Files.readAllBytes(Paths.get(sessionTicketKeyFile));
+            if (keys.length == 0 || keys.length % com.aerofs.baseline.http.Constants.TLS_SESSION_TICKET_KEY_SIZE != 0) {
+                throw new KeyException("session ticket keys in " + sessionTicketKeyFile + " must be a multiple of " + com.aerofs.baseline.http.Constants.TLS_SESSION_TICKET_KEY_SIZE + " bytes");
+            }
+
+            context.setTicketKeys(keys);
+        }
+
+        return context::newEngine;
+    }
+
+    private static Function<ByteBufAllocator, SSLEngine> newJdkEngineFactory(String serverIdentifier, TlsConfiguration tls) throws IOException, GeneralSecurityException {
+        char[] password = tls.getPrivateKeyPassword() == null ? new char[0] : tls.getPrivateKeyPassword().toCharArray();
+
+        // key material
+        Certificate[] certificateChain = readCertificates(tls.getCertificateChainFile()).toArray(new Certificate[0]);
+        PrivateKey privateKey = readPrivateKey(tls.getPrivateKeyFile(), password);
+
+        KeyStore keyStore = KeyStore.getInstance(KeyStore.getDefaultType());
+        keyStore.load(null, null);
+        keyStore.setKeyEntry("key", privateKey, password, certificateChain);
+
+        KeyManagerFactory keyManagerFactory = KeyManagerFactory.getInstance(KeyManagerFactory.getDefaultAlgorithm());
+        keyManagerFactory.init(keyStore, password);
+
+        // certificates against which client certificates
+        // are verified; always specified if clients are
+        // authenticated, since only then are they used
+        TrustManager[] trustManagers = null;
+        if (tls.getTrustedCertificatesFile() != null) {
+            KeyStore trustStore = KeyStore.getInstance(KeyStore.getDefaultType());
+            trustStore.load(null, null);
+
+            int index = 0;
+            for (Certificate certificate : readCertificates(tls.getTrustedCertificatesFile())) {
+                trustStore.setCertificateEntry("trusted-" + index++, certificate);
+            }
+
+            TrustManagerFactory trustManagerFactory = TrustManagerFactory.getInstance(TrustManagerFactory.getDefaultAlgorithm());
+            trustManagerFactory.init(trustStore);
+            trustManagers = trustManagerFactory.getTrustManagers();
+        }
+
+        SSLContext context = SSLContext.getInstance("TLS");
+        context.init(keyManagerFactory.getKeyManagers(), trustManagers, null);
+
+        SSLSessionContext sessionContext = context.getServerSessionContext();
+        sessionContext.setSessionCacheSize(tls.getSessionCacheSize());
+        sessionContext.setSessionTimeout(tls.getSessionTimeout());
+
+        if (tls.getSessionTicketKeyFile() != null) {
+            LOGGER.warn("{}-http jdk tls provider does not support session tickets - resume sessions from cache only", serverIdentifier);
+        }
+
+        // only enable the ciphers the jdk supports
+        String[] ciphers = null;
+        if (tls.getCiphers() != null) {
+            List<String> supported = Arrays.asList(context.getSupportedSSLParameters().getCipherSuites());
+            ciphers = tls.getCiphers().stream().filter(supported::contains).toArray(String[]::new);
+
+            if (ciphers.length == 0) {
+                throw new GeneralSecurityException("none of the ciphers " + tls.getCiphers() + " are supported");
+            }
+        }
+
+        String[] enabledCiphers = ciphers;
+        ClientAuthentication clientAuthentication = tls.getClientAuthentication();
+
+        return allocator -> {
+            SSLEngine engine = context.createSSLEngine();
+            engine.setUseClientMode(false);
+
+            if (enabledCiphers != null) {
+                engine.setEnabledCipherSuites(enabledCiphers);
+            }
+
+            if (clientAuthentication == ClientAuthentication.REQUIRE) {
+                engine.setNeedClientAuth(true);
+            } else if (clientAuthentication == ClientAuthentication.OPTIONAL) {
+                engine.setWantClientAuth(true);
+            }
+
+            return new SessionPreservingSslEngine(engine);
+        };
+    }
+
+    private static Collection<? extends Certificate> readCertificates(String file) throws IOException, CertificateException {
+        try (InputStream in = Files.newInputStream(Paths.get(file))) {
+            Collection<? extends Certificate> certificates = CertificateFactory.getInstance("X.509").generateCertificates(in);
+            if (certificates.isEmpty()) {
+                throw new CertificateException("no certificates in " + file);
+            }
+            return certificates;
+        }
+    }
+
+    // PKCS#8 only, like netty's own JdkSslServerContext
+    private static PrivateKey readPrivateKey(String file, char[] password) throws IOException, GeneralSecurityException {
+        String pem = new String(Files.readAllBytes(Paths.get(file)), StandardCharsets.US_ASCII);
+
+        Matcher matcher = PRIVATE_KEY_PATTERN.matcher(pem);
+        if (!matcher.find()) {
+            throw new KeyException("no pkcs#8 private key in " + file);
+        }
+
+        byte[] encoded = BaseEncoding.base64().decode(CharMatcher.WHITESPACE.removeFrom(matcher.group(2)));
+
+        PKCS8EncodedKeySpec keySpec;
+        if (matcher.group(1) != null) {
+            EncryptedPrivateKeyInfo keyInfo = new EncryptedPrivateKeyInfo(encoded);
+            SecretKeyFactory keyFactory = SecretKeyFactory.getInstance(keyInfo.getAlgName());
+            Cipher cipher = Cipher.getInstance(keyInfo.getAlgName());
+            cipher.init(Cipher.DECRYPT_MODE, keyFactory.generateSecret(new PBEKeySpec(password)), keyInfo.getAlgParameters());
+            keySpec = keyInfo.getKeySpec(cipher);
+        } else {
+            keySpec = new PKCS8EncodedKeySpec(encoded);
+        }
+
+        for (String algorithm : PRIVATE_KEY_ALGORITHMS) {
+            try {
+                return KeyFactory.getInstance(algorithm).generatePrivate(keySpec);
+            } catch (InvalidKeySpecException e) {
+                // try the next one
+            }
+        }
+
+        throw new InvalidKeySpecException("unsupported private key in " + file);
+    }
+
+    SslHandler newHandler(ByteBufAllocator allocator) {
+        SslHandler sslHandler = new SslHandler(engineFactory.apply(allocator));
+        sslHandler.setHandshakeTimeoutMillis(handshakeTimeout);
+        return sslHandler;
+    }
+
+    ChannelInboundHandlerAdapter newHandshakeHandler() {
+        return new HandshakeHandler();
+    }
+
+    // updates the handshake metrics for one connection
+    // it stays in the pipeline for the life of the connection
+    // so that later completion events never reach
+    // FinalInboundHandler, which closes on unhandled events
+    @NotThreadSafe
+    private final class HandshakeHandler extends ChannelInboundHandlerAdapter {
+
+        private final long startTime = System.nanoTime();
+        private final long startTimeMillis = System.currentTimeMillis();
+
+        private boolean completed;
+
+        // completion events stop here: the handshake
+        // can also be reported as failed when the
+        // channel closes, long after it succeeded
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (!(evt instanceof SslHandshakeCompletionEvent)) {
+                super.userEventTriggered(ctx, evt);
+                return;
+            }
+
+            if (completed) {
+                return;
+            }
+
+            completed = true;
+
+            SslHandshakeCompletionEvent completion = (SslHandshakeCompletionEvent) evt;
+            if (completion.isSuccess()) {
+                handshakeTimer.update(System.nanoTime() - startTime, TimeUnit.NANOSECONDS);
+                handshakeMeter.mark();
+
+                SslHandler sslHandler = ctx.pipeline().get(SslHandler.class);
+                if (sslHandler != null && isResumed(sslHandler.engine().getSession())) {
+                    resumedHandshakeMeter.mark();
+                }
+            } else {
+                LOGGER.debug("{}: fail tls handshake", Channels.getHexText(ctx), completion.cause());
+                failedHandshakeMeter.mark();
+            }
+        }
+
+        // a resumed session was created before this connection was
+        private boolean isResumed(@Nullable SSLSession session) {
+            if (session == null) {
+                return false;
+            }
+
+            try {
+                return session.getCreationTime() < startTimeMillis;
+            } catch (UnsupportedOperationException e) {
+                return false;
+            }
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * Library that performs TLS for an {@link HttpServer}.
+ */
+@Immutable
+public enum TlsProvider {
+
+    /** The JDK's own {@code SSLEngine}. */
+    JDK,
+
+    /**
+     * Native OpenSSL engine (requires netty-tcnative).
+     * Falls back to {@link #JDK} if the native library cannot be loaded.
+     */
+    OPENSSL,
+}
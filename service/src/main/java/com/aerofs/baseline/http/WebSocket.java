@@ -0,0 +1,250 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.SecurityContext;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * WebSocket connected to a {@link WebSocketEndpoint}.
+ * <br>
+ * Messages are written by the connection's event loop, and
+ * only while the connection is writable. Messages that can't
+ * be written yet wait in a bounded queue. Once the queue is
+ * full {@link #send(String)} returns {@code false} until the
+ * client catches up, and it's up to the caller to decide
+ * whether to drop the message, retry later or close the socket.
+ * <br>
+ * Messages may be sent from any thread.
+ * <br>
+ * The headers and query parameters of the handshake request
+ * are available for the life of the socket, as is its
+ * {@link SecurityContext}: the one established by the TLS
+ * handshake, or the one returned by the first registered
+ * {@link com.aerofs.baseline.auth.Authenticator} that
+ * authenticated the handshake request.
+ */
+@ThreadSafe
+public final class WebSocket {
+
+    private static final int NORMAL_CLOSURE_STATUS_CODE = 1000;
+    private static final int POLICY_VIOLATION_STATUS_CODE = 1008;
+
+    private final Queue<WebSocketFrame> messages = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger numQueuedMessages = new AtomicInteger(0);
+    private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+    private final AtomicBoolean ended = new AtomicBoolean(false);
+    private final String path;
+    private final MultivaluedMap<String, String> headers;
+    private final MultivaluedMap<String, String> queryParameters;
+    private final ChannelHandlerContext ctx;
+    private final int maxQueuedMessages;
+
+    private volatile SecurityContext securityContext;
+    private volatile int closeStatusCode = NORMAL_CLOSURE_STATUS_CODE;
+    private volatile boolean closed;
+
+    WebSocket(String path, MultivaluedMap<String, String> headers, MultivaluedMap<String, String> queryParameters, SecurityContext securityContext, ChannelHandlerContext ctx, int maxQueuedMessages) {
+        this.path = path;
+        this.headers = headers;
+        this.queryParameters = queryParameters;
+        this.securityContext = securityContext;
+        this.ctx = ctx;
+        this.maxQueuedMessages = maxQueuedMessages;
+    }
+
+    /**
+     * @return path to which the socket is connected
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return headers of the handshake request, whose names
+     * are case-insensitive. <strong>Must not</strong> be modified.
+     */
+    public MultivaluedMap<String, String> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * @return decoded query parameters of the handshake
+     * request. <strong>Must not</strong> be modified.
+     */
+    public MultivaluedMap<String, String> getQueryParameters() {
+        return queryParameters;
+    }
+
+    /**
+     * @return security context of the client that opened the socket
+     */
+    public SecurityContext getSecurityContext() {
+        return securityContext;
+    }
+
+    /**
+     * Queue a text message to be sent to the client.
+     *
+     * @param message text of the message
+     * @return {@code true} if the message was queued, {@code false}
+     * if the socket is closed or too many messages are already queued
+     */
+    public boolean send(String message) {
+        return reserve() && queue(new TextWebSocketFrame(message));
+    }
+
+    /**
+     * Queue a binary message to be sent to the client.
+     *
+     * @param message contents of the message
+     * @return {@code true} if the message was queued, {@code false}
+     * if the socket is closed or too many messages are already queued
+     */
+    public boolean send(byte[] message) {
+        return reserve() && queue(new BinaryWebSocketFrame(Unpooled.wrappedBuffer(message)));
+    }
+
+    /**
+     * Close the socket once all the messages
+     * queued so far have been sent.
+     */
+    public void close() {
+        closed = true;
+        scheduleDrain();
+    }
+
+    /**
+     * @return {@code true} if messages can still be sent
+     */
+    public boolean isOpen() {
+        return !closed;
+    }
+
+    // called before the endpoint is told
+    // that the socket was opened
+    void setSecurityContext(SecurityContext securityContext) {
+        this.securityContext = securityContext;
+    }
+
+    // drops anything queued so far and closes
+    // the socket with a policy violation
+    void reject() {
+        closeStatusCode = POLICY_VIOLATION_STATUS_CODE;
+        closed = true;
+        releaseQueued();
+        scheduleDrain();
+    }
+
+    // called from within the event loop
+    // once the connection is writable again
+    void resume() {
+        if (!messages.isEmpty() || closed) {
+            scheduleDrain();
+        }
+    }
+
+    // called from within the event loop
+    // once the connection is closed
+    void detach() {
+        closed = true;
+        ended.set(true);
+        releaseQueued();
+    }
+
+    private boolean reserve() {
+        if (closed) {
+            return false;
+        }
+
+        // the client isn't keeping up
+        if (numQueuedMessages.incrementAndGet() > maxQueuedMessages) {
+            numQueuedMessages.decrementAndGet();
+            return false;
+        }
+
+        return true;
+    }
+
+    private boolean queue(WebSocketFrame frame) {
+        messages.offer(frame);
+        scheduleDrain();
+        return true;
+    }
+
+    private void scheduleDrain() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            ctx.executor().execute(this::drain);
+        }
+    }
+
+    // called from within the event loop
+    private void drain() {
+        drainScheduled.set(false);
+
+        // the connection was closed
+        // after the message was queued
+        if (ended.get()) {
+            releaseQueued();
+            return;
+        }
+
+        boolean written = false;
+
+        // the remaining messages are written once
+        // the connection becomes writable again
+        while (ctx.channel().isWritable()) {
+            WebSocketFrame frame = messages.poll();
+            if (frame == null) {
+                break;
+            }
+
+            numQueuedMessages.decrementAndGet();
+            ctx.write(frame);
+            written = true;
+        }
+
+        if (written) {
+            ctx.flush();
+        }
+
+        if (closed && messages.isEmpty() && ended.compareAndSet(false, true)) {
+            ctx.writeAndFlush(new CloseWebSocketFrame(closeStatusCode, null)).addListener(ChannelFutureListener.CLOSE);
+        }
+    }
+
+    private void releaseQueued() {
+        WebSocketFrame frame;
+        while ((frame = messages.poll()) != null) {
+            numQueuedMessages.decrementAndGet();
+            frame.release();
+        }
+    }
+}
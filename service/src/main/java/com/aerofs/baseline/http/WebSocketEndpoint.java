@@ -0,0 +1,87 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+/**
+ * Handles the messages received by the WebSockets
+ * connected to a path.
+ * <br>
+ * Endpoints are registered with
+ * {@link com.aerofs.baseline.Environment#addWebSocketEndpoint(String, WebSocketEndpoint)}.
+ * A single endpoint instance handles every socket connected
+ * to its path, so implementations must be thread-safe.
+ * <br>
+ * The callbacks for a single socket are never run concurrently,
+ * and messages are delivered in the order they were received.
+ * The next message isn't read from the connection until the
+ * callback for the previous one returns. Callbacks run on an
+ * application thread, unless the endpoint class is annotated
+ * with {@link NonBlocking}, in which case they run directly
+ * on the network thread that received the message. Even then
+ * {@link #onOpen(WebSocket)} runs on an application thread if
+ * any {@link com.aerofs.baseline.auth.Authenticator} is registered,
+ * since the authenticators are run just before it.
+ */
+public interface WebSocketEndpoint {
+
+    /**
+     * Called once the handshake completes,
+     * before any message is delivered.
+     * <br>
+     * By then the registered {@link com.aerofs.baseline.auth.Authenticator}
+     * instances have been run against the handshake request, so
+     * {@link WebSocket#getSecurityContext()} identifies the client
+     * (if it could be authenticated). Endpoints that protect their
+     * path should check it, and reject the socket if necessary.
+     *
+     * @param socket socket that was opened
+     * @return {@code true} to accept the socket, or {@code false} to
+     * reject it: the socket is then closed with status 1008 (policy
+     * violation) and none of the other callbacks are run for it
+     */
+    default boolean onOpen(WebSocket socket) {
+        return true;
+    }
+
+    /**
+     * Called for each text message received.
+     *
+     * @param socket socket on which the message was received
+     * @param message text of the message
+     */
+    void onMessage(WebSocket socket, String message);
+
+    /**
+     * Called for each binary message received.
+     *
+     * @param socket socket on which the message was received
+     * @param message contents of the message
+     */
+    default void onMessage(WebSocket socket, byte[] message) {
+        // noop
+    }
+
+    /**
+     * Called once the connection of an accepted socket is closed,
+     * by either side. No callbacks are run for the socket afterwards.
+     *
+     * @param socket socket that was closed
+     */
+    default void onClose(WebSocket socket) {
+        // noop
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.auth.AuthenticationFilter;
+import com.aerofs.baseline.auth.Authenticators;
+import com.codahale.metrics.Counter;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.handler.codec.CorruptedFrameException;
+import io.netty.handler.codec.TooLongFrameException;
+import io.netty.handler.codec.http.websocketx.BinaryWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.CloseWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PingWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.PongWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.TextWebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketFrame;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.util.ReferenceCountUtil;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.SecurityContext;
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Delivers the messages received by a WebSocket
+ * to its {@link WebSocketEndpoint}.
+ * <br>
+ * Messages are delivered one at a time. The next
+ * message is only read from the connection once the
+ * endpoint has handled the previous one, so a slow
+ * endpoint pushes back on the client instead of
+ * messages piling up in memory. Pings are answered
+ * as soon as they're received.
+ * <br>
+ * Before the endpoint is told that the socket was opened
+ * the handshake request is authenticated with the registered
+ * {@link com.aerofs.baseline.auth.Authenticator} instances,
+ * exactly as jersey requests are. The socket is rejected if
+ * they fail, or if the endpoint doesn't accept it.
+ */
+@NotThreadSafe
+final class WebSocketFrameHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketFrameHandler.class);
+
+    private static final int MESSAGE_TOO_BIG_STATUS_CODE = 1009;
+
+    private final ArrayDeque<WebSocketFrame> receivedFrames = new ArrayDeque<>();
+    private final String path;
+    private final MultivaluedMap<String, String> headers;
+    private final MultivaluedMap<String, String> queryParameters;
+    private final SecurityContext securityContext;
+    private final ServiceLocator locator;
+    private final @Nullable Authenticators authenticators;
+    private final WebSocketEndpoint endpoint;
+    private final WebSocketServerHandshaker handshaker;
+    private final @Nullable Executor openExecutor; // null if onOpen is run on the event loop
+    private final @Nullable Executor executor; // null if callbacks are run on the event loop
+    private final int maxQueuedMessages;
+    private final Counter openSocketsCounter;
+
+    // all the following are only accessed from within the event loop
+    private WebSocket socket;
+    private boolean opened;
+    private boolean processing;
+    private boolean closed;
+    private boolean closeDelivered;
+
+    // set by the callback that opens the socket
+    private volatile boolean rejected;
+
+    WebSocketFrameHandler(String path, MultivaluedMap<String, String> headers, MultivaluedMap<String, String> queryParameters, SecurityContext securityContext, ServiceLocator locator, @Nullable Authenticators authenticators, WebSocketEndpoint endpoint, WebSocketServerHandshaker handshaker, @Nullable Executor openExecutor, @Nullable Executor executor, int maxQueuedMessages, Counter openSocketsCounter) {
+        this.path = path;
+        this.headers = headers;
+        this.queryParameters = queryParameters;
+        this.securityContext = securityContext;
+        this.locator = locator;
+        this.authenticators = authenticators;
+        this.endpoint = endpoint;
+        this.handshaker = handshaker;
+        this.openExecutor = openExecutor;
+        this.executor = executor;
+        this.maxQueuedMessages = maxQueuedMessages;
+        this.openSocketsCounter = openSocketsCounter;
+    }
+
+    @Override
+    public void handlerAdded(ChannelHandlerContext ctx) throws Exception {
+        socket = new WebSocket(path, headers, queryParameters, securityContext, ctx, maxQueuedMessages);
+        super.handlerAdded(ctx);
+    }
+
+    // called from within the event loop
+    // once the handshake response is written
+    void open(ChannelHandlerContext ctx) {
+        if (closed) {
+            return;
+        }
+
+        LOGGER.trace("{}: open websocket {}", Channels.getHexText(ctx), path);
+
+        opened = true;
+        openSocketsCounter.inc();
+        dispatch(ctx, openExecutor, () -> {
+            boolean accepted = false;
+            try {
+                accepted = authenticate(ctx) && endpoint.onOpen(socket);
+            } finally {
+                if (!accepted) {
+                    rejected = true;
+                    socket.reject();
+                }
+            }
+        });
+        processReceivedFrames(ctx);
+    }
+
+    // runs in the same context as the endpoint's callbacks
+    private boolean authenticate(ChannelHandlerContext ctx) {
+        if (authenticators == null || !AuthenticationFilter.needsAuth(securityContext)) {
+            return true;
+        }
+
+        try {
+            SecurityContext authenticated = authenticators.authenticate(locator, headers);
+            if (authenticated != null) {
+                socket.setSecurityContext(authenticated);
+            }
+            return true;
+        } catch (Exception e) {
+            LOGGER.warn("{}: fail authenticate websocket {}", Channels.getHexText(ctx), path, e);
+            return false;
+        }
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        // the remains of the upgrade request
+        if (closed || !(msg instanceof WebSocketFrame)) {
+            ReferenceCountUtil.release(msg);
+            processReceivedFrames(ctx);
+            return;
+        }
+
+        if (msg instanceof PingWebSocketFrame) {
+            ctx.writeAndFlush(new PongWebSocketFrame(((PingWebSocketFrame) msg).content()));
+        } else if (msg instanceof PongWebSocketFrame) {
+            ReferenceCountUtil.release(msg);
+        } else {
+            receivedFrames.add((WebSocketFrame) msg);
+        }
+
+        processReceivedFrames(ctx);
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        if (ctx.channel().isWritable()) {
+            socket.resume();
+        }
+
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        LOGGER.trace("{}: close websocket {}", Channels.getHexText(ctx), path);
+
+        closed = true;
+        socket.detach();
+        releaseReceivedFrames();
+
+        if (opened) {
+            openSocketsCounter.dec();
+        }
+
+        processReceivedFrames(ctx);
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception {
+        if (cause instanceof TooLongFrameException) {
+            LOGGER.warn("{}: close: websocket message exceeds max size", Channels.getHexText(ctx));
+            ctx.writeAndFlush(new CloseWebSocketFrame(MESSAGE_TOO_BIG_STATUS_CODE, null)).addListener(ChannelFutureListener.CLOSE);
+        } else if (cause instanceof CorruptedFrameException) {
+            Channels.close(ctx, "websocket protocol violation: {}", cause.getMessage());
+        } else {
+            Channels.closeAndLogStack(ctx, "websocket failure", cause);
+        }
+    }
+
+    // handles received frames until the
+    // endpoint is busy or there are no more
+    // of them, in which case the next one is read
+    private void processReceivedFrames(ChannelHandlerContext ctx) {
+        while (opened && !processing) {
+            // the endpoint never accepted the socket, so it's
+            // told nothing else while the socket is closed
+            if (rejected) {
+                closeDelivered = true;
+                releaseReceivedFrames();
+                return;
+            }
+
+            if (closed) {
+                if (!closeDelivered) {
+                    closeDelivered = true;
+                    dispatch(ctx, executor, () -> endpoint.onClose(socket));
+                }
+
+                return;
+            }
+
+            WebSocketFrame frame = receivedFrames.poll();
+            if (frame == null) {
+                ctx.read();
+                return;
+            }
+
+            handleFrame(ctx, frame);
+        }
+    }
+
+    private void handleFrame(ChannelHandlerContext ctx, WebSocketFrame frame) {
+        if (frame instanceof TextWebSocketFrame) {
+            String message = ((TextWebSocketFrame) frame).text();
+            frame.release();
+            dispatch(ctx, executor, () -> endpoint.onMessage(socket, message));
+        } else if (frame instanceof BinaryWebSocketFrame) {
+            byte[] message = new byte[frame.content().readableBytes()];
+            frame.content().readBytes(message);
+            frame.release();
+            dispatch(ctx, executor, () -> endpoint.onMessage(socket, message));
+        } else if (frame instanceof CloseWebSocketFrame) {
+            // echoes the close frame and closes the connection
+            handshaker.close(ctx.channel(), (CloseWebSocketFrame) frame);
+        } else {
+            frame.release();
+        }
+    }
+
+    // while an application thread runs a callback
+    // no other frames are handled for this socket
+    private void dispatch(ChannelHandlerContext ctx, @Nullable Executor executor, Runnable callback) {
+        if (executor == null) {
+            runCallback(ctx, callback);
+            return;
+        }
+
+        processing = true;
+
+        try {
+            executor.execute(() -> {
+                runCallback(ctx, callback);
+                ctx.executor().execute(() -> {
+                    processing = false;
+                    processReceivedFrames(ctx);
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            // only happens once the server is stopping
+            processing = false;
+            closeDelivered = true; // can't be delivered either
+            Channels.expectedClose(ctx, "websocket callback rejected");
+        }
+    }
+
+    private void runCallback(ChannelHandlerContext ctx, Runnable callback) {
+        try {
+            callback.run();
+        } catch (Throwable t) {
+            Channels.closeAndLogStack(ctx, "websocket endpoint failure", t);
+        }
+    }
+
+    private void releaseReceivedFrames() {
+        WebSocketFrame frame;
+        while ((frame = receivedFrames.poll()) != null) {
+            frame.release();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.auth.Authenticators;
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Counter;
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelPipeline;
+import io.netty.handler.codec.http.DefaultFullHttpRequest;
+import io.netty.handler.codec.http.FullHttpRequest;
+import io.netty.handler.codec.http.HttpHeaders.Names;
+import io.netty.handler.codec.http.HttpHeaders.Values;
+import io.netty.handler.codec.http.HttpMethod;
+import io.netty.handler.codec.http.HttpRequest;
+import io.netty.handler.codec.http.QueryStringDecoder;
+import io.netty.handler.codec.http.websocketx.WebSocketFrameAggregator;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshaker;
+import io.netty.handler.codec.http.websocketx.WebSocketServerHandshakerFactory;
+import io.netty.util.ReferenceCountUtil;
+import org.glassfish.hk2.api.ServiceLocator;
+import org.glassfish.jersey.internal.util.collection.StringKeyIgnoreCaseMultivaluedMap;
+import org.glassfish.jersey.server.ApplicationHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.ws.rs.core.MultivaluedHashMap;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+/**
+ * Upgrades requests to paths with a registered
+ * {@link WebSocketEndpoint} to WebSockets.
+ * <br>
+ * Once the handshake is accepted the http handlers are
+ * removed from the channel pipeline and replaced with ones
+ * that aggregate fragmented messages (up to a configured size)
+ * and deliver them to the endpoint. All other requests,
+ * including requests to the same paths without an upgrade
+ * header, are passed on to jersey unchanged.
+ * <br>
+ * Upgrade requests don't pass through jersey's filters, so the
+ * socket is given the handshake request's headers, query
+ * parameters and TLS security context, and the registered
+ * authenticators are run by {@link WebSocketFrameHandler}.
+ */
+@ThreadSafe
+@ChannelHandler.Sharable
+final class WebSocketUpgradeHandler extends ChannelInboundHandlerAdapter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WebSocketUpgradeHandler.class);
+
+    private final ImmutableMap<String, WebSocketEndpoint> endpoints;
+    private final ServiceLocator locator;
+    private final @Nullable Authenticators authenticators;
+    private final Executor executor;
+    private final String scheme;
+    private final boolean inlineExecution;
+    private final int maxMessageSize;
+    private final int maxQueuedMessages;
+    private final Counter openSocketsCounter;
+
+    WebSocketUpgradeHandler(String serverIdentifier, HttpConfiguration http, ApplicationHandler applicationHandler, Map<String, WebSocketEndpoint> endpoints, Executor executor, boolean tls) {
+        this.endpoints = ImmutableMap.copyOf(endpoints);
+        this.locator = applicationHandler.getServiceLocator();
+        this.authenticators = locator.getService(Authenticators.class);
+        this.executor = executor;
+        this.scheme = tls ? "wss" : "ws";
+        this.inlineExecution = http.isInlineExecution();
+        this.maxMessageSize = http.getMaxWebSocketMessageSize();
+        this.maxQueuedMessages = http.getMaxQueuedWebSocketMessages();
+        this.openSocketsCounter = MetricRegistries.getRegistry().counter(MetricRegistries.name("http", serverIdentifier, "websockets"));
+    }
+
+    boolean hasEndpoints() {
+        return !endpoints.isEmpty();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+        WebSocketEndpoint endpoint = null;
+
+        if (msg instanceof HttpRequest) {
+            HttpRequest request = (HttpRequest) msg;
+            if (isUpgrade(request)) {
+                endpoint = endpoints.get(new QueryStringDecoder(request.uri()).path());
+            }
+        }
+
+        if (endpoint == null) {
+            super.channelRead(ctx, msg);
+            return;
+        }
+
+        try {
+            upgrade(ctx, (HttpRequest) msg, endpoint);
+        } finally {
+            ReferenceCountUtil.release(msg);
+        }
+    }
+
+    private static boolean isUpgrade(HttpRequest request) {
+        return request.method().equals(HttpMethod.GET) && Values.WEBSOCKET.equalsIgnoreCase(request.headers().get(Names.UPGRADE));
+    }
+
+    private void upgrade(ChannelHandlerContext ctx, HttpRequest request, WebSocketEndpoint endpoint) {
+        // responses to earlier pipelined requests
+        // would be interleaved with websocket frames
+        HttpRequestHandler requestHandler = ctx.pipeline().get(HttpRequestHandler.class);
+        if (requestHandler != null && !requestHandler.isIdle()) {
+            Channels.close(ctx, "websocket upgrade pipelined behind requests");
+            return;
+        }
+
+        WebSocketServerHandshakerFactory handshakerFactory = new WebSocketServerHandshakerFactory(getWebSocketUrl(request), null, false, maxMessageSize);
+        WebSocketServerHandshaker handshaker = handshakerFactory.newHandshaker(request);
+        if (handshaker == null) {
+            WebSocketServerHandshakerFactory.sendUnsupportedVersionResponse(ctx.channel()).addListener(ChannelFutureListener.CLOSE);
+            return;
+        }
+
+        // the upgrade request has no entity, so the
+        // handshaker only needs its method, uri and headers
+        FullHttpRequest handshakeRequest = new DefaultFullHttpRequest(request.protocolVersion(), request.method(), request.uri(), Unpooled.EMPTY_BUFFER);
+        handshakeRequest.headers().set(request.headers());
+
+        // the endpoint sees the handshake request
+        // much like a jersey resource would
+        QueryStringDecoder decoder = new QueryStringDecoder(request.uri());
+        String path = decoder.path();
+
+        MultivaluedMap<String, String> headers = new StringKeyIgnoreCaseMultivaluedMap<>();
+        for (Map.Entry<String, String> header : request.headers()) {
+            headers.add(header.getKey(), header.getValue());
+        }
+
+        MultivaluedMap<String, String> queryParameters = new MultivaluedHashMap<>();
+        for (Map.Entry<String, List<String>> parameter : decoder.parameters().entrySet()) {
+            queryParameters.addAll(parameter.getKey(), parameter.getValue());
+        }
+
+        // authenticators may block, so sockets are always
+        // opened on an application thread if there are any
+        Executor callbackExecutor = inlineExecution && endpoint.getClass().isAnnotationPresent(NonBlocking.class) ? null : executor;
+        Executor openExecutor = authenticators == null || authenticators.isEmpty() ? callbackExecutor : executor;
+        WebSocketFrameHandler frameHandler = new WebSocketFrameHandler(path, headers, queryParameters, HttpRequestHandler.newSecurityContext(ctx.pipeline()), locator, authenticators, endpoint, handshaker, openExecutor, callbackExecutor, maxQueuedMessages, openSocketsCounter);
+
+        // swap the http handlers for the websocket
+        // ones before the handshake response is written.
+        // the handshaker replaces the http codec itself
+        ChannelPipeline pipeline = ctx.pipeline();
+        pipeline.addAfter(ctx.name(), "websocket-handler", frameHandler);
+        pipeline.addAfter(ctx.name(), "websocket-aggregator", new WebSocketFrameAggregator(maxMessageSize));
+        pipeline.remove(RequestHeaderAssigner.class);
+        pipeline.remove(BufferingHttpObjectHandler.class);
+        pipeline.remove(HttpRequestHandler.class);
+        pipeline.remove(this);
+
+        LOGGER.trace("{}: upgrade to websocket {}", Channels.getHexText(ctx), path);
+
+        try {
+            handshaker.handshake(ctx.channel(), handshakeRequest).addListener(future -> {
+                if (future.isSuccess()) {
+                    frameHandler.open(pipeline.context(frameHandler));
+                } else {
+                    Channels.closeAndLogStack(pipeline.channel(), "websocket handshake failed", future.cause());
+                }
+            });
+        } catch (Exception e) {
+            Channels.close(pipeline.channel(), "websocket handshake rejected: {}", e.getMessage());
+        } finally {
+            handshakeRequest.release();
+        }
+    }
+
+    private @Nullable String getWebSocketUrl(HttpRequest request) {
+        String host = request.headers().get(Names.HOST);
+        return host == null ? null : scheme + "://" + host + request.uri();
+    }
+}
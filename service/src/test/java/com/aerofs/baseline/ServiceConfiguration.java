@@ -68,6 +68,32 @@ public final class ServiceConfiguration extends Configuration {
         TEST_CONFIGURATION.setLogging(LOGGING);
     }
 
+    /**
+     * Create a service {@code HttpConfiguration} identical to
+     * the one in {@link #TEST_CONFIGURATION} that can be
+     * modified by individual tests.
+     */
+    public static HttpConfiguration newServiceConfiguration() {
+        HttpConfiguration service = new HttpConfiguration();
+        service.setHost(SERVICE.getHost());
+        service.setPort(SERVICE.getPort());
+        service.setDirectMemoryBacked(SERVICE.isDirectMemoryBacked());
+        service.setNumRequestProcessingThreads(SERVICE.getNumRequestProcessingThreads());
+        return service;
+    }
+
+    /**
+     * Create a test configuration that uses the caller-specified
+     * {@code service} block instead of the default one.
+     */
+    public static ServiceConfiguration newTestConfiguration(HttpConfiguration service) {
+        ServiceConfiguration configuration = new ServiceConfiguration();
+        configuration.setAdmin(ADMIN);
+        configuration.setService(service);
+        configuration.setLogging(LOGGING);
+        return configuration;
+    }
+
     public static final String ADMIN_URL = String.format("http://%s:%d", ADMIN.getHost(), ADMIN.getPort());
 
     public static final String SERVICE_URL = String.format("http://%s:%d", SERVICE.getHost(), SERVICE.getPort());
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import java.util.concurrent.Semaphore;
+
+@Singleton
+@Path("/" + Resources.BLOCKING_RESOURCE)
+public final class BlockingResource {
+
+    // released once for every request that starts processing
+    public static final Semaphore ENTERED = new Semaphore(0);
+
+    // acquired once by every request before it completes
+    public static final Semaphore PERMITS = new Semaphore(0);
+
+    @GET
+    public String block() throws InterruptedException {
+        ENTERED.release();
+        PERMITS.acquire();
+        return "unblocked";
+    }
+}
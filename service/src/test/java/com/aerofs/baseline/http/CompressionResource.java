@@ -0,0 +1,104 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+@Singleton
+@Path("/" + Resources.COMPRESSION_RESOURCE)
+public final class CompressionResource {
+
+    public static final String LARGE_TEXT = Strings.repeat("baseline compresses text ", 4096); // streamed by jersey
+
+    public static final String MEDIUM_TEXT = Strings.repeat("baseline compresses text ", 100); // buffered by jersey
+
+    public static final String SMALL_TEXT = "too small to compress";
+
+    public static final byte[] PRECOMPRESSED_IDENTITY = MEDIUM_TEXT.getBytes(StandardCharsets.UTF_8);
+
+    public static final byte[] PRECOMPRESSED_GZIP = gzip(PRECOMPRESSED_IDENTITY);
+
+    private static byte[] gzip(byte[] bytes) {
+        try {
+            ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (GZIPOutputStream os = new GZIPOutputStream(compressed)) {
+                os.write(bytes);
+            }
+            return compressed.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @GET
+    @Path("/large")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String getLarge() {
+        return LARGE_TEXT;
+    }
+
+    @GET
+    @Path("/medium")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String getMedium() {
+        return MEDIUM_TEXT;
+    }
+
+    @GET
+    @Path("/small")
+    @Produces(MediaType.TEXT_PLAIN)
+    public String getSmall() {
+        return SMALL_TEXT;
+    }
+
+    @GET
+    @Path("/binary")
+    @Produces(MediaType.APPLICATION_OCTET_STREAM)
+    public byte[] getBinary() {
+        return LARGE_TEXT.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @GET
+    @Path("/vary")
+    @Produces(MediaType.TEXT_PLAIN)
+    public Response getVary(@HeaderParam("X-Vary") String vary) {
+        return Response.ok(MEDIUM_TEXT).header(HttpHeaders.VARY, vary).build();
+    }
+
+    @GET
+    @Path("/precompressed")
+    @Produces(MediaType.TEXT_PLAIN)
+    public PrecompressedEntity getPrecompressed() {
+        return new PrecompressedEntity(PRECOMPRESSED_IDENTITY, ImmutableMap.of("gzip", PRECOMPRESSED_GZIP));
+    }
+}
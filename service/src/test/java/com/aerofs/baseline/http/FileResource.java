@@ -0,0 +1,73 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.MediaType;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+@Singleton
+@Path("/" + Resources.FILE_RESOURCE)
+@Produces(MediaType.APPLICATION_OCTET_STREAM)
+public final class FileResource {
+
+    public static final byte[] FILE_BYTES = Resources.getRandomBytes(256 * 1024);
+
+    public static final int REGION_OFFSET = 1000;
+
+    public static final int REGION_LENGTH = 5000;
+
+    private static final java.nio.file.Path FILE = createFile();
+
+    private static java.nio.file.Path createFile() {
+        try {
+            java.nio.file.Path file = Files.createTempFile("baseline", ".bin");
+            file.toFile().deleteOnExit();
+            Files.write(file, FILE_BYTES);
+            return file;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @GET
+    @Path("/file")
+    public File getFile() {
+        return FILE.toFile();
+    }
+
+    @GET
+    @Path("/path")
+    public java.nio.file.Path getPath() {
+        return FILE;
+    }
+
+    @GET
+    @Path("/region")
+    public FileRegionEntity getRegion() throws IOException {
+        return new FileRegionEntity(FileChannel.open(FILE, StandardOpenOption.READ), REGION_OFFSET, REGION_LENGTH);
+    }
+}
@@ -56,4 +56,24 @@ public final class HandsOnChunkedUploadResource {
         LOGGER.info("chunked length:{} digest:{}", total, hex);
         return hex;
     }
+
+    @Path("/bytes")
+    @POST
+    @Produces(MediaType.TEXT_PLAIN)
+    @Consumes(MediaType.APPLICATION_OCTET_STREAM)
+    public String uploadBytesOneAtATime(InputStream inputStream) throws IOException, NoSuchAlgorithmException {
+        MessageDigest digest = MessageDigest.getInstance("MD5");
+
+        int total = 0;
+        int read;
+        while ((read = inputStream.read()) != -1) {
+            digest.update((byte) read);
+            total++;
+        }
+
+        byte[] digested = digest.digest();
+        String hex = BaseEncoding.base16().encode(digested);
+        LOGGER.info("single-byte length:{} digest:{}", total, hex);
+        return hex;
+    }
 }
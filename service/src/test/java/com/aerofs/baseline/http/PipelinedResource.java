@@ -31,10 +31,21 @@ public final class PipelinedResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PipelinedResource.class);
 
+    private static final long[] DELAYS_IN_MILLIS = {8, 0, 4, 2};
+
     @POST
     @Consumes(MediaType.TEXT_PLAIN)
     public long printString(long id) {
         LOGGER.info("pipelined post with id {}", id);
         return id;
     }
+
+    @Path("/delayed")
+    @POST
+    @Consumes(MediaType.TEXT_PLAIN)
+    public long printStringAfterDelay(long id) throws InterruptedException {
+        LOGGER.info("pipelined delayed post with id {}", id);
+        Thread.sleep(DELAYS_IN_MILLIS[(int) (id % DELAYS_IN_MILLIS.length)]); // ensures that later requests can complete before earlier ones
+        return id;
+    }
 }
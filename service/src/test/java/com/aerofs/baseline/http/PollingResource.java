@@ -24,6 +24,7 @@ import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.container.AsyncResponse;
 import javax.ws.rs.container.Suspended;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 
 @Singleton
@@ -32,6 +33,9 @@ public final class PollingResource {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(PollingResource.class);
 
+    // released once the request is suspended
+    public static final Semaphore SUSPENDED = new Semaphore(0);
+
     @GET
     public void poll(@Suspended final AsyncResponse asyncResponse) {
         LOGGER.debug("polling");
@@ -49,5 +53,7 @@ public final class PollingResource {
                 LOGGER.warn("interrupted during polling sleep");
             }
         }).start();
+
+        SUSPENDED.release();
     }
 }
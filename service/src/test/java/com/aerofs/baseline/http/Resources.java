@@ -38,12 +38,22 @@ public abstract class Resources {
 
     public static final String HANDS_ON_CHUNKED_UPLOAD_RESOURCE = "handson";
 
+    public static final String STREAMING_UPLOAD_RESOURCE = "streaming";
+
     public static final String POLLING_RESOURCE = "polling";
 
     public static final String THROWING_RESOURCE = "throwing";
 
     public static final String TIMEOUT_RESOURCE = "timeout";
 
+    public static final String BLOCKING_RESOURCE = "blocking";
+
+    public static final String FILE_RESOURCE = "files";
+
+    public static final String COMPRESSION_RESOURCE = "compression";
+
+    public static final String SECURITY_RESOURCE = "security";
+
     public static byte[] getRandomBytes(int length) {
         Random random = new Random();
         byte[] generated = new byte[length];
@@ -0,0 +1,39 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.SecurityContext;
+import java.security.Principal;
+
+@Singleton
+@Path("/" + Resources.SECURITY_RESOURCE)
+public final class SecurityResource {
+
+    @GET
+    @Produces(MediaType.TEXT_PLAIN)
+    public String get(@Context SecurityContext securityContext) {
+        Principal principal = securityContext.getUserPrincipal();
+        return "secure:" + securityContext.isSecure() + " principal:" + (principal == null ? "none" : principal.getName());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.ImmutableList;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+public final class TestAcceptEncoding {
+
+    private static final ImmutableList<String> CODINGS = ImmutableList.of("gzip", "deflate");
+
+    @Test
+    public void shouldSelectNothingIfHeaderIsAbsent() {
+        assertThat(AcceptEncoding.select(null, CODINGS), nullValue());
+    }
+
+    @Test
+    public void shouldSelectFirstAcceptableCodingInPreferenceOrder() {
+        assertThat(AcceptEncoding.select("deflate, gzip", CODINGS), equalTo("gzip"));
+        assertThat(AcceptEncoding.select("deflate", CODINGS), equalTo("deflate"));
+        assertThat(AcceptEncoding.select("br, identity", CODINGS), nullValue());
+    }
+
+    @Test
+    public void shouldSelectCodingWithHighestQuality() {
+        assertThat(AcceptEncoding.select("gzip;q=0.2, deflate;q=0.8", CODINGS), equalTo("deflate"));
+        assertThat(AcceptEncoding.select("GZIP ; Q=1.0, deflate;q=0.8", CODINGS), equalTo("gzip"));
+    }
+
+    @Test
+    public void shouldNotSelectCodingWithZeroQuality() {
+        assertThat(AcceptEncoding.select("gzip;q=0", CODINGS), nullValue());
+        assertThat(AcceptEncoding.select("gzip;q=0, deflate", CODINGS), equalTo("deflate"));
+    }
+
+    @Test
+    public void shouldApplyWildcardToUnlistedCodings() {
+        assertThat(AcceptEncoding.select("*", CODINGS), equalTo("gzip"));
+        assertThat(AcceptEncoding.select("gzip;q=0, *;q=0.5", CODINGS), equalTo("deflate"));
+        assertThat(AcceptEncoding.select("*;q=0", CODINGS), nullValue());
+    }
+
+    @Test
+    public void shouldTreatInvalidQualityAsUnacceptable() {
+        assertThat(AcceptEncoding.select("gzip;q=high, deflate", CODINGS), equalTo("deflate"));
+        assertThat(AcceptEncoding.select("gzip;q=2", CODINGS), nullValue());
+    }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.codahale.metrics.Counter;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.ChannelOutboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.handler.codec.http.DefaultHttpContent;
+import io.netty.handler.codec.http.HttpContent;
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public final class TestBufferingHttpObjectHandler {
+
+    private final Counter queuedReadsCounter = new Counter();
+    private final Counter queuedReadBytesCounter = new Counter();
+    private final ReadCounter readCounter = new ReadCounter();
+    private final Receiver receiver = new Receiver();
+
+    private EmbeddedChannel channel;
+
+    // counts the reads that reach the socket
+    private static final class ReadCounter extends ChannelOutboundHandlerAdapter {
+
+        private int reads;
+
+        @Override
+        public void read(ChannelHandlerContext ctx) throws Exception {
+            reads++;
+            super.read(ctx);
+        }
+    }
+
+    // stands in for HttpRequestHandler
+    private static final class Receiver extends ChannelInboundHandlerAdapter {
+
+        private final List<Object> received = new ArrayList<>();
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            received.add(msg);
+        }
+    }
+
+    @After
+    public void teardown() {
+        channel.finish();
+
+        for (Object msg : receiver.received) {
+            ((HttpContent) msg).release();
+        }
+    }
+
+    @Test
+    public void shouldOnlyReadSocketWhenDownstreamIsWaiting() {
+        setup(false, 64, 64 * 1024);
+
+        // one socket read decodes into three objects:
+        // the first is passed on and the others are queued
+        channel.writeInbound(newContent(10), newContent(20), newContent(30));
+        assertThat(receiver.received.size(), equalTo(1));
+        assertThat(queuedReadsCounter.getCount(), equalTo(2L));
+        assertThat(queuedReadBytesCounter.getCount(), equalTo(50L));
+
+        // downstream is busy, so nothing more is read
+        assertThat(readCounter.reads, equalTo(1));
+
+        // queued objects are handed over without reading
+        channel.read();
+        channel.read();
+        assertThat(receiver.received.size(), equalTo(3));
+        assertThat(queuedReadsCounter.getCount(), equalTo(0L));
+        assertThat(queuedReadBytesCounter.getCount(), equalTo(0L));
+        assertThat(readCounter.reads, equalTo(1));
+
+        // the queue is empty, so the socket is read again
+        channel.read();
+        assertThat(readCounter.reads, equalTo(2));
+    }
+
+    @Test
+    public void shouldPauseReadAheadAtMaxQueuedReads() {
+        setup(true, 2, 64 * 1024);
+
+        channel.writeInbound(newContent(10));
+        assertThat(receiver.received.size(), equalTo(1));
+
+        // reads continue while downstream is busy...
+        assertThat(readCounter.reads, equalTo(2));
+        channel.writeInbound(newContent(10));
+        assertThat(readCounter.reads, equalTo(3));
+
+        // ...until the limit is hit
+        channel.writeInbound(newContent(10));
+        assertThat(queuedReadsCounter.getCount(), equalTo(2L));
+        assertThat(readCounter.reads, equalTo(3));
+
+        // and resume once downstream consumes an object
+        channel.read();
+        assertThat(receiver.received.size(), equalTo(2));
+        assertThat(queuedReadsCounter.getCount(), equalTo(1L));
+        assertThat(readCounter.reads, equalTo(4));
+    }
+
+    @Test
+    public void shouldPauseReadAheadAtMaxQueuedReadBytes() {
+        setup(true, 64, 100);
+
+        channel.writeInbound(newContent(10));
+        assertThat(readCounter.reads, equalTo(2));
+
+        channel.writeInbound(newContent(100));
+        assertThat(queuedReadBytesCounter.getCount(), equalTo(100L));
+        assertThat(readCounter.reads, equalTo(2));
+
+        channel.read();
+        assertThat(queuedReadBytesCounter.getCount(), equalTo(0L));
+        assertThat(readCounter.reads, equalTo(3));
+    }
+
+    @Test
+    public void shouldReleaseQueuedObjectsWhenChannelCloses() {
+        setup(false, 64, 64 * 1024);
+
+        HttpContent queued = newContent(10);
+        channel.writeInbound(newContent(10), queued);
+        assertThat(queuedReadsCounter.getCount(), equalTo(1L));
+
+        channel.close();
+        channel.runPendingTasks();
+        assertThat(queued.refCnt(), equalTo(0));
+        assertThat(queuedReadsCounter.getCount(), equalTo(0L));
+        assertThat(queuedReadBytesCounter.getCount(), equalTo(0L));
+    }
+
+    // downstream starts out waiting for an object:
+    // the channel reads once when it's activated
+    private void setup(boolean readAhead, int maxQueuedReads, long maxQueuedReadBytes) {
+        channel = new EmbeddedChannel(readCounter, new BufferingHttpObjectHandler(readAhead, maxQueuedReads, maxQueuedReadBytes, queuedReadsCounter, queuedReadBytesCounter), receiver);
+        channel.config().setAutoRead(false);
+        assertThat(readCounter.reads, equalTo(1));
+    }
+
+    private static HttpContent newContent(int size) {
+        ByteBuf content = Unpooled.buffer(size);
+        content.writeZero(size);
+        return new DefaultHttpContent(content);
+    }
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+
+public final class TestByteRange {
+
+    @Test
+    public void shouldParseClosedRange() {
+        ByteRange range = ByteRange.parse("bytes=10-19", 100);
+
+        assertThat(range.getFirst(), equalTo(10L));
+        assertThat(range.getLast(), equalTo(19L));
+        assertThat(range.getLength(), equalTo(10L));
+    }
+
+    @Test
+    public void shouldClampRangeToEntityLength() {
+        ByteRange open = ByteRange.parse("bytes=90-", 100);
+        assertThat(open.getFirst(), equalTo(90L));
+        assertThat(open.getLast(), equalTo(99L));
+
+        ByteRange past = ByteRange.parse("Bytes=90-1000", 100);
+        assertThat(past.getLast(), equalTo(99L));
+    }
+
+    @Test
+    public void shouldParseSuffixRange() {
+        ByteRange suffix = ByteRange.parse("bytes=-10", 100);
+        assertThat(suffix.getFirst(), equalTo(90L));
+        assertThat(suffix.getLast(), equalTo(99L));
+
+        ByteRange whole = ByteRange.parse("bytes=-1000", 100);
+        assertThat(whole.getFirst(), equalTo(0L));
+        assertThat(whole.getLast(), equalTo(99L));
+    }
+
+    @Test
+    public void shouldReturnUnsatisfiableForRangeOutsideEntity() {
+        assertThat(ByteRange.parse("bytes=100-", 100), sameInstance(ByteRange.UNSATISFIABLE));
+        assertThat(ByteRange.parse("bytes=-0", 100), sameInstance(ByteRange.UNSATISFIABLE));
+        assertThat(ByteRange.parse("bytes=-10", 0), sameInstance(ByteRange.UNSATISFIABLE));
+    }
+
+    @Test
+    public void shouldIgnoreInvalidOrUnsupportedRanges() {
+        assertThat(ByteRange.parse(null, 100), nullValue());
+        assertThat(ByteRange.parse("items=0-10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=20-10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=a-10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=--10", 100), nullValue());
+        assertThat(ByteRange.parse("bytes=0-10,20-30", 100), nullValue());
+    }
+}
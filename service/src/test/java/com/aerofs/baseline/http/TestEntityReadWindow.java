@@ -0,0 +1,102 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public final class TestEntityReadWindow {
+
+    @Test
+    public void shouldNotGrowIfNotAdaptive() {
+        EntityReadWindow window = new EntityReadWindow(16, 64, false, 1024);
+
+        window.grow(64);
+
+        assertThat(window.getLowWatermark(), equalTo(16));
+        assertThat(window.getHighWatermark(), equalTo(64));
+    }
+
+    @Test
+    public void shouldDoubleBothWatermarksWhenGrown() {
+        EntityReadWindow window = new EntityReadWindow(16, 64, true, 1024);
+
+        window.grow(64);
+        assertThat(window.getLowWatermark(), equalTo(32));
+        assertThat(window.getHighWatermark(), equalTo(128));
+
+        window.grow(128);
+        assertThat(window.getLowWatermark(), equalTo(64));
+        assertThat(window.getHighWatermark(), equalTo(256));
+    }
+
+    @Test
+    public void shouldNotGrowPastMaxHighWatermark() {
+        EntityReadWindow window = new EntityReadWindow(10, 40, true, 100);
+
+        window.grow(40);
+        window.grow(80);
+        assertThat(window.getLowWatermark(), equalTo(25));
+        assertThat(window.getHighWatermark(), equalTo(100));
+
+        window.grow(100);
+        assertThat(window.getLowWatermark(), equalTo(25));
+        assertThat(window.getHighWatermark(), equalTo(100));
+    }
+
+    @Test
+    public void shouldOnlyGrowOnceForConcurrentStarvation() {
+        EntityReadWindow window = new EntityReadWindow(16, 64, true, 1024);
+
+        // two requests starved with the same window
+        window.grow(64);
+        window.grow(64);
+
+        assertThat(window.getHighWatermark(), equalTo(128));
+    }
+
+    @Test
+    public void shouldUseRouteWatermarksAndShareDefaultWindow() {
+        HttpConfiguration http = new HttpConfiguration();
+        http.setEntityLowWatermark(16);
+        http.setEntityHighWatermark(64);
+        http.setRouteEntityWatermarks(ImmutableMap.of("/upload", new EntityWatermarks(1024, 4096)));
+
+        RouteMap<EntityReadWindow> windows = EntityReadWindow.newRouteMap(http);
+
+        EntityReadWindow uploadWindow = windows.get("/upload/file?overwrite=true");
+        assertThat(uploadWindow.getLowWatermark(), equalTo(1024));
+        assertThat(uploadWindow.getHighWatermark(), equalTo(4096));
+
+        EntityReadWindow defaultWindow = windows.get("/basic");
+        assertThat(defaultWindow.getLowWatermark(), equalTo(16));
+        assertThat(defaultWindow.getHighWatermark(), equalTo(64));
+        assertThat(windows.get("/"), sameInstance(defaultWindow));
+        assertThat(uploadWindow, not(sameInstance(defaultWindow)));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectLowWatermarkAboveHighWatermark() {
+        new EntityReadWindow(128, 64, false, 1024);
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.google.common.net.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public final class TestEpollTransport {
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(BasicResource.class);
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @Before
+    public void setup() throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setTransport(Transport.EPOLL); // falls back to nio on unsupported platforms
+        service.setNumAcceptors(4);
+
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldSuccessfullyGetAndReceiveResponse() throws Exception {
+        HttpGet get = new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE);
+
+        Future<HttpResponse> future = client.getClient().execute(get, null);
+        HttpResponse response = future.get(10, TimeUnit.SECONDS);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo("success"));
+    }
+
+    @Test
+    public void shouldSuccessfullyMakeMultipleGetsAcrossAcceptors() throws Exception {
+        for (int i = 0; i < 16; i++) {
+            HttpGet get = new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE);
+            get.setHeader(HttpHeaders.CONNECTION, "close"); // force a new connection for each request
+
+            Future<HttpResponse> future = client.getClient().execute(get, null);
+            HttpResponse response = future.get(10, TimeUnit.SECONDS);
+
+            assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+            assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo("success"));
+        }
+    }
+
+    @Test
+    public void shouldSuccessfullyPostAndReceiveResponse() throws Exception {
+        HttpPost post = new HttpPost(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE + "/data1");
+        post.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN);
+        post.setEntity(HttpUtils.writeStringToEntity("data2"));
+
+        Future<HttpResponse> future = client.getClient().execute(post, null);
+        HttpResponse response = future.get(10, TimeUnit.SECONDS);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo("data1-data2"));
+    }
+}
@@ -0,0 +1,319 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import io.netty.util.Timer;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.core.MediaType;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertTrue;
+
+public final class TestEventStreams {
+
+    private static final long HEARTBEAT_INTERVAL = 100;
+    private static final int MAX_QUEUED_EVENTS = 4;
+    private static final URI SERVICE_URI = URI.create(ServiceConfiguration.SERVICE_URL);
+
+    @Singleton
+    @Path("/events")
+    public static final class EventResource {
+
+        private final EventBroadcaster broadcaster;
+
+        @Inject
+        public EventResource(Timer timer) {
+            this.broadcaster = new EventBroadcaster(timer, HEARTBEAT_INTERVAL, MAX_QUEUED_EVENTS);
+        }
+
+        @GET
+        @Produces(EventStream.MEDIA_TYPE)
+        public EventStream subscribe() {
+            return broadcaster.newStream();
+        }
+
+        @POST
+        public String broadcast(String data) {
+            return String.valueOf(broadcaster.broadcast(new ServerSentEvent("update", data)));
+        }
+
+        @POST
+        @Path("/flood")
+        public String flood(@QueryParam("size") int size) {
+            return String.valueOf(broadcaster.broadcast(new ServerSentEvent(Strings.repeat("x", size))));
+        }
+
+        @POST
+        @Path("/close")
+        public void close() {
+            broadcaster.close();
+        }
+
+        @GET
+        @Path("/replaced")
+        @Produces({EventStream.MEDIA_TYPE, MediaType.TEXT_PLAIN})
+        public EventStream subscribeAndReplace() {
+            return broadcaster.newStream();
+        }
+
+        @GET
+        @Path("/subscribers")
+        public String getSubscribers() {
+            return String.valueOf(broadcaster.getSubscribers());
+        }
+    }
+
+    // replaces the stream returned by EventResource.subscribeAndReplace()
+    public static final class ReplacingFilter implements ContainerResponseFilter {
+
+        @Override
+        public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) throws IOException {
+            if (requestContext.getUriInfo().getPath().endsWith("replaced")) {
+                responseContext.setEntity("replaced", null, MediaType.TEXT_PLAIN_TYPE);
+            }
+        }
+    }
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(EventResource.class);
+            environment.addServiceProvider(ReplacingFilter.class);
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldStreamBroadcastEventsUntilClosed() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        try (Socket socket = subscribe()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+
+            assertThat(reader.readLine(), equalTo("HTTP/1.1 200 OK"));
+            assertTrue(readUntil(reader, "Content-Type: " + EventStream.MEDIA_TYPE));
+            waitForSubscribers(1);
+
+            assertThat(post("/events", "first\nsecond"), equalTo("1"));
+            assertTrue(readUntil(reader, "event: update"));
+            assertThat(reader.readLine(), equalTo("data: first"));
+            assertThat(reader.readLine(), equalTo("data: second"));
+
+            // the response is finished with the last chunk
+            post("/events/close", "");
+            assertTrue(readUntil(reader, "0"));
+            waitForSubscribers(0);
+        }
+    }
+
+    @Test
+    public void shouldSendHeartbeatsOnIdleStream() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        try (Socket socket = subscribe()) {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+            assertTrue(readUntil(reader, ":"));
+        }
+    }
+
+    @Test
+    public void shouldRemoveStreamWhenClientDisconnects() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        Socket socket = subscribe();
+        waitForSubscribers(1);
+
+        socket.close();
+        waitForSubscribers(0);
+    }
+
+    @Test
+    public void shouldEvictClientThatDoesNotKeepUp() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        long evictions = getEvictionCount();
+
+        // never read from the socket
+        try (Socket socket = subscribe()) {
+            assertTrue(socket.isConnected());
+            waitForSubscribers(1);
+
+            long deadline = System.currentTimeMillis() + TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+            while (!post("/events/flood?size=" + 256 * 1024, "").equals("0")) {
+                assertTrue("timed out waiting for eviction", System.currentTimeMillis() < deadline);
+            }
+
+            waitForSubscribers(0);
+            assertThat(getEvictionCount(), equalTo(evictions + 1));
+        }
+    }
+
+    @Test
+    public void shouldNotHoldApplicationThreadWhileStreaming() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration()); // one request-processing thread
+
+        Socket[] sockets = new Socket[3];
+        try {
+            for (int i = 0; i < sockets.length; i++) {
+                sockets[i] = subscribe();
+                waitForSubscribers(i + 1);
+            }
+
+            assertThat(post("/events", "data"), equalTo(String.valueOf(sockets.length)));
+        } finally {
+            for (Socket socket : sockets) {
+                if (socket != null) {
+                    socket.close();
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldNotStreamEventsInResponseToHead() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        try (Socket socket = connect()) {
+            OutputStream out = socket.getOutputStream();
+            out.write(("HEAD /events HTTP/1.1\r\nHost: " + SERVICE_URI.getAuthority() + "\r\nAccept: " + EventStream.MEDIA_TYPE + "\r\n\r\n").getBytes(Charsets.US_ASCII));
+            out.write(("GET /events/subscribers HTTP/1.1\r\nHost: " + SERVICE_URI.getAuthority() + "\r\n\r\n").getBytes(Charsets.US_ASCII));
+            out.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+            assertThat(reader.readLine(), equalTo("HTTP/1.1 200 OK"));
+            assertTrue(readUntil(reader, ""));
+
+            // no events (or heartbeats) follow the headers
+            assertThat(reader.readLine(), equalTo("HTTP/1.1 200 OK"));
+        }
+
+        waitForSubscribers(0);
+    }
+
+    @Test
+    public void shouldRemoveStreamReplacedByResponseFilter() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        HttpResponse response = client.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/events/replaced"), null).get(10, TimeUnit.SECONDS);
+        assertThat(HttpUtils.readResponseEntityToString(response), equalTo("replaced"));
+
+        waitForSubscribers(0);
+        assertThat(post("/events", "data"), equalTo("0"));
+    }
+
+    private void start(HttpConfiguration service) throws Exception {
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    private static Socket subscribe() throws IOException {
+        Socket socket = connect();
+
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET /events HTTP/1.1\r\nHost: " + SERVICE_URI.getAuthority() + "\r\nAccept: " + EventStream.MEDIA_TYPE + "\r\n\r\n").getBytes(Charsets.US_ASCII));
+        out.flush();
+
+        return socket;
+    }
+
+    private static Socket connect() throws IOException {
+        Socket socket = new Socket();
+        socket.setReceiveBufferSize(4096);
+        socket.setSoTimeout(10000);
+        socket.connect(new InetSocketAddress(SERVICE_URI.getHost(), SERVICE_URI.getPort()));
+        return socket;
+    }
+
+    private static boolean readUntil(BufferedReader reader, String expected) throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            if (line.equalsIgnoreCase(expected)) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+    private String post(String path, String entity) throws Exception {
+        HttpPost post = new HttpPost(ServiceConfiguration.SERVICE_URL + path);
+        post.setEntity(new StringEntity(entity));
+
+        HttpResponse response = client.getClient().execute(post, null).get(10, TimeUnit.SECONDS);
+        assertTrue(response.getStatusLine().getStatusCode() < HttpStatus.SC_BAD_REQUEST);
+        return response.getEntity() == null ? "" : HttpUtils.readResponseEntityToString(response);
+    }
+
+    private void waitForSubscribers(int count) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+        while (true) {
+            HttpResponse response = client.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/events/subscribers"), null).get(10, TimeUnit.SECONDS);
+            if (HttpUtils.readResponseEntityToString(response).equals(String.valueOf(count))) {
+                return;
+            }
+
+            assertTrue("timed out waiting for subscribers", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static long getEvictionCount() {
+        return MetricRegistries.getRegistry().meter(MetricRegistries.name("http", "event-stream", "evictions")).getCount();
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.google.common.collect.Lists;
+import com.google.common.net.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+
+public final class TestFileRegionResponses {
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(FileResource.class);
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @Before
+    public void setup() throws Exception {
+        server.runWithConfiguration(ServiceConfiguration.TEST_CONFIGURATION);
+    }
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldSendFile() throws Exception {
+        HttpResponse response = get("file", null);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_LENGTH).getValue(), equalTo(String.valueOf(FileResource.FILE_BYTES.length)));
+        assertThat(response.getFirstHeader(HttpHeaders.ACCEPT_RANGES).getValue(), equalTo("bytes"));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(FileResource.FILE_BYTES));
+    }
+
+    @Test
+    public void shouldSendPath() throws Exception {
+        HttpResponse response = get("path", null);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(FileResource.FILE_BYTES));
+    }
+
+    @Test
+    public void shouldSendFileRegion() throws Exception {
+        HttpResponse response = get("region", null);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(slice(FileResource.REGION_OFFSET, FileResource.REGION_LENGTH)));
+    }
+
+    @Test
+    public void shouldSendRequestedRangeOfFile() throws Exception {
+        HttpResponse response = get("file", "bytes=100-1099");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_PARTIAL_CONTENT));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_RANGE).getValue(), equalTo("bytes 100-1099/" + FileResource.FILE_BYTES.length));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(slice(100, 1000)));
+    }
+
+    @Test
+    public void shouldSendRequestedSuffixRangeOfFileRegion() throws Exception {
+        HttpResponse response = get("region", "bytes=-10");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_PARTIAL_CONTENT));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_RANGE).getValue(), equalTo("bytes 4990-4999/" + FileResource.REGION_LENGTH));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(slice(FileResource.REGION_OFFSET + FileResource.REGION_LENGTH - 10, 10)));
+    }
+
+    @Test
+    public void shouldRejectUnsatisfiableRange() throws Exception {
+        HttpResponse response = get("region", "bytes=" + FileResource.REGION_LENGTH + "-");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_RANGE).getValue(), equalTo("bytes */" + FileResource.REGION_LENGTH));
+
+        // the connection can still be used
+        response = get("file", null);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(FileResource.FILE_BYTES));
+    }
+
+    @Test
+    public void shouldSendEntireFileForMultipleRanges() throws Exception {
+        HttpResponse response = get("file", "bytes=0-10,20-30");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(FileResource.FILE_BYTES));
+    }
+
+    @Test
+    public void shouldNotSendFileRegionInResponseToHead() throws Exception {
+        HttpResponse response = execute(new HttpHead(getUri("file")), "bytes=100-1099");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_PARTIAL_CONTENT));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_RANGE).getValue(), equalTo("bytes 100-1099/" + FileResource.FILE_BYTES.length));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_LENGTH).getValue(), equalTo("1000"));
+    }
+
+    @Test
+    public void shouldSendPipelinedResponseRightAfterHeadResponse() throws Exception {
+        URI serviceUri = URI.create(ServiceConfiguration.SERVICE_URL);
+        String path = "/" + Resources.FILE_RESOURCE + "/region";
+
+        try (Socket socket = new Socket()) {
+            socket.setSoTimeout(10000);
+            socket.connect(new InetSocketAddress(serviceUri.getHost(), serviceUri.getPort()));
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("HEAD " + path + " HTTP/1.1\r\nHost: " + serviceUri.getAuthority() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(("GET " + path + " HTTP/1.1\r\nHost: " + serviceUri.getAuthority() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            assertThat(reader.readLine(), equalTo("HTTP/1.1 200 OK"));
+
+            List<String> headers = Lists.newArrayList();
+            String line;
+            while (!(line = reader.readLine()).isEmpty()) {
+                headers.add(line.toLowerCase(Locale.ENGLISH));
+            }
+
+            assertThat(headers, hasItem("content-length: " + FileResource.REGION_LENGTH));
+            assertThat(headers, hasItem("accept-ranges: bytes"));
+
+            // the HEAD response has no body, so the
+            // GET response starts right after its headers
+            assertThat(reader.readLine(), equalTo("HTTP/1.1 200 OK"));
+        }
+    }
+
+    private HttpResponse get(String path, @javax.annotation.Nullable String range) throws Exception {
+        return execute(new HttpGet(getUri(path)), range);
+    }
+
+    private HttpResponse execute(HttpUriRequest request, @javax.annotation.Nullable String range) throws Exception {
+        if (range != null) {
+            request.setHeader(HttpHeaders.RANGE, range);
+        }
+
+        Future<HttpResponse> future = client.getClient().execute(request, null);
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static String getUri(String path) {
+        return ServiceConfiguration.SERVICE_URL + "/" + Resources.FILE_RESOURCE + "/" + path;
+    }
+
+    private static byte[] slice(int offset, int length) {
+        return Arrays.copyOfRange(FileResource.FILE_BYTES, offset, offset + length);
+    }
+}
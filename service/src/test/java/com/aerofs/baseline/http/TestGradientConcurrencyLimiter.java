@@ -0,0 +1,114 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class TestGradientConcurrencyLimiter {
+
+    private static final long SERVICE_TIME = TimeUnit.NANOSECONDS.convert(10, TimeUnit.MILLISECONDS);
+
+    @Test
+    public void shouldRejectRequestsOverLimit() {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter("limiter", 2, 10);
+
+        assertTrue(limiter.tryAcquire());
+        assertTrue(limiter.tryAcquire());
+        assertFalse(limiter.tryAcquire());
+
+        limiter.release(SERVICE_TIME, false);
+
+        assertTrue(limiter.tryAcquire());
+    }
+
+    @Test
+    public void shouldIncreaseLimitWhenSaturatedAndServiceTimeIsStable() {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter("limiter", 10, 100);
+
+        runSaturated(limiter, 50, SERVICE_TIME);
+
+        assertThat(limiter.getLimit(), greaterThan(10));
+    }
+
+    @Test
+    public void shouldNotIncreaseLimitWhenMostlyIdle() {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter("limiter", 10, 100);
+
+        for (int i = 0; i < 50; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(SERVICE_TIME, false);
+        }
+
+        assertThat(limiter.getLimit(), equalTo(10));
+    }
+
+    @Test
+    public void shouldDecreaseLimitWhenServiceTimeIncreases() {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter("limiter", 10, 100);
+
+        runSaturated(limiter, 50, SERVICE_TIME);
+        int stableLimit = limiter.getLimit();
+
+        runSaturated(limiter, 50, SERVICE_TIME * 4);
+
+        assertThat(limiter.getLimit(), lessThan(stableLimit));
+    }
+
+    @Test
+    public void shouldDecreaseLimitWhenRequestsAreDropped() {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter("limiter", 10, 100);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(limiter.tryAcquire());
+            limiter.release(0, true);
+        }
+
+        assertThat(limiter.getLimit(), lessThan(10));
+    }
+
+    @Test
+    public void shouldNotExceedMaxLimit() {
+        GradientConcurrencyLimiter limiter = new GradientConcurrencyLimiter("limiter", 10, 12);
+
+        runSaturated(limiter, 200, SERVICE_TIME);
+
+        assertThat(limiter.getLimit(), equalTo(12));
+    }
+
+    // fill the limiter, then complete every request
+    private static void runSaturated(GradientConcurrencyLimiter limiter, int rounds, long serviceTime) {
+        for (int round = 0; round < rounds; round++) {
+            int acquired = 0;
+            while (limiter.tryAcquire()) {
+                acquired++;
+            }
+
+            for (int i = 0; i < acquired; i++) {
+                limiter.release(serviceTime, false);
+            }
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.ImmutableList;
+import io.netty.handler.codec.http.DefaultHttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders;
+import io.netty.handler.codec.http.HttpHeaders.Names;
+import org.glassfish.jersey.internal.util.collection.StringKeyIgnoreCaseMultivaluedMap;
+import org.junit.Test;
+
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+
+public final class TestHeaderCopier {
+
+    @Test
+    public void shouldCopyAllRequestHeaderValues() {
+        HttpHeaders source = new DefaultHttpHeaders();
+        source.add(Names.ACCEPT, "text/plain");
+        source.add("X-Custom", "first");
+        source.add("X-Custom", "second");
+
+        MultivaluedMap<String, String> destination = new StringKeyIgnoreCaseMultivaluedMap<>();
+        HeaderCopier.copyRequestHeaders(source, destination);
+
+        assertThat(destination.get(Names.ACCEPT), contains("text/plain"));
+        assertThat(destination.get("x-custom"), contains("first", "second"));
+    }
+
+    @Test
+    public void shouldCopyAllResponseHeaderValuesAsStrings() {
+        MultivaluedMap<String, Object> source = new StringKeyIgnoreCaseMultivaluedMap<>();
+        source.add(Names.CONTENT_TYPE, MediaType.TEXT_PLAIN_TYPE);
+        source.add(Names.CONTENT_LENGTH, 7);
+        source.addAll("X-Custom", ImmutableList.of("first", "second"));
+
+        HttpHeaders destination = new DefaultHttpHeaders();
+        HeaderCopier.copyResponseHeaders(source, destination);
+
+        assertThat(destination.get(Names.CONTENT_TYPE), equalTo("text/plain"));
+        assertThat(destination.get(Names.CONTENT_LENGTH), equalTo("7"));
+        assertThat(destination.getAll("x-custom"), contains("first", "second"));
+    }
+}
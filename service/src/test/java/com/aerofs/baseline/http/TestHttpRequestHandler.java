@@ -61,6 +61,7 @@ public final class TestHttpRequestHandler {
             environment.addResource(ChunkedDownloadResource.class);
             environment.addResource(ChunkedUploadResource.class);
             environment.addResource(HandsOnChunkedUploadResource.class);
+            environment.addResource(StreamingUploadResource.class);
             environment.addResource(PollingResource.class);
             environment.addResource(ThrowingResource.class);
             environment.addResource(TimeoutResource.class);
@@ -257,6 +258,43 @@ public final class TestHttpRequestHandler {
         LOGGER.info("hex digest:{}", hex);
     }
 
+    @Test
+    public void shouldSuccessfullyUploadChunkedDataToResourceThatReadsSingleBytesFromInputStream() throws Exception {
+        // create random bytes and compute its digest
+        // kept small because paranoid leak detection records every single-byte buffer access
+        byte[] random = Resources.getRandomBytes(64 * 1024);
+        String hex = Resources.getHexDigest(random);
+
+        // post the data
+        HttpPost post = newChunkedPost(Resources.HANDS_ON_CHUNKED_UPLOAD_RESOURCE + "/bytes", random);
+        Future<HttpResponse> future = client.getClient().execute(post, null);
+        HttpResponse response = future.get(60, TimeUnit.SECONDS);
+
+        // check the response
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo(hex));
+
+        LOGGER.info("hex digest:{}", hex);
+    }
+
+    @Test
+    public void shouldSuccessfullyUploadChunkedDataToResourceThatReadsStreamingEntity() throws Exception {
+        // create random bytes and compute its digest
+        byte[] random = Resources.getRandomBytes(4 * 1024 * 1024);
+        String hex = Resources.getHexDigest(random);
+
+        // post the data
+        HttpPost post = newChunkedPost(Resources.STREAMING_UPLOAD_RESOURCE, random);
+        Future<HttpResponse> future = client.getClient().execute(post, null);
+        HttpResponse response = future.get(60, TimeUnit.SECONDS);
+
+        // check the response
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo(hex));
+
+        LOGGER.info("hex digest:{}", hex);
+    }
+
     private static HttpPost newChunkedPost(String resource, byte[] bytes) {
         BasicHttpEntity basic = new BasicHttpEntity();
         basic.setChunked(true);
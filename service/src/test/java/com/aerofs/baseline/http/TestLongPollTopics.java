@@ -0,0 +1,242 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.google.common.collect.Lists;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.inject.Inject;
+import javax.inject.Singleton;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.Context;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertTrue;
+
+public final class TestLongPollTopics {
+
+    private static final int NUM_WAITERS = 100; // more than one resume batch
+
+    @Singleton
+    @Path("/topics")
+    public static final class TopicResource {
+
+        private final LongPollTopics topics;
+
+        @Inject
+        public TopicResource(LongPollTopics topics) {
+            this.topics = topics;
+        }
+
+        @GET
+        @Path("/{topic}")
+        public void await(@PathParam("topic") String topic, @QueryParam("timeout") @DefaultValue("0") long timeout, @Suspended AsyncResponse response, @Context ContainerRequestContext requestContext) {
+            if (timeout > 0) {
+                response.setTimeout(timeout, TimeUnit.MILLISECONDS);
+            }
+
+            topics.await(topic, response, requestContext);
+        }
+
+        @POST
+        @Path("/{topic}")
+        public String publish(@PathParam("topic") String topic, String entity) {
+            return String.valueOf(topics.publish(topic, entity));
+        }
+
+        @GET
+        @Path("/{topic}/waiting")
+        public String getWaiting(@PathParam("topic") String topic) {
+            return String.valueOf(topics.getWaiting(topic));
+        }
+    }
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(TopicResource.class);
+        }
+    };
+
+    private final CloseableHttpAsyncClient waitingClient = HttpAsyncClients.custom().setMaxConnPerRoute(NUM_WAITERS).setMaxConnTotal(NUM_WAITERS).build();
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @After
+    public void teardown() throws Exception {
+        waitingClient.close();
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldResumeAllWaitersWhenTopicIsPublished() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        List<Future<HttpResponse>> waiters = Lists.newArrayList();
+        for (int i = 0; i < NUM_WAITERS; i++) {
+            waiters.add(await("updates", 0));
+        }
+
+        waitForWaiters("updates", NUM_WAITERS);
+        assertThat(getSuspendedCount(), equalTo((long) NUM_WAITERS));
+
+        assertThat(publish("updates", "update"), equalTo(NUM_WAITERS));
+
+        for (Future<HttpResponse> waiter : waiters) {
+            HttpResponse response = waiter.get(10, TimeUnit.SECONDS);
+            assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+            assertThat(HttpUtils.readResponseEntityToString(response), equalTo("update"));
+        }
+
+        assertThat(getSuspendedCount(), equalTo(0L));
+        assertThat(getResumeLatencyCount(), equalTo((long) NUM_WAITERS));
+    }
+
+    @Test
+    public void shouldOnlyResumeWaitersOfPublishedTopic() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        Future<HttpResponse> first = await("first", 0);
+        Future<HttpResponse> second = await("second", 0);
+        waitForWaiters("first", 1);
+        waitForWaiters("second", 1);
+
+        assertThat(publish("first", "one"), equalTo(1));
+        assertThat(HttpUtils.readResponseEntityToString(first.get(10, TimeUnit.SECONDS)), equalTo("one"));
+        assertThat(getWaiting("second"), equalTo(1));
+
+        assertThat(publish("second", "two"), equalTo(1));
+        assertThat(HttpUtils.readResponseEntityToString(second.get(10, TimeUnit.SECONDS)), equalTo("two"));
+    }
+
+    @Test
+    public void shouldRemoveWaiterWhenSuspendTimeoutExpires() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        HttpResponse response = await("expiring", 250).get(10, TimeUnit.SECONDS);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_SERVICE_UNAVAILABLE));
+
+        waitForWaiters("expiring", 0);
+        assertThat(getSuspendedCount(), equalTo(0L));
+        assertThat(publish("expiring", "late"), equalTo(0));
+    }
+
+    @Test
+    public void shouldRemoveWaiterWhenChannelCloses() throws Exception {
+        start(ServiceConfiguration.newServiceConfiguration());
+
+        await("abandoned", 0);
+        waitForWaiters("abandoned", 1);
+
+        waitingClient.close();
+
+        waitForWaiters("abandoned", 0);
+        assertThat(getSuspendedCount(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldNotCountWaitersAgainstConcurrencyLimit() throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setAdaptiveConcurrencyLimit(true);
+        service.setInitialConcurrencyLimit(2);
+        service.setMaxConcurrencyLimit(2);
+        start(service);
+
+        // add the waiters one at a time so
+        // that they never use more than one slot
+        List<Future<HttpResponse>> waiters = Lists.newArrayList();
+        for (int i = 0; i < 5; i++) {
+            waiters.add(await("limited", 0));
+            waitForWaiters("limited", i + 1);
+        }
+
+        assertThat(publish("limited", "done"), equalTo(5));
+
+        for (Future<HttpResponse> waiter : waiters) {
+            assertThat(waiter.get(10, TimeUnit.SECONDS).getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        }
+    }
+
+    private void start(HttpConfiguration service) throws Exception {
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+        waitingClient.start();
+    }
+
+    private Future<HttpResponse> await(String topic, long timeout) {
+        return waitingClient.execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/topics/" + topic + "?timeout=" + timeout), null);
+    }
+
+    private int publish(String topic, String entity) throws Exception {
+        HttpPost post = new HttpPost(ServiceConfiguration.SERVICE_URL + "/topics/" + topic);
+        post.setEntity(new StringEntity(entity));
+
+        HttpResponse response = client.getClient().execute(post, null).get(10, TimeUnit.SECONDS);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        return Integer.parseInt(HttpUtils.readResponseEntityToString(response));
+    }
+
+    private int getWaiting(String topic) throws Exception {
+        HttpResponse response = client.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/topics/" + topic + "/waiting"), null).get(10, TimeUnit.SECONDS);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        return Integer.parseInt(HttpUtils.readResponseEntityToString(response));
+    }
+
+    private void waitForWaiters(String topic, int count) throws Exception {
+        long deadline = System.currentTimeMillis() + TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+        while (getWaiting(topic) != count) {
+            assertTrue("timed out waiting for long-poll requests", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static long getSuspendedCount() {
+        return MetricRegistries.getRegistry().counter(MetricRegistries.name("http", "long-poll", "suspended")).getCount();
+    }
+
+    private static long getResumeLatencyCount() {
+        return MetricRegistries.getRegistry().timer(MetricRegistries.name("http", "long-poll", "resume-latency")).getCount();
+    }
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.aerofs.baseline.auth.AuthenticationResult;
+import com.aerofs.baseline.auth.Authenticator;
+import com.aerofs.baseline.metrics.MetricRegistries;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpHead;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.StringEntity;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.MultivaluedMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+public final class TestNonBlockingResources {
+
+    private static final String NETWORK_THREAD = "-nio-work-";
+
+    @Singleton
+    @Path("/nonblocking")
+    public static final class NonBlockingResource {
+
+        @GET
+        @NonBlocking
+        public String get() {
+            return Thread.currentThread().getName();
+        }
+
+        @POST
+        public String post(String body) {
+            return Thread.currentThread().getName();
+        }
+
+        @GET
+        @NonBlocking
+        @Path("/{key}")
+        public String getKey(@PathParam("key") String key) {
+            return Thread.currentThread().getName();
+        }
+
+        @GET
+        @Path("/blocking")
+        public String getBlocking() {
+            return Thread.currentThread().getName();
+        }
+
+        @GET
+        @NonBlocking
+        @Path("/suspended/{key}")
+        public void getSuspended(@Suspended AsyncResponse response) {
+            String thread = Thread.currentThread().getName();
+            ForkJoinPool.commonPool().execute(() -> response.resume(thread));
+        }
+
+        @GET
+        @NonBlocking
+        @Path("/slow/{key}")
+        public String getSlow() throws InterruptedException {
+            Thread.sleep(500); // misuse
+            return Thread.currentThread().getName();
+        }
+    }
+
+    // never authenticates anything, but its presence
+    // keeps non-blocking methods off the network thread
+    public static final class UnsupportedAuthenticator implements Authenticator {
+
+        @Override
+        public String getName() {
+            return "unsupported";
+        }
+
+        @Override
+        public AuthenticationResult authenticate(MultivaluedMap<String, String> headers) {
+            return AuthenticationResult.UNSUPPORTED;
+        }
+    }
+
+    private boolean authenticated;
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(NonBlockingResource.class);
+
+            if (authenticated) {
+                environment.addAuthenticator(new UnsupportedAuthenticator());
+            }
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldRunNonBlockingMethodOnNetworkThread() throws Exception {
+        start(true, 0);
+
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking")), containsString(NETWORK_THREAD));
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/")), containsString(NETWORK_THREAD));
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/key?q=1")), containsString(NETWORK_THREAD));
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/suspended/key")), containsString(NETWORK_THREAD));
+    }
+
+    @Test
+    public void shouldAnswerHeadRequestOnNetworkThread() throws Exception {
+        start(true, 0);
+
+        long inline = getInlineCount();
+
+        HttpResponse response = execute(new HttpHead(ServiceConfiguration.SERVICE_URL + "/nonblocking/key"));
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(getInlineCount(), equalTo(inline + 1));
+    }
+
+    @Test
+    public void shouldRunOtherMethodsOnApplicationThread() throws Exception {
+        start(true, 0);
+
+        HttpPost post = new HttpPost(ServiceConfiguration.SERVICE_URL + "/nonblocking");
+        post.setEntity(new StringEntity("body"));
+
+        assertThat(getThread(post), not(containsString(NETWORK_THREAD)));
+    }
+
+    @Test
+    public void shouldRunOnApplicationThreadIfPathMayRouteToBlockingMethod() throws Exception {
+        start(true, 0);
+
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/blocking")), not(containsString(NETWORK_THREAD)));
+    }
+
+    @Test
+    public void shouldRouteRepeatedPathsConsistently() throws Exception {
+        start(true, 0);
+
+        for (int i = 0; i < 2; i++) {
+            assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/key?q=" + i)), containsString(NETWORK_THREAD));
+            assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/blocking")), not(containsString(NETWORK_THREAD)));
+        }
+    }
+
+    @Test
+    public void shouldRouteNonBlockingMethodsIfUriCacheDisabled() throws Exception {
+        start(true, 0, 0);
+
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/key")), containsString(NETWORK_THREAD));
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/blocking")), not(containsString(NETWORK_THREAD)));
+    }
+
+    @Test
+    public void shouldRunOnApplicationThreadIfInlineExecutionDisabled() throws Exception {
+        start(false, 0);
+
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking")), not(containsString(NETWORK_THREAD)));
+    }
+
+    @Test
+    public void shouldRunOnApplicationThreadIfAuthenticatorIsRegistered() throws Exception {
+        authenticated = true;
+        start(true, 0);
+
+        long inline = getInlineCount();
+
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking")), not(containsString(NETWORK_THREAD)));
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/key")), not(containsString(NETWORK_THREAD)));
+        assertThat(getInlineCount(), equalTo(inline));
+    }
+
+    @Test
+    public void shouldFlagSlowNonBlockingMethod() throws Exception {
+        start(true, 250);
+
+        long slow = getSlowInlineCount();
+
+        assertThat(getThread(new HttpGet(ServiceConfiguration.SERVICE_URL + "/nonblocking/slow/key")), containsString(NETWORK_THREAD));
+
+        // the request is only measured once
+        // the response has been written out
+        for (int i = 0; i < 100 && getSlowInlineCount() == slow; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(getSlowInlineCount(), equalTo(slow + 1));
+    }
+
+    private void start(boolean inlineExecution, long inlineExecutionWarnThreshold) throws Exception {
+        start(inlineExecution, inlineExecutionWarnThreshold, com.aerofs.baseline.http.Constants.DEFAULT_URI_CACHE_SIZE);
+    }
+
+    private void start(boolean inlineExecution, long inlineExecutionWarnThreshold, int uriCacheSize) throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setUriCacheSize(uriCacheSize);
+        service.setInlineExecution(inlineExecution);
+        service.setInlineExecutionWarnThreshold(inlineExecutionWarnThreshold);
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    private String getThread(HttpUriRequest request) throws Exception {
+        HttpResponse response = execute(request);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        return HttpUtils.readResponseEntityToString(response);
+    }
+
+    private HttpResponse execute(HttpUriRequest request) throws Exception {
+        Future<HttpResponse> future = client.getClient().execute(request, null);
+        return future.get();
+    }
+
+    private static long getInlineCount() {
+        return MetricRegistries.getRegistry().meter(MetricRegistries.name("http", "svc", "inline-requests")).getCount();
+    }
+
+    private static long getSlowInlineCount() {
+        return MetricRegistries.getRegistry().meter(MetricRegistries.name("http", "svc", "slow-inline-requests")).getCount();
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.google.common.net.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.BasicHttpEntity;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public final class TestRequestDecompression {
+
+    private static final int MAX_DECOMPRESSED_ENTITY_SIZE = 4 * 1024 * 1024;
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(ChunkedUploadResource.class);
+            environment.addResource(StreamingUploadResource.class);
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @Before
+    public void setup() throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setRequestDecompression(true);
+        service.setMaxDecompressedEntitySize(MAX_DECOMPRESSED_ENTITY_SIZE);
+        service.setMaxPooledInflaters(1);
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldDecompressGzipEntity() throws Exception {
+        byte[] random = Resources.getRandomBytes(256 * 1024);
+
+        HttpResponse response = post(Resources.CHUNKED_UPLOAD_RESOURCE, "gzip", gzip(random), true);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo(Resources.getHexDigest(random)));
+    }
+
+    @Test
+    public void shouldDecompressDeflateEntityWithContentLength() throws Exception {
+        byte[] random = Resources.getRandomBytes(256 * 1024);
+
+        HttpResponse response = post(Resources.CHUNKED_UPLOAD_RESOURCE, "deflate", deflate(random), false);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo(Resources.getHexDigest(random)));
+    }
+
+    @Test
+    public void shouldDecompressMultiMemberGzipEntity() throws Exception {
+        byte[] first = Resources.getRandomBytes(64 * 1024);
+        byte[] second = Resources.getRandomBytes(64 * 1024);
+
+        byte[] firstCompressed = gzip(first);
+        byte[] secondCompressed = gzip(second);
+        byte[] compressed = Arrays.copyOf(firstCompressed, firstCompressed.length + secondCompressed.length);
+        System.arraycopy(secondCompressed, 0, compressed, firstCompressed.length, secondCompressed.length);
+
+        HttpResponse response = post(Resources.CHUNKED_UPLOAD_RESOURCE, "x-gzip", compressed, true);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo(Resources.getHexDigest(first, second)));
+    }
+
+    @Test
+    public void shouldDecompressEntityReadAsStreamingEntity() throws Exception {
+        byte[] random = Resources.getRandomBytes(256 * 1024);
+
+        HttpResponse response = post(Resources.STREAMING_UPLOAD_RESOURCE, "gzip", gzip(random), true);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo(Resources.getHexDigest(random)));
+    }
+
+    @Test
+    public void shouldPassThroughEntityWithUnsupportedEncoding() throws Exception {
+        byte[] random = Resources.getRandomBytes(64 * 1024);
+
+        HttpResponse response = post(Resources.CHUNKED_UPLOAD_RESOURCE, "br", random, false);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo(Resources.getHexDigest(random)));
+    }
+
+    @Test
+    public void shouldRejectEntityLargerThanMaxDecompressedSize() throws Exception {
+        byte[] random = Resources.getRandomBytes(MAX_DECOMPRESSED_ENTITY_SIZE + 1);
+
+        HttpResponse response = post(Resources.CHUNKED_UPLOAD_RESOURCE, "gzip", gzip(random), true);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_REQUEST_TOO_LONG));
+    }
+
+    @Test
+    public void shouldRejectEntityWithExcessiveCompressionRatio() throws Exception {
+        byte[] zeroes = new byte[MAX_DECOMPRESSED_ENTITY_SIZE / 2]; // below the size limit
+
+        HttpResponse response = post(Resources.CHUNKED_UPLOAD_RESOURCE, "gzip", gzip(zeroes), true);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_REQUEST_TOO_LONG));
+    }
+
+    private HttpResponse post(String resource, @Nullable String contentEncoding, byte[] bytes, boolean chunked) throws Exception {
+        BasicHttpEntity basic = new BasicHttpEntity();
+        basic.setChunked(chunked);
+        basic.setContentLength(chunked ? -1 : bytes.length);
+        basic.setContent(new ByteArrayInputStream(bytes));
+
+        HttpPost post = new HttpPost(ServiceConfiguration.SERVICE_URL + "/" + resource);
+        post.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_OCTET_STREAM);
+        if (contentEncoding != null) {
+            post.setHeader(HttpHeaders.CONTENT_ENCODING, contentEncoding);
+        }
+        post.setEntity(basic);
+
+        Future<HttpResponse> future = client.getClient().execute(post, null);
+        return future.get(60, TimeUnit.SECONDS);
+    }
+
+    private static byte[] gzip(byte[] bytes) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream os = new GZIPOutputStream(compressed)) {
+            os.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+
+    private static byte[] deflate(byte[] bytes) throws Exception {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream os = new DeflaterOutputStream(compressed)) {
+            os.write(bytes);
+        }
+        return compressed.toByteArray();
+    }
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.Future;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+
+public final class TestRequestIds {
+
+    private static final String TRACEPARENT = "00-4bf92f3577b34da6a3ce929d0e0e4736-00f067aa0ba902b7-01";
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(BasicResource.class);
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldGenerate64BitIdsByDefault() throws Exception {
+        start(RequestIdFormat.HEX_64);
+
+        String first = getRequestId(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE));
+        String second = getRequestId(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE));
+
+        assertThat(first.matches("[0-9a-f]{16}"), equalTo(true));
+        assertThat(second.matches("[0-9a-f]{16}"), equalTo(true));
+        assertThat(first, not(equalTo(second)));
+    }
+
+    @Test
+    public void shouldGenerate128BitTraceIds() throws Exception {
+        start(RequestIdFormat.TRACE_ID);
+
+        String requestId = getRequestId(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE));
+
+        assertThat(requestId.matches("[0-9a-f]{32}"), equalTo(true));
+    }
+
+    @Test
+    public void shouldUseTraceIdFromTraceparent() throws Exception {
+        start(RequestIdFormat.TRACE_ID);
+
+        HttpGet get = new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE);
+        get.addHeader("traceparent", TRACEPARENT);
+
+        assertThat(getRequestId(get), equalTo("4bf92f3577b34da6a3ce929d0e0e4736"));
+    }
+
+    @Test
+    public void shouldIgnoreMalformedTraceparent() throws Exception {
+        start(RequestIdFormat.TRACE_ID);
+
+        HttpGet get = new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE);
+        get.addHeader("traceparent", "00-00000000000000000000000000000000-00f067aa0ba902b7-01");
+
+        String requestId = getRequestId(get);
+        assertThat(requestId.matches("[0-9a-f]{32}"), equalTo(true));
+        assertThat(requestId, not(equalTo("00000000000000000000000000000000")));
+    }
+
+    @Test
+    public void shouldKeepRequestIdSentByClient() throws Exception {
+        start(RequestIdFormat.TRACE_ID);
+
+        HttpGet get = new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE);
+        get.addHeader(Headers.REQUEST_TRACING_HEADER, "client-id");
+        get.addHeader("traceparent", TRACEPARENT);
+
+        assertThat(getRequestId(get), equalTo("client-id"));
+    }
+
+    private void start(RequestIdFormat requestIdFormat) throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setRequestIdFormat(requestIdFormat);
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    private String getRequestId(HttpGet get) throws Exception {
+        Future<HttpResponse> future = client.getClient().execute(get, null);
+        HttpResponse response = future.get();
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        HttpUtils.readResponseEntityToString(response);
+
+        return response.getFirstHeader(Headers.REQUEST_TRACING_HEADER).getValue();
+    }
+}
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.google.common.collect.Lists;
+import com.google.common.net.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import javax.ws.rs.core.MediaType;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+@RunWith(Parameterized.class)
+public final class TestRequestProcessingExecutors {
+
+    @Parameterized.Parameters(name = "{0}")
+    public static Collection<Object[]> executorTypes() {
+        List<Object[]> executorTypes = Lists.newArrayList();
+
+        for (ExecutorType executorType : ExecutorType.values()) {
+            executorTypes.add(new Object[]{executorType});
+        }
+
+        return executorTypes;
+    }
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(BasicResource.class);
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    private final ExecutorType executorType;
+
+    public TestRequestProcessingExecutors(ExecutorType executorType) {
+        this.executorType = executorType;
+    }
+
+    @Before
+    public void setup() throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setExecutorType(executorType); // virtual falls back to fixed on unsupported jvms
+        service.setNumRequestProcessingThreads(1);
+
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldSuccessfullyGetAndReceiveResponse() throws Exception {
+        HttpGet get = new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE);
+
+        Future<HttpResponse> future = client.getClient().execute(get, null);
+        HttpResponse response = future.get(10, TimeUnit.SECONDS);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo("success"));
+    }
+
+    @Test
+    public void shouldSuccessfullyMakeMultiplePostsAndReceiveResponses() throws Exception {
+        List<Future<HttpResponse>> futures = Lists.newArrayList();
+
+        for (int i = 0; i < 16; i++) {
+            HttpPost post = new HttpPost(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE + "/data" + i);
+            post.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.TEXT_PLAIN);
+            post.setEntity(HttpUtils.writeStringToEntity("value" + i));
+            futures.add(client.getClient().execute(post, null));
+        }
+
+        for (int i = 0; i < futures.size(); i++) {
+            HttpResponse response = futures.get(i).get(10, TimeUnit.SECONDS);
+
+            assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+            assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo("data" + i + "-value" + i));
+        }
+    }
+}
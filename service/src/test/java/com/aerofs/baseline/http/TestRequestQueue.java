@@ -0,0 +1,132 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.Lists;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class TestRequestQueue {
+
+    // runs tasks only when the test says so
+    private static final class ManualExecutor implements Executor {
+
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+
+        @Override
+        public void execute(Runnable command) {
+            tasks.add(command);
+        }
+
+        boolean runNext() {
+            Runnable task = tasks.poll();
+            if (task == null) {
+                return false;
+            }
+
+            task.run();
+            return true;
+        }
+    }
+
+    private final ManualExecutor executor = new ManualExecutor();
+    private final List<String> completed = Lists.newArrayList();
+
+    @Test
+    public void shouldOnlyHandRunningLimitToExecutor() {
+        RequestQueue queue = new RequestQueue("queue", executor, 10, 2, 0);
+
+        for (int i = 0; i < 4; i++) {
+            assertTrue(submit(queue, RequestPriority.NORMAL, "n" + i));
+        }
+
+        assertThat(executor.tasks, hasSize(2));
+
+        runAll();
+
+        assertThat(completed, contains("n0", "n1", "n2", "n3"));
+    }
+
+    @Test
+    public void shouldRejectRequestsWhenQueueIsFull() {
+        RequestQueue queue = new RequestQueue("queue", executor, 2, 1, 0);
+
+        assertTrue(submit(queue, RequestPriority.NORMAL, "n0"));
+        assertTrue(submit(queue, RequestPriority.NORMAL, "n1"));
+        assertFalse(submit(queue, RequestPriority.NORMAL, "n2"));
+
+        executor.runNext(); // dequeues n0, dispatches n1
+
+        assertTrue(submit(queue, RequestPriority.NORMAL, "n3"));
+    }
+
+    @Test
+    public void shouldScheduleWaitingRequestsByWeight() {
+        RequestQueue queue = new RequestQueue("queue", executor, 100, 1, 0);
+
+        // occupies the only running slot
+        submit(queue, RequestPriority.NORMAL, "first");
+
+        for (int i = 0; i < 9; i++) {
+            submit(queue, RequestPriority.BULK, "bulk");
+            submit(queue, RequestPriority.INTERACTIVE, "interactive");
+        }
+
+        runAll();
+
+        // of the first 9 waiting requests to run, 8 should be
+        // interactive and 1 bulk (weights 8:1), and bulk
+        // requests aren't starved behind interactive ones
+        List<String> firstRound = completed.subList(1, 10);
+        assertThat(firstRound.stream().filter("interactive"::equals).count(), equalTo(8L));
+        assertThat(firstRound.stream().filter("bulk"::equals).count(), equalTo(1L));
+        assertThat(completed, hasSize(19));
+    }
+
+    @Test
+    public void shouldShedRequestsThatExceedQueueTime() throws Exception {
+        RequestQueue queue = new RequestQueue("queue", executor, 10, 1, 1);
+
+        submit(queue, RequestPriority.NORMAL, "n0");
+        Thread.sleep(5);
+
+        runAll();
+
+        assertThat(completed, contains("timeout"));
+    }
+
+    private boolean submit(RequestQueue queue, RequestPriority priority, String name) {
+        return queue.submit(priority, () -> completed.add(name), () -> completed.add("timeout"));
+    }
+
+    private void runAll() {
+        boolean ran;
+        do {
+            ran = executor.runNext();
+        } while (ran);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Constants;
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.codahale.metrics.Counter;
+import com.google.common.net.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class TestRequestShedding {
+
+    private static final long MAX_REQUEST_QUEUE_TIME = 100;
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(BasicResource.class);
+            environment.addResource(BlockingResource.class);
+            environment.addResource(PollingResource.class);
+        }
+    };
+
+    // each client uses a single connection
+    // so use one client per concurrent request
+
+    @Rule
+    public final HttpClientResource blockedClient = new HttpClientResource();
+
+    @Rule
+    public final HttpClientResource queuedClient = new HttpClientResource();
+
+    @Rule
+    public final HttpClientResource shedClient = new HttpClientResource();
+
+    @Before
+    public void setup() throws Exception {
+        BlockingResource.ENTERED.drainPermits();
+        BlockingResource.PERMITS.drainPermits();
+        PollingResource.SUSPENDED.drainPermits();
+    }
+
+    // a single request-processing thread and a single queue slot
+    private void startServer(long maxRequestQueueTime) throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setNumRequestProcessingThreads(1);
+        service.setMaxQueuedRequests(1);
+        service.setMaxRequestQueueTime(maxRequestQueueTime);
+
+        startServer(service);
+    }
+
+    private void startServer(HttpConfiguration service) throws Exception {
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    @After
+    public void teardown() {
+        BlockingResource.PERMITS.release(Integer.MAX_VALUE / 2); // unblock any stuck request thread
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldShedRequestWhenQueueIsFull() throws Exception {
+        startServer(0); // no queue-time deadline
+
+        // occupy the only request-processing thread
+        Future<HttpResponse> blocked = blockedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BLOCKING_RESOURCE), null);
+        assertTrue(BlockingResource.ENTERED.tryAcquire(10, TimeUnit.SECONDS));
+
+        // fill the queue
+        Future<HttpResponse> queued = queuedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE), null);
+        waitForQueuedRequests(1);
+
+        // this one should be rejected immediately
+        HttpResponse shed = shedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE), null).get(10, TimeUnit.SECONDS);
+        assertThat(shed.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        assertThat(shed.getFirstHeader(HttpHeaders.RETRY_AFTER).getValue(), equalTo(Integer.toString(com.aerofs.baseline.http.Constants.SHED_RETRY_AFTER_SECONDS)));
+
+        // let everything else complete
+        BlockingResource.PERMITS.release();
+
+        assertThat(blocked.get(10, TimeUnit.SECONDS).getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(queued.get(10, TimeUnit.SECONDS).getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+
+        // the connection on which the request was shed remains usable
+        HttpResponse response = shedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE), null).get(10, TimeUnit.SECONDS);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(response.getEntity().getContent()), equalTo("success"));
+    }
+
+    @Test
+    public void shouldShedRequestWhenQueueTimeIsExceeded() throws Exception {
+        startServer(MAX_REQUEST_QUEUE_TIME);
+
+        // occupy the only request-processing thread
+        Future<HttpResponse> blocked = blockedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BLOCKING_RESOURCE), null);
+        assertTrue(BlockingResource.ENTERED.tryAcquire(10, TimeUnit.SECONDS));
+
+        // queue a request and hold it past the deadline
+        Future<HttpResponse> queued = queuedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE), null);
+        waitForQueuedRequests(1);
+        Thread.sleep(MAX_REQUEST_QUEUE_TIME * 2);
+
+        BlockingResource.PERMITS.release();
+
+        assertThat(blocked.get(10, TimeUnit.SECONDS).getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+
+        HttpResponse shed = queued.get(10, TimeUnit.SECONDS);
+        assertThat(shed.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        assertThat(shed.getFirstHeader(HttpHeaders.RETRY_AFTER).getValue(), equalTo(Integer.toString(com.aerofs.baseline.http.Constants.SHED_RETRY_AFTER_SECONDS)));
+    }
+
+    @Test
+    public void shouldShedRequestWhenConcurrencyLimitIsReached() throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setAdaptiveConcurrencyLimit(true);
+        service.setInitialConcurrencyLimit(1);
+        startServer(service);
+
+        // use up the only concurrency slot
+        Future<HttpResponse> blocked = blockedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BLOCKING_RESOURCE), null);
+        assertTrue(BlockingResource.ENTERED.tryAcquire(10, TimeUnit.SECONDS));
+
+        // rejected, even though there are idle threads and queue space
+        HttpResponse shed = shedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE), null).get(10, TimeUnit.SECONDS);
+        assertThat(shed.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        assertThat(shed.getFirstHeader(HttpHeaders.RETRY_AFTER).getValue(), equalTo(Integer.toString(com.aerofs.baseline.http.Constants.SHED_RETRY_AFTER_SECONDS)));
+
+        BlockingResource.PERMITS.release();
+        assertThat(blocked.get(10, TimeUnit.SECONDS).getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+
+        // the slot is available again
+        HttpResponse response = shedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE), null).get(10, TimeUnit.SECONDS);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+    }
+
+    @Test
+    public void shouldNotCountSuspendedRequestAgainstConcurrencyLimit() throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setAdaptiveConcurrencyLimit(true);
+        service.setInitialConcurrencyLimit(1);
+        service.setMaxConcurrencyLimit(1);
+        startServer(service);
+
+        // the poll gives up its slot once it's suspended
+        Future<HttpResponse> polling = blockedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.POLLING_RESOURCE), null);
+        assertTrue(PollingResource.SUSPENDED.tryAcquire(10, TimeUnit.SECONDS));
+        waitForInFlightRequests(0);
+
+        // well before the poll is resumed
+        HttpResponse response = shedClient.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.BASIC_RESOURCE), null).get(10, TimeUnit.SECONDS);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertFalse(polling.isDone());
+
+        HttpResponse polled = polling.get(20, TimeUnit.SECONDS);
+        assertThat(polled.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readStreamToString(polled.getEntity().getContent()), equalTo("success"));
+        assertThat(getInFlightRequests(), equalTo(0));
+    }
+
+    private void waitForQueuedRequests(long count) throws InterruptedException {
+        Counter queuedRequestsCounter = MetricRegistries.getRegistry().counter(MetricRegistries.name("http", Constants.SERVICE_IDENTIFIER, "queued-requests"));
+        long deadline = System.currentTimeMillis() + TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+        while (queuedRequestsCounter.getCount() != count) {
+            assertTrue("timed out waiting for queued requests", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static void waitForInFlightRequests(int count) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TimeUnit.MILLISECONDS.convert(10, TimeUnit.SECONDS);
+
+        while (getInFlightRequests() != count) {
+            assertTrue("timed out waiting for in-flight requests", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    private static int getInFlightRequests() {
+        return (Integer) MetricRegistries.getRegistry().getGauges().get(MetricRegistries.name("http", Constants.SERVICE_IDENTIFIER, "in-flight-requests")).getValue();
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.metrics.MetricRegistries;
+import com.google.common.collect.ImmutableMap;
+import org.junit.After;
+import org.junit.Test;
+
+import java.net.URI;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.sameInstance;
+
+public final class TestRequestUriCache {
+
+    private static final String SERVER_IDENTIFIER = "uri-cache-test";
+
+    private final RoutePriorities routePriorities = new RoutePriorities(ImmutableMap.of("/reports", RequestPriority.BULK));
+    private final RouteMap<EntityReadWindow> entityReadWindows = EntityReadWindow.newRouteMap(new HttpConfiguration());
+
+    @After
+    public void teardown() {
+        MetricRegistries.unregisterMetrics();
+    }
+
+    @Test
+    public void shouldResolveUriAndRouteSettings() {
+        RequestUriCache cache = new RequestUriCache(SERVER_IDENTIFIER, routePriorities, entityReadWindows, NonBlockingRoutes.NONE, 16);
+
+        RequestUriCache.ResolvedUri resolved = cache.resolve("/reports/2015");
+
+        assertThat(resolved.getUri(), equalTo(URI.create("/reports/2015")));
+        assertThat(resolved.getPriority(), equalTo(RequestPriority.BULK));
+        assertThat(resolved.getEntityReadWindow(), sameInstance(entityReadWindows.get("/reports/2015")));
+    }
+
+    @Test
+    public void shouldUsePathToFindRouteSettings() {
+        RequestUriCache cache = new RequestUriCache(SERVER_IDENTIFIER, routePriorities, entityReadWindows, NonBlockingRoutes.NONE, 16);
+
+        RequestUriCache.ResolvedUri resolved = cache.resolve("http://localhost:8080/reports?path=/basic");
+
+        assertThat(resolved.getUri(), equalTo(URI.create("http://localhost:8080/reports?path=/basic")));
+        assertThat(resolved.getPriority(), equalTo(RequestPriority.BULK));
+    }
+
+    @Test
+    public void shouldReuseResolvedUri() {
+        RequestUriCache cache = new RequestUriCache(SERVER_IDENTIFIER, routePriorities, entityReadWindows, NonBlockingRoutes.NONE, 16);
+
+        RequestUriCache.ResolvedUri first = cache.resolve("/basic");
+        RequestUriCache.ResolvedUri second = cache.resolve("/basic");
+
+        assertThat(second, sameInstance(first));
+        assertThat(getCount("hits"), equalTo(1L));
+        assertThat(getCount("misses"), equalTo(1L));
+    }
+
+    @Test
+    public void shouldShareRouteSettingsAcrossQueryStrings() {
+        RequestUriCache cache = new RequestUriCache(SERVER_IDENTIFIER, routePriorities, entityReadWindows, NonBlockingRoutes.NONE, 16);
+
+        RequestUriCache.ResolvedUri first = cache.resolve("/reports?id=1");
+        RequestUriCache.ResolvedUri second = cache.resolve("/reports?id=2");
+        RequestUriCache.ResolvedUri third = cache.resolve("/reports?id=2");
+
+        assertThat(first.getUri(), equalTo(URI.create("/reports?id=1")));
+        assertThat(second.getUri(), equalTo(URI.create("/reports?id=2")));
+        assertThat(second.getPriority(), equalTo(RequestPriority.BULK));
+        assertThat(third, not(sameInstance(second)));
+        assertThat(getCount("hits"), equalTo(2L));
+        assertThat(getCount("misses"), equalTo(1L));
+    }
+
+    @Test
+    public void shouldNotCacheIfDisabled() {
+        RequestUriCache cache = new RequestUriCache(SERVER_IDENTIFIER, routePriorities, entityReadWindows, NonBlockingRoutes.NONE, 0);
+
+        cache.resolve("/basic");
+        cache.resolve("/basic");
+
+        assertThat(getCount("hits"), equalTo(0L));
+        assertThat(getCount("misses"), equalTo(0L));
+    }
+
+    @Test
+    public void shouldEvictEntriesOnceFull() {
+        RequestUriCache cache = new RequestUriCache(SERVER_IDENTIFIER, routePriorities, entityReadWindows, NonBlockingRoutes.NONE, 1);
+
+        cache.resolve("/first");
+        cache.resolve("/second");
+        cache.resolve("/first");
+
+        assertThat(getCount("hits"), equalTo(0L));
+        assertThat(getCount("misses"), equalTo(3L));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldThrowIfUriIsInvalid() {
+        new RequestUriCache(SERVER_IDENTIFIER, routePriorities, entityReadWindows, NonBlockingRoutes.NONE, 16).resolve("/bad path");
+    }
+
+    private static long getCount(String meter) {
+        return MetricRegistries.getRegistry().meter(MetricRegistries.name("http", SERVER_IDENTIFIER, "uri-cache", meter)).getCount();
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public final class TestResponseBufferSizer {
+
+    private static final Object ROUTE = new Object();
+
+    @Test
+    public void shouldUseConfiguredBufferSizeIfNotAdaptive() {
+        ResponseBufferSizer sizer = new ResponseBufferSizer(8192, 65536, false);
+
+        sizer.record(ROUTE, 100);
+
+        assertThat(sizer.getBufferSize(ROUTE), equalTo(8192));
+        assertThat(sizer.getBufferSize(null), equalTo(8192));
+    }
+
+    @Test
+    public void shouldUseConfiguredBufferSizeForUnknownRoute() {
+        ResponseBufferSizer sizer = new ResponseBufferSizer(8192, 65536, true);
+
+        sizer.record(ROUTE, 100);
+
+        assertThat(sizer.getBufferSize(new Object()), equalTo(8192));
+        assertThat(sizer.getBufferSize(null), equalTo(8192));
+    }
+
+    @Test
+    public void shouldSizeBuffersToTypicalResponseSizeForRoute() {
+        ResponseBufferSizer sizer = new ResponseBufferSizer(8192, 65536, true);
+
+        // rounded up to a power of two
+        sizer.record(ROUTE, 3000);
+        assertThat(sizer.getBufferSize(ROUTE), equalTo(4096));
+
+        // never smaller than the minimum
+        ResponseBufferSizer tiny = new ResponseBufferSizer(8192, 65536, true);
+        tiny.record(ROUTE, 10);
+        assertThat(tiny.getBufferSize(ROUTE), equalTo(256));
+    }
+
+    @Test
+    public void shouldMoveTowardsRecentResponseSizes() {
+        ResponseBufferSizer sizer = new ResponseBufferSizer(8192, 65536, true);
+
+        sizer.record(ROUTE, 1000);
+        for (int i = 0; i < 20; i++) {
+            sizer.record(ROUTE, 30000);
+        }
+
+        assertThat(sizer.getBufferSize(ROUTE), equalTo(32768));
+    }
+
+    @Test
+    public void shouldNotExceedMaxBufferedBytes() {
+        ResponseBufferSizer sizer = new ResponseBufferSizer(8192, 50000, true);
+
+        sizer.record(ROUTE, 10 * 1024 * 1024);
+
+        assertThat(sizer.getBufferSize(ROUTE), equalTo(50000));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectBufferSizeLargerThanMaxBufferedBytes() {
+        new ResponseBufferSizer(65536, 8192, false);
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.google.common.collect.Lists;
+import com.google.common.net.HttpHeaders;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.annotation.Nullable;
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.URI;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.startsWith;
+
+public final class TestResponseCompression {
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(CompressionResource.class);
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @Before
+    public void setup() throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setResponseCompression(true);
+        service.setMaxPooledDeflaters(1);
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldCompressStreamedEntityWithGzip() throws Exception {
+        HttpResponse response = get("large", "gzip, deflate");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue(), equalTo("gzip"));
+        assertThat(response.getFirstHeader(HttpHeaders.VARY).getValue(), equalTo(HttpHeaders.ACCEPT_ENCODING));
+        assertThat(readString(new GZIPInputStream(response.getEntity().getContent())), equalTo(CompressionResource.LARGE_TEXT));
+    }
+
+    @Test
+    public void shouldCompressBufferedEntityWithDeflate() throws Exception {
+        HttpResponse response = get("medium", "gzip;q=0.5, deflate");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue(), equalTo("deflate"));
+        assertThat(readString(new InflaterInputStream(response.getEntity().getContent())), equalTo(CompressionResource.MEDIUM_TEXT));
+    }
+
+    @Test
+    public void shouldReuseDeflatersAcrossResponses() throws Exception {
+        for (int i = 0; i < 3; i++) {
+            HttpResponse response = get(i % 2 == 0 ? "large" : "medium", "gzip");
+
+            assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue(), equalTo("gzip"));
+            assertThat(readString(new GZIPInputStream(response.getEntity().getContent())), equalTo(i % 2 == 0 ? CompressionResource.LARGE_TEXT : CompressionResource.MEDIUM_TEXT));
+        }
+    }
+
+    @Test
+    public void shouldNotCompressIfClientDoesNotAcceptEncoding() throws Exception {
+        HttpResponse response = get("large", null);
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(response.getFirstHeader(HttpHeaders.VARY).getValue(), equalTo(HttpHeaders.ACCEPT_ENCODING));
+        assertThat(readString(response.getEntity().getContent()), equalTo(CompressionResource.LARGE_TEXT));
+
+        response = get("large", "gzip;q=0, identity");
+
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(readString(response.getEntity().getContent()), equalTo(CompressionResource.LARGE_TEXT));
+    }
+
+    @Test
+    public void shouldNotCompressSmallEntity() throws Exception {
+        HttpResponse response = get("small", "gzip");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(response.getFirstHeader(HttpHeaders.VARY), nullValue());
+        assertThat(readString(response.getEntity().getContent()), equalTo(CompressionResource.SMALL_TEXT));
+    }
+
+    @Test
+    public void shouldNotCompressIncompressibleContentType() throws Exception {
+        HttpResponse response = get("binary", "gzip");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(readString(response.getEntity().getContent()), equalTo(CompressionResource.LARGE_TEXT));
+    }
+
+    @Test
+    public void shouldMergeAcceptEncodingIntoVaryHeaderSetByResource() throws Exception {
+        HttpResponse response = get("vary", "gzip", HttpHeaders.ACCEPT_LANGUAGE);
+
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue(), equalTo("gzip"));
+        assertThat(response.getHeaders(HttpHeaders.VARY).length, equalTo(1));
+        assertThat(response.getFirstHeader(HttpHeaders.VARY).getValue(), equalTo(HttpHeaders.ACCEPT_LANGUAGE + ", " + HttpHeaders.ACCEPT_ENCODING));
+        assertThat(readString(new GZIPInputStream(response.getEntity().getContent())), equalTo(CompressionResource.MEDIUM_TEXT));
+    }
+
+    @Test
+    public void shouldNotDuplicateAcceptEncodingInVaryHeaderSetByResource() throws Exception {
+        HttpResponse response = get("vary", "gzip", "accept-encoding, " + HttpHeaders.ACCEPT_LANGUAGE);
+
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue(), equalTo("gzip"));
+        assertThat(response.getHeaders(HttpHeaders.VARY).length, equalTo(1));
+        assertThat(response.getFirstHeader(HttpHeaders.VARY).getValue(), equalTo("accept-encoding, " + HttpHeaders.ACCEPT_LANGUAGE));
+    }
+
+    @Test
+    public void shouldNotCompressResponseToHead() throws Exception {
+        URI serviceUri = URI.create(ServiceConfiguration.SERVICE_URL);
+        String path = "/" + Resources.COMPRESSION_RESOURCE;
+
+        try (Socket socket = new Socket()) {
+            socket.setSoTimeout(10000);
+            socket.connect(new InetSocketAddress(serviceUri.getHost(), serviceUri.getPort()));
+
+            OutputStream out = socket.getOutputStream();
+            out.write(("HEAD " + path + "/medium HTTP/1.1\r\nHost: " + serviceUri.getAuthority() + "\r\nAccept-Encoding: gzip\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.write(("GET " + path + "/small HTTP/1.1\r\nHost: " + serviceUri.getAuthority() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.getInputStream(), StandardCharsets.ISO_8859_1));
+            assertThat(reader.readLine(), equalTo("HTTP/1.1 200 OK"));
+
+            List<String> headers = Lists.newArrayList();
+            String line;
+            while (!(line = reader.readLine()).isEmpty()) {
+                headers.add(line.toLowerCase(Locale.ENGLISH));
+            }
+
+            assertThat(headers, hasItem("vary: accept-encoding"));
+            assertThat(headers, hasItem("content-length: " + CompressionResource.MEDIUM_TEXT.length()));
+            assertThat(headers, not(hasItem(startsWith("content-encoding"))));
+            assertThat(headers, not(hasItem(startsWith("transfer-encoding"))));
+
+            // the HEAD response has no body, so the
+            // GET response starts right after its headers
+            assertThat(reader.readLine(), equalTo("HTTP/1.1 200 OK"));
+        }
+    }
+
+    @Test
+    public void shouldSendPrecompressedVariant() throws Exception {
+        HttpResponse response = get("precompressed", "deflate, gzip");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING).getValue(), equalTo("gzip"));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(CompressionResource.PRECOMPRESSED_GZIP));
+    }
+
+    @Test
+    public void shouldSendPrecompressedEntityIdentityIfClientDoesNotAcceptVariants() throws Exception {
+        HttpResponse response = get("precompressed", "br");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(response.getFirstHeader(HttpHeaders.CONTENT_ENCODING), nullValue());
+        assertThat(response.getHeaders(HttpHeaders.VARY).length, equalTo(1));
+        assertThat(HttpUtils.readStreamToBytes(response.getEntity().getContent()), equalTo(CompressionResource.PRECOMPRESSED_IDENTITY));
+    }
+
+    private HttpResponse get(String path, @Nullable String acceptEncoding) throws Exception {
+        return get(path, acceptEncoding, null);
+    }
+
+    private HttpResponse get(String path, @Nullable String acceptEncoding, @Nullable String vary) throws Exception {
+        HttpGet get = new HttpGet(ServiceConfiguration.SERVICE_URL + "/" + Resources.COMPRESSION_RESOURCE + "/" + path);
+        if (acceptEncoding != null) {
+            get.setHeader(HttpHeaders.ACCEPT_ENCODING, acceptEncoding);
+        }
+        if (vary != null) {
+            get.setHeader("X-Vary", vary);
+        }
+
+        Future<HttpResponse> future = client.getClient().execute(get, null);
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    private static String readString(InputStream in) throws Exception {
+        return new String(HttpUtils.readStreamToBytes(in), StandardCharsets.UTF_8);
+    }
+}
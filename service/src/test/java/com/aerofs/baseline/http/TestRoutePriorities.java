@@ -0,0 +1,68 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+public final class TestRoutePriorities {
+
+    private final RoutePriorities routePriorities = new RoutePriorities(ImmutableMap.of(
+            "/reports", RequestPriority.BULK,
+            "/reports/summary/", RequestPriority.INTERACTIVE,
+            "upload", RequestPriority.BULK));
+
+    @Test
+    public void shouldReturnNormalPriorityForUnmappedPath() {
+        assertThat(routePriorities.getPriority("/"), equalTo(RequestPriority.NORMAL));
+        assertThat(routePriorities.getPriority("/basic"), equalTo(RequestPriority.NORMAL));
+        assertThat(new RoutePriorities(ImmutableMap.of()).getPriority("/reports"), equalTo(RequestPriority.NORMAL));
+    }
+
+    @Test
+    public void shouldMatchPathPrefixOnSegmentBoundaries() {
+        assertThat(routePriorities.getPriority("/reports"), equalTo(RequestPriority.BULK));
+        assertThat(routePriorities.getPriority("/reports/"), equalTo(RequestPriority.BULK));
+        assertThat(routePriorities.getPriority("/reports/2015/01"), equalTo(RequestPriority.BULK));
+        assertThat(routePriorities.getPriority("/reportsarchive"), equalTo(RequestPriority.NORMAL));
+        assertThat(routePriorities.getPriority("/upload/file"), equalTo(RequestPriority.BULK));
+    }
+
+    @Test
+    public void shouldUseLongestMatchingPrefix() {
+        assertThat(routePriorities.getPriority("/reports/summary"), equalTo(RequestPriority.INTERACTIVE));
+        assertThat(routePriorities.getPriority("/reports/summary/today"), equalTo(RequestPriority.INTERACTIVE));
+        assertThat(routePriorities.getPriority("/reports/summaryold"), equalTo(RequestPriority.BULK));
+    }
+
+    @Test
+    public void shouldIgnoreQueryString() {
+        assertThat(routePriorities.getPriority("/reports?year=2015"), equalTo(RequestPriority.BULK));
+        assertThat(routePriorities.getPriority("/basic?path=/reports"), equalTo(RequestPriority.NORMAL));
+    }
+
+    @Test
+    public void shouldMatchRootCatchAll() {
+        RoutePriorities catchAll = new RoutePriorities(ImmutableMap.of("/", RequestPriority.BULK, "/ping", RequestPriority.INTERACTIVE));
+
+        assertThat(catchAll.getPriority("/anything"), equalTo(RequestPriority.BULK));
+        assertThat(catchAll.getPriority("/ping"), equalTo(RequestPriority.INTERACTIVE));
+    }
+}
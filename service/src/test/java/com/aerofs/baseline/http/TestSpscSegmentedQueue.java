@@ -0,0 +1,100 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public final class TestSpscSegmentedQueue {
+
+    private final SpscSegmentedQueue<Integer> queue = new SpscSegmentedQueue<>();
+
+    @Test
+    public void shouldBeEmptyInitially() {
+        assertTrue(queue.isEmpty());
+        assertThat(queue.poll(), nullValue());
+    }
+
+    @Test
+    public void shouldReturnElementsInOrderAcrossSegments() {
+        for (int i = 0; i < 100; i++) {
+            queue.offer(i);
+        }
+
+        assertFalse(queue.isEmpty());
+
+        for (int i = 0; i < 100; i++) {
+            assertThat(queue.poll(), equalTo(i));
+        }
+
+        assertTrue(queue.isEmpty());
+        assertThat(queue.poll(), nullValue());
+    }
+
+    @Test
+    public void shouldAllowInterleavedOfferAndPoll() {
+        for (int i = 0; i < 100; i++) {
+            queue.offer(i);
+            assertThat(queue.poll(), equalTo(i));
+            assertTrue(queue.isEmpty());
+        }
+    }
+
+    @Test
+    public void shouldHandOffElementsInOrderBetweenThreads() throws Exception {
+        int count = 1000000;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < count; i++) {
+                queue.offer(i);
+            }
+        });
+
+        Thread consumer = new Thread(() -> {
+            try {
+                int expected = 0;
+                while (expected < count) {
+                    Integer element = queue.poll();
+                    if (element != null) {
+                        assertThat(element, equalTo(expected));
+                        expected++;
+                    }
+                }
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        });
+
+        consumer.start();
+        producer.start();
+
+        producer.join(30000);
+        consumer.join(30000);
+
+        assertThat(failure.get(), nullValue());
+        assertFalse(consumer.isAlive());
+        assertTrue(queue.isEmpty());
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.aerofs.baseline.metrics.MetricRegistries;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.inject.Singleton;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.lessThan;
+
+public final class TestSuspendTimeouts {
+
+    @Singleton
+    @Path("/suspend")
+    public static final class SuspendResource {
+
+        @GET
+        @Path("/expire")
+        public void expire(@Suspended AsyncResponse response) {
+            response.setTimeout(250, TimeUnit.MILLISECONDS);
+        }
+
+        @GET
+        @Path("/resume")
+        public void resume(@Suspended AsyncResponse response) {
+            response.setTimeout(1, TimeUnit.MINUTES);
+            response.setTimeout(2, TimeUnit.MINUTES);
+            response.setTimeout(3, TimeUnit.MINUTES);
+
+            // only the last timeout should remain
+            long pending = getPendingTimeouts();
+            ForkJoinPool.commonPool().execute(() -> response.resume(String.valueOf(pending)));
+        }
+
+        @GET
+        @Path("/indefinite")
+        public void indefinite(@Suspended AsyncResponse response) {
+            response.setTimeout(1, TimeUnit.MINUTES);
+            response.setTimeout(AsyncResponse.NO_TIMEOUT, TimeUnit.MILLISECONDS);
+
+            long pending = getPendingTimeouts();
+            ForkJoinPool.commonPool().execute(() -> response.resume(String.valueOf(pending)));
+        }
+    }
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(SuspendResource.class);
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @Before
+    public void setup() throws Exception {
+        server.runWithConfiguration(ServiceConfiguration.TEST_CONFIGURATION);
+    }
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldRespondWithServiceUnavailableWhenSuspendTimeoutExpires() throws Exception {
+        long startTime = System.currentTimeMillis();
+        HttpResponse response = get("/suspend/expire");
+        long finishTime = System.currentTimeMillis();
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_SERVICE_UNAVAILABLE));
+        assertThat(finishTime - startTime, lessThan(5000L));
+        assertThat(getPendingTimeouts(), equalTo(0L));
+    }
+
+    @Test
+    public void shouldCancelReplacedAndOutstandingTimeoutsWhenRequestIsResumed() throws Exception {
+        HttpResponse response = get("/suspend/resume");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readResponseEntityToString(response), equalTo("1"));
+        assertThatNoTimeoutsArePending();
+    }
+
+    @Test
+    public void shouldCancelTimeoutWhenSuspendedIndefinitely() throws Exception {
+        HttpResponse response = get("/suspend/indefinite");
+
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readResponseEntityToString(response), equalTo("0"));
+        assertThatNoTimeoutsArePending();
+    }
+
+    private HttpResponse get(String path) throws Exception {
+        Future<HttpResponse> future = client.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + path), null);
+        return future.get(10, TimeUnit.SECONDS);
+    }
+
+    // the response may be received
+    // before the request is cleaned up
+    private static void assertThatNoTimeoutsArePending() throws InterruptedException {
+        for (int i = 0; i < 100 && getPendingTimeouts() != 0; i++) {
+            Thread.sleep(10);
+        }
+
+        assertThat(getPendingTimeouts(), equalTo(0L));
+    }
+
+    private static long getPendingTimeouts() {
+        return MetricRegistries.getRegistry().counter(MetricRegistries.name("http", "svc", "pending-suspend-timeouts")).getCount();
+    }
+}
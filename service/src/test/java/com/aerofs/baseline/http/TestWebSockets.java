@@ -0,0 +1,482 @@
+/*
+ * Copyright 2015 Air Computing Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.aerofs.baseline.http;
+
+import com.aerofs.baseline.Environment;
+import com.aerofs.baseline.Service;
+import com.aerofs.baseline.ServiceConfiguration;
+import com.aerofs.baseline.auth.AuthenticationResult;
+import com.aerofs.baseline.auth.Authenticator;
+import com.google.common.base.Charsets;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.SecurityContext;
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketException;
+import java.net.URI;
+import java.security.Principal;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertTrue;
+
+public final class TestWebSockets {
+
+    private static final URI SERVICE_URI = URI.create(ServiceConfiguration.SERVICE_URL);
+    private static final String NETWORK_THREAD = "-nio-work-";
+    private static final String APPLICATION_THREAD = "-requests-";
+    private static final int MAX_MESSAGE_SIZE = 1024;
+
+    private static final int OPCODE_TEXT = 0x1;
+    private static final int OPCODE_BINARY = 0x2;
+    private static final int OPCODE_CLOSE = 0x8;
+    private static final int OPCODE_PING = 0x9;
+    private static final int OPCODE_PONG = 0xA;
+
+    @Path("/echo")
+    public static final class EchoResource {
+
+        @GET
+        public String get() {
+            return "resource";
+        }
+    }
+
+    public static final class EchoEndpoint implements WebSocketEndpoint {
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public void onMessage(WebSocket socket, String message) {
+            socket.send(message);
+        }
+
+        @Override
+        public void onMessage(WebSocket socket, byte[] message) {
+            socket.send(message);
+        }
+
+        @Override
+        public void onClose(WebSocket socket) {
+            closed.countDown();
+        }
+    }
+
+    public static final class ThreadEndpoint implements WebSocketEndpoint {
+
+        @Override
+        public void onMessage(WebSocket socket, String message) {
+            socket.send(Thread.currentThread().getName());
+        }
+    }
+
+    @NonBlocking
+    public static final class NonBlockingThreadEndpoint implements WebSocketEndpoint {
+
+        private volatile String openThread;
+
+        @Override
+        public boolean onOpen(WebSocket socket) {
+            openThread = Thread.currentThread().getName();
+            return true;
+        }
+
+        @Override
+        public void onMessage(WebSocket socket, String message) {
+            socket.send(Thread.currentThread().getName());
+        }
+    }
+
+    // replies to every message with what it knows of the handshake
+    public static final class HandshakeEndpoint implements WebSocketEndpoint {
+
+        @Override
+        public void onMessage(WebSocket socket, String message) {
+            Principal principal = socket.getSecurityContext().getUserPrincipal();
+            socket.send(socket.getHeaders().getFirst("X-Test") + ":" + socket.getQueryParameters().getFirst("q") + ":" + (principal == null ? "anonymous" : principal.getName()));
+        }
+    }
+
+    // only accepts clients that authenticated
+    public static final class RejectingEndpoint implements WebSocketEndpoint {
+
+        private final CountDownLatch closed = new CountDownLatch(1);
+
+        @Override
+        public boolean onOpen(WebSocket socket) {
+            return socket.getSecurityContext().getUserPrincipal() != null;
+        }
+
+        @Override
+        public void onMessage(WebSocket socket, String message) {
+            socket.send(message);
+        }
+
+        @Override
+        public void onClose(WebSocket socket) {
+            closed.countDown();
+        }
+    }
+
+    public static final class TokenAuthenticator implements Authenticator {
+
+        private static final String TOKEN_HEADER = "Token";
+        private static final String USER = "user";
+
+        @Override
+        public String getName() {
+            return "token";
+        }
+
+        @Override
+        public AuthenticationResult authenticate(MultivaluedMap<String, String> headers) {
+            List<String> tokens = headers.get(TOKEN_HEADER);
+
+            if (tokens == null) {
+                return AuthenticationResult.UNSUPPORTED;
+            }
+
+            if (!tokens.equals(Arrays.asList(USER))) {
+                return AuthenticationResult.FAILED;
+            }
+
+            return new AuthenticationResult(AuthenticationResult.Status.SUCCEEDED, new SecurityContext() {
+
+                @Override
+                public Principal getUserPrincipal() {
+                    return () -> USER;
+                }
+
+                @Override
+                public boolean isUserInRole(String role) {
+                    return false;
+                }
+
+                @Override
+                public boolean isSecure() {
+                    return false;
+                }
+
+                @Override
+                public String getAuthenticationScheme() {
+                    return getName();
+                }
+            });
+        }
+    }
+
+    private final EchoEndpoint echoEndpoint = new EchoEndpoint();
+    private final NonBlockingThreadEndpoint nonBlockingEndpoint = new NonBlockingThreadEndpoint();
+    private final RejectingEndpoint rejectingEndpoint = new RejectingEndpoint();
+
+    private final Service<ServiceConfiguration> server = new Service<ServiceConfiguration>("test") {
+
+        @Override
+        public void init(ServiceConfiguration configuration, Environment environment) throws Exception {
+            environment.addResource(EchoResource.class);
+            environment.addWebSocketEndpoint("/echo", echoEndpoint);
+            environment.addWebSocketEndpoint("/thread", new ThreadEndpoint());
+            environment.addWebSocketEndpoint("/nonblocking", nonBlockingEndpoint);
+            environment.addWebSocketEndpoint("/handshake", new HandshakeEndpoint());
+            environment.addWebSocketEndpoint("/rejecting", rejectingEndpoint);
+            environment.addAuthenticator(new TokenAuthenticator());
+        }
+    };
+
+    @Rule
+    public final HttpClientResource client = new HttpClientResource();
+
+    @After
+    public void teardown() {
+        server.shutdown();
+    }
+
+    @Test
+    public void shouldEchoMessagesInOrder() throws Exception {
+        start();
+
+        try (Socket socket = connect("/echo")) {
+            OutputStream out = socket.getOutputStream();
+            DataInputStream in = new DataInputStream(socket.getInputStream());
+
+            for (int i = 0; i < 100; i++) {
+                writeFrame(out, OPCODE_TEXT, ("message-" + i).getBytes(Charsets.UTF_8));
+            }
+
+            for (int i = 0; i < 100; i++) {
+                assertThat(readTextFrame(in), equalTo("message-" + i));
+            }
+
+            byte[] binary = new byte[MAX_MESSAGE_SIZE];
+            ThreadLocalRandom.current().nextBytes(binary);
+            writeFrame(out, OPCODE_BINARY, binary);
+
+            Frame frame = readFrame(in);
+            assertThat(frame.opcode, equalTo(OPCODE_BINARY));
+            assertTrue(Arrays.equals(frame.payload, binary));
+        }
+    }
+
+    @Test
+    public void shouldAnswerPing() throws Exception {
+        start();
+
+        try (Socket socket = connect("/echo")) {
+            writeFrame(socket.getOutputStream(), OPCODE_PING, "ping".getBytes(Charsets.UTF_8));
+
+            Frame frame = readFrame(new DataInputStream(socket.getInputStream()));
+            assertThat(frame.opcode, equalTo(OPCODE_PONG));
+            assertThat(new String(frame.payload, Charsets.UTF_8), equalTo("ping"));
+        }
+    }
+
+    @Test
+    public void shouldCloseSocketWhenClientCloses() throws Exception {
+        start();
+
+        try (Socket socket = connect("/echo")) {
+            writeFrame(socket.getOutputStream(), OPCODE_CLOSE, new byte[] {0x03, (byte) 0xE8}); // 1000
+
+            assertThat(readFrame(new DataInputStream(socket.getInputStream())).opcode, equalTo(OPCODE_CLOSE));
+            assertTrue(echoEndpoint.closed.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void shouldCloseSocketThatSendsOversizedMessage() throws Exception {
+        start();
+
+        try (Socket socket = connect("/echo")) {
+            writeFrame(socket.getOutputStream(), OPCODE_BINARY, new byte[MAX_MESSAGE_SIZE + 1]);
+            assertTrue(isClosedByServer(socket.getInputStream()));
+            assertTrue(echoEndpoint.closed.await(10, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test
+    public void shouldRunEndpointOnApplicationThread() throws Exception {
+        start();
+
+        try (Socket socket = connect("/thread")) {
+            writeFrame(socket.getOutputStream(), OPCODE_TEXT, "thread".getBytes(Charsets.UTF_8));
+            assertThat(readTextFrame(new DataInputStream(socket.getInputStream())), containsString(APPLICATION_THREAD));
+        }
+    }
+
+    @Test
+    public void shouldRunNonBlockingEndpointOnNetworkThread() throws Exception {
+        start();
+
+        try (Socket socket = connect("/nonblocking")) {
+            writeFrame(socket.getOutputStream(), OPCODE_TEXT, "thread".getBytes(Charsets.UTF_8));
+            assertThat(readTextFrame(new DataInputStream(socket.getInputStream())), containsString(NETWORK_THREAD));
+        }
+
+        // an authenticator is registered, and it may block
+        assertThat(nonBlockingEndpoint.openThread, containsString(APPLICATION_THREAD));
+    }
+
+    @Test
+    public void shouldExposeHandshakeToEndpoint() throws Exception {
+        start();
+
+        try (Socket socket = connect("/handshake?q=query", "X-Test: header\r\n")) {
+            writeFrame(socket.getOutputStream(), OPCODE_TEXT, "handshake".getBytes(Charsets.UTF_8));
+            assertThat(readTextFrame(new DataInputStream(socket.getInputStream())), equalTo("header:query:anonymous"));
+        }
+    }
+
+    @Test
+    public void shouldAuthenticateHandshake() throws Exception {
+        start();
+
+        try (Socket socket = connect("/handshake", "Token: user\r\n")) {
+            writeFrame(socket.getOutputStream(), OPCODE_TEXT, "handshake".getBytes(Charsets.UTF_8));
+            assertThat(readTextFrame(new DataInputStream(socket.getInputStream())), equalTo("null:null:user"));
+        }
+
+        try (Socket socket = connect("/rejecting", "Token: user\r\n")) {
+            writeFrame(socket.getOutputStream(), OPCODE_TEXT, "accepted".getBytes(Charsets.UTF_8));
+            assertThat(readTextFrame(new DataInputStream(socket.getInputStream())), equalTo("accepted"));
+        }
+    }
+
+    @Test
+    public void shouldCloseSocketRejectedByEndpoint() throws Exception {
+        start();
+
+        try (Socket socket = connect("/rejecting", "Token: intruder\r\n")) {
+            // the message is never delivered
+            writeFrame(socket.getOutputStream(), OPCODE_TEXT, "rejected".getBytes(Charsets.UTF_8));
+
+            Frame frame = readFrame(new DataInputStream(socket.getInputStream()));
+            assertThat(frame.opcode, equalTo(OPCODE_CLOSE));
+            assertThat(((frame.payload[0] & 0xFF) << 8) | (frame.payload[1] & 0xFF), equalTo(1008));
+            assertTrue(isClosedByServer(socket.getInputStream()));
+        }
+
+        // onClose is only called for accepted sockets
+        assertThat(rejectingEndpoint.closed.getCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldRouteRequestsWithoutUpgradeToResources() throws Exception {
+        start();
+
+        HttpResponse response = client.getClient().execute(new HttpGet(ServiceConfiguration.SERVICE_URL + "/echo"), null).get(10, TimeUnit.SECONDS);
+        assertThat(response.getStatusLine().getStatusCode(), equalTo(HttpStatus.SC_OK));
+        assertThat(HttpUtils.readResponseEntityToString(response), equalTo("resource"));
+    }
+
+    private void start() throws Exception {
+        HttpConfiguration service = ServiceConfiguration.newServiceConfiguration();
+        service.setMaxWebSocketMessageSize(MAX_MESSAGE_SIZE);
+        server.runWithConfiguration(ServiceConfiguration.newTestConfiguration(service));
+    }
+
+    private static Socket connect(String path) throws IOException {
+        return connect(path, "");
+    }
+
+    private static Socket connect(String path, String headers) throws IOException {
+        Socket socket = new Socket();
+        socket.setSoTimeout(10000);
+        socket.connect(new InetSocketAddress(SERVICE_URI.getHost(), SERVICE_URI.getPort()));
+
+        OutputStream out = socket.getOutputStream();
+        out.write(("GET " + path + " HTTP/1.1\r\n"
+                + "Host: " + SERVICE_URI.getAuthority() + "\r\n"
+                + "Upgrade: websocket\r\n"
+                + "Connection: Upgrade\r\n"
+                + "Sec-WebSocket-Key: dGhlIHNhbXBsZSBub25jZQ==\r\n"
+                + "Sec-WebSocket-Version: 13\r\n"
+                + headers + "\r\n").getBytes(Charsets.US_ASCII));
+        out.flush();
+
+        // read the handshake response byte-by-byte
+        // so that no frame bytes are buffered
+        InputStream in = socket.getInputStream();
+        StringBuilder response = new StringBuilder();
+        while (!response.toString().endsWith("\r\n\r\n")) {
+            int read = in.read();
+            if (read == -1) {
+                throw new EOFException("handshake response incomplete:" + response);
+            }
+
+            response.append((char) read);
+        }
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(response.toString().getBytes(Charsets.US_ASCII)), Charsets.US_ASCII));
+        assertThat(reader.readLine(), equalTo("HTTP/1.1 101 Switching Protocols"));
+        assertThat(response.toString(), containsString("s3pPLMBiTxaQ9kYGzzhZRbK+xOo="));
+
+        return socket;
+    }
+
+    // client frames are always masked
+    private static void writeFrame(OutputStream out, int opcode, byte[] payload) throws IOException {
+        byte[] mask = new byte[4];
+        ThreadLocalRandom.current().nextBytes(mask);
+
+        out.write(0x80 | opcode);
+        if (payload.length < 126) {
+            out.write(0x80 | payload.length);
+        } else {
+            out.write(0x80 | 126);
+            out.write(payload.length >>> 8);
+            out.write(payload.length & 0xFF);
+        }
+        out.write(mask);
+
+        byte[] masked = new byte[payload.length];
+        for (int i = 0; i < payload.length; i++) {
+            masked[i] = (byte) (payload[i] ^ mask[i % 4]);
+        }
+        out.write(masked);
+        out.flush();
+    }
+
+    private static final class Frame {
+
+        private final int opcode;
+        private final byte[] payload;
+
+        private Frame(int opcode, byte[] payload) {
+            this.opcode = opcode;
+            this.payload = payload;
+        }
+    }
+
+    // server frames are never masked or fragmented here
+    private static Frame readFrame(DataInputStream in) throws IOException {
+        int opcode = in.readUnsignedByte() & 0x0F;
+        int length = in.readUnsignedByte() & 0x7F;
+        if (length == 126) {
+            length = in.readUnsignedShort();
+        } else if (length == 127) {
+            length = (int) in.readLong();
+        }
+
+        byte[] payload = new byte[length];
+        in.readFully(payload);
+        return new Frame(opcode, payload);
+    }
+
+    private static String readTextFrame(DataInputStream in) throws IOException {
+        Frame frame = readFrame(in);
+        assertThat(frame.opcode, equalTo(OPCODE_TEXT));
+        return new String(frame.payload, Charsets.UTF_8);
+    }
+
+    // the server may or may not send a close
+    // frame before closing the connection
+    private static boolean isClosedByServer(InputStream in) throws IOException {
+        byte[] buffer = new byte[1024];
+        while (true) {
+            try {
+                if (in.read(buffer) == -1) {
+                    return true;
+                }
+            } catch (SocketException e) {
+                return true; // reset
+            }
+        }
+    }
+}